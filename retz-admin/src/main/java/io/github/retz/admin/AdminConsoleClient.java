@@ -70,6 +70,52 @@ public class AdminConsoleClient implements AdminConsoleMXBean, AutoCloseable {
         }
     }
 
+    @Override
+    public List<String> exportJobs(String keyId, String start, String end, int afterId, int limit) {
+        try {
+            String[] jsons = (String[]) client.invokeOperation(objectName, "exportJobs", keyId, start, end, afterId, limit);
+            return Arrays.asList(jsons);
+        } catch (Exception o) {
+            return Arrays.asList();
+        }
+    }
+
+    @Override
+    public String compactJobs() {
+        try {
+            return (String) client.invokeOperation(objectName, "compactJobs");
+        } catch (Exception o) {
+            return "{}";
+        }
+    }
+
+    @Override
+    public String getCompactionStatus() {
+        try {
+            return (String) client.invokeOperation(objectName, "getCompactionStatus");
+        } catch (Exception o) {
+            return "{}";
+        }
+    }
+
+    @Override
+    public String getOfferStats() {
+        try {
+            return (String) client.invokeOperation(objectName, "getOfferStats");
+        } catch (Exception o) {
+            return "{}";
+        }
+    }
+
+    @Override
+    public String getLocalityStats() {
+        try {
+            return (String) client.invokeOperation(objectName, "getLocalityStats");
+        } catch (Exception o) {
+            return "{}";
+        }
+    }
+
     @Override
     public List<String> listUser() {
         try {
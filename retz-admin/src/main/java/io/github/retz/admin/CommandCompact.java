@@ -0,0 +1,51 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.admin;
+
+import com.beust.jcommander.Parameter;
+import io.github.retz.cli.FileConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CommandCompact implements SubCommand {
+    static final Logger LOG = LoggerFactory.getLogger(CommandCompact.class);
+
+    @Parameter(names = "-status", description = "Only show status of compaction")
+    private boolean status = false;
+
+    @Override
+    public String description() {
+        return "Archive old finished jobs now, or show status of it";
+    }
+
+    @Override
+    public String getName() {
+        return "compact";
+    }
+
+    @Override
+    public int handle(FileConfiguration fileConfig) throws Throwable {
+        try (AdminConsoleClient client = new AdminConsoleClient("localhost", 9999)) {
+            if (status) {
+                LOG.info(client.getCompactionStatus());
+            } else {
+                LOG.info(client.compactJobs());
+            }
+            return 0;
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package io.github.retz.admin;
 
 import com.beust.jcommander.Parameter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.j256.simplejmx.client.JmxClient;
 import io.github.retz.cli.FileConfiguration;
 import org.slf4j.Logger;
@@ -24,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.management.JMException;
 import javax.management.ObjectName;
+import java.io.IOException;
 import java.util.List;
 
 public class CommandUsage implements SubCommand {
@@ -38,9 +41,15 @@ public class CommandUsage implements SubCommand {
     @Parameter(names = "-end", description = "")
     private String end = "9";
 
+    @Parameter(names = "-raw", description = "Export finished jobs as JSON lines to standard output, instead of usage")
+    private boolean raw = false;
+
+    // Jobs per request of export
+    private static final int EXPORT_PAGE = 1024;
+
     @Override
     public String description() {
-        return "Get usage of a user";
+        return "Get hourly usage of a user; time of a job is split across the hours it ran, and the job is counted in the hour it finished";
     }
 
     @Override
@@ -51,6 +60,9 @@ public class CommandUsage implements SubCommand {
     @Override
     public int handle(FileConfiguration fileConfig) throws Throwable {
         try(AdminConsoleClient client = new AdminConsoleClient(new JmxClient("localhost", 9999))) {
+            if (raw) {
+                return export(client);
+            }
             List<String> lines = client.getUsage(id, start, end);
             for(String line: lines) {
                 LOG.info(line);
@@ -58,5 +70,25 @@ public class CommandUsage implements SubCommand {
             return 0;
         }
     }
+
+    // Page through jobs by id, so that neither server nor client holds all of them
+    private int export(AdminConsoleClient client) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        int afterId = 0;
+        List<String> page;
+        do {
+            page = client.exportJobs(id, start, end, afterId, EXPORT_PAGE);
+            for (String line : page) {
+                JsonNode job = mapper.readTree(line);
+                if (!job.has("id")) {
+                    LOG.error(line);
+                    return 1;
+                }
+                System.out.println(line);
+                afterId = job.get("id").asInt();
+            }
+        } while (page.size() == EXPORT_PAGE);
+        return 0;
+    }
 }
 
@@ -47,6 +47,7 @@ public class Launcher {
 
     static {
         SubCommand[] subCommands = {
+                new CommandCompact(),
                 new CommandCreateUser(),
                 new CommandDisableUser(),
                 new CommandEnableUser(),
@@ -23,6 +23,11 @@ import static org.junit.Assert.assertEquals;
 public class LauncherTest {
     @Test
     public void cli() throws Exception {
+        {
+            String[] argv = {"compact", "-status"};
+            Launcher.Configuration conf = Launcher.parseConfiguration(argv);
+            assertEquals("compact", conf.getParsedSubCommand().getName());
+        }
         {
             String[] argv = {"create-user"};
             Launcher.Configuration conf = Launcher.parseConfiguration(argv);
@@ -58,5 +63,10 @@ public class LauncherTest {
             Launcher.Configuration conf = Launcher.parseConfiguration(argv);
             assertEquals("usage", conf.getParsedSubCommand().getName());
         }
+        {
+            String[] argv = {"usage", "-id", "kao", "-raw"};
+            Launcher.Configuration conf = Launcher.parseConfiguration(argv);
+            assertEquals("usage", conf.getParsedSubCommand().getName());
+        }
     }
 }
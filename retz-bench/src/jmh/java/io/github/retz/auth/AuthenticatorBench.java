@@ -0,0 +1,70 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.auth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Signing a request, done for every API call at both client and server, by single and multiple threads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticatorBench {
+    @Param({"/job/1", "/jobs?state=QUEUED&limit=1024"})
+    public String resource;
+
+    private Authenticator authenticator;
+
+    @Setup
+    public void setup() {
+        authenticator = new Authenticator("deadbeef", "cafebabe");
+    }
+
+    @Benchmark
+    public String signature() {
+        return authenticator.signature("GET", "", "Fri, 11 Nov 2016 10:00:00 GMT", resource);
+    }
+
+    // Server threads authenticating requests from the same user concurrently
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public String signatureShared() {
+        return authenticator.signature("GET", "", "Fri, 11 Nov 2016 10:00:00 GMT", resource);
+    }
+
+    // Server threads authenticating requests from different users concurrently
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public String signatureEach(PerThread perThread) {
+        return perThread.authenticator.signature("GET", "", "Fri, 11 Nov 2016 10:00:00 GMT", resource);
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        private Authenticator authenticator;
+
+        @Setup
+        public void setup() {
+            authenticator = new Authenticator("key-" + Thread.currentThread().getId(), "cafebabe");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// A job state transition persisted by each job store; database is H2 on memory
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JobStoreBench {
+    @Param({JobStore.DATABASE, JobStore.JOURNAL})
+    public String storeName;
+
+    private Database db;
+    private JobStore store;
+    private Path dir;
+    private Job job;
+
+    @Setup
+    public void setup() throws Exception {
+        db = Database.newMemInstance("bench-jobstore");
+        User user = db.createUser();
+        db.addApplication(new Application("bench", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), user.keyId(), new MesosContainer(), true));
+        if (JobStore.JOURNAL.equals(storeName)) {
+            dir = Files.createTempDirectory("retz-bench-journal");
+            JournalJobStore journal = new JournalJobStore(db, dir, 64 * 1024 * 1024, new RecordCodec(RecordCodec.SMILE));
+            journal.open();
+            store = journal;
+        } else {
+            store = db;
+        }
+        job = new Job("bench", "sleep 10", new Properties(), 2, 1024);
+        job.schedule(store.allocateJobIds(1), System.currentTimeMillis());
+        store.safeAddJob(job);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store instanceof JournalJobStore) {
+            ((JournalJobStore) store).close();
+            for (File file : dir.toFile().listFiles()) {
+                file.delete();
+            }
+            dir.toFile().delete();
+        }
+        db.clear();
+        db.stop();
+    }
+
+    @Benchmark
+    public boolean updateJob() throws Exception {
+        return store.updateJobIfState(job, Job.JobState.QUEUED);
+    }
+
+    @Benchmark
+    public Optional<Job> getJob() throws Exception {
+        return store.getJob(job.id());
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Encoding of Job and Application records in database by each codec.
+// Row sizes are printed at setup, as JMH only reports time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordCodecBench {
+    @Param({RecordCodec.JSON, RecordCodec.SMILE})
+    public String codecName;
+
+    @Param({"0", "16"})
+    public int envs;
+
+    private RecordCodec codec;
+    private Job job;
+    private Application app;
+    private byte[] jobBytes;
+    private byte[] appBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = new RecordCodec(codecName);
+
+        Properties props = new Properties();
+        for (int i = 0; i < envs; ++i) {
+            props.setProperty("ENV" + i, "value-" + i);
+        }
+        job = new Job("bench", "sleep 10 && echo $ENV0", props, 2, 1024, 0, 4);
+        job.schedule(42, System.currentTimeMillis());
+        job.starting("retz-bench-id-42", Optional.empty(), System.currentTimeMillis());
+        app = new Application("bench", Arrays.asList("http://example.com/persistent.tar.gz"),
+                Arrays.asList("http://example.com/large.tar.gz"), Arrays.asList("http://example.com/small.tar.gz"),
+                Optional.of(1024), Optional.empty(), "bench", new MesosContainer(), true);
+
+        jobBytes = codec.encode(job);
+        appBytes = codec.encode(app);
+        System.out.printf("%n%s (envs=%d): job=%d bytes, application=%d bytes%n",
+                codecName, envs, jobBytes.length, appBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJob() throws IOException {
+        return codec.encode(job);
+    }
+
+    @Benchmark
+    public Job decodeJob() throws IOException {
+        return codec.decode(jobBytes, Job.class);
+    }
+
+    @Benchmark
+    public byte[] encodeApplication() throws IOException {
+        return codec.encode(app);
+    }
+
+    @Benchmark
+    public Application decodeApplication() throws IOException {
+        return codec.decode(appBytes, Application.class);
+    }
+}
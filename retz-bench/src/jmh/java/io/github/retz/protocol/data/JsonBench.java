@@ -0,0 +1,83 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Jackson (de)serialisation of Job, as stored in database, and MetaJob, as sent to clients
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBench {
+    @Param({"0", "16"})
+    public int envs;
+
+    private ObjectMapper mapper;
+    private Job job;
+    private MetaJob metaJob;
+    private String jobJson;
+    private String metaJobJson;
+
+    @Setup
+    public void setup() throws IOException {
+        mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+
+        Properties props = new Properties();
+        for (int i = 0; i < envs; ++i) {
+            props.setProperty("ENV" + i, "value-" + i);
+        }
+        job = new Job("bench", "sleep 10 && echo $ENV0", props, 2, 1024, 0, 4);
+        job.schedule(42, System.currentTimeMillis());
+        job.starting("retz-bench-id-42", Optional.empty(), System.currentTimeMillis());
+        Application app = new Application("bench", Arrays.asList("http://example.com/persistent.tar.gz"),
+                Arrays.asList("http://example.com/large.tar.gz"), Arrays.asList("http://example.com/small.tar.gz"),
+                Optional.of(1024), Optional.empty(), "bench", new MesosContainer(), true);
+        metaJob = new MetaJob(job, app);
+
+        jobJson = mapper.writeValueAsString(job);
+        metaJobJson = mapper.writeValueAsString(metaJob);
+    }
+
+    @Benchmark
+    public String writeJob() throws IOException {
+        return mapper.writeValueAsString(job);
+    }
+
+    @Benchmark
+    public Job readJob() throws IOException {
+        return mapper.readValue(jobJson, Job.class);
+    }
+
+    @Benchmark
+    public String writeMetaJob() throws IOException {
+        return mapper.writeValueAsString(metaJob);
+    }
+
+    @Benchmark
+    public MetaJob readMetaJob() throws IOException {
+        return mapper.readValue(metaJobJson, MetaJob.class);
+    }
+}
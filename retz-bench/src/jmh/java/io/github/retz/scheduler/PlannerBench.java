@@ -0,0 +1,85 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Planner.plan with offers and jobs chosen from the queue as JobQueue.findFit does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlannerBench {
+    @Param({"naive", "bestfit"})
+    public String planner;
+
+    @Param({"1", "16", "128"})
+    public int offers;
+
+    @Param({"16", "256", "4096"})
+    public int queue;
+
+    @Param({"0", "4"})
+    public int ports;
+
+    private Planner p;
+    private List<Protos.Offer> offerList;
+    private List<AppJobPair> jobs;
+
+    @Setup
+    public void setup() {
+        p = PlannerFactory.create(planner, false);
+        Application app = new Application("bench", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "bench", new MesosContainer(), true);
+        offerList = new ArrayList<>(offers);
+        Resource total = new Resource(0, 0, 0);
+        for (int i = 0; i < offers; ++i) {
+            Protos.Offer offer = ResourceBench.offer("offer-" + i, 32, 65536, 1, 1000);
+            offerList.add(offer);
+            total.add(ResourceConstructor.decode(offer.getResourcesList()));
+        }
+
+        Random random = new Random(queue);
+        jobs = new ArrayList<>();
+        int cpu = 0, memMB = 0, portAmount = 0;
+        for (int i = 0; i < queue; ++i) {
+            Job job = new Job(app.getAppid(), "cmd", new Properties(),
+                    1 + random.nextInt(4), 256 << random.nextInt(4), 0, ports);
+            job.schedule(i, System.currentTimeMillis());
+            if (cpu + job.cpu() > total.cpu() || memMB + job.memMB() > total.memMB()
+                    || portAmount + job.ports() > total.portAmount()) {
+                break;
+            }
+            cpu += job.cpu();
+            memMB += job.memMB();
+            portAmount += job.ports();
+            jobs.add(new AppJobPair(Optional.of(app), job));
+        }
+    }
+
+    @Benchmark
+    public Plan plan() {
+        // NaivePlanner consumes the list
+        return p.plan(offerList, new LinkedList<>(jobs), 16);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Range;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Decoding offered resources, merging and cutting them, by the number of port ranges
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResourceBench {
+    @Param({"1", "16", "256"})
+    public int ranges;
+
+    @Param({"10", "1000"})
+    public int width;
+
+    private Protos.Offer offer;
+    private Resource resource;
+    private List<Range> others;
+    private int lastMin;
+
+    static Protos.Offer offer(String id, int cpus, int memMB, int ranges, int width) {
+        List<Protos.Resource> resources = ResourceConstructor.construct(cpus, memMB);
+        Protos.Value.Ranges.Builder builder = Protos.Value.Ranges.newBuilder();
+        for (int i = 0; i < ranges; ++i) {
+            // Leave a gap between ranges as agents often do
+            int begin = 31000 + i * width * 2;
+            builder.addRange(Protos.Value.Range.newBuilder().setBegin(begin).setEnd(begin + width - 1));
+        }
+        resources.add(Protos.Resource.newBuilder()
+                .setName("ports")
+                .setRanges(builder)
+                .setType(Protos.Value.Type.RANGES)
+                .build());
+        return Protos.Offer.newBuilder()
+                .addAllResources(resources)
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + id))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("bench"))
+                .setHostname("bench")
+                .setId(Protos.OfferID.newBuilder().setValue(id))
+                .build();
+    }
+
+    @Setup
+    public void setup() {
+        offer = offer("bench", 32, 65536, ranges, width);
+        resource = ResourceConstructor.decode(offer.getResourcesList());
+        others = new ArrayList<>(ranges);
+        for (Range range : resource.ports()) {
+            // In the gaps, not to overlap
+            others.add(new Range(range.getMax() + 1, range.getMax() + width));
+            lastMin = range.getMin();
+        }
+    }
+
+    @Benchmark
+    public Resource decode() {
+        return ResourceConstructor.decode(offer.getResourcesList());
+    }
+
+    @Benchmark
+    public Resource merge() {
+        Resource lhs = new Resource(1, 128, 0, 0, new LinkedList<>(resource.ports()));
+        lhs.merge(new Resource(1, 128, 0, 0, new LinkedList<>(others)));
+        return lhs;
+    }
+
+    @Benchmark
+    public Resource cutHead() {
+        return resource.cut(1, 128, 0, width / 2, 0);
+    }
+
+    @Benchmark
+    public Resource cutTail() {
+        // Skips all ranges but the last one
+        return resource.cut(1, 128, 0, width / 2, lastMin);
+    }
+}
@@ -18,6 +18,7 @@ package io.github.retz.cli;
 
 import com.beust.jcommander.Parameter;
 import io.github.retz.protocol.ErrorResponse;
+import io.github.retz.protocol.GetArrayResponse;
 import io.github.retz.protocol.GetJobResponse;
 import io.github.retz.protocol.Response;
 import io.github.retz.protocol.data.Job;
@@ -27,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.Map;
 
 public class CommandGetJob implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandGetJob.class);
@@ -63,6 +65,9 @@ public class CommandGetJob implements SubCommand {
                 if (getJobResponse.job().isPresent()) {
                     Job job = getJobResponse.job().get();
                     LOG.info(job.pp());
+                    if (job.arraySize() > 0) {
+                        return printArray(webClient);
+                    }
                     return 0;
 
                 } else {
@@ -81,5 +86,21 @@ public class CommandGetJob implements SubCommand {
         return -1;
 
     }
+
+    private int printArray(Client webClient) throws IOException {
+        Response res = webClient.getArray(id);
+        if (!(res instanceof GetArrayResponse)) {
+            LOG.error("Error: {}", res.status());
+            return -1;
+        }
+        GetArrayResponse getArrayResponse = (GetArrayResponse) res;
+        StringBuilder sb = new StringBuilder("Tasks: pending=").append(getArrayResponse.pending());
+        for (Map.Entry<Job.JobState, Integer> e : getArrayResponse.tasks().entrySet()) {
+            sb.append(", ").append(e.getKey()).append("=").append(e.getValue());
+        }
+        sb.append(", archived=").append(getArrayResponse.archived());
+        LOG.info(sb.toString());
+        return 0;
+    }
 }
 
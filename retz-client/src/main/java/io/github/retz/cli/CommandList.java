@@ -16,7 +16,9 @@
  */
 package io.github.retz.cli;
 
+import com.beust.jcommander.Parameter;
 import io.github.retz.protocol.ErrorResponse;
+import io.github.retz.protocol.ListJobRequest;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.ListJobResponse;
 import io.github.retz.protocol.Response;
@@ -28,12 +30,28 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 
 public class CommandList implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandList.class);
 
     public final String NAME = "list";
-    public final String DESCRIPTION = "list all jobs";
+    public final String DESCRIPTION = "list jobs from the newest";
+
+    @Parameter(names = "-limit", description = "Maximum number of jobs to list, also capped by server")
+    int limit = 64;
+    @Parameter(names = "-before", description = "List jobs older than this job id, to see the next page")
+    int before = 0;
+    @Parameter(names = "-since", description = "List jobs newer than this job id")
+    int since = 0;
+    @Parameter(names = "-state", description = "List jobs only in this state (QUEUED, STARTING, STARTED, FINISHED, KILLED or EXPANDED)")
+    Job.JobState state;
+    @Parameter(names = {"-A", "--appname"}, description = "List jobs only of this application")
+    String appName;
+    @Parameter(names = "-from", description = "List jobs finished at or after this time, like 2016-11-01T00:00:00.000+09:00")
+    String from;
+    @Parameter(names = "-to", description = "List jobs finished before this time")
+    String to;
 
     @Override
     public String description() {
@@ -50,7 +68,9 @@ public class CommandList implements SubCommand {
                 .checkCert(fileConfig.checkCert())
                 .build()) {
 
-            Response res = webClient.list(64); // TODO: make this CLI argument
+            ListJobRequest req = new ListJobRequest(limit, before, since, Optional.ofNullable(state),
+                    Optional.ofNullable(appName), Optional.ofNullable(from), Optional.ofNullable(to));
+            Response res = webClient.list(req);
             if (res instanceof ErrorResponse) {
                 LOG.info(res.status());
                 return -1;
@@ -73,11 +93,8 @@ public class CommandList implements SubCommand {
                     reason = "'" + job.reason() + "'";
                 }
                 String duration = "-";
-                if (job.started() != null && job.finished() != null) {
-                    try {
-                        duration = Double.toString(TimestampHelper.diffMillisec(job.finished(), job.started()) / 1000.0);
-                    } catch (java.text.ParseException e) {
-                    }
+                if (job.startedAt() >= 0 && job.finishedAt() >= 0) {
+                    duration = Double.toString((job.finishedAt() - job.startedAt()) / 1000.0);
                 }
                 String result = "-";
                 if (job.state() == Job.JobState.FINISHED ||  job.state() == Job.JobState.KILLED) {
@@ -90,6 +107,9 @@ public class CommandList implements SubCommand {
             for (String line : formatter) {
                 LOG.info(line);
             }
+            if (!jobs.isEmpty() && jobs.size() >= limit) {
+                LOG.info("More jobs may exist; see next page with '-before {}'", jobs.get(0).id());
+            }
             return 0;
         } catch (ConnectException e) {
             LOG.error("Cannot connect to server {}", fileConfig.getUri());
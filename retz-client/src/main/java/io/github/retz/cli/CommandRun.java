@@ -27,7 +27,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.ConnectException;
-import java.text.ParseException;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
@@ -45,6 +44,8 @@ public class CommandRun implements SubCommand {
     int gpu = 0;
     @Parameter(names = "-ports", description = "Number of ports (up to 1000) required to the job; Ports will be given as $PORT0, $PORT1, ...")
     int ports = 0;
+    @Parameter(names = "-priority", description = "Priority of the job; jobs with larger priority run earlier")
+    int priority = 0;
     @Parameter(names = "-stderr", description = "Print stderr after the task finished to standard error")
     boolean stderr = false;
     @Parameter(names = "-cmd", required = true, description = "Remote command")
@@ -71,6 +72,7 @@ public class CommandRun implements SubCommand {
             return -1;
         }
         Job job = new Job(appName, remoteCmd, envProps, cpu, mem, gpu, ports);
+        job.setPriority(priority);
 
         try (Client webClient = Client.newBuilder(fileConfig.getUri())
                 .enableAuthentication(fileConfig.authenticationEnabled())
@@ -104,15 +106,13 @@ public class CommandRun implements SubCommand {
             if (finished.isPresent()) {
                 LOG.debug(finished.get().toString());
                 LOG.info("Job(id={}, cmd='{}') finished in {} seconds. status: {}",
-                        running.id(), job.cmd(), TimestampHelper.diffMillisec(finished.get().finished(), finished.get().started()) / 1000.0,
+                        running.id(), job.cmd(), (finished.get().finishedAt() - finished.get().startedAt()) / 1000.0,
                         finished.get().state());
                 return finished.get().result();
             } else {
                 LOG.error("Failed to fetch last state of job id={}", running.id());
             }
 
-        } catch (ParseException e) {
-            LOG.error(e.toString());
         } catch (ConnectException e) {
             LOG.error("Cannot connect to server {}", fileConfig.getUri());
         } catch (IOException e) {
@@ -46,6 +46,10 @@ public class CommandSchedule implements SubCommand {
     private int mem = 32;
     @Parameter(names = "-gpu", description = "Number of GPU cards assigned to the job in Range")
     private int gpu = 0;
+    @Parameter(names = "-priority", description = "Priority of the job; jobs with larger priority run earlier")
+    private int priority = 0;
+    @Parameter(names = "-array", description = "Number of tasks to run as an array job; each task gets its index as $RETZ_ARRAY_INDEX")
+    private int array = 0;
     @Parameter(names = "-trustpvfiles", description = "Whether to trust decompressed files in persistent volume from -P option")
     private boolean trustPVFiles = false;
 
@@ -64,7 +68,9 @@ public class CommandSchedule implements SubCommand {
         Properties envProps = SubCommand.parseKeyValuePairs(envs);
 
         Job job = new Job(appName, remoteCmd, envProps, cpu, mem, gpu, ports);
+        job.setPriority(priority);
         job.setTrustPVFiles(trustPVFiles);
+        job.setArraySize(array);
 
         try (Client webClient = Client.newBuilder(fileConfig.getUri())
                 .enableAuthentication(fileConfig.authenticationEnabled())
@@ -0,0 +1,137 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.cli;
+
+import com.beust.jcommander.Parameter;
+import io.github.retz.protocol.Response;
+import io.github.retz.protocol.ScheduleBatchRequest;
+import io.github.retz.protocol.ScheduleBatchResponse;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.web.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class CommandScheduleBatch implements SubCommand {
+    static final Logger LOG = LoggerFactory.getLogger(CommandScheduleBatch.class);
+    @Parameter(names = "-file", required = true,
+            description = "File with a remote command per line; empty lines and lines starting with '#' are ignored. '-' for stdin")
+    private String file;
+    @Parameter(names = {"-A", "--appname"}, required = true, description = "Application name you loaded")
+    private String appName;
+    @Parameter(names = {"-E", "--env"}, arity = 2,
+            description = "Pairs of environment variable names and values, like '-E ASAKUSA_M3BP_OPTS='-Xmx32g' -E SPARK_CMD=path/to/spark-cmd'")
+    private List<String> envs;
+    @Parameter(names = "-cpu", description = "Number of CPU cores assigned to each job")
+    private int cpu = 1;
+    @Parameter(names = "-mem", description = "Number of size of RAM(MB) assigned to each job")
+    private int mem = 32;
+    @Parameter(names = "-gpu", description = "Number of GPU cards assigned to each job in Range")
+    private int gpu = 0;
+    @Parameter(names = "-ports", description = "Number of ports (up to 1000) required to each job; Ports will be given as $PORT0, $PORT1, ...")
+    int ports = 0;
+    @Parameter(names = "-priority", description = "Priority of each job; jobs with larger priority run earlier")
+    private int priority = 0;
+    @Parameter(names = "-trustpvfiles", description = "Whether to trust decompressed files in persistent volume from -P option")
+    private boolean trustPVFiles = false;
+
+    @Override
+    public String getName() {
+        return "schedule-batch";
+    }
+
+    @Override
+    public String description() {
+        return "Schedule jobs at once, reading commands from a file";
+    }
+
+    @Override
+    public int handle(ClientCLIConfig fileConfig) {
+        Properties envProps = SubCommand.parseKeyValuePairs(envs);
+
+        List<Job> jobs = new LinkedList<>();
+        try (InputStream in = "-".equals(file) ? System.in : new FileInputStream(file)) {
+            for (String cmd : readCommands(in)) {
+                Job job = new Job(appName, cmd, envProps, cpu, mem, gpu, ports);
+                job.setTrustPVFiles(trustPVFiles);
+                job.setPriority(priority);
+                jobs.add(job);
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot read {}: {}", file, e.toString());
+            return -1;
+        }
+        if (jobs.isEmpty()) {
+            LOG.warn("No command found in {}", file);
+            return 0;
+        }
+
+        try (Client webClient = Client.newBuilder(fileConfig.getUri())
+                .enableAuthentication(fileConfig.authenticationEnabled())
+                .setAuthenticator(fileConfig.getAuthenticator())
+                .checkCert(fileConfig.checkCert())
+                .build()) {
+
+            LOG.info("Sending {} jobs to App {}", jobs.size(), appName);
+            int sent = 0;
+            while (sent < jobs.size()) {
+                int end = Math.min(sent + ScheduleBatchRequest.MAX_JOBS, jobs.size());
+                Response res = webClient.scheduleAll(jobs.subList(sent, end));
+                if (res instanceof ScheduleBatchResponse) {
+                    List<Job> scheduled = ((ScheduleBatchResponse) res).jobs();
+                    for (Job job : scheduled) {
+                        LOG.info("Job (id={}): {} registered at {}", job.id(), job.cmd(), job.scheduled());
+                    }
+                } else {
+                    LOG.error("Error: {} ({} of {} jobs have been scheduled)", res.status(), sent, jobs.size());
+                    return -1;
+                }
+                sent = end;
+            }
+            return 0;
+        } catch (ConnectException e) {
+            LOG.error("Cannot connect to server {}", fileConfig.getUri());
+        } catch (IOException e) {
+            LOG.error(e.toString(), e);
+        }
+        return -1;
+    }
+
+    static List<String> readCommands(InputStream in) throws IOException {
+        List<String> cmds = new LinkedList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String cmd = line.trim();
+            if (!cmd.isEmpty() && !cmd.startsWith("#")) {
+                cmds.add(cmd);
+            }
+        }
+        return cmds;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.cli;
+
+import com.beust.jcommander.Parameter;
+import io.github.retz.protocol.ErrorResponse;
+import io.github.retz.protocol.Response;
+import io.github.retz.protocol.SetPriorityResponse;
+import io.github.retz.web.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+public class CommandSetPriority implements SubCommand {
+    static final Logger LOG = LoggerFactory.getLogger(CommandSetPriority.class);
+
+    @Parameter(names = "-id", description = "ID of a queued job", required = true)
+    private int id;
+
+    @Parameter(names = "-priority", description = "New priority; jobs with larger priority run earlier", required = true)
+    private int priority;
+
+    @Override
+    public String description() {
+        return "Change priority of a queued job";
+    }
+
+    @Override
+    public String getName() {
+        return "set-priority";
+    }
+
+    @Override
+    public int handle(ClientCLIConfig fileConfig) {
+        LOG.debug("Configuration: {}", fileConfig.toString());
+
+        try (Client webClient = Client.newBuilder(fileConfig.getUri())
+                .enableAuthentication(fileConfig.authenticationEnabled())
+                .setAuthenticator(fileConfig.getAuthenticator())
+                .checkCert(fileConfig.checkCert())
+                .build()) {
+
+            Response res = webClient.setPriority(id, priority);
+            if (res instanceof SetPriorityResponse) {
+                SetPriorityResponse setPriorityResponse = (SetPriorityResponse) res;
+                LOG.info("Job id={} priority={}: {}", id, setPriorityResponse.job().priority(), setPriorityResponse.status());
+                return 0;
+
+            } else {
+                ErrorResponse errorResponse = (ErrorResponse) res;
+                LOG.error("Error: {}", errorResponse.status());
+            }
+
+        } catch (ConnectException e) {
+            LOG.error("Cannot connect to server {}", fileConfig.getUri());
+        } catch (IOException e) {
+            LOG.error(e.toString(), e);
+        }
+        return -1;
+    }
+}
@@ -40,10 +40,12 @@ public class Launcher {
         SUB_COMMANDS.add(new CommandConfig());
         SUB_COMMANDS.add(new CommandList());
         SUB_COMMANDS.add(new CommandSchedule());
+        SUB_COMMANDS.add(new CommandScheduleBatch());
         SUB_COMMANDS.add(new CommandGetJob());
         SUB_COMMANDS.add(new CommandGetFile());
         SUB_COMMANDS.add(new CommandListFiles());
         SUB_COMMANDS.add(new CommandKill());
+        SUB_COMMANDS.add(new CommandSetPriority());
         SUB_COMMANDS.add(new CommandRun());
         SUB_COMMANDS.add(new CommandGetApp());
         SUB_COMMANDS.add(new CommandListApp());
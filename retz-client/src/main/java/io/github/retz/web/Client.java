@@ -27,7 +27,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -36,9 +38,14 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -56,21 +63,34 @@ public class Client implements AutoCloseable {
     private final String host;
     private final int port;
     private final Optional<io.github.retz.auth.Authenticator> authenticator;
-    private MessageDigest DIGEST = null; //TODO this could be final, though...
+    // MessageDigest is not thread safe
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("No such algorithm callled MD5.");
+        }
+    });
+    // Threads to run async requests; also bounds the number of requests in flight
+    private final ExecutorService executor;
 
-    protected Client(URI uri, Optional<Authenticator> authenticator) {
+    protected Client(URI uri, Optional<Authenticator> authenticator, int maxInFlight) {
         this.scheme = uri.getScheme();
         this.host = uri.getHost();
         this.port = uri.getPort();
         this.mapper = new ObjectMapper();
         this.mapper.registerModule(new Jdk8Module());
         this.authenticator = authenticator;
+        // Threads are started on demand; no cost unless async requests are used
+        this.executor = Executors.newFixedThreadPool(maxInFlight, r -> {
+            Thread t = new Thread(r, "retz-client-async");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
-        try {
-            DIGEST = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new AssertionError("No such algorithm callled MD5.");
-        }
+    protected Client(URI uri, Optional<Authenticator> authenticator) {
+        this(uri, authenticator, ClientBuilder.DEFAULT_MAX_IN_FLIGHT);
     }
 
     protected Client(URI uri) {
@@ -78,7 +98,11 @@ public class Client implements AutoCloseable {
     }
 
     protected Client(URI uri, Optional<Authenticator> authenticator, boolean checkCert) {
-        this(uri, authenticator);
+        this(uri, authenticator, checkCert, ClientBuilder.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    protected Client(URI uri, Optional<Authenticator> authenticator, boolean checkCert, int maxInFlight) {
+        this(uri, authenticator, maxInFlight);
         if (uri.getScheme().equals("https") && !checkCert) {
             try {
                 WrongTrustManager.disableTLS();
@@ -96,6 +120,7 @@ public class Client implements AutoCloseable {
 
     @Override
     public void close() {
+        executor.shutdown();
     }
 
 
@@ -108,26 +133,16 @@ public class Client implements AutoCloseable {
             LOG.error(e.toString());
             return false;
         }
-        HttpURLConnection conn = null;
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
             conn.setRequestMethod("GET");
             conn.setDoOutput(false);
-            byte[] buffer = {'n', 'g'};
-            int s = conn.getInputStream().read(buffer, 0, 2);
-            if (s < 0) {
-                return false;
-            }
-            String msg = new String(buffer, StandardCharsets.UTF_8);
+            String msg = new String(readFully(conn), StandardCharsets.UTF_8);
             LOG.info(msg);
             return "OK".equals(msg);
         } catch (IOException e) {
             LOG.debug(e.toString());
             return false;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
         }
     }
 
@@ -135,18 +150,37 @@ public class Client implements AutoCloseable {
         return rpc(new ListJobRequest(limit));
     }
 
+    public Response list(ListJobRequest req) throws IOException {
+        return rpc(req);
+    }
+
     public Response schedule(Job job) throws IOException {
         return rpc(new ScheduleRequest(job));
     }
 
+    // Schedule jobs at once, up to ScheduleBatchRequest.MAX_JOBS; all or none are scheduled
+    public Response scheduleAll(List<Job> jobs) throws IOException {
+        return rpc(new ScheduleBatchRequest(jobs));
+    }
+
     public Response getJob(int id) throws IOException {
         return rpc(new GetJobRequest(id));
     }
 
+    // Long poll: the server responds when the job leaves the state, or in wait seconds
+    public Response getJob(int id, Job.JobState state, int wait) throws IOException {
+        return rpc(new GetJobRequest(id, Optional.of(state), wait));
+    }
+
     public Response getFile(int id, String file, int offset, int length) throws IOException {
         return rpc(new GetFileRequest(id, file, offset, length));
     }
 
+    // Long poll: the server responds when some data is at the offset, the job finishes, or in wait seconds
+    public Response getFile(int id, String file, int offset, int length, int wait) throws IOException {
+        return rpc(new GetFileRequest(id, file, offset, length, wait));
+    }
+
     public Response listFiles(int id, String path) throws IOException {
         return rpc(new ListFilesRequest(id, path));
     }
@@ -164,20 +198,24 @@ public class Client implements AutoCloseable {
     }
 
     private Job waitPoll(Job job) throws IOException {
+        Job.JobState state = job.state();
+        int interval = ClientHelper.INITAL_INTERVAL_MSEC;
         do {
-            Response res = rpc(new GetJobRequest(job.id()));
+            long start = System.currentTimeMillis();
+            Response res = getJob(job.id(), state, ClientHelper.WAIT_SECONDS);
             if (res instanceof GetJobResponse) {
                 GetJobResponse getJobResponse = (GetJobResponse) res;
                 if (getJobResponse.job().isPresent()) {
-                    if (getJobResponse.job().get().state() == Job.JobState.FINISHED
-                            || getJobResponse.job().get().state() == Job.JobState.KILLED) {
-
-                        return getJobResponse.job().get();
+                    Job current = getJobResponse.job().get();
+                    if (current.state() == Job.JobState.FINISHED
+                            || current.state() == Job.JobState.KILLED) {
+
+                        return current;
+                    } else if (current.state() != state) {
+                        state = current.state();
+                        interval = ClientHelper.INITAL_INTERVAL_MSEC;
                     } else {
-                        try {
-                            Thread.sleep(1024);
-                        } catch (InterruptedException e) {
-                        }
+                        interval = ClientHelper.backoffIfNotWaited(start, interval);
                     }
                 } else {
                     LOG.error("Job id={} does not exist.", job.id());
@@ -190,10 +228,43 @@ public class Client implements AutoCloseable {
         } while (true);
     }
 
+    // Async variants to keep many requests in flight, up to maxInFlight of ClientBuilder
+    public CompletableFuture<Response> scheduleAsync(Job job) {
+        return async(new ScheduleRequest(job));
+    }
+
+    public CompletableFuture<Response> getJobAsync(int id) {
+        return async(new GetJobRequest(id));
+    }
+
+    public CompletableFuture<Response> getFileAsync(int id, String file, int offset, int length) {
+        return async(new GetFileRequest(id, file, offset, length));
+    }
+
+    private <ReqType extends Request> CompletableFuture<Response> async(ReqType req) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return rpc(req);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
     public Response kill(int id) throws IOException {
         return rpc(new KillRequest(id));
     }
 
+    // Only queued jobs can change priority
+    public Response setPriority(int id, int priority) throws IOException {
+        return rpc(new SetPriorityRequest(id, priority));
+    }
+
+    // Aggregated status of an array job; see Job.setArraySize
+    public Response getArray(int id) throws IOException {
+        return rpc(new GetArrayRequest(id));
+    }
+
     public Response getApp(String appid) throws IOException {
         return rpc(new GetAppRequest(appid));
     }
@@ -219,9 +290,10 @@ public class Client implements AutoCloseable {
         } catch (MalformedURLException e) {
             return new ErrorResponse(e.toString());
         }
-        HttpURLConnection conn = null;
+        // Connections are not disconnected but returned to keep-alive cache of JDK after
+        // reading whole response, to be reused by following requests (and keep TLS sessions)
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
             conn.setRequestMethod(req.method());
             conn.setDoOutput(req.hasPayload());
 
@@ -230,7 +302,7 @@ public class Client implements AutoCloseable {
             if (req.hasPayload()) {
                 payload = mapper.writeValueAsString(req);
                 LOG.debug("Sending {} request with payload '{}'", req.method(), payload);
-                md5 = DatatypeConverter.printHexBinary(DIGEST.digest(payload.getBytes(UTF_8)));
+                md5 = DatatypeConverter.printHexBinary(DIGEST.get().digest(payload.getBytes(UTF_8)));
                 conn.setRequestProperty("Content-MD5", md5);
                 conn.setRequestProperty("Content-Length", Integer.toString(payload.length()));
             }
@@ -247,14 +319,37 @@ public class Client implements AutoCloseable {
                 conn.getOutputStream().write(payload.getBytes(UTF_8));
             }
 
-            return mapper.readValue(conn.getInputStream(), Response.class);
+            return mapper.readValue(readFully(conn), Response.class);
         } catch (IOException e) {
             LOG.debug(e.toString());
             return new ErrorResponse(e.toString());
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+        }
+    }
+
+    // Read and close whole response, even on error, so that the connection can be reused
+    private static byte[] readFully(HttpURLConnection conn) throws IOException {
+        try (InputStream in = conn.getInputStream()) {
+            return readFully(in);
+        } catch (IOException e) {
+            InputStream err = conn.getErrorStream();
+            if (err != null) {
+                try {
+                    readFully(err);
+                } finally {
+                    err.close();
+                }
             }
+            throw e;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
         }
+        return out.toByteArray();
     }
 }
@@ -23,11 +23,13 @@ import java.util.Objects;
 import java.util.Optional;
 
 public class ClientBuilder {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
 
     private Optional<Authenticator> authenticatorOptional = Optional.empty();
     private boolean checkCert = true;
     private boolean authenticationEnabled = true;
     private URI uri;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
 
     protected ClientBuilder(URI uri){
         this.uri = uri;
@@ -43,6 +45,15 @@ public class ClientBuilder {
         return this;
     }
 
+    // Maximum number of async requests in flight at once
+    public ClientBuilder setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
     public ClientBuilder enableAuthentication(boolean authenticationEnabled) {
         this.authenticationEnabled = authenticationEnabled;
         return this;
@@ -50,11 +61,11 @@ public class ClientBuilder {
     public Client build() {
         if (authenticationEnabled) {
             if (authenticatorOptional.isPresent()) {
-                return new Client(uri, authenticatorOptional, checkCert);
+                return new Client(uri, authenticatorOptional, checkCert, maxInFlight);
             } else {
                 throw new IllegalArgumentException("When authentication is enabled, key and secret must be present.");
             }
         }
-        return new Client(uri, Optional.empty(), checkCert);
+        return new Client(uri, Optional.empty(), checkCert, maxInFlight);
     }
 }
@@ -18,6 +18,7 @@ package io.github.retz.web;
 
 import io.github.retz.protocol.*;
 import io.github.retz.protocol.data.DirEntry;
+import io.github.retz.protocol.data.FileContent;
 import io.github.retz.protocol.data.Job;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,8 @@ public class ClientHelper {
     static final Logger LOG = LoggerFactory.getLogger(ClientHelper.class);
     static final int MAX_INTERVAL_MSEC = 32768;
     static final int INITAL_INTERVAL_MSEC = 512;
+    // How long the server may hold a long polling request
+    static final int WAIT_SECONDS = 30;
 
     public static void getWholeFile(Client c, int id, String filename, String resultDir) {
         String path = resultDir + "/" + filename;
@@ -48,54 +51,62 @@ public class ClientHelper {
 
     // Gets whole file until the job finishes and streams out to 'out'!!!
     public static Optional<Job> getWholeFile(Client c, int id, String filename, boolean poll, OutputStream out) throws IOException {
-        int offset = 0;
-        int interval = INITAL_INTERVAL_MSEC;
-        Job.JobState currentState = Job.JobState.QUEUED;
-        Optional<Job> current;
-
-        int bytesRead = readFileUntilEmpty(c, id, filename, offset, out);
-        offset = offset + bytesRead;
+        int offset = readFileUntilEmpty(c, id, filename, 0, out);
 
-        do {
+        if (!poll) {
             Response res = c.getJob(id);
             if (!(res instanceof GetJobResponse)) {
                 LOG.error(res.status());
                 throw new IOException(res.status());
             }
+            readFileUntilEmpty(c, id, filename, offset, out);
+            return ((GetJobResponse) res).job();
+        }
 
-            GetJobResponse getJobResponse = (GetJobResponse) res;
-            current = getJobResponse.job();
-
-            bytesRead = readFileUntilEmpty(c, id, filename, offset, out);
-            offset = offset + bytesRead;
-
-            if (current.isPresent()) {
-                currentState = current.get().state();
-                if ((currentState == Job.JobState.FINISHED || currentState == Job.JobState.KILLED)
-                        && bytesRead == 0) {
-                    return current;
-                }
+        int interval = INITAL_INTERVAL_MSEC;
+        while (true) {
+            long start = System.currentTimeMillis();
+            // The server holds the request until new data comes or the job finishes
+            Response res = c.getFile(id, filename, offset, 65536, WAIT_SECONDS);
+            if (!(res instanceof GetFileResponse)) {
+                LOG.error(res.status());
+                throw new IOException(res.status());
             }
+            GetFileResponse getFileResponse = (GetFileResponse) res;
+            Optional<Job> current = getFileResponse.job();
 
-            if (poll) {
-                maybeSleep(interval);
+            int bytesRead = write(getFileResponse.file(), out);
+            offset = offset + bytesRead;
 
-                if (bytesRead == 0) {
-                    if (interval < MAX_INTERVAL_MSEC) {
-                        interval = interval * 2;
-                    } else {
-                        interval = MAX_INTERVAL_MSEC;
-                    }
-                } else {
-                    interval = INITAL_INTERVAL_MSEC;
-                }
-            } else {
+            if (bytesRead > 0) {
+                interval = INITAL_INTERVAL_MSEC;
+            } else if (!current.isPresent()
+                    || current.get().state() == Job.JobState.FINISHED
+                    || current.get().state() == Job.JobState.KILLED) {
                 return current;
+            } else {
+                interval = backoffIfNotWaited(start, interval);
             }
         }
-        while (currentState != Job.JobState.FINISHED && currentState != Job.JobState.KILLED);
+    }
 
-        return current;
+    private static int write(Optional<FileContent> file, OutputStream out) throws IOException {
+        if (file.isPresent() && !file.get().data().isEmpty()) {
+            byte[] data = file.get().data().getBytes(UTF_8);
+            out.write(data);
+            return data.length;
+        }
+        return 0;
+    }
+
+    // When a long polling request returned nothing new right away - the server is old, or
+    // too many clients are waiting - fall back to sleep with exponential backoff
+    static int backoffIfNotWaited(long start, int interval) {
+        if (System.currentTimeMillis() - start >= INITAL_INTERVAL_MSEC) {
+            return INITAL_INTERVAL_MSEC;
+        }
+        maybeSleep(interval);
+        return Math.min(interval * 2, MAX_INTERVAL_MSEC);
     }
 
     static int readFileUntilEmpty(Client c, int id, String filename, int offset, OutputStream out) throws IOException {
@@ -151,24 +162,21 @@ public class ClientHelper {
         Job current = job;
         int interval = INITAL_INTERVAL_MSEC;
         while (current.state() == Job.JobState.QUEUED) {
-            maybeSleep(interval);
-            if (interval < MAX_INTERVAL_MSEC) {
-                interval = interval * 2;
-            } else {
-                interval = MAX_INTERVAL_MSEC;
-            }
-
-            Response res = c.getJob(job.id());
+            long start = System.currentTimeMillis();
+            // The server holds the request until the job leaves QUEUED
+            Response res = c.getJob(job.id(), Job.JobState.QUEUED, WAIT_SECONDS);
             if (res instanceof GetJobResponse) {
                 GetJobResponse getJobResponse = (GetJobResponse) res;
                 if (getJobResponse.job().isPresent()) {
                     current = getJobResponse.job().get();
-                    continue;
                 }
             } else {
                 LOG.error(res.status());
                 throw new IOException(res.status());
             }
+            if (current.state() == Job.JobState.QUEUED) {
+                interval = backoffIfNotWaited(start, interval);
+            }
         }
         return current;
     }
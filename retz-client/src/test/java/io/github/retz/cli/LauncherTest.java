@@ -17,8 +17,10 @@
 package io.github.retz.cli;
 
 import io.github.retz.protocol.data.DockerVolume;
+import io.github.retz.protocol.data.Job;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Arrays;
@@ -26,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 public class LauncherTest {
@@ -141,6 +144,31 @@ public class LauncherTest {
         // TODO: add more pattern tests
     }
 
+    @Test
+    public void parseListTest() throws IOException, URISyntaxException {
+        String[] argv = {"-C", PROPERTY_FILE, "list", "-limit", "10", "-before", "128", "-state", "QUEUED", "-A", "t"};
+        Launcher.Configuration conf = Launcher.parseConfiguration(argv);
+        assertEquals("list", conf.getParsedSubCommand().getName());
+        CommandList command = (CommandList) conf.getParsedSubCommand();
+        assertEquals(10, command.limit);
+        assertEquals(128, command.before);
+        assertEquals(0, command.since);
+        assertEquals(Job.JobState.QUEUED, command.state);
+        assertEquals("t", command.appName);
+    }
+
+    @Test
+    public void parseScheduleBatchTest() throws IOException, URISyntaxException {
+        String[] argv = {"-C", PROPERTY_FILE, "schedule-batch", "-A", "t", "-file", "jobs.txt", "-cpu", "2"};
+        Launcher.Configuration conf = Launcher.parseConfiguration(argv);
+        assertEquals("schedule-batch", conf.getParsedSubCommand().getName());
+        assertTrue(conf.getParsedSubCommand() instanceof CommandScheduleBatch);
+
+        String input = "uname -a\n\n# comment\n  sleep 1  \n";
+        List<String> cmds = CommandScheduleBatch.readCommands(new ByteArrayInputStream(input.getBytes(UTF_8)));
+        assertEquals(Arrays.asList("uname -a", "sleep 1"), cmds);
+    }
+
     @Test
     public void parseRunTest() throws IOException, URISyntaxException {
         {
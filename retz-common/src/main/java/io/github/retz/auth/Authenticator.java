@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Calendar;
@@ -37,15 +38,15 @@ public class Authenticator {
     private static final String ALGORITHM = "HmacSHA256";
     public static final String AUTHORIZATION = "Authorization";
 
-    static Mac mac = null;
-
     private final String KEY;
     private final SecretKeySpec SECRET_KEY_SPEC;
+    // Mac is not thread safe; each thread keeps its own, initialized with the key
+    private final ThreadLocal<Mac> MAC;
 
     static {
         try {
             Date start = Calendar.getInstance().getTime();
-            mac = Mac.getInstance(ALGORITHM);
+            Mac.getInstance(ALGORITHM);
             Date end = Calendar.getInstance().getTime();
             LOG.info("javax.crypto.Mac instance with {} initialized in {} ms.",
                     ALGORITHM, end.getTime() - start.getTime());
@@ -57,6 +58,25 @@ public class Authenticator {
     public Authenticator(String key, String secret) {
         KEY = key;
         SECRET_KEY_SPEC = new SecretKeySpec(secret.getBytes(UTF_8), ALGORITHM);
+        MAC = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(SECRET_KEY_SPEC);
+            return mac;
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(ALGORITHM + " is not available");
+        } catch (InvalidKeyException e) {
+            throw new AssertionError(SECRET_KEY_SPEC.getFormat() + " is wrong");
+        }
+    }
+
+    // Whether this authenticator is built with the same key and secret
+    public boolean matches(String key, String secret) {
+        return KEY.equals(key) &&
+                MessageDigest.isEqual(SECRET_KEY_SPEC.getEncoded(), secret.getBytes(UTF_8));
     }
 
     // @var sign: signature value of authentication header, which should be provided as
@@ -113,19 +133,9 @@ public class Authenticator {
     public String signature(String verb, String md5, String date, String resource) {
         String string2sign = string2sign(verb, md5, date, resource);
         LOG.debug("String2sign: {}", string2sign);
-        try {
-            if (Authenticator.mac == null) {
-                throw new RuntimeException("Authenticator is null");
-            }
-            // TODO: when this becomes bottleneck at server side, make this TLS
-            synchronized (Authenticator.mac) {
-                Authenticator.mac.init(SECRET_KEY_SPEC);
-                byte[] mac_bytes = mac.doFinal(string2sign.getBytes(UTF_8));
-                return Base64.getEncoder().withoutPadding().encodeToString(mac_bytes);
-            }
-        } catch (InvalidKeyException e) {
-            throw new AssertionError(SECRET_KEY_SPEC.getFormat() + " is wrong");
-        }
+        // doFinal resets the Mac with the same key for next use
+        byte[] mac_bytes = MAC.get().doFinal(string2sign.getBytes(UTF_8));
+        return Base64.getEncoder().withoutPadding().encodeToString(mac_bytes);
     }
 
     public String string2sign(String verb, String md5, String date, String resource) {
@@ -23,5 +23,15 @@ public interface AdminConsoleMXBean {
     public String createUser();
     public String getUser(String keyId);
     public boolean enableUser(String id, boolean enabled);
+    // Usage of the user per application and hour, in [start, end), as JSON
     public List<String> getUsage(String keyId, String start, String end);
+    // Up to limit jobs of the user finished in [start, end), after the id, as JSON
+    public List<String> exportJobs(String keyId, String start, String end, int afterId, int limit);
+    // Archive old finished jobs in background now; returns compaction status as JSON
+    public String compactJobs();
+    public String getCompactionStatus();
+    // Offers in stock, and counts of offers and resources offered, accepted and declined, as JSON
+    public String getOfferStats();
+    // Agents known to have artifacts cached, placement hits and misses, and fetch time avoided, as JSON
+    public String getLocalityStats();
 }
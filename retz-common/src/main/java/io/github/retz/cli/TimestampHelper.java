@@ -17,27 +17,49 @@
 package io.github.retz.cli;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
+// Timestamps are milliseconds since the epoch inside, and formatted only when shown or sent
 public class TimestampHelper {
-    // Use ISO8601-like extended format
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+    // Use ISO8601-like extended format; DateTimeFormatter is immutable and needs no lock
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
 
     public static String now() {
-        synchronized (DATE_FORMAT) {
-            return DATE_FORMAT.format(Calendar.getInstance().getTime());
+        return format(System.currentTimeMillis());
+    }
+
+    // Formats milliseconds since the epoch at the local time zone
+    public static String format(long millis) {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()));
+    }
+
+    // Returns milliseconds since the epoch
+    public static long toMillis(String timestamp) throws ParseException {
+        try {
+            return OffsetDateTime.parse(timestamp, DATE_FORMAT).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new ParseException(e.getMessage(), e.getErrorIndex());
         }
     }
 
-    // Returns duration in second
-    public static long diffMillisec(String lhs, String rhs) throws ParseException {
-        synchronized (DATE_FORMAT) {
-            Date l = DATE_FORMAT.parse(lhs);
-            Date r = DATE_FORMAT.parse(rhs);
-            // Date#getTime returns timestamp since 1970 in milliseconds
-            return l.getTime() - r.getTime();
+    // Returns -1 if the timestamp is null or invalid, as NULL of timestamp columns in database
+    public static long toMillisOrNone(String timestamp) {
+        if (timestamp == null) {
+            return -1;
         }
+        try {
+            return toMillis(timestamp);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    // Returns lhs - rhs in milliseconds
+    public static long diffMillisec(String lhs, String rhs) throws ParseException {
+        return toMillis(lhs) - toMillis(rhs);
     }
 }
@@ -0,0 +1,58 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.protocol.data.Job;
+
+import java.util.Map;
+import java.util.Objects;
+
+public class GetArrayResponse extends Response {
+    private Job job;
+    // Number of tasks in each state, except archived ones
+    private Map<Job.JobState, Integer> tasks;
+
+    @JsonCreator
+    public GetArrayResponse(@JsonProperty(value = "job", required = true) Job job,
+                            @JsonProperty(value = "tasks", required = true) Map<Job.JobState, Integer> tasks) {
+        this.job = Objects.requireNonNull(job);
+        this.tasks = Objects.requireNonNull(tasks);
+    }
+
+    @JsonGetter("job")
+    public Job job() {
+        return job;
+    }
+
+    @JsonGetter("tasks")
+    public Map<Job.JobState, Integer> tasks() {
+        return tasks;
+    }
+
+    // Tasks not queued yet
+    public int pending() {
+        return job.arraySize() - job.arrayExpanded();
+    }
+
+    // Tasks finished or killed, and then archived
+    public int archived() {
+        return job.arrayExpanded() - tasks.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
@@ -31,16 +31,25 @@ public class GetFileRequest extends Request {
     private String file;
     private int offset;
     private int length;
+    // Long poll: the server waits up to 'wait' seconds until some data appears at the offset
+    // or the job finishes
+    private int wait;
 
     @JsonCreator
     public GetFileRequest(@JsonProperty(value = "id", required = true) int id,
                           @JsonProperty(value = "file", required = true) String file,
                           @JsonProperty(value = "offset") int offset,
-                          @JsonProperty(value = "length") int length) {
+                          @JsonProperty(value = "length") int length,
+                          @JsonProperty(value = "wait") int wait) {
         this.id = id;
         this.file = Objects.requireNonNull(file);
         this.offset = offset;
         this.length = length;
+        this.wait = wait;
+    }
+
+    public GetFileRequest(int id, String file, int offset, int length) {
+        this(id, file, offset, length, 0);
     }
 
     @JsonGetter("id")
@@ -63,6 +72,11 @@ public class GetFileRequest extends Request {
         return length;
     }
 
+    @JsonGetter("wait")
+    public int waitSeconds() {
+        return wait;
+    }
+
     @Override
     public String resource() {
         String encodedFile = file;
@@ -77,6 +91,9 @@ public class GetFileRequest extends Request {
                 .append("?path=").append(encodedFile)
                 .append("&offset=").append(offset)
                 .append("&length=").append(length);
+        if (wait > 0) {
+            builder.append("&wait=").append(wait);
+        }
 
         return builder.toString();
     }
@@ -19,16 +19,28 @@ package io.github.retz.protocol;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.protocol.data.Job;
 
 import java.util.Objects;
 import java.util.Optional;
 
 public class GetJobRequest extends Request {
     private int id;
+    // Long poll: the server waits up to 'wait' seconds while the job stays in 'state'
+    private Optional<Job.JobState> state;
+    private int wait;
 
     @JsonCreator
-    public GetJobRequest(@JsonProperty(value = "id", required = true) int id) {
+    public GetJobRequest(@JsonProperty(value = "id", required = true) int id,
+                         @JsonProperty("state") Optional<Job.JobState> state,
+                         @JsonProperty("wait") int wait) {
         this.id = id;
+        this.state = (state == null) ? Optional.empty() : state;
+        this.wait = wait;
+    }
+
+    public GetJobRequest(int id) {
+        this(id, Optional.empty(), 0);
     }
 
     @JsonGetter("id")
@@ -36,9 +48,26 @@ public class GetJobRequest extends Request {
         return id;
     }
 
+    @JsonGetter("state")
+    public Optional<Job.JobState> state() {
+        return state;
+    }
+
+    @JsonGetter("wait")
+    public int waitSeconds() {
+        return wait;
+    }
+
     @Override
     public String resource() {
-        return "/job/" + id;
+        StringBuilder builder = new StringBuilder("/job/").append(id);
+        if (wait > 0) {
+            builder.append("?wait=").append(wait);
+            if (state.isPresent()) {
+                builder.append("&state=").append(state.get());
+            }
+        }
+        return builder.toString();
     }
 
     @Override
@@ -19,22 +19,104 @@ package io.github.retz.protocol;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.protocol.data.Job;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Optional;
+
+// Jobs are listed from the newest, up to limit which is also capped by server.
+// To get next page, give the smallest id of the previous page as 'before'. To page forward,
+// give the largest id as 'since'; the oldest jobs after it are listed, still from the newest.
 public class ListJobRequest extends Request {
     private int limit;
+    // Cursors by job id, exclusive; 0 means none
+    private int before;
+    private int since;
+    private Optional<Job.JobState> state;
+    private Optional<String> appid;
+    // Range of finished time, [from, to)
+    private Optional<String> from;
+    private Optional<String> to;
 
     @JsonCreator
-    public ListJobRequest(@JsonProperty("limit") int limit) {
+    public ListJobRequest(@JsonProperty("limit") int limit,
+                          @JsonProperty("before") int before,
+                          @JsonProperty("since") int since,
+                          @JsonProperty("state") Optional<Job.JobState> state,
+                          @JsonProperty("appid") Optional<String> appid,
+                          @JsonProperty("from") Optional<String> from,
+                          @JsonProperty("to") Optional<String> to) {
         this.limit = limit;
+        this.before = before;
+        this.since = since;
+        this.state = (state == null) ? Optional.empty() : state;
+        this.appid = (appid == null) ? Optional.empty() : appid;
+        this.from = (from == null) ? Optional.empty() : from;
+        this.to = (to == null) ? Optional.empty() : to;
+    }
+
+    public ListJobRequest(int limit) {
+        this(limit, 0, 0, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
     }
+
     @JsonGetter("limit")
     public int limit() {
         return limit;
     }
 
+    @JsonGetter("before")
+    public int before() {
+        return before;
+    }
+
+    @JsonGetter("since")
+    public int since() {
+        return since;
+    }
+
+    @JsonGetter("state")
+    public Optional<Job.JobState> state() {
+        return state;
+    }
+
+    @JsonGetter("appid")
+    public Optional<String> appid() {
+        return appid;
+    }
+
+    @JsonGetter("from")
+    public Optional<String> from() {
+        return from;
+    }
+
+    @JsonGetter("to")
+    public Optional<String> to() {
+        return to;
+    }
+
     @Override
     public String resource() {
-        return "/jobs";
+        StringBuilder builder = new StringBuilder("/jobs?limit=").append(limit);
+        if (before > 0) {
+            builder.append("&before=").append(before);
+        }
+        if (since > 0) {
+            builder.append("&since=").append(since);
+        }
+        state.ifPresent(s -> builder.append("&state=").append(s));
+        appid.ifPresent(a -> builder.append("&appid=").append(encode(a)));
+        from.ifPresent(f -> builder.append("&from=").append(encode(f)));
+        to.ifPresent(t -> builder.append("&to=").append(encode(t)));
+        return builder.toString();
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return s;
+        }
     }
 
     @Override
@@ -27,10 +27,13 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo.Id;
 @JsonSubTypes({
         @Type(name = "list", value = ListJobRequest.class),
         @Type(name = "schedule", value = ScheduleRequest.class),
+        @Type(name = "schedule-batch", value = ScheduleBatchRequest.class),
         @Type(name = "get-job", value = GetJobRequest.class),
         @Type(name = "get-file", value = GetFileRequest.class),
         @Type(name = "list-files", value = ListFilesRequest.class),
         @Type(name = "kill", value = KillRequest.class),
+        @Type(name = "set-priority", value = SetPriorityRequest.class),
+        @Type(name = "get-array", value = GetArrayRequest.class),
         @Type(name = "get-app", value = GetAppRequest.class),
         @Type(name = "load-app", value = LoadAppRequest.class),
         @Type(name = "unload-app", value = UnloadAppRequest.class),
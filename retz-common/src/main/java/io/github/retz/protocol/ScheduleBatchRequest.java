@@ -0,0 +1,62 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.protocol.data.Job;
+
+import java.util.List;
+import java.util.Objects;
+
+// Schedule many jobs at once; jobs are queued in the order of the list
+public class ScheduleBatchRequest extends Request {
+    // Maximum number of jobs in a request; split jobs into several requests to schedule more
+    public static final int MAX_JOBS = 4096;
+
+    private List<Job> jobs;
+
+    @JsonCreator
+    public ScheduleBatchRequest(@JsonProperty(value = "jobs", required = true) List<Job> jobs) {
+        this.jobs = Objects.requireNonNull(jobs);
+    }
+
+    @JsonGetter("jobs")
+    public List<Job> jobs() {
+        return jobs;
+    }
+
+    @Override
+    public String resource() {
+        return "/jobs";
+    }
+
+    @Override
+    public String method() {
+        return PUT;
+    }
+
+    @Override
+    public boolean hasPayload() {
+        return true;
+    }
+
+    public static String resourcePattern() {
+        return "/jobs";
+    }
+}
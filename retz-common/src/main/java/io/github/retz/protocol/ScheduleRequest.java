@@ -23,7 +23,11 @@ import io.github.retz.protocol.data.Job;
 
 import java.util.Objects;
 
+// Schedule a job, or an array job if its array size is set; see Job.setArraySize
 public class ScheduleRequest extends Request {
+    // Maximum number of tasks in an array job
+    public static final int MAX_ARRAY_SIZE = 1000000;
+
     private Job job;
 
     @JsonCreator
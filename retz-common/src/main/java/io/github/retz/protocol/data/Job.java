@@ -19,6 +19,7 @@ package io.github.retz.protocol.data;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.cli.TimestampHelper;
 
 import java.util.Objects;
 import java.util.Optional;
@@ -28,9 +29,10 @@ import static io.github.retz.protocol.data.Job.JobState.*;
 
 public class Job {
     private final String cmd;
-    private String scheduled;
-    private String started;
-    private String finished;
+    // Milliseconds since the epoch, or -1 if not yet; formatted only on the wire and when shown
+    private long scheduledAt = -1;
+    private long startedAt = -1;
+    private long finishedAt = -1;
     private Properties props;
     private int result = -1;
 
@@ -50,11 +52,24 @@ public class Job {
 
     private String taskId; // TaskId assigned by Mesos (or other scheduler)
 
+    // Array job: a template of arraySize tasks, of which arrayExpanded have been queued as jobs so far
+    @JsonProperty("arraySize")
+    private int arraySize = 0;
+    @JsonProperty("arrayExpanded")
+    private int arrayExpanded = 0;
+    // Task of an array job: id of the template and index in the array; -1 otherwise
+    @JsonProperty("arrayId")
+    private int arrayId = -1;
+    @JsonProperty("arrayIndex")
+    private int arrayIndex = -1;
+
     /**
      * State diagram:
      *  [CREATED] ---&gt; [QUEUED] ---&gt; [STARTED] ---&gt; [FINISHED]
      *                    |              +--------&gt; [KILLED]
      *                    +----------------------------^
+     *
+     * An array job stays QUEUED until all its tasks are queued, and then becomes EXPANDED.
      */
     public enum JobState { // TODO: define correspondce against Mesos Task status
         CREATED,
@@ -63,6 +78,7 @@ public class Job {
         STARTED,
         FINISHED,
         KILLED,
+        EXPANDED,
     }
 
     private JobState state;
@@ -113,9 +129,9 @@ public class Job {
                @JsonProperty("trustPVFiles") boolean trustPVFiles,
                @JsonProperty("state") JobState state) {
         this.cmd = Objects.requireNonNull(cmd);
-        this.scheduled = scheduled;
-        this.started = started;
-        this.finished = finished;
+        this.scheduledAt = TimestampHelper.toMillisOrNone(scheduled);
+        this.startedAt = TimestampHelper.toMillisOrNone(started);
+        this.finishedAt = TimestampHelper.toMillisOrNone(finished);
         this.props = props;
         this.result = result;
         this.id = Objects.requireNonNull(id);
@@ -144,12 +160,27 @@ public class Job {
 
     @JsonGetter("scheduled")
     public String scheduled() {
-        return scheduled;
+        return format(scheduledAt);
     }
 
     @JsonGetter("started")
     public String started() {
-        return started;
+        return format(startedAt);
+    }
+
+    // Milliseconds since the epoch, or -1 if not scheduled yet
+    public long scheduledAt() {
+        return scheduledAt;
+    }
+
+    // Milliseconds since the epoch, or -1 if not started yet
+    public long startedAt() {
+        return startedAt;
+    }
+
+    // Milliseconds since the epoch, or -1 if not finished nor killed yet
+    public long finishedAt() {
+        return finishedAt;
     }
 
     @JsonGetter("props")
@@ -159,7 +190,7 @@ public class Job {
 
     @JsonGetter("finished")
     public String finished() {
-        return finished;
+        return format(finishedAt);
     }
 
     @JsonGetter("result")
@@ -242,13 +273,67 @@ public class Job {
         return state;
     }
 
+    @JsonGetter("arraySize")
+    public int arraySize() {
+        return arraySize;
+    }
+
+    @JsonGetter("arrayExpanded")
+    public int arrayExpanded() {
+        return arrayExpanded;
+    }
+
+    @JsonGetter("arrayId")
+    public int arrayId() {
+        return arrayId;
+    }
+
+    @JsonGetter("arrayIndex")
+    public int arrayIndex() {
+        return arrayIndex;
+    }
+
     public void setTrustPVFiles(boolean trustPVFiles) {
         this.trustPVFiles = trustPVFiles;
     }
 
-    public void schedule(int id, String now) {
+    // Jobs with larger priority run earlier; 0 by default
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    // Make this job an array of size tasks; 0 for a plain job
+    public void setArraySize(int size) {
+        this.arraySize = size;
+    }
+
+    // A task of this array job, to be scheduled as a plain job
+    public Job arrayTask(int index) {
+        // Each task has its own copy, not to share changes of environment with other tasks
+        Properties env = null;
+        if (props != null) {
+            env = new Properties();
+            env.putAll(props);
+        }
+        Job task = new Job(cmd, null, null, null, env, -1, -1, null, null, 0, priority,
+                appid, name, cpu, memMB, gpu, diskMB, ports, null, trustPVFiles, CREATED);
+        task.arrayId = id;
+        task.arrayIndex = index;
+        return task;
+    }
+
+    // Count tasks queued out of this array job
+    public void expand(int tasks) {
+        this.arrayExpanded += tasks;
+        if (arrayExpanded >= arraySize) {
+            this.state = EXPANDED;
+        }
+    }
+
+    // Timestamps of transitions are milliseconds since the epoch
+    public void schedule(int id, long now) {
         this.id = id;
-        this.scheduled = now;
+        this.scheduledAt = now;
         this.state = QUEUED;
     }
 
@@ -257,8 +342,8 @@ public class Job {
         this.retry++;
     }
 
-    public void starting(String taskId, Optional<String> maybeUrl, String now) {
-        this.started = now;
+    public void starting(String taskId, Optional<String> maybeUrl, long now) {
+        this.startedAt = now;
         this.taskId = taskId;
         if (maybeUrl.isPresent()) {
             this.url = maybeUrl.get();
@@ -266,8 +351,8 @@ public class Job {
         this.state = STARTING;
     }
 
-    public void started(String taskId, Optional<String> maybeUrl, String now) {
-        this.started = now;
+    public void started(String taskId, Optional<String> maybeUrl, long now) {
+        this.startedAt = now;
         this.taskId = taskId;
         if (maybeUrl.isPresent()) {
             this.url = maybeUrl.get();
@@ -275,8 +360,8 @@ public class Job {
         this.state = STARTED;
     }
 
-    public void finished(String now, Optional<String> url, int result) {
-        this.finished = now;
+    public void finished(long now, Optional<String> url, int result) {
+        this.finishedAt = now;
         this.result = result;
         if (url.isPresent()) {
             this.url = url.get();
@@ -284,8 +369,8 @@ public class Job {
         this.state = FINISHED;
     }
 
-    public void killed(String now, Optional<String> maybeUrl, String reason) {
-        this.finished = now;
+    public void killed(long now, Optional<String> maybeUrl, String reason) {
+        this.finishedAt = now;
         this.reason = reason;
         if (maybeUrl.isPresent()) {
             this.url = maybeUrl.get();
@@ -313,14 +398,20 @@ public class Job {
         if (ports > 0) {
             sb.append(", ports=").append(ports);
         }
-        if (scheduled != null) {
-            sb.append(", scheduled=").append(scheduled);
+        if (arraySize > 0) {
+            sb.append(", array=").append(arrayExpanded).append("/").append(arraySize);
+        }
+        if (arrayId >= 0) {
+            sb.append(", array=").append(arrayId).append("[").append(arrayIndex).append("]");
         }
-        if (started != null) {
-            sb.append(", started=").append(started);
+        if (scheduledAt >= 0) {
+            sb.append(", scheduled=").append(scheduled());
         }
-        if (finished != null) {
-            sb.append(", finished=").append(finished);
+        if (startedAt >= 0) {
+            sb.append(", started=").append(started());
+        }
+        if (finishedAt >= 0) {
+            sb.append(", finished=").append(finished());
         }
         sb.append(", state=").append(state);
         if (state == FINISHED) {
@@ -353,14 +444,20 @@ public class Job {
         if (ports > 0) {
             sb.append(", ports=").append(ports);
         }
-        if (scheduled != null) {
-            sb.append(", scheduled=").append(scheduled);
+        if (arraySize > 0) {
+            sb.append(", array=").append(arrayExpanded).append("/").append(arraySize);
+        }
+        if (arrayId >= 0) {
+            sb.append(", array=").append(arrayId).append("[").append(arrayIndex).append("]");
         }
-        if (started != null) {
-            sb.append(", started=").append(started);
+        if (scheduledAt >= 0) {
+            sb.append(", scheduled=").append(scheduled());
         }
-        if (finished != null) {
-            sb.append(", finished=").append(finished);
+        if (startedAt >= 0) {
+            sb.append(", started=").append(started());
+        }
+        if (finishedAt >= 0) {
+            sb.append(", finished=").append(finished());
         }
         sb.append(", state=").append(state);
         if (state == FINISHED) {
@@ -375,4 +472,8 @@ public class Job {
         return sb.append("}").toString();
     }
 
+    private static String format(long millis) {
+        return millis < 0 ? null : TimestampHelper.format(millis);
+    }
+
 }
@@ -0,0 +1,155 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol.data;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+// Resources used by finished or killed jobs of an application in an hour. Resources of a job
+// multiplied by its running time are split across the hours from start to finish, and the
+// job itself is counted in the hour it finished.
+public class Usage {
+    public static final long HOUR_MS = 3600 * 1000;
+
+    private String owner;
+    private String appid;
+    private long hour;
+    private int jobs;
+    private long cpuMs;
+    private long memMBMs;
+    private long gpuMs;
+
+    // Times are in milliseconds
+    public Usage(String owner, String appid, long hour, int jobs, long cpuMs, long memMBMs, long gpuMs) {
+        this.owner = Objects.requireNonNull(owner);
+        this.appid = Objects.requireNonNull(appid);
+        this.hour = hour;
+        this.jobs = jobs;
+        this.cpuMs = cpuMs;
+        this.memMBMs = memMBMs;
+        this.gpuMs = gpuMs;
+    }
+
+    // Times are in seconds as on the wire; not a constructor, not to be confused with milliseconds
+    @JsonCreator
+    public static Usage ofSeconds(@JsonProperty(value = "owner", required = true) String owner,
+                                  @JsonProperty(value = "appid", required = true) String appid,
+                                  @JsonProperty(value = "hour", required = true) long hour,
+                                  @JsonProperty(value = "jobs", required = true) int jobs,
+                                  @JsonProperty(value = "cpu_seconds", required = true) double cpuSeconds,
+                                  @JsonProperty(value = "mem_mb_seconds", required = true) double memMBSeconds,
+                                  @JsonProperty(value = "gpu_seconds", required = true) double gpuSeconds) {
+        return new Usage(owner, appid, hour, jobs, Math.round(cpuSeconds * 1000),
+                Math.round(memMBSeconds * 1000), Math.round(gpuSeconds * 1000));
+    }
+
+    // Times are in milliseconds since the epoch; one usage per hour from start to finish, in order.
+    // Not started jobs are counted with no time in the hour they finished
+    public static List<Usage> of(String owner, String appid, int cpu, int memMB, int gpu, Optional<Long> startedAt, long finishedAt) {
+        long finishedHour = hourOf(finishedAt);
+        long from = Math.min(startedAt.orElse(finishedAt), finishedAt);
+        List<Usage> usages = new ArrayList<>();
+        for (long hour = hourOf(from); hour <= finishedHour; hour += HOUR_MS) {
+            long duration = Math.min(finishedAt, hour + HOUR_MS) - Math.max(from, hour);
+            usages.add(new Usage(owner, appid, hour, hour == finishedHour ? 1 : 0,
+                    cpu * duration, memMB * duration, gpu * duration));
+        }
+        return usages;
+    }
+
+    // Empty if the job has not finished, or its timestamp is broken
+    public static List<Usage> of(String owner, Job job) {
+        if (job.finishedAt() < 0) {
+            return Collections.emptyList();
+        }
+        Optional<Long> started = job.startedAt() < 0 ? Optional.empty() : Optional.of(job.startedAt());
+        return of(owner, job.appid(), job.cpu(), job.memMB(), job.gpu(), started, job.finishedAt());
+    }
+
+    // Beginning of the hour of the time in milliseconds since the epoch
+    public static long hourOf(long millis) {
+        return millis - Math.floorMod(millis, HOUR_MS);
+    }
+
+    // Sum of usages in the same bucket
+    public Usage plus(Usage other) {
+        if (!key().equals(other.key())) {
+            throw new IllegalArgumentException("Different usage buckets: " + key() + " and " + other.key());
+        }
+        return new Usage(owner, appid, hour, jobs + other.jobs, cpuMs + other.cpuMs,
+                memMBMs + other.memMBMs, gpuMs + other.gpuMs);
+    }
+
+    public String key() {
+        return owner + "/" + appid + "/" + hour;
+    }
+
+    @JsonGetter("owner")
+    public String owner() {
+        return owner;
+    }
+
+    @JsonGetter("appid")
+    public String appid() {
+        return appid;
+    }
+
+    // Beginning of the hour in milliseconds since the epoch
+    @JsonGetter("hour")
+    public long hour() {
+        return hour;
+    }
+
+    @JsonGetter("jobs")
+    public int jobs() {
+        return jobs;
+    }
+
+    @JsonGetter("cpu_seconds")
+    public double cpuSeconds() {
+        return cpuMs / 1000.0;
+    }
+
+    @JsonGetter("mem_mb_seconds")
+    public double memMBSeconds() {
+        return memMBMs / 1000.0;
+    }
+
+    @JsonGetter("gpu_seconds")
+    public double gpuSeconds() {
+        return gpuMs / 1000.0;
+    }
+
+    public long cpuMs() {
+        return cpuMs;
+    }
+
+    public long memMBMs() {
+        return memMBMs;
+    }
+
+    public long gpuMs() {
+        return gpuMs;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.auth;
+
+import io.github.retz.cli.TimestampHelper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class AuthenticatorTest {
+
+    @Test
+    public void concurrent() throws Exception {
+        Authenticator a = new Authenticator("foo", "bar");
+        Authenticator b = new Authenticator("foo", "baz");
+        String date = TimestampHelper.now();
+        String expected = a.signature("GET", "", date, "/jobs");
+        assertNotEquals(expected, b.signature("GET", "", date, "/jobs"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; ++j) {
+                        // Interleave two keys on the same thread
+                        if (!expected.equals(a.signature("GET", "", date, "/jobs"))) {
+                            return false;
+                        }
+                        b.signature("GET", "", date, "/jobs");
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f : futures) {
+                assertTrue(f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void matches() {
+        Authenticator a = new Authenticator("foo", "bar");
+        assertTrue(a.matches("foo", "bar"));
+        assertFalse(a.matches("foo", "baz"));
+        assertFalse(a.matches("fo", "bar"));
+    }
+}
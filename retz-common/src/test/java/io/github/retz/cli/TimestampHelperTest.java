@@ -29,4 +29,23 @@ public class TimestampHelperTest {
             Assert.assertEquals(0, TimestampHelper.diffMillisec(t, t));
         }
     }
+
+    @Test
+    public void millis() throws Exception {
+        // Timestamps written by older versions in other time zones
+        Assert.assertEquals(1451606410123L, TimestampHelper.toMillis("2016-01-01T00:00:10.123Z"));
+        Assert.assertEquals(1451606410123L, TimestampHelper.toMillis("2016-01-01T09:00:10.123+09:00"));
+        Assert.assertEquals(10000, TimestampHelper.diffMillisec("2016-01-01T09:00:10.123+09:00", "2016-01-01T00:00:00.123Z"));
+
+        long now = System.currentTimeMillis();
+        Assert.assertEquals(now, TimestampHelper.toMillis(TimestampHelper.format(now)));
+
+        Assert.assertEquals(-1, TimestampHelper.toMillisOrNone(null));
+        Assert.assertEquals(-1, TimestampHelper.toMillisOrNone("yesterday"));
+    }
+
+    @Test(expected = java.text.ParseException.class)
+    public void invalid() throws Exception {
+        TimestampHelper.toMillis("2016-01-01");
+    }
 }
@@ -24,6 +24,10 @@ import org.junit.Test;
 import java.util.Optional;
 import java.util.Properties;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 public class JobTest {
 
     private Job job;
@@ -68,23 +72,38 @@ public class JobTest {
 
     @Test
     public void ppStarting() {
-        job.starting("retz-new-task-id-2354", Optional.empty(), TimestampHelper.now());
+        job.starting("retz-new-task-id-2354", Optional.empty(), System.currentTimeMillis());
         System.err.println(job.pp());
     }
 
     @Test public void ppStarted() {
-        job.started("retz-new-task-id-2354", Optional.empty(), TimestampHelper.now());
+        job.started("retz-new-task-id-2354", Optional.empty(), System.currentTimeMillis());
         System.err.println(job.pp());
     }
 
     @Test public void ppFinished() {
-        job.finished(TimestampHelper.now(), Optional.empty(), 0);
+        job.finished(System.currentTimeMillis(), Optional.empty(), 0);
         System.err.println(job.pp());
     }
 
     @Test public void ppKilled() {
-        job.killed(TimestampHelper.now(), Optional.empty(), "deadly important stupid some reason");
+        job.killed(System.currentTimeMillis(), Optional.empty(), "deadly important stupid some reason");
         System.err.println(job.pp());
     }
 
+    @Test public void timestamps() throws Exception {
+        assertTrue(job.scheduledAt() > 0);
+        assertEquals(-1, job.startedAt());
+        assertEquals(-1, job.finishedAt());
+
+        job.started("retz-new-task-id-2354", Optional.empty(), TimestampHelper.toMillis("2016-01-01T09:00:00.000+09:00"));
+        job.finished(TimestampHelper.toMillis("2016-01-01T00:00:10.500Z"), Optional.empty(), 0);
+        assertEquals(10500, job.finishedAt() - job.startedAt());
+        job.killed(TimestampHelper.toMillis("2016-01-01T00:00:20.000Z"), Optional.empty(), "timestamps");
+        assertEquals(20000, job.finishedAt() - job.startedAt());
+        // Formatted only on the wire, and parsed back to the same milliseconds
+        assertEquals(job.startedAt(), TimestampHelper.toMillis(job.started()));
+        assertEquals(-1, new Job("a", "b", null, 1, 32).scheduledAt());
+        assertNull(new Job("a", "b", null, 1, 32).scheduled());
+    }
 }
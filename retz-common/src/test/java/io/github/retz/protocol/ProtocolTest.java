@@ -25,6 +25,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -115,6 +117,18 @@ public class ProtocolTest {
             assertThat(req, instanceOf(GetJobRequest.class));
             GetJobRequest getJobRequest = (GetJobRequest)req;
             assertThat(23, is(getJobRequest.id()));
+            assertFalse(getJobRequest.state().isPresent());
+            assertThat(getJobRequest.waitSeconds(), is(0));
+            assertThat(getJobRequest.resource(), is("/job/23"));
+        }
+        {
+            String json = "{\"command\":\"get-job\", \"id\":23, \"state\":\"QUEUED\", \"wait\":30}";
+            Request req = mapper.readValue(json, Request.class);
+            assertThat(req, instanceOf(GetJobRequest.class));
+            GetJobRequest getJobRequest = (GetJobRequest)req;
+            assertThat(getJobRequest.state().get(), is(Job.JobState.QUEUED));
+            assertThat(getJobRequest.waitSeconds(), is(30));
+            assertThat(getJobRequest.resource(), is("/job/23?wait=30&state=QUEUED"));
         }
 
         {
@@ -175,6 +189,19 @@ public class ProtocolTest {
             String json = mapper.writeValueAsString(req);
             Request req2 = mapper.readValue(json, Request.class);
             assertThat(req2, instanceOf(ListJobRequest.class));
+            assertThat(req.resource(), is("/jobs?limit=0"));
+        }
+        {
+            ListJobRequest req = new ListJobRequest(10, 128, 0, Optional.of(Job.JobState.FINISHED),
+                    Optional.of("app"), Optional.of("2016-11-01T00:00:00.000+09:00"), Optional.empty());
+            Request req2 = mapper.readValue(mapper.writeValueAsString(req), Request.class);
+            assertThat(req2, instanceOf(ListJobRequest.class));
+            ListJobRequest req3 = (ListJobRequest) req2;
+            assertThat(req3.before(), is(128));
+            assertThat(req3.state().get(), is(Job.JobState.FINISHED));
+            assertFalse(req3.to().isPresent());
+            assertThat(req.resource(),
+                    is("/jobs?limit=10&before=128&state=FINISHED&appid=app&from=2016-11-01T00%3A00%3A00.000%2B09%3A00"));
         }
 
         {
@@ -189,6 +216,50 @@ public class ProtocolTest {
             GetJobResponse getJobResponse = new GetJobResponse(Optional.of(job));
             mapper.writeValueAsString(getJobResponse);
         }
+
+        {
+            List<Job> jobs = Arrays.asList(new Job("foobar-app", "ls -l", null, 1, 128),
+                    new Job("foobar-app", "ls -a", null, 2, 256));
+            String json = mapper.writeValueAsString(new ScheduleBatchRequest(jobs));
+            Request req = mapper.readValue(json, Request.class);
+            assertThat(req, instanceOf(ScheduleBatchRequest.class));
+            assertThat(((ScheduleBatchRequest) req).jobs().size(), is(2));
+            assertThat(((ScheduleBatchRequest) req).jobs().get(1).cmd(), is("ls -a"));
+
+            ScheduleBatchResponse sres = new ScheduleBatchResponse(jobs);
+            sres.ok();
+            Response res = mapper.readValue(mapper.writeValueAsString(sres), Response.class);
+            assertThat(res, instanceOf(ScheduleBatchResponse.class));
+            assertThat(((ScheduleBatchResponse) res).jobs().size(), is(2));
+        }
+
+        {
+            // Milliseconds in memory, seconds on the wire
+            Usage usage = new Usage("deadbeef", "foobar-app", Usage.HOUR_MS, 2, 1500, 256000, 0);
+            Usage usage2 = mapper.readValue(mapper.writeValueAsString(usage), Usage.class);
+            assertThat(usage2.cpuMs(), is(1500L));
+            assertThat(usage2.memMBMs(), is(256000L));
+            assertThat(usage2.memMBSeconds(), is(256.0));
+        }
+
+        {
+            // Split across hours the job ran in, counted in the hour it finished
+            long start = 10 * Usage.HOUR_MS - 1000;
+            List<Usage> usages = Usage.of("deadbeef", "foobar-app", 2, 32, 0, Optional.of(start), start + Usage.HOUR_MS + 3000);
+            assertThat(usages.size(), is(3));
+            assertThat(usages.get(0).hour(), is(9 * Usage.HOUR_MS));
+            assertThat(usages.get(0).cpuMs(), is(2000L));
+            assertThat(usages.get(1).cpuMs(), is(2 * Usage.HOUR_MS));
+            assertThat(usages.get(2).hour(), is(11 * Usage.HOUR_MS));
+            assertThat(usages.get(2).memMBMs(), is(32 * 2000L));
+            assertThat(usages.stream().mapToInt(Usage::jobs).sum(), is(1));
+            assertThat(usages.get(2).jobs(), is(1));
+
+            List<Usage> killed = Usage.of("deadbeef", "foobar-app", 2, 32, 0, Optional.empty(), start);
+            assertThat(killed.size(), is(1));
+            assertThat(killed.get(0).hour(), is(9 * Usage.HOUR_MS));
+            assertThat(killed.get(0).cpuMs(), is(0L));
+        }
         // Hanc marginis exiguitas non caperet.
     }
 
@@ -143,7 +143,7 @@ public class PersistenceTest {
             }
             for (int i = 0; i < JOB_AMOUNT / 2; i++) {
                 Thread.sleep(4 * 1024);
-                Response response = client.list(20);
+                Response response = client.list(JOB_AMOUNT);
                 ListJobResponse listJobResponse = (ListJobResponse) response;
                 if (listJobResponse.finished().size() == JOB_AMOUNT) {
                     break;
@@ -0,0 +1,229 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only files of archived records, apart from {@link Journal}, so that archived jobs are
+ * neither kept on memory nor written into every snapshot.
+ *
+ * A record is a 4-byte length, a 4-byte CRC32 and a payload, located by the number of its file in
+ * the upper 32 bits and its offset in the lower. A new file is started when the current one would
+ * exceed the file size. On {@link #open}, all records are passed to the reader with their locations,
+ * and the last file is truncated after its last valid record to append after it. Appends are forced
+ * to disk by {@link #force()} only.
+ */
+class Archive implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Archive.class);
+    private static final int HEADER = 8;
+    private static final String PREFIX = "archive-";
+    private static final String SUFFIX = ".log";
+
+    interface Reader {
+        void read(long location, ByteBuffer payload) throws IOException;
+    }
+
+    private final Path dir;
+    private final int fileSize;
+    private long file = -1;
+    private FileChannel channel;
+    private long end;
+
+    Archive(Path dir, int fileSize) {
+        this.dir = dir;
+        this.fileSize = fileSize;
+    }
+
+    void open(Reader reader) throws IOException {
+        Files.createDirectories(dir);
+        TreeMap<Long, Path> files = list();
+        long valid = 0;
+        int count = 0;
+        for (Map.Entry<Long, Path> f : files.entrySet()) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(f.getValue()));
+            valid = 0;
+            for (ByteBuffer payload : records(buffer)) {
+                int length = payload.remaining();
+                reader.read(location(f.getKey(), valid), payload);
+                valid += HEADER + length;
+                count++;
+            }
+        }
+        if (files.isEmpty()) {
+            start(0);
+        } else {
+            file = files.lastKey();
+            channel = FileChannel.open(files.lastEntry().getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.truncate(valid);
+            end = valid;
+        }
+        LOG.info("Archive {} opened: {} records in {} files", dir, count, files.size());
+    }
+
+    // Returns the location of the record
+    long append(byte[] payload) throws IOException {
+        if (HEADER + payload.length > fileSize) {
+            throw new IOException("Archive record too large: " + payload.length + " bytes");
+        }
+        if (end + HEADER + payload.length > fileSize) {
+            channel.force(false);
+            channel.close();
+            start(file + 1);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        record.flip();
+        long location = location(file, end);
+        while (record.hasRemaining()) {
+            channel.write(record, end + record.position());
+        }
+        end += record.limit();
+        return location;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    byte[] read(long location) throws IOException {
+        long n = location >>> 32;
+        long offset = location & 0xffffffffL;
+        if (n == file) {
+            return read(channel, offset);
+        }
+        try (FileChannel in = FileChannel.open(path(n), StandardOpenOption.READ)) {
+            return read(in, offset);
+        }
+    }
+
+    // Write the payloads to new files and delete all older files; returns their new locations
+    List<Long> replace(List<byte[]> payloads) throws IOException {
+        long first = file + 1;
+        channel.force(false);
+        channel.close();
+        start(first);
+        List<Long> locations = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            locations.add(append(payload));
+        }
+        force();
+        for (Path old : list().headMap(first).values()) {
+            Files.delete(old);
+        }
+        return locations;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void start(long n) throws IOException {
+        channel = FileChannel.open(path(n), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        file = n;
+        end = 0;
+    }
+
+    private static byte[] read(FileChannel in, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(in, header, offset);
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(in, payload, offset + HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupted archive record at " + offset);
+        }
+        return payload.array();
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Archive record beyond the end of file at " + offset);
+            }
+        }
+    }
+
+    // Payloads of valid records from the beginning, until the end or a torn or corrupted record
+    private static List<ByteBuffer> records(ByteBuffer buffer) {
+        List<ByteBuffer> records = new ArrayList<>();
+        while (buffer.remaining() >= HEADER) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Corrupted archive record at {}: ignoring the rest of file", buffer.position() - HEADER);
+                break;
+            }
+            records.add(payload);
+            buffer.position(buffer.position() + length);
+        }
+        return records;
+    }
+
+    private static long location(long file, long offset) {
+        return (file << 32) | offset;
+    }
+
+    private Path path(long n) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, n, SUFFIX));
+    }
+
+    private TreeMap<Long, Path> list() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), path);
+            }
+        }
+        return files;
+    }
+}
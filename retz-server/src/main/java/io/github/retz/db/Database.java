@@ -21,8 +21,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.FileConfiguration;
 import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.ListJobRequest;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Usage;
 import io.github.retz.protocol.data.User;
 import io.github.retz.scheduler.Launcher;
 import io.github.retz.scheduler.ServerConfiguration;
@@ -33,17 +35,29 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.text.ParseException;
 import java.util.*;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-public class Database {
+public class Database implements JobStore {
     private static final Logger LOG = LoggerFactory.getLogger(Database.class);
     private static Database database = new Database();
 
+    // Attempts of an optimistic update against concurrent updates of same jobs
+    private static final int MAX_UPDATE_ATTEMPTS = 8;
+    // SQLSTATE of unique constraint violation, common to H2 and PostgreSQL
+    private static final String UNIQUE_VIOLATION = "23505";
+
     private final ObjectMapper MAPPER = new ObjectMapper();
+    private RecordCodec codec = new RecordCodec(RecordCodec.JSON);
+    private Optional<RecordMigrator> migrator = Optional.empty();
+    // Jobs are stored in this database unless a journal is configured
+    private Optional<JournalJobStore> journal = Optional.empty();
     private final DataSource dataSource = new DataSource();
     String databaseURL = null;
 
@@ -55,6 +69,17 @@ public class Database {
         return database;
     }
 
+    public static JobStore getJobStore() {
+        return database.jobStore();
+    }
+
+    public JobStore jobStore() {
+        if (journal.isPresent()) {
+            return journal.get();
+        }
+        return this;
+    }
+
     static Database newMemInstance(String name) throws IOException, SQLException {
         Database db = new Database();
         db.initOnMem(name);
@@ -81,8 +106,22 @@ public class Database {
         props.setUsername("retz");
         props.setPassword("retz");
         */
+        setCodec(new RecordCodec(config.getDatabaseCodec()));
         init(props, true);
 
+        // Re-encode records written by other codec than the current one
+        RecordMigrator m = new RecordMigrator(this);
+        m.start();
+        migrator = Optional.of(m);
+
+        if (JobStore.JOURNAL.equals(config.getJobStore())) {
+            LOG.info("Jobs are stored in journal at {}", config.getJobStoreDir());
+            JournalJobStore store = new JournalJobStore(this, Paths.get(config.getJobStoreDir()),
+                    config.getJobStoreSegmentSize(), codec);
+            store.open();
+            journal = Optional.of(store);
+        }
+
         if (getUser(config.getAccessKey()).isPresent()) {
             LOG.info("admin user is {}", config.getAccessKey());
         } else {
@@ -119,8 +158,23 @@ public class Database {
         }
     }
 
+    void setCodec(RecordCodec codec) {
+        LOG.info("Records are written by codec {}", codec.name());
+        this.codec = codec;
+    }
+
     public void stop() {
         LOG.info("Stopping database {}", databaseURL);
+        migrator.ifPresent(RecordMigrator::stop);
+        migrator = Optional.empty();
+        if (journal.isPresent()) {
+            try {
+                journal.get().close();
+            } catch (IOException e) {
+                LOG.error(e.toString());
+            }
+            journal = Optional.empty();
+        }
 
         while (dataSource.getNumActive() > 0) {
             try {
@@ -136,7 +190,7 @@ public class Database {
     public void clear() {
         try (Connection conn = dataSource.getConnection();
              Statement statement = conn.createStatement()) {
-            statement.execute("DROP TABLE users, jobs, applications, properties");
+            statement.execute("DROP TABLE users, jobs, applications, properties, archived_jobs, usage_hourly");
             conn.commit();
             LOG.info("All tables dropped successfully");
         } catch (SQLException e) {
@@ -186,16 +240,216 @@ public class Database {
 
         if (allTableExists(conn)) {
             LOG.info("All four table exists.");
+            if (!columns(conn, "jobs").contains("owner")) {
+                migrateJobs(conn);
+            }
+            if (!columns(conn, "jobs").contains("data")) {
+                addDataColumns(conn);
+            }
+            if (!columns(conn, "jobs").contains("version")) {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("ALTER TABLE jobs ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+                }
+            }
+            if (!columns(conn, "jobs").contains("array_id")) {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("ALTER TABLE jobs ADD COLUMN array_id INTEGER");
+                    statement.execute("CREATE INDEX jobs_array_id ON jobs(array_id)");
+                }
+            }
         } else {
             LOG.info("No table exists: creating...");
+            executeDDL(conn, "/retz-ddl.sql");
+        }
+        if (!tableExists(conn, "archived_jobs")) {
+            LOG.info("Creating archived_jobs table ...");
+            executeDDL(conn, "/retz-ddl-archive.sql");
+        }
+        if (!tableExists(conn, "usage_hourly")) {
+            LOG.info("Creating usage_hourly table ...");
+            executeDDL(conn, "/retz-ddl-usage.sql");
+            backfillUsage(conn);
+        }
+    }
+
+    private void executeDDL(Connection conn, String resource) throws SQLException, IOException {
+        InputStream ddl = Launcher.class.getResourceAsStream(resource);
+        String createString = org.apache.commons.io.IOUtils.toString(ddl, UTF_8);
+        //System.err.println(createString);
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(createString);
+        }
+    }
+
+    boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet res = conn.getMetaData().getTables(null, null, "%", new String[]{"TABLE"})) {
+            while (res.next()) {
+                if (table.equalsIgnoreCase(res.getString("TABLE_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Lower-cased column names of the table
+    Set<String> columns(Connection conn, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement statement = conn.createStatement();
+             ResultSet res = statement.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData meta = res.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(meta.getColumnName(i).toLowerCase(Locale.ROOT));
+            }
+        }
+        return columns;
+    }
+
+    // Migrate jobs table created by 0.0.30 or before, which has fields only in json,
+    // to have typed columns filled from json, and composite indexes
+    void migrateJobs(Connection conn) throws SQLException, IOException {
+        LOG.info("Migrating jobs table to typed columns ...");
+        try (Statement statement = conn.createStatement()) {
+            for (String column : Arrays.asList("owner VARCHAR(32)",
+                    "cpu INTEGER NOT NULL DEFAULT 0", "mem_mb INTEGER NOT NULL DEFAULT 0",
+                    "gpu INTEGER NOT NULL DEFAULT 0", "ports INTEGER NOT NULL DEFAULT 0",
+                    "priority INTEGER NOT NULL DEFAULT 0",
+                    "scheduled_at BIGINT", "started_at BIGINT", "finished_at BIGINT")) {
+                statement.execute("ALTER TABLE jobs ADD COLUMN " + column);
+            }
+        }
 
-            InputStream ddl = Launcher.class.getResourceAsStream("/retz-ddl.sql");
-            String createString = org.apache.commons.io.IOUtils.toString(ddl, UTF_8);
-            //System.err.println(createString);
-            try (Statement statement = conn.createStatement()) {
-                statement.execute(createString);
+        Map<String, String> owners = new HashMap<>();
+        try (PreparedStatement p = conn.prepareStatement("SELECT appid, owner FROM applications");
+             ResultSet res = p.executeQuery()) {
+            while (res.next()) {
+                owners.put(res.getString(1), res.getString(2));
             }
         }
+
+        int count = 0;
+        try (PreparedStatement select = conn.prepareStatement("SELECT json FROM jobs");
+             PreparedStatement update = conn.prepareStatement(
+                     "UPDATE jobs SET owner=?, cpu=?, mem_mb=?, gpu=?, ports=?, priority=?, scheduled_at=?, started_at=?, finished_at=? WHERE id=?");
+             ResultSet res = select.executeQuery()) {
+            while (res.next()) {
+                Job job = MAPPER.readValue(res.getString(1), Job.class);
+                update.setString(1, owners.get(job.appid()));
+                update.setInt(2, job.cpu());
+                update.setInt(3, job.memMB());
+                update.setInt(4, job.gpu());
+                update.setInt(5, job.ports());
+                update.setInt(6, job.priority());
+                Jobs.setTimestamp(update, 7, job.scheduledAt());
+                Jobs.setTimestamp(update, 8, job.startedAt());
+                Jobs.setTimestamp(update, 9, job.finishedAt());
+                update.setInt(10, job.id());
+                update.addBatch();
+                if (++count % 1024 == 0) {
+                    update.executeBatch();
+                }
+            }
+            update.executeBatch();
+        }
+
+        try (Statement statement = conn.createStatement()) {
+            // Indexes on old columns, and ones by 0.0.31-SNAPSHOT covered by composite ones
+            for (String index : Arrays.asList("started", "finished", "state")) {
+                statement.execute("DROP INDEX IF EXISTS " + index);
+            }
+            statement.execute("ALTER TABLE jobs DROP COLUMN started");
+            statement.execute("ALTER TABLE jobs DROP COLUMN finished");
+            for (String index : Arrays.asList("appid ON jobs(appid)", "owner ON applications(owner)",
+                    "jobs_state_priority_id ON jobs(state, priority, id)", "jobs_owner_id ON jobs(owner, id)",
+                    "jobs_owner_finished ON jobs(owner, finished_at)")) {
+                statement.execute("CREATE INDEX IF NOT EXISTS " + index);
+            }
+        }
+        LOG.info("{} jobs migrated", count);
+    }
+
+    // Add 'data' column for binary records and make 'json' nullable; see RecordCodec
+    void addDataColumns(Connection conn) throws SQLException {
+        LOG.info("Adding data column for binary records ...");
+        boolean postgres = "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+        try (Statement statement = conn.createStatement()) {
+            for (String table : Arrays.asList("applications", "jobs")) {
+                statement.execute("ALTER TABLE " + table + " ADD COLUMN data BYTEA");
+                statement.execute("ALTER TABLE " + table + " ALTER COLUMN json " + (postgres ? "DROP NOT NULL" : "SET NULL"));
+            }
+        }
+    }
+
+    // Add up usage of jobs already finished or killed, in databases created before usage_hourly
+    void backfillUsage(Connection conn) throws SQLException, IOException {
+        List<Usage> usages = new LinkedList<>();
+        int jobs = 0;
+        for (String table : Arrays.asList("jobs", "archived_jobs")) {
+            try (PreparedStatement p = conn.prepareStatement("SELECT owner, json, data FROM " + table
+                    + " WHERE state IN ('FINISHED', 'KILLED') AND owner IS NOT NULL");
+                 ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    List<Usage> usage = Usage.of(res.getString("owner"), codec.get(res, Job.class));
+                    if (!usage.isEmpty()) {
+                        usages.addAll(usage);
+                        jobs++;
+                    }
+                }
+            }
+        }
+        addUsage(conn, usages);
+        LOG.info("Usage of {} finished jobs added up", jobs);
+    }
+
+    // Re-encode applications not encoded by current codec; returns number of them
+    int reencodeApplications() throws SQLException, IOException {
+        int count = 0;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement("SELECT appid, json, data FROM applications WHERE " + codec.staleCondition());
+             PreparedStatement update = conn.prepareStatement("UPDATE applications SET json=?, data=? WHERE appid=? AND " + codec.staleCondition())) {
+            conn.setAutoCommit(false);
+            try (ResultSet res = select.executeQuery()) {
+                while (res.next()) {
+                    codec.set(update, 1, 2, codec.get(res, Application.class));
+                    update.setString(3, res.getString("appid"));
+                    update.addBatch();
+                    count++;
+                }
+            }
+            update.executeBatch();
+            conn.commit();
+        }
+        return count;
+    }
+
+    // Re-encode up to limit jobs after the id, which are not encoded by current codec.
+    // Rows updated concurrently by current codec are left as they are.
+    // Returns the largest id checked, or -1 if no such job.
+    int reencodeJobs(int afterId, int limit) throws SQLException, IOException {
+        int last = -1;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement("SELECT id, json, data FROM jobs WHERE id > ? AND "
+                     + codec.staleCondition() + " ORDER BY id ASC LIMIT ?");
+             PreparedStatement update = conn.prepareStatement("UPDATE jobs SET json=?, data=? WHERE id=? AND " + codec.staleCondition())) {
+            conn.setAutoCommit(false);
+            select.setInt(1, afterId);
+            select.setInt(2, limit);
+            try (ResultSet res = select.executeQuery()) {
+                while (res.next()) {
+                    last = res.getInt("id");
+                    codec.set(update, 1, 2, codec.get(res, Job.class));
+                    update.setInt(3, last);
+                    update.addBatch();
+                }
+            }
+            update.executeBatch();
+            conn.commit();
+        }
+        return last;
+    }
+
+    String codecName() {
+        return codec.name();
     }
 
     public List<User> allUsers() {
@@ -275,9 +529,18 @@ public class Database {
         }
     }
 
-    public void enableUser(String keyId, boolean enabled) {
-        LOG.warn("enableUser: Not yet implemented"); //TODO
-        throw new RuntimeException("Not yet implemented");
+    public boolean enableUser(String keyId, boolean enabled) {
+        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("UPDATE users SET enabled=? WHERE key_id=?")) {
+            conn.setAutoCommit(true);
+
+            p.setBoolean(1, enabled);
+            p.setString(2, keyId);
+            return p.executeUpdate() > 0;
+        } catch (SQLException e) {
+            LOG.error(e.toString());
+            return false;
+        }
     }
 
     // public static void deleteUser(String keyId) {
@@ -316,8 +579,7 @@ public class Database {
             }
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString("json");
-                    Application app = MAPPER.readValue(json, Application.class);
+                    Application app = codec.get(res, Application.class);
                     ret.add(app);
                 }
             }
@@ -327,7 +589,7 @@ public class Database {
 
     public boolean addApplication(Application a) throws JsonProcessingException {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("INSERT INTO applications(appid, owner, json) values(?, ?, ?)")) {
+             PreparedStatement p = conn.prepareStatement("INSERT INTO applications(appid, owner, json, data) values(?, ?, ?, ?)")) {
             conn.setAutoCommit(false);
 
             Optional<User> u = getUser(conn, a.getOwner());
@@ -340,7 +602,7 @@ public class Database {
             deleteApplication(conn, a.getAppid());
             p.setString(1, a.getAppid());
             p.setString(2, a.getOwner());
-            p.setString(3, MAPPER.writeValueAsString(a));
+            codec.set(p, 3, 4, a);
             p.execute();
             conn.commit();
             return true;
@@ -369,8 +631,7 @@ public class Database {
             p.setString(1, appid);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Application app = MAPPER.readValue(json, Application.class);
+                    Application app = codec.get(res, Application.class);
                     if (!appid.equals(app.getAppid())) {
                         LOG.error("{} != {} in Database", appid, app.getAppid());
                         throw new AssertionError("Appid in JSON must be equal to the column");
@@ -409,11 +670,12 @@ public class Database {
         }
     }
 
+    @Override
     public List<Job> getAllJobs(String id) throws IOException {
         List<Job> ret = new LinkedList<>();
-        String sql = "SELECT j.json FROM jobs j";
+        String sql = "SELECT json, data FROM jobs";
         if (id != null) {
-            sql = "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
+            sql = "SELECT json, data FROM jobs WHERE owner = ?";
         }
         try (Connection conn = dataSource.getConnection(); // pool.getConnection();
              PreparedStatement p = conn.prepareStatement(sql)) {
@@ -424,9 +686,7 @@ public class Database {
 
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    //String json = res.getString("j.json");
-                    String json = res.getString(1);
-                    Job job = MAPPER.readValue(json, Job.class);
+                    Job job = codec.get(res, Job.class);
                     ret.add(job);
                 }
             }
@@ -437,19 +697,113 @@ public class Database {
         return ret;
     }
 
-    // Selects all "finished" jobs
-    public List<Job> finishedJobs(String id, String start, String end) {
+    static long parseMillis(String timestamp) {
+        try {
+            return TimestampHelper.toMillis(timestamp);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid timestamp: " + timestamp);
+        }
+    }
+
+    // List jobs of the owner from the newest, with filters and the cursor pushed down into SQL.
+    // Archived jobs are merged into the result. Throws IllegalArgumentException for malformed timestamps
+    @Override
+    public List<Job> listJobs(String owner, ListJobRequest req, int limit) throws IOException {
+        // Keyed by id from the newest, or from the oldest when paging forward by 'since';
+        // a job archived while listing may be found in both tables
+        boolean forward = req.since() > 0;
+        SortedMap<Integer, Job> jobs = forward ? new TreeMap<>() : new TreeMap<>(Comparator.reverseOrder());
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(true);
+            for (Job job : listJobs(conn, "jobs", owner, req, limit)) {
+                jobs.put(job.id(), job);
+            }
+            // Only finished or killed jobs are archived
+            Optional<Job.JobState> state = req.state();
+            if (!state.isPresent() || state.get() == Job.JobState.FINISHED || state.get() == Job.JobState.KILLED) {
+                for (Job job : listJobs(conn, "archived_jobs", owner, req, limit)) {
+                    jobs.put(job.id(), job);
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error(e.toString());
+        }
+        List<Job> ret = jobs.values().stream().limit(limit).collect(Collectors.toList());
+        if (forward) {
+            Collections.reverse(ret);
+        }
+        return ret;
+    }
+
+    private List<Job> listJobs(Connection conn, String table, String owner, ListJobRequest req, int limit) throws SQLException, IOException {
+        List<Job> ret = new LinkedList<>();
+        StringBuilder sql = new StringBuilder("SELECT json, data FROM " + table + " WHERE owner = ?");
+        List<Object> params = new LinkedList<>();
+        params.add(owner);
+        if (req.before() > 0) {
+            sql.append(" AND id < ?");
+            params.add(req.before());
+        }
+        if (req.since() > 0) {
+            sql.append(" AND id > ?");
+            params.add(req.since());
+        }
+        if (req.state().isPresent()) {
+            sql.append(" AND state = ?");
+            params.add(req.state().get().toString());
+        }
+        if (req.appid().isPresent()) {
+            sql.append(" AND appid = ?");
+            params.add(req.appid().get());
+        }
+        if (req.from().isPresent()) {
+            sql.append(" AND ? <= finished_at");
+            params.add(parseMillis(req.from().get()));
+        }
+        if (req.to().isPresent()) {
+            sql.append(" AND finished_at < ?");
+            params.add(parseMillis(req.to().get()));
+        }
+        // Jobs right after 'since', not the newest ones, so that paging forward misses none
+        sql.append(req.since() > 0 ? " ORDER BY id ASC LIMIT ?" : " ORDER BY id DESC LIMIT ?");
+        params.add(limit);
+
+        try (PreparedStatement p = conn.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (Object param : params) {
+                p.setObject(i++, param);
+            }
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ret.add(codec.get(res, Job.class));
+                }
+            }
+        }
+        return ret;
+    }
+
+    // Selects "finished" jobs of the owner in [start, end), in milliseconds since the epoch, after the id
+    @Override
+    public List<Job> finishedJobs(String id, long start, long end, int afterId, int limit) {
         List<Job> ret = new LinkedList<>();
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE owner=? AND ? <= finished AND finished < ?")) {
+             PreparedStatement p = conn.prepareStatement("SELECT id, json, data FROM jobs WHERE owner=? AND ? <= finished_at AND finished_at < ? AND id > ?"
+                     + " UNION ALL SELECT id, json, data FROM archived_jobs WHERE owner=? AND ? <= finished_at AND finished_at < ? AND id > ?"
+                     + " ORDER BY id ASC LIMIT ?")) {
             conn.setAutoCommit(true);
+            for (int i = 0; i < 8; i += 4) {
+                p.setString(i + 1, id);
+                p.setLong(i + 2, start);
+                p.setLong(i + 3, end);
+                p.setInt(i + 4, afterId);
+            }
+            p.setInt(9, limit);
 
             try (ResultSet res = p.executeQuery()) {
 
                 while (res.next()) {
-                    String json = res.getString("json");
                     try {
-                        Job job = MAPPER.readValue(json, Job.class);
+                        Job job = codec.get(res, Job.class);
                         if (job == null) {
                             throw new AssertionError("Cannot be null!!");
                         }
@@ -466,49 +820,95 @@ public class Database {
         return ret;
     }
 
-    public List<Job> findFit(int cpu, int memMB) throws IOException {
-        List<Job> ret = new LinkedList<>();
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC")) {
+    @Override
+    public List<Usage> getUsage(String owner, long start, long end) {
+        List<Usage> ret = new LinkedList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT * FROM usage_hourly WHERE owner=? AND ? <= bucket AND bucket < ? ORDER BY bucket, appid")) {
             conn.setAutoCommit(true);
-
+            p.setString(1, owner);
+            p.setLong(2, start);
+            p.setLong(3, end);
             try (ResultSet res = p.executeQuery()) {
-                int totalCpu = 0;
-                int totalMem = 0;
-
-                while (res.next() && totalCpu <= cpu && totalMem <= memMB) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
-
-                    if (job == null) {
-                        throw new AssertionError("Cannot be null!!");
-                    } else if (totalCpu + job.cpu() <= cpu && totalMem + job.memMB() <= memMB) {
-                        ret.add(job);
-                        totalCpu += job.cpu();
-                        totalMem += job.memMB();
-                    } else {
-                        break;
-                    }
+                while (res.next()) {
+                    ret.add(new Usage(res.getString("owner"), res.getString("appid"), res.getLong("bucket"), res.getInt("jobs"),
+                            res.getLong("cpu_ms"), res.getLong("mem_mb_ms"), res.getLong("gpu_ms")));
                 }
             }
         } catch (SQLException e) {
             LOG.error(e.toString());
-            e.printStackTrace();
         }
         return ret;
     }
 
+    private static final String ADD_USAGE = "UPDATE usage_hourly SET jobs=jobs+?, cpu_ms=cpu_ms+?, mem_mb_ms=mem_mb_ms+?, gpu_ms=gpu_ms+?"
+            + " WHERE owner=? AND bucket=? AND appid=?";
+    private static final String INSERT_USAGE = "INSERT INTO usage_hourly(jobs, cpu_ms, mem_mb_ms, gpu_ms, owner, bucket, appid)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // Add usages to their buckets within the transaction. Returns false if a bucket has been
+    // created concurrently; then the transaction must be rolled back and retried
+    private boolean addUsage(Connection conn, List<Usage> usages) throws SQLException {
+        if (usages.isEmpty()) {
+            return true;
+        }
+        Map<String, Usage> buckets = new LinkedHashMap<>();
+        for (Usage u : usages) {
+            buckets.merge(u.key(), u, Usage::plus);
+        }
+        try (PreparedStatement update = conn.prepareStatement(ADD_USAGE);
+             PreparedStatement insert = conn.prepareStatement(INSERT_USAGE)) {
+            for (Usage u : buckets.values()) {
+                setUsage(update, u);
+                if (update.executeUpdate() == 0) {
+                    setUsage(insert, u);
+                    insert.execute();
+                }
+            }
+        } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                LOG.debug("Usage bucket created concurrently: retrying");
+                return false;
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    private static void setUsage(PreparedStatement p, Usage u) throws SQLException {
+        p.setInt(1, u.jobs());
+        p.setLong(2, u.cpuMs());
+        p.setLong(3, u.memMBMs());
+        p.setLong(4, u.gpuMs());
+        p.setString(5, u.owner());
+        p.setLong(6, u.hour());
+        p.setString(7, u.appid());
+    }
+
+    static boolean isFinished(Job.JobState state) {
+        return state == Job.JobState.FINISHED || state == Job.JobState.KILLED;
+    }
+
+    // Usage of the job only if it has just become finished or killed from the state
+    private static List<Usage> usageOf(Job.JobState before, String owner, Job after) {
+        List<Usage> usages = new LinkedList<>();
+        if (owner != null && !isFinished(before) && isFinished(after.state())) {
+            usages.addAll(Usage.of(owner, after));
+        }
+        return usages;
+    }
+
+    @Override
     public List<Job> queued(int limit) throws IOException, SQLException {
         List<Job> ret = new LinkedList<>();
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC LIMIT ?")) {
+             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='QUEUED' ORDER BY priority DESC, id ASC LIMIT ?")) {
             conn.setAutoCommit(true);
             p.setInt(1, limit);
 
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
+                    Job job = codec.get(res, Job.class);
 
                     if (job == null || job.state() != Job.JobState.QUEUED) {
                         throw new AssertionError("Cannot be null!!");
@@ -521,54 +921,163 @@ public class Database {
         return ret;
     }
 
-    public void addJob(Connection conn, Job j) throws SQLException, JsonProcessingException {
-        try (PreparedStatement p = conn.prepareStatement("INSERT INTO jobs(name, id, appid, cmd, taskid, state, json) values(?, ?, ?, ?, ?, ?, ?)")) {
-            p.setString(1, j.name());
-            p.setInt(2, j.id());
-            p.setString(3, j.appid());
-            p.setString(4, j.cmd());
-            p.setString(5, j.taskId());
-            p.setString(6, j.state().toString());
-            p.setString(7, MAPPER.writeValueAsString(j));
+    @Override
+    public List<Job> running() throws IOException, SQLException {
+        List<Job> ret = new LinkedList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='STARTING' OR state='STARTED'")) {
+            conn.setAutoCommit(true);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ret.add(codec.get(res, Job.class));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static final String INSERT_JOB = "INSERT INTO jobs(name, id, appid, owner, cmd, cpu, mem_mb, gpu, ports, priority, "
+            + "scheduled_at, started_at, finished_at, taskid, state, json, data, array_id) values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    public void addJob(Connection conn, Job j, String owner) throws SQLException, JsonProcessingException {
+        try (PreparedStatement p = conn.prepareStatement(INSERT_JOB)) {
+            setJob(p, j, owner);
             p.execute();
         }
     }
 
-    public void safeAddJob(Job j) {
+    // Insert all jobs with one batched statement; owners are mapped from appid
+    public void addJobs(Connection conn, List<Job> jobs, Map<String, String> owners) throws SQLException, JsonProcessingException {
+        try (PreparedStatement p = conn.prepareStatement(INSERT_JOB)) {
+            for (Job j : jobs) {
+                setJob(p, j, owners.get(j.appid()));
+                p.addBatch();
+            }
+            p.executeBatch();
+        }
+    }
+
+    private void setJob(PreparedStatement p, Job j, String owner) throws SQLException, JsonProcessingException {
+        p.setString(1, j.name());
+        p.setInt(2, j.id());
+        p.setString(3, j.appid());
+        p.setString(4, owner);
+        p.setString(5, j.cmd());
+        p.setInt(6, j.cpu());
+        p.setInt(7, j.memMB());
+        p.setInt(8, j.gpu());
+        p.setInt(9, j.ports());
+        p.setInt(10, j.priority());
+        Jobs.setTimestamp(p, 11, j.scheduledAt());
+        Jobs.setTimestamp(p, 12, j.startedAt());
+        Jobs.setTimestamp(p, 13, j.finishedAt());
+        p.setString(14, j.taskId());
+        p.setString(15, j.state().toString());
+        codec.set(p, 16, 17, j);
+        if (j.arrayId() < 0) {
+            p.setNull(18, Types.INTEGER);
+        } else {
+            p.setInt(18, j.arrayId());
+        }
+    }
+
+    // Returns true only when the job has been committed
+    @Override
+    public boolean safeAddJob(Job j) {
+        return safeAddJobs(Arrays.asList(j));
+    }
+
+    // Returns true only when all jobs have been committed in one transaction
+    @Override
+    public boolean safeAddJobs(List<Job> jobs) {
         try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
             conn.setAutoCommit(false);
 
-            Optional<Application> app = getApplication(conn, j.appid());
-            if (!app.isPresent()) {
-                throw new RuntimeException("No such application: " + j.appid());
+            Map<String, String> owners = new HashMap<>();
+            for (Job j : jobs) {
+                if (!owners.containsKey(j.appid())) {
+                    Optional<Application> app = getApplication(conn, j.appid());
+                    if (!app.isPresent()) {
+                        throw new RuntimeException("No such application: " + j.appid());
+                    }
+                    owners.put(j.appid(), app.get().getOwner());
+                }
             }
 
-            addJob(conn, j);
+            addJobs(conn, jobs, owners);
             conn.commit();
+            return true;
 
         } catch (IOException e) {
             throw new RuntimeException(e.toString());
         } catch (SQLException e) {
             LOG.error(e.toString());
+            return false;
         }
     }
 
-    public Optional<Job> getJob(int id) throws JsonProcessingException, IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE id = ?")) {
+    // Tasks are inserted in the same transaction as the array is updated, only if the array
+    // has not been updated since read
+    @Override
+    public Optional<Job> expandArray(int id, List<Job> tasks) throws IOException, SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; ++attempt) {
+                Optional<Jobs.Versioned> v = jobs.getVersioned(id);
+                if (!v.isPresent() || v.get().job.state() != Job.JobState.QUEUED) {
+                    conn.rollback();
+                    return Optional.empty();
+                }
+                Job array = v.get().job;
+                array.expand(tasks.size());
+                if (jobs.updateJob(array, v.get().version)) {
+                    addJobs(conn, tasks, Collections.singletonMap(array.appid(), v.get().owner));
+                    conn.commit();
+                    return Optional.of(array);
+                }
+                conn.rollback();
+            }
+        }
+        throw new SQLException("Too many concurrent updates on job id=" + id);
+    }
+
+    @Override
+    public Map<Job.JobState, Integer> countArray(int id) throws SQLException {
+        Map<Job.JobState, Integer> ret = new EnumMap<>(Job.JobState.class);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT state, count(id) FROM jobs WHERE array_id=? GROUP BY state")) {
             conn.setAutoCommit(true);
             p.setInt(1, id);
             try (ResultSet res = p.executeQuery()) {
-                if (res.next()) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
-                    if (id != job.id()) {
-                        LOG.error("{} != {} in Database", id, job.id());
-                        throw new AssertionError("id in JSON must be equal to the column");
+                while (res.next()) {
+                    ret.put(Job.JobState.valueOf(res.getString(1)), res.getInt(2));
+                }
+            }
+        }
+        return ret;
+    }
+
+    // Archived jobs are also looked up
+    @Override
+    public Optional<Job> getJob(int id) throws JsonProcessingException, IOException {
+        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json, data FROM jobs WHERE id = ?");
+             PreparedStatement archived = conn.prepareStatement("SELECT json, data FROM archived_jobs WHERE id = ?")) {
+            conn.setAutoCommit(true);
+            for (PreparedStatement statement : Arrays.asList(p, archived)) {
+                statement.setInt(1, id);
+                try (ResultSet res = statement.executeQuery()) {
+                    if (res.next()) {
+                        Job job = codec.get(res, Job.class);
+                        if (id != job.id()) {
+                            LOG.error("{} != {} in Database", id, job.id());
+                            throw new AssertionError("id in JSON must be equal to the column");
+                        }
+                        return Optional.of(job);
                     }
-                    return Optional.of(job);
+                    // No such job
                 }
-                // No such application
             }
         } catch (SQLException e) {
             LOG.error(e.toString());
@@ -576,17 +1085,17 @@ public class Database {
         return Optional.empty();
     }
 
+    @Override
     public Optional<Job> getJobFromTaskId(String taskId) throws JsonProcessingException, IOException {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE taskid=?")) {
+             PreparedStatement p = conn.prepareStatement("SELECT json, data FROM jobs WHERE taskid=?")) {
             conn.setAutoCommit(true);
 
             p.setString(1, taskId);
 
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
+                    Job job = codec.get(res, Job.class);
                     if (!taskId.equals(job.taskId())) {
                         LOG.error("{} != {} in Database", taskId, job.taskId());
                         throw new AssertionError("id in JSON must be equal to the column");
@@ -602,49 +1111,238 @@ public class Database {
         return Optional.empty();
     }
 
-    // Delete all jobs that has ID smaller than id
+    // Delete all jobs, including archived ones, that has ID smaller than id
+    @Override
     public void deleteAllJob(int maxId) {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE id < ?")) {
+             PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE id < ?");
+             PreparedStatement archived = conn.prepareStatement("DELETE FROM archived_jobs WHERE id < ?")) {
             conn.setAutoCommit(true);
             p.setInt(1, maxId);
             p.execute();
+            archived.setInt(1, maxId);
+            archived.execute();
         } catch (SQLException e) {
             LOG.error(e.toString());
         }
     }
 
-    public void setJobStarting(int id, Optional<String> maybeUrl, String taskId) throws IOException, SQLException, JobNotFoundException {
-        updateJob(id, job -> {
-            job.starting(taskId, maybeUrl, TimestampHelper.now());
+    // Move up to limit finished or killed jobs, finished before the time in milliseconds,
+    // from jobs table to archived_jobs table in single transaction; returns number of jobs moved
+    @Override
+    public int archiveJobs(long finishedBefore, int limit) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT id FROM jobs WHERE state IN ('FINISHED', 'KILLED') AND finished_at < ? ORDER BY id ASC LIMIT ?")) {
+            conn.setAutoCommit(false);
+            p.setLong(1, finishedBefore);
+            p.setInt(2, limit);
+            List<Integer> ids = new ArrayList<>(limit);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ids.add(res.getInt(1));
+                }
+            }
+            if (ids.isEmpty()) {
+                conn.commit();
+                return 0;
+            }
+
+            String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO archived_jobs(id, appid, owner, state, finished_at, json, data) "
+                    + "SELECT id, appid, owner, state, finished_at, json, data FROM jobs WHERE id IN (" + placeholders + ")");
+                 PreparedStatement delete = conn.prepareStatement("DELETE FROM jobs WHERE id IN (" + placeholders + ")")) {
+                for (int i = 0; i < ids.size(); ++i) {
+                    insert.setInt(i + 1, ids.get(i));
+                    delete.setInt(i + 1, ids.get(i));
+                }
+                insert.execute();
+                delete.execute();
+            }
+            conn.commit();
+            return ids.size();
+        }
+    }
+
+    @Override
+    public int countArchivedJobs() {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM archived_jobs")) {
+            conn.setAutoCommit(true);
+            try (ResultSet set = p.executeQuery()) {
+                if (set.next()) {
+                    return set.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error(e.toString());
+        }
+        return -1;
+    }
+
+    @Override
+    public Optional<Job> setJobStarting(int id, Optional<String> maybeUrl, String taskId) throws IOException, SQLException, JobNotFoundException {
+        return updateJob(id, job -> {
+            job.starting(taskId, maybeUrl, System.currentTimeMillis());
             LOG.info("TaskId of id={}: {} / {}", id, taskId, job.taskId());
             return Optional.of(job);
         });
     }
 
-    public void updateJob(int id, Function<Job, Optional<Job>> fun) throws IOException, SQLException, JobNotFoundException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
+    // Apply the function to the job optimistically: read it with its version, and then single UPDATE
+    // which succeeds only if nobody has updated it in between, or retry. No lock is held across them.
+    // Returns the job as committed, or empty if the function decided not to update it
+    @Override
+    public Optional<Job> updateJob(int id, Function<Job, Optional<Job>> fun) throws IOException, SQLException, JobNotFoundException {
+        try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; ++attempt) {
+                Optional<Jobs.Versioned> maybeJob = jobs.getVersioned(id);
+                conn.commit();
+                if (!maybeJob.isPresent()) {
+                    throw new JobNotFoundException(id);
+                }
+                Optional<Job> result = update(conn, jobs, maybeJob.get(), fun);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        throw new SQLException("Too many concurrent updates on job id=" + id);
+    }
+
+    // Same as updateJob, with the job found by task id. Returns empty if no such job
+    @Override
+    public Optional<Job> updateJobByTaskId(String taskId, Function<Job, Optional<Job>> fun) throws IOException, SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; ++attempt) {
+                List<Jobs.Versioned> found = jobs.getVersionedFromTaskIds(Arrays.asList(taskId));
+                conn.commit();
+                if (found.isEmpty()) {
+                    LOG.info("no such job: taskId={}", taskId);
+                    return Optional.empty();
+                }
+                Optional<Job> result = update(conn, jobs, found.get(0), fun);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        throw new SQLException("Too many concurrent updates on job taskId=" + taskId);
+    }
+
+    // Returns null on conflict
+    private Optional<Job> update(Connection conn, Jobs jobs, Jobs.Versioned v, Function<Job, Optional<Job>> fun) throws IOException, SQLException {
+        Job.JobState before = v.job.state();
+        Optional<Job> result = fun.apply(v.job);
+        if (!result.isPresent()) {
+            return result;
+        }
+        boolean updated = jobs.updateJob(result.get(), v.version);
+        if (updated && !addUsage(conn, usageOf(before, v.owner, result.get()))) {
+            conn.rollback();
+            return null;
+        }
+        conn.commit();
+        if (updated) {
+            LOG.info("Job (id={}) status updated to {}", result.get().id(), result.get().state());
+            return result;
+        }
+        LOG.debug("Job (id={}) was updated concurrently: retrying", v.job.id());
+        return null;
+    }
+
+    // Write the job, e.g. one on memory already changed by the caller, in single UPDATE without
+    // reading it, only if it is in one of the states in database. Returns whether it's written
+    @Override
+    public boolean updateJobIfState(Job job, Job.JobState... states) throws IOException, SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; ++attempt) {
+                boolean updated = jobs.updateJobIfState(job, Arrays.asList(states));
+                // The job has just been finished only if none of the states is
+                if (updated && states.length > 0 && Arrays.stream(states).noneMatch(Database::isFinished)
+                        && isFinished(job.state()) && !addUsage(conn, usageOf(states[0], ownerOf(conn, job.id()), job))) {
+                    conn.rollback();
+                    continue;
+                }
+                conn.commit();
+                return updated;
+            }
+        }
+        throw new SQLException("Too many concurrent updates on job id=" + job.id());
+    }
+
+    private String ownerOf(Connection conn, int id) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT owner FROM jobs WHERE id=?")) {
             p.setInt(1, id);
-            try (ResultSet set = p.executeQuery()) {
-                if (set.next()) {
-                    String json = set.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
-                    Optional<Job> result = fun.apply(job);
+            try (ResultSet res = p.executeQuery()) {
+                return res.next() ? res.getString(1) : null;
+            }
+        }
+    }
+
+    // Apply functions to jobs found by task ids optimistically, with one SELECT and one batched UPDATE;
+    // jobs updated concurrently in between are read and applied again. Returns jobs updated;
+    // task ids without corresponding job are just ignored.
+    @Override
+    public List<Job> updateJobsByTaskId(Map<String, Function<Job, Optional<Job>>> funs) throws IOException, SQLException {
+        List<Job> updated = new LinkedList<>();
+        Map<String, Function<Job, Optional<Job>>> pending = funs;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 0; !pending.isEmpty(); ++attempt) {
+                if (attempt >= MAX_UPDATE_ATTEMPTS) {
+                    throw new SQLException("Too many concurrent updates on " + pending.size() + " jobs");
+                }
+                List<Jobs.Versioned> toUpdate = new LinkedList<>();
+                // Task ids and states as read, in case functions change them
+                Map<Jobs.Versioned, String> taskIds = new IdentityHashMap<>();
+                Map<Jobs.Versioned, Job.JobState> states = new IdentityHashMap<>();
+                for (Jobs.Versioned v : jobs.getVersionedFromTaskIds(pending.keySet())) {
+                    String taskId = v.job.taskId();
+                    Job.JobState before = v.job.state();
+                    Optional<Job> result = pending.get(taskId).apply(v.job);
                     if (result.isPresent()) {
-                        // addJob..
-                        new Jobs(conn, MAPPER).updateJob(job);
-                        conn.commit();
-                        LOG.info("Job (id={}) status updated to {}", job.id(), job.state());
+                        Jobs.Versioned u = new Jobs.Versioned(result.get(), v.version, v.owner);
+                        toUpdate.add(u);
+                        taskIds.put(u, taskId);
+                        states.put(u, before);
                     }
-                } else {
-                    throw new JobNotFoundException(id);
                 }
+                conn.commit();
+                List<Jobs.Versioned> conflicts = jobs.updateJobsIfVersion(toUpdate);
+                List<Usage> usages = new LinkedList<>();
+                for (Jobs.Versioned v : toUpdate) {
+                    if (!conflicts.contains(v)) {
+                        usages.addAll(usageOf(states.get(v), v.owner, v.job));
+                    }
+                }
+                if (!addUsage(conn, usages)) {
+                    conn.rollback();
+                    continue;
+                }
+                conn.commit();
+
+                Map<String, Function<Job, Optional<Job>>> retry = new LinkedHashMap<>();
+                for (Jobs.Versioned v : toUpdate) {
+                    if (conflicts.contains(v)) {
+                        retry.put(taskIds.get(v), funs.get(taskIds.get(v)));
+                    } else {
+                        updated.add(v.job);
+                    }
+                }
+                pending = retry;
             }
         }
+        return updated;
     }
 
+    @Override
     public int countJobs() {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM jobs")) {
@@ -660,11 +1358,13 @@ public class Database {
         return -1;
     }
 
+    @Override
     public int countRunning() {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM jobs WHERE state = ?")) {
+             PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM jobs WHERE state IN (?, ?)")) {
             conn.setAutoCommit(true);
-            p.setString(1, Job.JobState.STARTED.toString());
+            p.setString(1, Job.JobState.STARTING.toString());
+            p.setString(2, Job.JobState.STARTED.toString());
             try (ResultSet set = p.executeQuery()) {
                 if (set.next()) {
                     return set.getInt(1);
@@ -676,27 +1376,59 @@ public class Database {
         return -1;
     }
 
+    @Override
     public int getLatestJobId() {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT id FROM jobs ORDER BY id DESC LIMIT 1")) {
+        try (Connection conn = dataSource.getConnection()) { //pool.getConnection();
             conn.setAutoCommit(true);
-            try (ResultSet res = p.executeQuery()) {
-                if (res.next()) {
-                    int id = res.getInt("id");
-                    return id;
-                }
-                // No such application
-            }
+            return getLatestJobId(conn);
         } catch (SQLException e) {
             LOG.error(e.toString());
         }
         return 0;
     }
 
+    private int getLatestJobId(Connection conn) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT (SELECT MAX(id) FROM jobs), (SELECT MAX(id) FROM archived_jobs)");
+             ResultSet res = p.executeQuery()) {
+            if (res.next()) {
+                // Archived jobs count too, or their ids would be reused; NULL is 0
+                return Math.max(res.getInt(1), res.getInt(2));
+            }
+        }
+        return 0;
+    }
+
+    // Reserve a block of consecutive job ids from the sequence persisted in properties table, which is
+    // shared by all servers on this database; returns the first id. The sequence starts after jobs
+    // already in database.
+    @Override
+    public int allocateJobIds(int size) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Property property = new Property(conn);
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; ++attempt) {
+                try {
+                    Optional<Integer> first = property.reserveJobIds(size, getLatestJobId(conn) + 1);
+                    conn.commit();
+                    if (first.isPresent()) {
+                        LOG.info("Job ids [{}, {}) reserved", first.get(), first.get() + size);
+                        return first.get();
+                    }
+                } catch (SQLException e) {
+                    // e.g. another server has created the sequence at the same time
+                    conn.rollback();
+                    LOG.warn("Failed to reserve job ids: {}", e.toString());
+                }
+            }
+        }
+        throw new SQLException("Too many concurrent reservations of job ids");
+    }
+
+    @Override
     public List<Job> getRunning() {
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
-            return new Jobs(conn, MAPPER).getAllRunning();
+            return new Jobs(conn, codec).getAllRunning();
         } catch (SQLException e) {
             LOG.error(e.toString());
             return Arrays.asList();
@@ -733,25 +1465,42 @@ public class Database {
         }
     }
 
+    @Override
     public void updateJobs(List<Job> list) {
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
-            Jobs jobs = new Jobs(conn, MAPPER);
-            for (Job job : list) {
-                jobs.updateJob(job);
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; ++attempt) {
+                // States before update are read only for jobs to be finished
+                List<Usage> usages = new LinkedList<>();
+                for (Job job : list) {
+                    if (isFinished(job.state())) {
+                        Optional<Jobs.Versioned> current = jobs.getVersioned(job.id());
+                        if (current.isPresent()) {
+                            usages.addAll(usageOf(current.get().job.state(), current.get().owner, job));
+                        }
+                    }
+                }
+                jobs.updateJobs(list);
+                if (addUsage(conn, usages)) {
+                    conn.commit();
+                    return;
+                }
+                conn.rollback();
             }
-            conn.commit();
-        } catch (JsonProcessingException e) {
+            LOG.error("Too many concurrent updates on {} jobs", list.size());
+        } catch (IOException e) {
             LOG.error(e.toString());
         } catch (SQLException e) {
             LOG.error(e.toString());
         }
     }
 
+    @Override
     public void retryJobs(List<Integer> ids) {
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
-            new Jobs(conn, MAPPER).doRetry(ids);
+            new Jobs(conn, codec).doRetry(ids);
             conn.commit();
         } catch (SQLException e) {
             LOG.error(e.toString());
@@ -0,0 +1,123 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.ListJobRequest;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Usage;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Persistence of jobs, separated from users and applications which always live in {@link Database}.
+ *
+ * {@link Database} itself stores jobs in its tables by default, and {@link JournalJobStore} stores
+ * them in an append-only journal on local disk. Returned jobs are always copies; callers may
+ * change them freely, and changes are persisted only by passing them back to update methods.
+ * Stores add up {@link Usage} of each job exactly once, when it becomes finished or killed.
+ */
+public interface JobStore {
+    String DATABASE = "database";
+    String JOURNAL = "journal";
+    List<String> NAMES = Arrays.asList(DATABASE, JOURNAL);
+
+    // All jobs of the owner, or of all owners if null, except archived ones
+    List<Job> getAllJobs(String owner) throws IOException;
+
+    // Jobs of the owner from the newest, including archived ones
+    List<Job> listJobs(String owner, ListJobRequest req, int limit) throws IOException;
+
+    // Finished or killed jobs of the owner in [start, end), in milliseconds since the epoch
+    default List<Job> finishedJobs(String owner, long start, long end) {
+        return finishedJobs(owner, start, end, 0, Integer.MAX_VALUE);
+    }
+
+    // Same as above, up to limit jobs after the id in the order of id, for paging
+    List<Job> finishedJobs(String owner, long start, long end, int afterId, int limit);
+
+    // Usage buckets of the owner whose hours begin in [start, end), in the order of time
+    List<Usage> getUsage(String owner, long start, long end);
+
+    List<Job> queued(int limit) throws IOException, SQLException;
+
+    // All STARTING or STARTED jobs as they are, unlike getRunning
+    List<Job> running() throws IOException, SQLException;
+
+    boolean safeAddJob(Job j);
+
+    // Returns true only when all jobs have been persisted at once
+    boolean safeAddJobs(List<Job> jobs);
+
+    // Add tasks of the array job and count them in the array at once, only if the array is still
+    // QUEUED. Returns the array as persisted, or empty if it isn't queued any more
+    Optional<Job> expandArray(int id, List<Job> tasks) throws IOException, SQLException;
+
+    // Number of tasks of the array job in each state, except archived ones
+    Map<Job.JobState, Integer> countArray(int id) throws IOException, SQLException;
+
+    // Archived jobs are also looked up
+    Optional<Job> getJob(int id) throws IOException;
+
+    Optional<Job> getJobFromTaskId(String taskId) throws IOException;
+
+    // Delete all jobs, including archived ones, that has ID smaller than id
+    void deleteAllJob(int maxId);
+
+    // Archive up to limit finished or killed jobs, finished before the time in milliseconds;
+    // returns number of jobs archived
+    int archiveJobs(long finishedBefore, int limit) throws IOException, SQLException;
+
+    int countArchivedJobs();
+
+    Optional<Job> setJobStarting(int id, Optional<String> maybeUrl, String taskId) throws IOException, SQLException, JobNotFoundException;
+
+    // Apply the function to the job atomically; returns the job as persisted, or empty if
+    // the function decided not to update it
+    Optional<Job> updateJob(int id, Function<Job, Optional<Job>> fun) throws IOException, SQLException, JobNotFoundException;
+
+    // Same as updateJob, with the job found by task id. Returns empty if no such job
+    Optional<Job> updateJobByTaskId(String taskId, Function<Job, Optional<Job>> fun) throws IOException, SQLException;
+
+    // Write the job only if it is in one of the states in the store. Returns whether it's written
+    boolean updateJobIfState(Job job, Job.JobState... states) throws IOException, SQLException;
+
+    // Apply functions to jobs found by task ids; returns jobs updated
+    List<Job> updateJobsByTaskId(Map<String, Function<Job, Optional<Job>>> funs) throws IOException, SQLException;
+
+    int countJobs();
+
+    // STARTING or STARTED jobs, same as JobQueue.countRunning
+    int countRunning();
+
+    int getLatestJobId();
+
+    // Reserve a block of consecutive job ids never issued before; returns the first id
+    int allocateJobIds(int size) throws IOException, SQLException;
+
+    // Make all STARTING or STARTED jobs QUEUED again for retry, and return them
+    List<Job> getRunning();
+
+    void updateJobs(List<Job> list);
+
+    void retryJobs(List<Integer> ids);
+}
@@ -17,7 +17,6 @@
 package io.github.retz.db;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.retz.protocol.data.Job;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +26,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -34,13 +36,16 @@ import java.util.Optional;
 
 public class Jobs {
     private static final Logger LOG = LoggerFactory.getLogger(Jobs.class);
+    // Every update increments version, so that optimistic updates can detect updates in between
+    private static final String UPDATE_SQL = "UPDATE jobs SET name=?, appid=?, cmd=?, taskid=?, state=?, priority=?, started_at=?, finished_at=?, json=?, data=?, version=version+1 WHERE id=?";
+    private static final String UPDATE_IF_VERSION_SQL = UPDATE_SQL + " AND version=?";
 
     private Connection conn;
-    private ObjectMapper mapper;
+    private RecordCodec codec;
 
-    public Jobs(Connection c, ObjectMapper m) throws SQLException {
+    public Jobs(Connection c, RecordCodec codec) throws SQLException {
         this.conn = Objects.requireNonNull(c);
-        this.mapper = Objects.requireNonNull(m);
+        this.codec = Objects.requireNonNull(codec);
         if (conn.getAutoCommit()) {
             throw new RuntimeException("Connection must have autocommit disabled");
         }
@@ -48,11 +53,10 @@ public class Jobs {
 
     public List<Job> getAllRunning() throws SQLException {
         List<Job> ret = new LinkedList<>();
-        try (PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE state='STARTING' OR state='STARTED'");
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, data FROM jobs WHERE state='STARTING' OR state='STARTED'");
              ResultSet res = p.executeQuery()) {
             while (res.next()) {
-                String json = res.getString("json");
-                ret.add(mapper.readValue(json, Job.class));
+                ret.add(codec.get(res, Job.class));
             }
             for (Job job : ret) {
                 job.doRetry();
@@ -82,32 +86,169 @@ public class Jobs {
         }
     }
 
+    // A job read with its version, for optimistic updates, and its owner
+    static class Versioned {
+        final Job job;
+        final int version;
+        final String owner;
+
+        Versioned(Job job, int version, String owner) {
+            this.job = job;
+            this.version = version;
+            this.owner = owner;
+        }
+    }
+
+    Optional<Versioned> getVersioned(int id) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, data, version, owner FROM jobs WHERE id=?")) {
+            p.setInt(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                if (res.next()) {
+                    return Optional.of(new Versioned(codec.get(res, Job.class), res.getInt("version"), res.getString("owner")));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    List<Versioned> getVersionedFromTaskIds(Collection<String> taskIds) throws SQLException, IOException {
+        List<Versioned> ret = new LinkedList<>();
+        if (taskIds.isEmpty()) {
+            return ret;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(taskIds.size(), "?"));
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, data, version, owner FROM jobs WHERE taskid IN (" + placeholders + ")")) {
+            int i = 1;
+            for (String taskId : taskIds) {
+                p.setString(i++, taskId);
+            }
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ret.add(new Versioned(codec.get(res, Job.class), res.getInt("version"), res.getString("owner")));
+                }
+            }
+        }
+        return ret;
+    }
+
     public Optional<Job> getJob(int id) throws SQLException, IOException {
-        try (PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, data FROM jobs WHERE id=?")) {
             p.setInt(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    return Optional.ofNullable(mapper.readValue(json, Job.class));
+                    return Optional.ofNullable(codec.get(res, Job.class));
                 }
             }
         }
         return Optional.empty();
     }
 
+    public List<Job> getJobsFromTaskIds(Collection<String> taskIds) throws SQLException, IOException {
+        List<Job> ret = new LinkedList<>();
+        if (taskIds.isEmpty()) {
+            return ret;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(taskIds.size(), "?"));
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, data FROM jobs WHERE taskid IN (" + placeholders + ")")) {
+            int i = 1;
+            for (String taskId : taskIds) {
+                p.setString(i++, taskId);
+            }
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ret.add(codec.get(res, Job.class));
+                }
+            }
+        }
+        return ret;
+    }
+
     public void updateJob(Job j) throws SQLException, JsonProcessingException {
         LOG.debug("Updating job as name={}, id={}, appid={}", j.name(), j.id(), j.appid());
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET name=?, appid=?, cmd=?, taskid=?, state=?, started=?, finished=?, json=? WHERE id=?")) {
-            p.setString(1, j.name());
-            p.setString(2, j.appid());
-            p.setString(3, j.cmd());
-            p.setString(4, j.taskId());
-            p.setString(5, j.state().toString());
-            p.setString(6, j.started());
-            p.setString(7, j.finished());
-            p.setString(8, mapper.writeValueAsString(j));
-            p.setInt(9, j.id());
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_SQL)) {
+            setUpdateParams(p, j);
             p.execute();
         }
     }
+
+    // Single UPDATE applied only if the job has not been updated since it was read as the version
+    public boolean updateJob(Job j, int version) throws SQLException, JsonProcessingException {
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_IF_VERSION_SQL)) {
+            setUpdateParams(p, j);
+            p.setInt(12, version);
+            return p.executeUpdate() > 0;
+        }
+    }
+
+    // Single UPDATE applied only if the job is in one of the states in database, without reading it
+    public boolean updateJobIfState(Job j, Collection<Job.JobState> states) throws SQLException, JsonProcessingException {
+        String placeholders = String.join(", ", Collections.nCopies(states.size(), "?"));
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_SQL + " AND state IN (" + placeholders + ")")) {
+            setUpdateParams(p, j);
+            int i = 12;
+            for (Job.JobState state : states) {
+                p.setString(i++, state.toString());
+            }
+            return p.executeUpdate() > 0;
+        }
+    }
+
+    // Update jobs with single JDBC batch, each only if not updated since read; returns those not updated
+    List<Versioned> updateJobsIfVersion(List<Versioned> jobs) throws SQLException, JsonProcessingException {
+        List<Versioned> conflicts = new LinkedList<>();
+        if (jobs.isEmpty()) {
+            return conflicts;
+        }
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_IF_VERSION_SQL)) {
+            for (Versioned v : jobs) {
+                setUpdateParams(p, v.job);
+                p.setInt(12, v.version);
+                p.addBatch();
+            }
+            int[] counts = p.executeBatch();
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] == 0) {
+                    conflicts.add(jobs.get(i));
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    // Update all jobs with single JDBC batch
+    public void updateJobs(List<Job> jobs) throws SQLException, JsonProcessingException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        LOG.debug("Updating {} jobs in a batch", jobs.size());
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_SQL)) {
+            for (Job j : jobs) {
+                setUpdateParams(p, j);
+                p.addBatch();
+            }
+            p.executeBatch();
+        }
+    }
+
+    private void setUpdateParams(PreparedStatement p, Job j) throws SQLException, JsonProcessingException {
+        p.setString(1, j.name());
+        p.setString(2, j.appid());
+        p.setString(3, j.cmd());
+        p.setString(4, j.taskId());
+        p.setString(5, j.state().toString());
+        p.setInt(6, j.priority());
+        setTimestamp(p, 7, j.startedAt());
+        setTimestamp(p, 8, j.finishedAt());
+        codec.set(p, 9, 10, j);
+        p.setInt(11, j.id());
+    }
+
+    // Set milliseconds since the epoch of Job, or NULL if negative
+    static void setTimestamp(PreparedStatement p, int index, long millis) throws SQLException {
+        if (millis < 0) {
+            p.setNull(index, Types.BIGINT);
+        } else {
+            p.setLong(index, millis);
+        }
+    }
 }
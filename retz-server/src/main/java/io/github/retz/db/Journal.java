@@ -0,0 +1,239 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records in memory-mapped segment files of fixed size, with snapshots.
+ *
+ * A record is a 4-byte length, a 4-byte CRC32 and a body of one type byte and its payload.
+ * Segment files are zero-filled, so a zero length ends a segment. When a segment is full, whole
+ * state of the listener is written to a snapshot file named after the next segment, and then all
+ * older segments and snapshots are deleted; a snapshot therefore covers all segments before its
+ * number. On {@link #open()}, the latest snapshot and segments after it are replayed, skipping the
+ * rest of a segment after a torn or corrupted record, and then a new segment is started.
+ *
+ * Appends are not synchronized, and are written to disk by OS without fsync; segments are forced
+ * only at rolling and close, so records appended after the last force may be lost by a power loss
+ * or an OS crash, though not by a crash of the process. Records must be idempotent as a record may
+ * be both in a snapshot and in a segment.
+ */
+class Journal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+    private static final int HEADER = 8;
+    // Last record of a complete snapshot
+    private static final byte END = 0;
+
+    interface Listener {
+        // Apply a record read at recovery; the payload is valid only during the call
+        void replay(byte type, ByteBuffer payload) throws IOException;
+
+        // Write whole current state as records
+        void snapshot(Writer out) throws IOException;
+    }
+
+    interface Writer {
+        void write(byte type, byte[] payload) throws IOException;
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final Listener listener;
+    private long segment = -1;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    Journal(Path dir, int segmentSize, Listener listener) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.listener = listener;
+    }
+
+    void open() throws IOException {
+        Files.createDirectories(dir);
+        TreeMap<Long, Path> segments = list("segment-", ".log");
+        TreeMap<Long, Path> snapshots = list("snapshot-", ".snap");
+
+        long from = 0;
+        for (Long n : snapshots.descendingKeySet()) {
+            if (replaySnapshot(snapshots.get(n))) {
+                from = n;
+                break;
+            }
+            LOG.warn("Snapshot {} is broken: skipping", snapshots.get(n));
+        }
+        long next = from;
+        int count = 0;
+        for (Long n : segments.tailMap(from).keySet()) {
+            count += replaySegment(segments.get(n));
+            next = n + 1;
+        }
+        LOG.info("Journal {} recovered: snapshot={}, {} records in segments", dir, from, count);
+        roll(next);
+    }
+
+    void append(byte type, byte[] payload) throws IOException {
+        int length = payload.length + 1;
+        if (HEADER + length > segmentSize) {
+            throw new IOException("Journal record too large: " + length + " bytes");
+        }
+        if (buffer.remaining() < HEADER + length) {
+            roll(segment + 1);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        buffer.putInt(length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.put(payload);
+    }
+
+    long segment() {
+        return segment;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Snapshot first, so that state is recoverable at any moment
+    private void roll(long next) throws IOException {
+        close();
+
+        Path tmp = dir.resolve(name("snapshot-", next, ".tmp"));
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = (type, payload) -> {
+                ByteBuffer record = ByteBuffer.allocate(HEADER + 1 + payload.length);
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(payload);
+                record.putInt(payload.length + 1).putInt((int) crc.getValue()).put(type).put(payload);
+                record.flip();
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            };
+            listener.snapshot(writer);
+            writer.write(END, new byte[0]);
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(name("snapshot-", next, ".snap")), StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(dir.resolve(name("segment-", next, ".log")), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment = next;
+
+        for (Path old : list("segment-", ".log").headMap(next).values()) {
+            Files.delete(old);
+        }
+        for (Path old : list("snapshot-", ".snap").headMap(next).values()) {
+            Files.delete(old);
+        }
+        LOG.info("Journal segment {} started", next);
+    }
+
+    // Validate whole snapshot before applying any of it
+    private boolean replaySnapshot(Path path) throws IOException {
+        List<ByteBuffer> records = read(ByteBuffer.wrap(Files.readAllBytes(path)));
+        if (records.isEmpty() || records.get(records.size() - 1).get(0) != END) {
+            return false;
+        }
+        for (ByteBuffer record : records.subList(0, records.size() - 1)) {
+            apply(record);
+        }
+        return true;
+    }
+
+    private int replaySegment(Path path) throws IOException {
+        List<ByteBuffer> records;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            records = read(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+        }
+        for (ByteBuffer record : records) {
+            apply(record);
+        }
+        return records.size();
+    }
+
+    private void apply(ByteBuffer record) throws IOException {
+        byte type = record.get();
+        listener.replay(type, record.slice());
+    }
+
+    // Bodies of valid records from the beginning, until the end or a torn or corrupted record
+    private static List<ByteBuffer> read(ByteBuffer buffer) {
+        List<ByteBuffer> records = new LinkedList<>();
+        while (buffer.remaining() >= HEADER) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Corrupted journal record at {}: ignoring the rest of segment", buffer.position() - HEADER);
+                break;
+            }
+            records.add(body);
+            buffer.position(buffer.position() + length);
+        }
+        return records;
+    }
+
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+            }
+        }
+        return files;
+    }
+
+    private static String name(String prefix, long n, String suffix) {
+        return String.format("%s%020d%s", prefix, n, suffix);
+    }
+}
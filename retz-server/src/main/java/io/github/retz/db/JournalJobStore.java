@@ -0,0 +1,834 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.ListJobRequest;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Usage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Jobs on memory, persisted as a {@link Journal} of state transitions on local disk.
+ *
+ * Every change is appended to the journal first and then applied on memory, all under the lock
+ * of this store, so that a change costs a record encoding and a memory copy instead of a round
+ * trip to database. Jobs are kept encoded by the codec as in database, and decoded on each read.
+ * Owners of applications are still looked up from {@link Database}, which should be on local disk
+ * as well, e.g. H2 with a file URL, for applications to survive restarts.
+ *
+ * Archived jobs are moved to an {@link Archive} in a subdirectory, leaving only fields for queries
+ * on memory, so that neither memory nor snapshots grow with all history. A job is appended to the
+ * archive and forced before its ARCHIVE record, and a job found both in the archive and in the
+ * journal after recovery is one not archived yet.
+ */
+public class JournalJobStore implements JobStore, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalJobStore.class);
+
+    // Journal record types; all records are idempotent
+    private static final byte PUT = 1;
+    private static final byte ARCHIVE = 2;
+    private static final byte DELETE = 3;
+    private static final byte SEQUENCE = 4;
+    // Only in snapshots, where usage of finished jobs can't be derived from PUT
+    private static final byte USAGE = 5;
+    // Jobs per PUT record in snapshots
+    private static final int SNAPSHOT_CHUNK = 1024;
+
+    private final Database database;
+    private final RecordCodec codec;
+    private final Journal journal;
+    private final Archive archive;
+
+    private final TreeMap<Integer, Entry> jobs = new TreeMap<>();
+    private final Map<String, Integer> taskIds = new HashMap<>();
+    private final TreeMap<Integer, Archived> archived = new TreeMap<>();
+    private int running = 0;
+    // Usage by owner, hour and appid; added up when a PUT makes a job finished
+    private final Map<String, TreeMap<Long, Map<String, Usage>>> usages = new HashMap<>();
+    // Next job id to be allocated
+    private int nextId = 0;
+
+    // Fields of a job for queries like columns in database
+    private abstract static class Row {
+        final int id;
+        final String owner;
+        final String appid;
+        final Job.JobState state;
+        // -1 if not finished
+        final long finishedAt;
+
+        Row(int id, String owner, String appid, Job.JobState state, long finishedAt) {
+            this.id = id;
+            this.owner = owner;
+            this.appid = appid;
+            this.state = state;
+            this.finishedAt = finishedAt;
+        }
+    }
+
+    // A job as stored
+    private static class Entry extends Row {
+        final byte[] data;
+        final String taskId;
+        final int cpu;
+        final int memMB;
+        final int gpu;
+        // -1 if not started
+        final long startedAt;
+        // Id of the array job if this is its task, or -1
+        final int arrayId;
+
+        Entry(Job job, String owner, byte[] data) {
+            super(job.id(), owner, job.appid(), job.state(), job.finishedAt());
+            this.data = data;
+            this.taskId = job.taskId();
+            this.cpu = job.cpu();
+            this.memMB = job.memMB();
+            this.gpu = job.gpu();
+            this.startedAt = job.startedAt();
+            this.arrayId = job.arrayId();
+        }
+
+        boolean isActive(Job.JobState state) {
+            return this.state == state;
+        }
+
+        List<Usage> usage() {
+            return Usage.of(owner, appid, cpu, memMB, gpu,
+                    startedAt < 0 ? Optional.empty() : Optional.of(startedAt), finishedAt);
+        }
+
+        // Fields for queries first, so that the archive is indexed without decoding jobs
+        byte[] encodeArchived() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(id);
+            out.writeBoolean(owner != null);
+            if (owner != null) {
+                out.writeUTF(owner);
+            }
+            out.writeUTF(appid);
+            out.writeUTF(state.name());
+            out.writeLong(finishedAt);
+            out.writeInt(data.length);
+            out.write(data);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    // An archived job, whose data is in the archive
+    private static class Archived extends Row {
+        final long location;
+
+        Archived(int id, String owner, String appid, Job.JobState state, long finishedAt, long location) {
+            super(id, owner, appid, state, finishedAt);
+            this.location = location;
+        }
+
+        Archived(Row row, long location) {
+            this(row.id, row.owner, row.appid, row.state, row.finishedAt, location);
+        }
+
+        static Archived read(long location, DataInputStream in) throws IOException {
+            int id = in.readInt();
+            // Interned as most archived jobs share a few owners and applications
+            String owner = in.readBoolean() ? in.readUTF().intern() : null;
+            return new Archived(id, owner, in.readUTF().intern(), Job.JobState.valueOf(in.readUTF()),
+                    in.readLong(), location);
+        }
+
+        static byte[] data(DataInputStream in) throws IOException {
+            read(-1, in);
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return data;
+        }
+    }
+
+    public JournalJobStore(Database database, Path dir, int segmentSize, RecordCodec codec) {
+        this.database = database;
+        this.codec = codec;
+        this.archive = new Archive(dir.resolve("archive"), segmentSize);
+        this.journal = new Journal(dir, segmentSize, new Journal.Listener() {
+            @Override
+            public void replay(byte type, ByteBuffer payload) throws IOException {
+                JournalJobStore.this.replay(type, payload);
+            }
+
+            @Override
+            public void snapshot(Journal.Writer out) throws IOException {
+                JournalJobStore.this.snapshot(out);
+            }
+        });
+    }
+
+    // Recover archived jobs from the archive, and then others from the journal
+    public synchronized void open() throws IOException {
+        archive.open((location, payload) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            Archived a = Archived.read(location, new DataInputStream(new ByteArrayInputStream(bytes)));
+            archived.put(a.id, a);
+        });
+        journal.open();
+        // Appended to the archive but crashed before the ARCHIVE record
+        archived.keySet().removeAll(jobs.keySet());
+        LOG.info("{} jobs recovered from journal, {} from archive; next id={}", jobs.size(), archived.size(), nextId);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.close();
+        archive.close();
+    }
+
+    @Override
+    public synchronized List<Job> getAllJobs(String owner) throws IOException {
+        List<Job> ret = new LinkedList<>();
+        for (Entry e : jobs.values()) {
+            if (owner == null || owner.equals(e.owner)) {
+                ret.add(decode(e));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized List<Job> listJobs(String owner, ListJobRequest req, int limit) throws IOException {
+        long from = req.from().map(Database::parseMillis).orElse(Long.MIN_VALUE);
+        long to = req.to().map(Database::parseMillis).orElse(Long.MAX_VALUE);
+        boolean byFinished = req.from().isPresent() || req.to().isPresent();
+
+        NavigableMap<Integer, Entry> active = req.before() > 0 ? jobs.headMap(req.before(), false) : jobs;
+        NavigableMap<Integer, Archived> old = req.before() > 0 ? archived.headMap(req.before(), false) : archived;
+        // Jobs right after 'since', not the newest ones, so that paging forward misses none
+        boolean forward = req.since() > 0;
+        if (forward) {
+            active = active.tailMap(req.since(), false);
+            old = old.tailMap(req.since(), false);
+        }
+        List<Job> ret = new LinkedList<>();
+        Iterator<Row> rows = forward
+                ? merge(active.values().iterator(), old.values().iterator(), false)
+                : merge(active.descendingMap().values().iterator(), old.descendingMap().values().iterator(), true);
+        while (rows.hasNext()) {
+            Row e = rows.next();
+            if (ret.size() >= limit) {
+                break;
+            }
+            if (!owner.equals(e.owner)
+                    || (req.state().isPresent() && req.state().get() != e.state)
+                    || (req.appid().isPresent() && !req.appid().get().equals(e.appid))
+                    || (byFinished && (e.finishedAt < 0 || e.finishedAt < from || to <= e.finishedAt))) {
+                continue;
+            }
+            ret.add(decode(e));
+        }
+        if (forward) {
+            Collections.reverse(ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized List<Job> finishedJobs(String owner, long start, long end, int afterId, int limit) {
+        List<Job> ret = new LinkedList<>();
+        Iterator<Row> rows = merge(jobs.tailMap(afterId, false).values().iterator(),
+                archived.tailMap(afterId, false).values().iterator(), false);
+        while (rows.hasNext()) {
+            Row e = rows.next();
+            if (ret.size() >= limit) {
+                break;
+            }
+            if (owner.equals(e.owner) && e.finishedAt >= 0 && start <= e.finishedAt && e.finishedAt < end) {
+                try {
+                    ret.add(decode(e));
+                } catch (IOException ex) {
+                    LOG.error(ex.toString());
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized List<Usage> getUsage(String owner, long start, long end) {
+        List<Usage> ret = new LinkedList<>();
+        TreeMap<Long, Map<String, Usage>> hours = usages.get(owner);
+        if (hours != null) {
+            for (Map<String, Usage> apps : hours.subMap(start, end).values()) {
+                apps.values().stream().sorted(Comparator.comparing(Usage::appid)).forEach(ret::add);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized List<Job> queued(int limit) throws IOException {
+        List<Job> ret = new LinkedList<>();
+        for (Entry e : jobs.values()) {
+            if (ret.size() >= limit) {
+                break;
+            } else if (e.isActive(Job.JobState.QUEUED)) {
+                ret.add(decode(e));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized List<Job> running() throws IOException {
+        List<Job> ret = new LinkedList<>();
+        for (Entry e : jobs.values()) {
+            if (e.isActive(Job.JobState.STARTING) || e.isActive(Job.JobState.STARTED)) {
+                ret.add(decode(e));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean safeAddJob(Job j) {
+        return safeAddJobs(Arrays.asList(j));
+    }
+
+    // All jobs are written in single journal record
+    @Override
+    public boolean safeAddJobs(List<Job> jobs) {
+        try {
+            Map<String, String> owners = new HashMap<>();
+            for (Job j : jobs) {
+                if (!owners.containsKey(j.appid())) {
+                    Optional<Application> app = database.getApplication(j.appid());
+                    if (!app.isPresent()) {
+                        throw new RuntimeException("No such application: " + j.appid());
+                    }
+                    owners.put(j.appid(), app.get().getOwner());
+                }
+            }
+            List<Entry> entries = new ArrayList<>(jobs.size());
+            for (Job j : jobs) {
+                entries.add(new Entry(j, owners.get(j.appid()), codec.encode(j)));
+            }
+            synchronized (this) {
+                for (Entry e : entries) {
+                    if (this.jobs.containsKey(e.id) || archived.containsKey(e.id)) {
+                        LOG.error("Job id={} already exists", e.id);
+                        return false;
+                    }
+                }
+                persist(entries);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.error(e.toString());
+            return false;
+        }
+    }
+
+    // Tasks and the array are written in single journal record
+    @Override
+    public synchronized Optional<Job> expandArray(int id, List<Job> tasks) throws IOException {
+        Entry e = jobs.get(id);
+        if (e == null || !e.isActive(Job.JobState.QUEUED)) {
+            return Optional.empty();
+        }
+        Job array = decode(e);
+        array.expand(tasks.size());
+        List<Entry> entries = new ArrayList<>(tasks.size() + 1);
+        for (Job task : tasks) {
+            entries.add(new Entry(task, e.owner, codec.encode(task)));
+        }
+        entries.add(new Entry(array, e.owner, codec.encode(array)));
+        persist(entries);
+        return Optional.of(array);
+    }
+
+    @Override
+    public synchronized Map<Job.JobState, Integer> countArray(int id) {
+        Map<Job.JobState, Integer> ret = new EnumMap<>(Job.JobState.class);
+        for (Entry e : jobs.tailMap(id, false).values()) {
+            if (e.arrayId == id) {
+                ret.merge(e.state, 1, Integer::sum);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized Optional<Job> getJob(int id) throws IOException {
+        Row e = jobs.containsKey(id) ? jobs.get(id) : archived.get(id);
+        return e == null ? Optional.empty() : Optional.of(decode(e));
+    }
+
+    @Override
+    public synchronized Optional<Job> getJobFromTaskId(String taskId) throws IOException {
+        Integer id = taskIds.get(taskId);
+        if (id == null) {
+            LOG.info("no such application/job");
+            return Optional.empty();
+        }
+        return Optional.of(decode(jobs.get(id)));
+    }
+
+    @Override
+    public synchronized void deleteAllJob(int maxId) {
+        try {
+            journal.append(DELETE, encodeInts(maxId));
+            deleteBelow(maxId);
+        } catch (IOException e) {
+            LOG.error(e.toString());
+        }
+    }
+
+    // Jobs are written to the archive and forced before the ARCHIVE record
+    @Override
+    public synchronized int archiveJobs(long finishedBefore, int limit) throws IOException {
+        List<Integer> ids = new ArrayList<>(limit);
+        for (Entry e : jobs.values()) {
+            if (ids.size() >= limit) {
+                break;
+            }
+            if ((e.isActive(Job.JobState.FINISHED) || e.isActive(Job.JobState.KILLED))
+                    && e.finishedAt >= 0 && e.finishedAt < finishedBefore) {
+                ids.add(e.id);
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        List<Archived> appended = new ArrayList<>(ids.size());
+        int[] payload = new int[ids.size() + 1];
+        payload[0] = ids.size();
+        for (int i = 0; i < ids.size(); ++i) {
+            Entry e = jobs.get(ids.get(i));
+            appended.add(new Archived(e, archive.append(e.encodeArchived())));
+            payload[i + 1] = e.id;
+        }
+        archive.force();
+        journal.append(ARCHIVE, encodeInts(payload));
+        for (Archived a : appended) {
+            remove(a.id);
+            archived.put(a.id, a);
+        }
+        return ids.size();
+    }
+
+    @Override
+    public synchronized int countArchivedJobs() {
+        return archived.size();
+    }
+
+    @Override
+    public Optional<Job> setJobStarting(int id, Optional<String> maybeUrl, String taskId) throws IOException, JobNotFoundException {
+        return updateJob(id, job -> {
+            job.starting(taskId, maybeUrl, System.currentTimeMillis());
+            LOG.info("TaskId of id={}: {} / {}", id, taskId, job.taskId());
+            return Optional.of(job);
+        });
+    }
+
+    // Archived jobs are never updated
+    @Override
+    public synchronized Optional<Job> updateJob(int id, Function<Job, Optional<Job>> fun) throws IOException, JobNotFoundException {
+        Entry e = jobs.get(id);
+        if (e == null) {
+            throw new JobNotFoundException(id);
+        }
+        return update(e, fun);
+    }
+
+    @Override
+    public synchronized Optional<Job> updateJobByTaskId(String taskId, Function<Job, Optional<Job>> fun) throws IOException {
+        Integer id = taskIds.get(taskId);
+        if (id == null) {
+            LOG.info("no such job: taskId={}", taskId);
+            return Optional.empty();
+        }
+        return update(jobs.get(id), fun);
+    }
+
+    private Optional<Job> update(Entry e, Function<Job, Optional<Job>> fun) throws IOException {
+        Optional<Job> result = fun.apply(decode(e));
+        if (result.isPresent()) {
+            persist(Arrays.asList(new Entry(result.get(), e.owner, codec.encode(result.get()))));
+            LOG.info("Job (id={}) status updated to {}", result.get().id(), result.get().state());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean updateJobIfState(Job job, Job.JobState... states) throws IOException {
+        Entry e = jobs.get(job.id());
+        if (e == null || !Arrays.asList(states).contains(e.state)) {
+            return false;
+        }
+        persist(Arrays.asList(new Entry(job, e.owner, codec.encode(job))));
+        return true;
+    }
+
+    // All jobs are written in single journal record
+    @Override
+    public synchronized List<Job> updateJobsByTaskId(Map<String, Function<Job, Optional<Job>>> funs) throws IOException {
+        List<Job> updated = new LinkedList<>();
+        List<Entry> entries = new LinkedList<>();
+        for (Map.Entry<String, Function<Job, Optional<Job>>> fun : funs.entrySet()) {
+            Integer id = taskIds.get(fun.getKey());
+            if (id == null) {
+                continue;
+            }
+            Entry e = jobs.get(id);
+            Optional<Job> result = fun.getValue().apply(decode(e));
+            if (result.isPresent()) {
+                updated.add(result.get());
+                entries.add(new Entry(result.get(), e.owner, codec.encode(result.get())));
+            }
+        }
+        persist(entries);
+        return updated;
+    }
+
+    @Override
+    public synchronized int countJobs() {
+        return jobs.size();
+    }
+
+    @Override
+    public synchronized int countRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized int getLatestJobId() {
+        int latest = jobs.isEmpty() ? 0 : jobs.lastKey();
+        return archived.isEmpty() ? latest : Math.max(latest, archived.lastKey());
+    }
+
+    @Override
+    public synchronized int allocateJobIds(int size) throws IOException {
+        int first = Math.max(nextId, getLatestJobId() + 1);
+        journal.append(SEQUENCE, encodeInts(first + size));
+        nextId = first + size;
+        LOG.info("Job ids [{}, {}) reserved", first, first + size);
+        return first;
+    }
+
+    @Override
+    public synchronized List<Job> getRunning() {
+        List<Job> ret = new LinkedList<>();
+        try {
+            List<Entry> entries = new LinkedList<>();
+            for (Entry e : jobs.values()) {
+                if (e.isActive(Job.JobState.STARTING) || e.isActive(Job.JobState.STARTED)) {
+                    Job job = decode(e);
+                    job.doRetry();
+                    LOG.info("Retrying job: {}", job);
+                    ret.add(job);
+                    entries.add(new Entry(job, e.owner, codec.encode(job)));
+                }
+            }
+            persist(entries);
+        } catch (IOException e) {
+            LOG.error(e.toString());
+            return Arrays.asList();
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized void updateJobs(List<Job> list) {
+        try {
+            List<Entry> entries = new LinkedList<>();
+            for (Job job : list) {
+                Entry e = jobs.get(job.id());
+                if (e != null) {
+                    entries.add(new Entry(job, e.owner, codec.encode(job)));
+                }
+            }
+            persist(entries);
+        } catch (IOException e) {
+            LOG.error(e.toString());
+        }
+    }
+
+    @Override
+    public synchronized void retryJobs(List<Integer> ids) {
+        try {
+            List<Entry> entries = new LinkedList<>();
+            for (int id : ids) {
+                Entry e = jobs.get(id);
+                if (e != null) {
+                    Job job = decode(e);
+                    job.doRetry();
+                    entries.add(new Entry(job, e.owner, codec.encode(job)));
+                }
+            }
+            persist(entries);
+        } catch (IOException e) {
+            LOG.error(e.toString());
+        }
+    }
+
+    private Job decode(Row row) throws IOException {
+        byte[] data = row instanceof Entry ? ((Entry) row).data
+                : Archived.data(new DataInputStream(new ByteArrayInputStream(archive.read(((Archived) row).location))));
+        return codec.decode(data, Job.class);
+    }
+
+    // Rows of both iterators in order of id, either ascending or descending
+    private static Iterator<Row> merge(Iterator<? extends Row> a, Iterator<? extends Row> b, boolean descending) {
+        return new Iterator<Row>() {
+            private Row nextA = a.hasNext() ? a.next() : null;
+            private Row nextB = b.hasNext() ? b.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextA != null || nextB != null;
+            }
+
+            @Override
+            public Row next() {
+                boolean takeA = nextB == null
+                        || (nextA != null && (descending ? nextA.id > nextB.id : nextA.id < nextB.id));
+                Row ret = takeA ? nextA : nextB;
+                if (takeA) {
+                    nextA = a.hasNext() ? a.next() : null;
+                } else {
+                    nextB = b.hasNext() ? b.next() : null;
+                }
+                return ret;
+            }
+        };
+    }
+
+    // Write ahead to the journal, and then apply on memory
+    private void persist(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        journal.append(PUT, encode(entries));
+        for (Entry e : entries) {
+            put(e);
+        }
+    }
+
+    private void put(Entry e) {
+        Entry old = jobs.get(e.id);
+        if (old != null && e.owner != null && !Database.isFinished(old.state) && Database.isFinished(e.state)
+                && e.finishedAt >= 0) {
+            e.usage().forEach(this::addUsage);
+        }
+        remove(e.id);
+        jobs.put(e.id, e);
+        if (e.taskId != null) {
+            taskIds.put(e.taskId, e.id);
+        }
+        if (isRunning(e.state)) {
+            running++;
+        }
+    }
+
+    private void remove(int id) {
+        Entry e = jobs.remove(id);
+        if (e == null) {
+            return;
+        }
+        if (e.taskId != null) {
+            taskIds.remove(e.taskId, e.id);
+        }
+        if (isRunning(e.state)) {
+            running--;
+        }
+    }
+
+    // Same as RunningJobs
+    private static boolean isRunning(Job.JobState state) {
+        return state == Job.JobState.STARTING || state == Job.JobState.STARTED;
+    }
+
+    private void addUsage(Usage u) {
+        usages.computeIfAbsent(u.owner(), owner -> new TreeMap<>())
+                .computeIfAbsent(u.hour(), hour -> new HashMap<>())
+                .merge(u.appid(), u, Usage::plus);
+    }
+
+    // At recovery; the archive is forced before next snapshot
+    private void archive(Entry e) throws IOException {
+        if (!archived.containsKey(e.id)) {
+            archived.put(e.id, new Archived(e, archive.append(e.encodeArchived())));
+        }
+        remove(e.id);
+    }
+
+    // Archived jobs left are rewritten to new archive files
+    private void deleteBelow(int maxId) throws IOException {
+        for (Integer id : new ArrayList<>(jobs.headMap(maxId, false).keySet())) {
+            remove(id);
+        }
+        NavigableMap<Integer, Archived> deleted = archived.headMap(maxId, false);
+        if (deleted.isEmpty()) {
+            return;
+        }
+        deleted.clear();
+        List<byte[]> payloads = new ArrayList<>(archived.size());
+        for (Archived a : archived.values()) {
+            payloads.add(archive.read(a.location));
+        }
+        List<Long> locations = archive.replace(payloads);
+        int i = 0;
+        for (Archived a : new ArrayList<>(archived.values())) {
+            archived.put(a.id, new Archived(a, locations.get(i++)));
+        }
+    }
+
+    private void replay(byte type, ByteBuffer payload) throws IOException {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        switch (type) {
+            case PUT:
+                int n = in.readInt();
+                for (int i = 0; i < n; ++i) {
+                    String owner = in.readBoolean() ? in.readUTF() : null;
+                    // Archived jobs were kept in journals before archive files
+                    boolean isArchived = in.readBoolean();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    Entry e = new Entry(codec.decode(data, Job.class), owner, data);
+                    if (isArchived) {
+                        archive(e);
+                    } else {
+                        put(e);
+                    }
+                }
+                break;
+            case ARCHIVE:
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i) {
+                    Entry e = jobs.get(in.readInt());
+                    if (e != null) {
+                        archive(e);
+                    }
+                }
+                break;
+            case DELETE:
+                deleteBelow(in.readInt());
+                break;
+            case SEQUENCE:
+                nextId = Math.max(nextId, in.readInt());
+                break;
+            case USAGE:
+                int buckets = in.readInt();
+                for (int i = 0; i < buckets; ++i) {
+                    addUsage(new Usage(in.readUTF(), in.readUTF(), in.readLong(), in.readInt(),
+                            in.readLong(), in.readLong(), in.readLong()));
+                }
+                break;
+            default:
+                throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    private void snapshot(Journal.Writer out) throws IOException {
+        // Jobs archived at recovery are not in the snapshot
+        archive.force();
+        List<Entry> chunk = new ArrayList<>(SNAPSHOT_CHUNK);
+        for (Entry e : jobs.values()) {
+            chunk.add(e);
+            if (chunk.size() == SNAPSHOT_CHUNK) {
+                out.write(PUT, encode(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            out.write(PUT, encode(chunk));
+        }
+        out.write(SEQUENCE, encodeInts(nextId));
+
+        List<Usage> all = new LinkedList<>();
+        for (TreeMap<Long, Map<String, Usage>> hours : usages.values()) {
+            for (Map<String, Usage> apps : hours.values()) {
+                all.addAll(apps.values());
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(all.size());
+        for (Usage u : all) {
+            data.writeUTF(u.owner());
+            data.writeUTF(u.appid());
+            data.writeLong(u.hour());
+            data.writeInt(u.jobs());
+            data.writeLong(u.cpuMs());
+            data.writeLong(u.memMBMs());
+            data.writeLong(u.gpuMs());
+        }
+        data.flush();
+        out.write(USAGE, bytes.toByteArray());
+    }
+
+    private static byte[] encode(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (Entry e : entries) {
+            out.writeBoolean(e.owner != null);
+            if (e.owner != null) {
+                out.writeUTF(e.owner);
+            }
+            out.writeBoolean(false);
+            out.writeInt(e.data.length);
+            out.write(e.data);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeInts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+}
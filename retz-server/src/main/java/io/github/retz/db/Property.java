@@ -30,6 +30,8 @@ import java.util.Properties;
 // Could be different from general DAO definition :P
 public class Property {
     private static final Logger LOG = LoggerFactory.getLogger(Property.class);
+    // Next job id to be reserved by any server; see Database.allocateJobIds
+    static final String JOB_ID_SEQUENCE = "JobIdSequence";
 
     private final Connection conn;
 
@@ -62,8 +64,8 @@ public class Property {
     private boolean updateProperty(String key, String value) {
         try (PreparedStatement p = conn.prepareStatement("UPDATE properties SET value=?, epoch=epoch+1 WHERE key=?")) {
             conn.setAutoCommit(false);
-            p.setString(3, key);
             p.setString(1, value);
+            p.setString(2, key);
             p.execute();
             return true;
         } catch (SQLException e) {
@@ -87,6 +89,38 @@ public class Property {
         }
     }
 
+    // Reserve size ids from the job id sequence by compare-and-set on its epoch. Returns the first id,
+    // or empty if another server has updated the sequence since read. The sequence is created
+    // starting from initial if it does not exist yet, which fails if another server just created it
+    Optional<Integer> reserveJobIds(int size, int initial) throws SQLException {
+        int next;
+        int epoch;
+        try (PreparedStatement p = conn.prepareStatement("SELECT value, epoch FROM properties WHERE key=?")) {
+            p.setString(1, JOB_ID_SEQUENCE);
+            try (ResultSet res = p.executeQuery()) {
+                if (!res.next()) {
+                    try (PreparedStatement insert = conn.prepareStatement("INSERT INTO properties(key, value, epoch) VALUES (?, ?, 0)")) {
+                        insert.setString(1, JOB_ID_SEQUENCE);
+                        insert.setString(2, Integer.toString(initial + size));
+                        insert.execute();
+                    }
+                    return Optional.of(initial);
+                }
+                next = Integer.parseInt(res.getString("value"));
+                epoch = res.getInt("epoch");
+            }
+        }
+        try (PreparedStatement p = conn.prepareStatement("UPDATE properties SET value=?, epoch=epoch+1 WHERE key=? AND epoch=?")) {
+            p.setString(1, Integer.toString(next + size));
+            p.setString(2, JOB_ID_SEQUENCE);
+            p.setInt(3, epoch);
+            if (p.executeUpdate() > 0) {
+                return Optional.of(next);
+            }
+            return Optional.empty();
+        }
+    }
+
     public Properties getAllProperties() {
         Properties props = new Properties();
         try (PreparedStatement p = conn.prepareStatement("SELECT key, value, epoch FROM properties")) {
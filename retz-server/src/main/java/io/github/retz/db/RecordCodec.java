@@ -0,0 +1,106 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoding of Job and Application records in database.
+ *
+ * A record is stored either as JSON text in 'json' column or as Smile, binary JSON by Jackson,
+ * in 'data' column, and the other column is NULL. Records are read from whichever column is
+ * present regardless of the codec, so that the codec can be changed at any time;
+ * {@link RecordMigrator} re-encodes existing rows in background.
+ */
+public class RecordCodec {
+    public static final String JSON = "json";
+    public static final String SMILE = "smile";
+    public static final List<String> NAMES = Arrays.asList(JSON, SMILE);
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+
+    static {
+        JSON_MAPPER.registerModule(new Jdk8Module());
+        SMILE_MAPPER.registerModule(new Jdk8Module());
+    }
+
+    private final String name;
+
+    public RecordCodec(String name) {
+        if (!NAMES.contains(name)) {
+            throw new IllegalArgumentException("No such codec: " + name);
+        }
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean isBinary() {
+        return SMILE.equals(name);
+    }
+
+    public byte[] encode(Object record) throws JsonProcessingException {
+        return isBinary() ? SMILE_MAPPER.writeValueAsBytes(record) : JSON_MAPPER.writeValueAsBytes(record);
+    }
+
+    // Decodes both formats; Smile always starts with its header ":)\n"
+    public <T> T decode(byte[] bytes, Class<T> clazz) throws IOException {
+        if (bytes.length >= 3 && bytes[0] == ':' && bytes[1] == ')' && bytes[2] == '\n') {
+            return SMILE_MAPPER.readValue(bytes, clazz);
+        }
+        return JSON_MAPPER.readValue(bytes, clazz);
+    }
+
+    // Set the record to the column of this codec, and NULL to the other
+    void set(PreparedStatement p, int jsonIndex, int dataIndex, Object record) throws SQLException, JsonProcessingException {
+        if (isBinary()) {
+            p.setNull(jsonIndex, Types.VARCHAR);
+            p.setBytes(dataIndex, SMILE_MAPPER.writeValueAsBytes(record));
+        } else {
+            p.setString(jsonIndex, JSON_MAPPER.writeValueAsString(record));
+            p.setNull(dataIndex, Types.BINARY);
+        }
+    }
+
+    // Both 'json' and 'data' columns must be selected
+    <T> T get(ResultSet res, Class<T> clazz) throws SQLException, IOException {
+        byte[] data = res.getBytes("data");
+        if (data != null) {
+            return decode(data, clazz);
+        }
+        return JSON_MAPPER.readValue(res.getString("json"), clazz);
+    }
+
+    // SQL condition of rows not encoded by this codec
+    String staleCondition() {
+        return isBinary() ? "data IS NULL" : "json IS NULL";
+    }
+}
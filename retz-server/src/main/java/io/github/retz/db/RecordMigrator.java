@@ -0,0 +1,92 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Background thread to re-encode records written by other codec than the current one,
+ * in small batches so as not to disturb the scheduler. Exits when all records are done.
+ */
+public class RecordMigrator implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(RecordMigrator.class);
+    private static final int BATCH_SIZE = 256;
+    private static final long INTERVAL_MS = 100;
+    private static final long RETRY_INTERVAL_MS = 10000;
+
+    private final Database database;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    RecordMigrator(Database database) {
+        this.database = database;
+        this.thread = new Thread(this, "retz-record-migrator");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        int last = 0;
+        try {
+            database.reencodeApplications();
+        } catch (SQLException | IOException e) {
+            LOG.warn("Failed to re-encode applications: {}", e.toString());
+        }
+        while (running) {
+            try {
+                int next = database.reencodeJobs(last, BATCH_SIZE);
+                if (next < 0) {
+                    LOG.info("All jobs are encoded by {}", database.codecName());
+                    break;
+                }
+                last = next;
+                Thread.sleep(INTERVAL_MS);
+            } catch (SQLException | IOException e) {
+                LOG.warn("Failed to re-encode jobs after id={}: {}", last, e.toString());
+                sleep(RETRY_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+}
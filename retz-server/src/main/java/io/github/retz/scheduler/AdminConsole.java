@@ -19,15 +19,21 @@ package io.github.retz.scheduler;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.bean.AdminConsoleMXBean;
+import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
 import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Usage;
 import io.github.retz.protocol.data.User;
+import io.github.retz.web.UserCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -35,9 +41,24 @@ public class AdminConsole implements AdminConsoleMXBean {
     private static final Logger LOG = LoggerFactory.getLogger(AdminConsole.class);
 
     private final ObjectMapper MAPPER = new ObjectMapper();
+    private final Optional<JobCompactor> compactor;
+    private final Optional<OfferBook> offerBook;
+    private final Optional<AgentCache> agentCache;
 
     public AdminConsole() {
+        this(Optional.empty(), Optional.empty());
+    }
+
+    public AdminConsole(Optional<JobCompactor> compactor, Optional<OfferBook> offerBook) {
+        this(compactor, offerBook, Optional.empty());
+    }
+
+    public AdminConsole(Optional<JobCompactor> compactor, Optional<OfferBook> offerBook,
+                        Optional<AgentCache> agentCache) {
         MAPPER.registerModule(new Jdk8Module());
+        this.compactor = compactor;
+        this.offerBook = offerBook;
+        this.agentCache = agentCache;
     }
 
     @Override
@@ -45,6 +66,7 @@ public class AdminConsole implements AdminConsoleMXBean {
         LOG.info("AdminConsole.createUser()");
         try {
             User user = Database.getInstance().createUser();
+            UserCache.invalidate(user.keyId());
             return maybeEncodeAsJSON(user);
         } catch (SQLException e){
             return errorJSON(e.toString());
@@ -61,17 +83,74 @@ public class AdminConsole implements AdminConsoleMXBean {
     @Override
     public boolean enableUser(String id, boolean enabled) {
         LOG.info("AdminConsole.enableUser({}, {})", id, enabled);
-        Database.getInstance().enableUser(id, enabled);
-        return false;
+        boolean result = Database.getInstance().enableUser(id, enabled);
+        UserCache.invalidate(id);
+        return result;
     }
 
+    // Read from hourly buckets added up when jobs finished, without reading jobs
     @Override
     public List<String> getUsage(String user, String start, String end) {
-        LOG.info("Querying usage of {} at [{}, {})", user, start, end); //TODO
-        List<Job> jobs = Database.getInstance().finishedJobs(user, start, end);
+        LOG.info("Querying usage of {} at [{}, {})", user, start, end);
+        List<Usage> usages;
+        try {
+            usages = Database.getJobStore().getUsage(user, TimestampHelper.toMillis(start), TimestampHelper.toMillis(end));
+        } catch (ParseException e) {
+            return Arrays.asList(errorJSON(e.toString()));
+        }
+        return usages.stream().map(usage -> maybeEncodeAsJSON(usage)).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<String> exportJobs(String user, String start, String end, int afterId, int limit) {
+        LOG.info("Exporting jobs of {} finished at [{}, {}) after id={}", user, start, end, afterId);
+        List<Job> jobs;
+        try {
+            jobs = Database.getJobStore().finishedJobs(user, TimestampHelper.toMillis(start), TimestampHelper.toMillis(end),
+                    afterId, limit);
+        } catch (ParseException e) {
+            return Arrays.asList(errorJSON(e.toString()));
+        }
         return jobs.stream().map(job -> maybeEncodeAsJSON(job)).collect(Collectors.toList());
     }
 
+    @Override
+    public String compactJobs() {
+        LOG.info("AdminConsole.compactJobs()");
+        if (!compactor.isPresent()) {
+            return errorJSON("Job compactor is not available");
+        }
+        compactor.get().trigger();
+        return getCompactionStatus();
+    }
+
+    @Override
+    public String getCompactionStatus() {
+        if (!compactor.isPresent()) {
+            return errorJSON("Job compactor is not available");
+        }
+        Map<String, Object> status = compactor.get().status();
+        status.put("jobs", Database.getJobStore().countJobs());
+        status.put("archivedJobs", Database.getJobStore().countArchivedJobs());
+        return maybeEncodeAsJSON(status);
+    }
+
+    @Override
+    public String getOfferStats() {
+        if (!offerBook.isPresent()) {
+            return errorJSON("Offer book is not available");
+        }
+        return maybeEncodeAsJSON(offerBook.get().status());
+    }
+
+    @Override
+    public String getLocalityStats() {
+        if (!agentCache.isPresent()) {
+            return errorJSON("Agent cache is not available");
+        }
+        return maybeEncodeAsJSON(agentCache.get().status());
+    }
+
     @Override
     public List<String> listUser() {
         LOG.info("AdminConsole.listUser()");
@@ -0,0 +1,189 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Which agents hold artifacts of which applications, learned from past placements.
+ *
+ * Large files are cached by Mesos fetcher on each agent, and persistent files are kept in
+ * persistent volumes, so a task placed on an agent where a task of the same application
+ * has once run skips downloading them. An agent becomes warm for an application when its
+ * task gets running or finishes there, and forgets it when the agent is lost. Planners
+ * prefer warm agents, and hits and misses are counted with the time from launch to running,
+ * to estimate fetch time avoided. Applications without those files are not tracked.
+ */
+public class AgentCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AgentCache.class);
+    // Artifacts kept per agent, least recently used ones forgotten first like fetcher cache
+    static final int MAX_ARTIFACTS_PER_AGENT = 64;
+
+    // Agent id to artifact keys in the order of use
+    private final Map<String, LinkedHashMap<String, Boolean>> agents = new HashMap<>();
+    // Tasks launched and not running yet, by task id
+    private final Map<String, Launch> launching = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long warmStarts = 0;
+    private long warmStartMs = 0;
+    private long coldStarts = 0;
+    private long coldStartMs = 0;
+
+    // Key of files of the application to be fetched, or empty if nothing to fetch;
+    // changes when files are changed by loading the application again
+    static Optional<String> key(Application app) {
+        if (app.getLargeFiles().isEmpty() && app.getPersistentFiles().isEmpty()) {
+            return Optional.empty();
+        }
+        List<String> files = new ArrayList<>(app.getLargeFiles());
+        files.addAll(app.getPersistentFiles());
+        return Optional.of(app.getAppid() + "@" + Integer.toHexString(files.hashCode()));
+    }
+
+    public synchronized boolean isWarm(String agentId, Application app) {
+        Optional<String> key = key(app);
+        if (!key.isPresent()) {
+            return false;
+        }
+        Map<String, Boolean> artifacts = agents.get(agentId);
+        return artifacts != null && artifacts.containsKey(key.get());
+    }
+
+    // Count tasks launched by the plan as hits or misses, and wait for them to get running
+    public synchronized void launched(Plan plan, List<AppJobPair> appJobs) {
+        Map<String, Application> apps = new HashMap<>();
+        for (AppJobPair appJob : appJobs) {
+            Job job = appJob.job();
+            if (appJob.hasApplication() && job.taskId() != null) {
+                apps.put(job.taskId(), appJob.application());
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Protos.Offer.Operation op : plan.getOperations()) {
+            for (Protos.TaskInfo task : op.getLaunch().getTaskInfosList()) {
+                Application app = apps.get(task.getTaskId().getValue());
+                Optional<String> key = app == null ? Optional.empty() : key(app);
+                if (!key.isPresent()) {
+                    continue;
+                }
+                String agentId = task.getSlaveId().getValue();
+                boolean warm = isWarm(agentId, app);
+                if (warm) {
+                    hits++;
+                } else {
+                    misses++;
+                }
+                launching.put(task.getTaskId().getValue(), new Launch(agentId, key.get(), warm, now));
+            }
+        }
+    }
+
+    // Learn from a status update of a task
+    public synchronized void update(Protos.TaskStatus status) {
+        Launch launch;
+        switch (status.getState().getNumber()) {
+            case Protos.TaskState.TASK_RUNNING_VALUE:
+                launch = launching.remove(status.getTaskId().getValue());
+                if (launch != null) {
+                    long elapsed = System.currentTimeMillis() - launch.at;
+                    if (launch.warm) {
+                        warmStarts++;
+                        warmStartMs += elapsed;
+                    } else {
+                        coldStarts++;
+                        coldStartMs += elapsed;
+                    }
+                    warm(launch.agentId, launch.key);
+                }
+                break;
+            case Protos.TaskState.TASK_FINISHED_VALUE:
+                launch = launching.remove(status.getTaskId().getValue());
+                if (launch != null) {
+                    warm(launch.agentId, launch.key);
+                }
+                break;
+            case Protos.TaskState.TASK_ERROR_VALUE:
+            case Protos.TaskState.TASK_FAILED_VALUE:
+            case Protos.TaskState.TASK_KILLED_VALUE:
+            case Protos.TaskState.TASK_LOST_VALUE:
+                // Files may not have been fetched
+                launching.remove(status.getTaskId().getValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    public synchronized void lost(String agentId) {
+        if (agents.remove(agentId) != null) {
+            LOG.info("Forgot artifacts cached at lost agent {}", agentId);
+        }
+    }
+
+    private void warm(String agentId, String key) {
+        agents.computeIfAbsent(agentId, id -> new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_ARTIFACTS_PER_AGENT;
+            }
+        }).put(key, true);
+    }
+
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("agents", agents.size());
+        status.put("artifacts", agents.values().stream().mapToInt(Map::size).sum());
+        status.put("hits", hits);
+        status.put("misses", misses);
+        status.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        long warmAvg = warmStarts > 0 ? warmStartMs / warmStarts : 0;
+        long coldAvg = coldStarts > 0 ? coldStartMs / coldStarts : 0;
+        status.put("warmStartMs", warmAvg);
+        status.put("coldStartMs", coldAvg);
+        // Estimated as difference of average time to get running, only after both observed
+        long saved = warmStarts > 0 && coldStarts > 0 ? Math.max(0, coldAvg - warmAvg) : 0;
+        status.put("fetchMsAvoided", hits * saved);
+        return status;
+    }
+
+    private static class Launch {
+        private final String agentId;
+        private final String key;
+        private final boolean warm;
+        private final long at;
+
+        Launch(String agentId, String key, boolean warm, long at) {
+            this.agentId = agentId;
+            this.key = key;
+            this.warm = warm;
+            this.at = at;
+        }
+    }
+}
@@ -28,9 +28,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Applications {
     private static final Logger LOG = LoggerFactory.getLogger(Applications.class);
+    // Owners of applications by appid, read from database once for choosing jobs; empty if not loaded
+    private static final Map<String, Optional<String>> OWNERS = new ConcurrentHashMap<>();
 
     public static Optional<Application> get(String appName) {
         try {
@@ -41,7 +44,12 @@ public class Applications {
         }
     }
 
+    public static Optional<String> owner(String appid) {
+        return OWNERS.computeIfAbsent(appid, id -> get(id).map(Application::getOwner));
+    }
+
     public static boolean load(Application application) {
+        OWNERS.remove(application.getAppid());
         try {
             return Database.getInstance().addApplication(application);
         } catch (JsonProcessingException e) {
@@ -54,6 +62,7 @@ public class Applications {
         // Volumes are destroyed lazily
         LOG.info("deleting {}", appName);
         Database.getInstance().safeDeleteApplication(appName);
+        OWNERS.remove(appName);
     }
 
     public static List<Application> getAll() {
@@ -139,6 +148,12 @@ public class Applications {
             envBuilder.addVariables(Protos.Environment.Variable.newBuilder()
                     .setName(key).setValue(value).build());
         }
+        if (job.arrayId() >= 0) {
+            envBuilder.addVariables(Protos.Environment.Variable.newBuilder()
+                    .setName("RETZ_ARRAY_ID").setValue(Integer.toString(job.arrayId())).build());
+            envBuilder.addVariables(Protos.Environment.Variable.newBuilder()
+                    .setName("RETZ_ARRAY_INDEX").setValue(Integer.toString(job.arrayIndex())).build());
+        }
         int portCount = 0;
         for (Range range : ports) {
             for (int p = range.getMin(); p <= range.getMax(); ++p) {
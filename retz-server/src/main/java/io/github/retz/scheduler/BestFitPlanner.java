@@ -0,0 +1,180 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+// Best-fit bin packing with dominant resource scoring: each job goes to the offer
+// which leaves the least dominant share of resource after placement. With backfill,
+// jobs are tried in decreasing order of dominant share (best-fit decreasing) and jobs
+// that fit nowhere are skipped; without backfill jobs are placed in FIFO order and
+// planning stops at the first job that fits nowhere. With locality, offers of agents
+// warm for the application of the job are always preferred to cold ones.
+public class BestFitPlanner extends NaivePlanner {
+    private static final Logger LOG = LoggerFactory.getLogger(BestFitPlanner.class);
+
+    private final boolean backfill;
+
+    public BestFitPlanner(boolean backfill) {
+        this(backfill, Optional.empty());
+    }
+
+    public BestFitPlanner(boolean backfill, Optional<AgentCache> locality) {
+        super(locality);
+        this.backfill = backfill;
+    }
+
+    @Override
+    public Plan plan(List<Protos.Offer> offers, List<AppJobPair> jobs, int maxStock) {
+        List<Bin> bins = offers.stream().map(Bin::new).collect(Collectors.toList());
+        Capacity total = new Capacity();
+        for (Bin bin : bins) {
+            total.add(bin);
+        }
+
+        List<AppJobPair> candidates = new ArrayList<>(jobs);
+        if (backfill) {
+            // Stable sort; jobs with same share keep the queue order
+            candidates.sort(Comparator.comparingDouble((AppJobPair appJob) -> total.share(appJob.job())).reversed());
+        }
+
+        List<Protos.Offer.Operation> ops = new LinkedList<>();
+        List<Job> launch = new LinkedList<>();
+        for (AppJobPair appJob : candidates) {
+            Job job = appJob.job();
+            Bin best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (Bin bin : bins) {
+                if (bin.fits(job)) {
+                    // Leftover share is at most 1; cold bins lose to any warm bin
+                    double score = total.leftover(bin, job) + (isWarm(bin, appJob) ? 0 : 1);
+                    if (score < bestScore) {
+                        best = bin;
+                        bestScore = score;
+                    }
+                }
+            }
+            if (best == null) {
+                if (backfill) {
+                    continue;
+                }
+                LOG.debug("Job {} does not fit any of {} offers", job.id(), offers.size());
+                break;
+            }
+            ops.add(launch(appJob, best.offer, best.assign(job)));
+            launch.add(job);
+        }
+
+        List<Protos.Offer> accept = new LinkedList<>();
+        List<Protos.Offer> remain = new LinkedList<>();
+        for (Bin bin : bins) {
+            if (bin.used) {
+                accept.add(bin.offer);
+            } else {
+                remain.add(bin.offer);
+            }
+        }
+        return stockOrDecline(ops, launch, new LinkedList<>(), accept, remain, maxStock);
+    }
+
+    private boolean isWarm(Bin bin, AppJobPair appJob) {
+        return locality.isPresent() && appJob.hasApplication() && locality.get().isWarm(bin.offer.getSlaveId().getValue(), appJob.application());
+    }
+
+    // An offer and its resource left unassigned
+    private static class Bin {
+        private final Protos.Offer offer;
+        private final Resource resource;
+        private double cpu;
+        private int memMB;
+        private int gpu;
+        private int ports;
+        private int lastPort = 0;
+        private boolean used = false;
+
+        Bin(Protos.Offer offer) {
+            this.offer = offer;
+            this.resource = ResourceConstructor.decode(offer.getResourcesList());
+            this.cpu = resource.cpu();
+            this.memMB = resource.memMB();
+            this.gpu = resource.gpu();
+            this.ports = resource.portAmount();
+        }
+
+        boolean fits(Job job) {
+            return job.cpu() <= cpu && job.memMB() <= memMB && job.gpu() <= gpu && job.ports() <= ports;
+        }
+
+        Resource assign(Job job) {
+            Resource assign = resource.cut(job.cpu(), job.memMB(), job.gpu(), job.ports(), lastPort);
+            if (job.ports() > 0) {
+                lastPort = assign.lastPort();
+            }
+            cpu -= job.cpu();
+            memMB -= job.memMB();
+            gpu -= job.gpu();
+            ports -= job.ports();
+            used = true;
+            return assign;
+        }
+    }
+
+    // Sum of all offered resource, to normalize each resource into share
+    private static class Capacity {
+        private double cpu = 0;
+        private double memMB = 0;
+        private double gpu = 0;
+        private double ports = 0;
+
+        void add(Bin bin) {
+            cpu += bin.cpu;
+            memMB += bin.memMB;
+            gpu += bin.gpu;
+            ports += bin.ports;
+        }
+
+        // Dominant share of the job against the whole offers
+        double share(Job job) {
+            return dominant(job.cpu(), job.memMB(), job.gpu(), job.ports());
+        }
+
+        // Dominant share of resource left in the bin after the job placed
+        double leftover(Bin bin, Job job) {
+            return dominant(bin.cpu - job.cpu(), bin.memMB - job.memMB(),
+                    bin.gpu - job.gpu(), bin.ports - job.ports());
+        }
+
+        private double dominant(double c, double m, double g, double p) {
+            double share = Math.max(ratio(c, cpu), ratio(m, memMB));
+            return Math.max(share, Math.max(ratio(g, gpu), ratio(p, ports)));
+        }
+
+        private static double ratio(double amount, double total) {
+            return total > 0 ? amount / total : 0;
+        }
+    }
+}
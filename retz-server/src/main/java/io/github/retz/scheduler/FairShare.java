@@ -0,0 +1,244 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Chooses queued jobs for resources offered, fairly among users and applications.
+ *
+ * With "drf", dominant resource fairness, the user whose running jobs hold the smallest
+ * share of the dominant resource, cpu or memory, divided by its weight, takes its next job
+ * first; among applications of the user, the same rule applies. Jobs of each application
+ * are taken in the order of the queue, so a job which doesn't fit blocks later jobs of the
+ * same application only. With "fifo", jobs are taken strictly in the order of the queue,
+ * which is already ordered by priority with aging in {@link JobQueue}.
+ *
+ * In both ways, running jobs, cpu and memory of each user and application are limited by
+ * quotas, and totals of running jobs are taken from {@link JobQueue} on memory.
+ */
+public class FairShare {
+    private static final Logger LOG = LoggerFactory.getLogger(FairShare.class);
+
+    public static final String DRF = "drf";
+    public static final String FIFO = "fifo";
+    public static final List<String> NAMES = Arrays.asList(DRF, FIFO);
+
+    static final String USER = "user";
+    static final String APP = "app";
+
+    private final ServerConfiguration config;
+    private final boolean fifo;
+
+    public FairShare(ServerConfiguration config) {
+        this.config = config;
+        this.fifo = config.getShare().equals(FIFO);
+    }
+
+    // Choose up to max queued jobs in the order to plan, which fit in resources available
+    public List<Job> choose(int cpu, int memMB, int gpu, int ports, int max) {
+        List<Job> ret = new LinkedList<>();
+        if (max <= 0) {
+            return ret;
+        }
+        Map<String, Group> users = new LinkedHashMap<>();
+        Map<String, Group> apps = new HashMap<>();
+
+        // Capacity to compute shares is resources available plus those held by running jobs
+        RunningJobs.Total capacity = new RunningJobs.Total();
+        for (Map.Entry<String, RunningJobs.Total> e : JobQueue.runningByApp().entrySet()) {
+            group(e.getKey(), users, apps).addUsage(e.getValue());
+            capacity.add(e.getValue());
+        }
+        double totalCpu = capacity.cpu() + cpu;
+        double totalMem = capacity.memMB() + memMB;
+
+        // Only heads of applications up to what can be chosen in this pass, not the whole queue
+        for (Map.Entry<String, ConcurrentSkipListMap<JobQueue.Key, Job>> queue : JobQueue.queuedByApp().entrySet()) {
+            Group app = null;
+            for (Map.Entry<JobQueue.Key, Job> queued : queue.getValue().entrySet()) {
+                Job job = queued.getValue();
+                if (job.state() != Job.JobState.QUEUED) {
+                    // Being launched or cancelled, and to be removed from index soon
+                    continue;
+                }
+                if (app == null) {
+                    app = group(queue.getKey(), users, apps);
+                }
+                if (!app.enqueue(job, queued.getKey(), cpu, memMB, max)) {
+                    break;
+                }
+            }
+        }
+
+        int leftCpu = cpu;
+        int leftMem = memMB;
+        int leftGpu = gpu;
+        int leftPorts = ports;
+        while (ret.size() < max) {
+            Group user = next(users.values(), totalCpu, totalMem);
+            if (user == null) {
+                break;
+            }
+            Group app = next(user.children.values(), totalCpu, totalMem);
+            Job job = app.jobs.peek();
+            boolean fits = job.cpu() <= leftCpu && job.memMB() <= leftMem
+                    && job.gpu() <= leftGpu && job.ports() <= leftPorts;
+            if (fits && user.allows(job) && app.allows(job)) {
+                app.poll();
+                user.usage.add(job, 1);
+                app.usage.add(job, 1);
+                leftCpu -= job.cpu();
+                leftMem -= job.memMB();
+                leftGpu -= job.gpu();
+                leftPorts -= job.ports();
+                ret.add(job);
+            } else if (!fits && fifo) {
+                break;
+            } else {
+                // Later jobs of the application must wait for this one
+                LOG.debug("Job id={} of user {} waits: fits={}", job.id(), user.name, fits);
+                app.clear();
+            }
+        }
+        return ret;
+    }
+
+    private Group group(String appid, Map<String, Group> users, Map<String, Group> apps) {
+        Group app = apps.get(appid);
+        if (app == null) {
+            // Jobs without application are cancelled later by Planner.filter
+            String name = Applications.owner(appid).orElse("");
+            Group user = users.computeIfAbsent(name, n -> new Group(USER, n, null));
+            app = new Group(APP, appid, user);
+            user.children.put(appid, app);
+            apps.put(appid, app);
+        }
+        return app;
+    }
+
+    // Group with the smallest weighted dominant share, or the head job first in the queue
+    // with FIFO, among those with jobs left
+    private Group next(Iterable<Group> groups, double totalCpu, double totalMem) {
+        Group best = null;
+        double bestShare = Double.MAX_VALUE;
+        JobQueue.Key bestPosition = null;
+        for (Group g : groups) {
+            JobQueue.Key position = g.head();
+            if (position == null) {
+                continue;
+            }
+            double share = fifo ? 0 : g.share(totalCpu, totalMem);
+            if (share < bestShare || (share == bestShare && bestPosition != null && position.compareTo(bestPosition) < 0)) {
+                best = g;
+                bestShare = share;
+                bestPosition = position;
+            }
+        }
+        return best;
+    }
+
+    private class Group {
+        private final String name;
+        private final double weight;
+        private final int maxJobs;
+        private final int maxCpu;
+        private final int maxMem;
+        private final RunningJobs.Total usage = new RunningJobs.Total();
+        // Applications of a user
+        private final Map<String, Group> children = new LinkedHashMap<>();
+        private final Group parent;
+        // Queued jobs of an application with their positions in the queue, and their total demand
+        private final LinkedList<Job> jobs = new LinkedList<>();
+        private final LinkedList<JobQueue.Key> positions = new LinkedList<>();
+        private int demandCpu = 0;
+        private int demandMem = 0;
+
+        Group(String kind, String name, Group parent) {
+            this.name = name;
+            this.parent = parent;
+            this.weight = config.getShareWeight(kind, name);
+            this.maxJobs = config.getQuota(kind, "running", name);
+            this.maxCpu = config.getQuota(kind, "cpu", name);
+            this.maxMem = config.getQuota(kind, "mem", name);
+        }
+
+        void addUsage(RunningJobs.Total total) {
+            usage.add(total);
+            if (parent != null) {
+                parent.addUsage(total);
+            }
+        }
+
+        // Returns false if later jobs of the application can never be chosen in this pass
+        boolean enqueue(Job job, JobQueue.Key position, int cpu, int memMB, int max) {
+            jobs.add(job);
+            positions.add(position);
+            demandCpu += job.cpu();
+            demandMem += job.memMB();
+            // Jobs after the one exceeding resources offered, or after max jobs, are not needed
+            return demandCpu <= cpu && demandMem <= memMB && jobs.size() < max;
+        }
+
+        void poll() {
+            jobs.poll();
+            positions.poll();
+        }
+
+        void clear() {
+            jobs.clear();
+            positions.clear();
+        }
+
+        boolean allows(Job job) {
+            return (maxJobs == 0 || usage.jobs() + 1 <= maxJobs)
+                    && (maxCpu == 0 || usage.cpu() + job.cpu() <= maxCpu)
+                    && (maxMem == 0 || usage.memMB() + job.memMB() <= maxMem);
+        }
+
+        double share(double totalCpu, double totalMem) {
+            double cpuShare = totalCpu > 0 ? usage.cpu() / totalCpu : 0;
+            double memShare = totalMem > 0 ? usage.memMB() / totalMem : 0;
+            return Math.max(cpuShare, memShare) / weight;
+        }
+
+        // Position in the queue of the first job left in the group, or null if none
+        JobQueue.Key head() {
+            if (children.isEmpty()) {
+                return positions.peek();
+            }
+            JobQueue.Key position = null;
+            for (Group app : children.values()) {
+                JobQueue.Key head = app.head();
+                if (head != null && (position == null || head.compareTo(position) < 0)) {
+                    position = head;
+                }
+            }
+            return position;
+        }
+    }
+}
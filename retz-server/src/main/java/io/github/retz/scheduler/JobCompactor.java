@@ -0,0 +1,161 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves finished and killed jobs older than retention from jobs table to archived_jobs table,
+ * so that scans, counts and listings of jobs table stay small. Archived jobs are still found
+ * by listing jobs, getting a job and usage queries.
+ *
+ * Each batch of jobs is moved in its own short transaction with a pause in between, so that
+ * compaction never holds database long against the scheduler. It runs every interval and
+ * whenever triggered, e.g. via AdminConsole.
+ */
+public class JobCompactor {
+    private static final Logger LOG = LoggerFactory.getLogger(JobCompactor.class);
+    private static final long PAUSE_MS = 100;
+
+    private final long retentionMs;
+    private final long intervalMs;
+    private final int batchSize;
+    private final Thread thread;
+    private final Object signal = new Object();
+    private boolean triggered = false;
+    private volatile boolean running = false;
+
+    private volatile boolean compacting = false;
+    private volatile long lastStarted = 0;
+    private volatile long lastFinished = 0;
+    private volatile int lastArchived = 0;
+    private volatile String lastError = "";
+    private final AtomicLong totalArchived = new AtomicLong(0);
+
+    public JobCompactor(long retentionMs, long intervalMs, int batchSize) {
+        this.retentionMs = retentionMs;
+        this.intervalMs = intervalMs;
+        this.batchSize = batchSize;
+        this.thread = new Thread(this::loop, "retz-job-compactor");
+        this.thread.setDaemon(true);
+    }
+
+    public JobCompactor(ServerConfiguration config) {
+        this(config.getCompactRetention() * 1000, config.getCompactInterval() * 1000, config.getCompactBatchSize());
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+        LOG.info("Job compactor started: retention={}s, interval={}s, batch={}",
+                retentionMs / 1000, intervalMs / 1000, batchSize);
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while stopping job compactor");
+        }
+    }
+
+    // Run compaction soon in background; never blocks
+    public void trigger() {
+        synchronized (signal) {
+            triggered = true;
+            signal.notifyAll();
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            synchronized (signal) {
+                if (!triggered) {
+                    try {
+                        // Without interval, wait only for triggers
+                        signal.wait(intervalMs);
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                }
+                if (!triggered && intervalMs == 0) {
+                    continue;
+                }
+                triggered = false;
+            }
+            if (running) {
+                compact();
+            }
+        }
+        LOG.info("Job compactor stopped");
+    }
+
+    // Archive all jobs finished before retention, batch by batch; returns number of jobs archived
+    public synchronized int compact() {
+        long now = System.currentTimeMillis();
+        compacting = true;
+        lastStarted = now;
+        int total = 0;
+        try {
+            int archived;
+            do {
+                archived = JobQueue.compact(now - retentionMs, batchSize);
+                total += archived;
+                if (archived == batchSize) {
+                    Thread.sleep(PAUSE_MS);
+                }
+            } while (archived == batchSize);
+            lastError = "";
+        } catch (IOException | SQLException e) {
+            LOG.error("Job compaction failed: {}", e.toString());
+            lastError = e.toString();
+        } catch (InterruptedException e) {
+            LOG.warn("Job compaction interrupted");
+        } finally {
+            compacting = false;
+            lastFinished = System.currentTimeMillis();
+            lastArchived = total;
+            totalArchived.addAndGet(total);
+        }
+        LOG.info("{} jobs archived in {}ms", total, lastFinished - lastStarted);
+        return total;
+    }
+
+    // Timestamps are in milliseconds since the epoch, and 0 if never
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("compacting", compacting);
+        status.put("retentionSeconds", retentionMs / 1000);
+        status.put("intervalSeconds", intervalMs / 1000);
+        status.put("batchSize", batchSize);
+        status.put("lastStarted", lastStarted);
+        status.put("lastFinished", lastFinished);
+        status.put("lastArchived", lastArchived);
+        status.put("lastError", lastError);
+        status.put("totalArchived", totalArchived.get());
+        return status;
+    }
+}
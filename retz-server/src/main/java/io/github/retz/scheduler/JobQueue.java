@@ -16,9 +16,9 @@
  */
 package io.github.retz.scheduler;
 
-import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
 import io.github.retz.db.JobNotFoundException;
+import io.github.retz.protocol.ListJobRequest;
 import io.github.retz.protocol.StatusResponse;
 import io.github.retz.protocol.data.Job;
 import org.apache.mesos.Protos;
@@ -27,89 +27,407 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
 
 /**
  * On memory job queue to mediate job execution requests and resources
+ *
+ * Queued jobs are indexed on memory in the order of the queue, so that the scheduler can
+ * choose jobs for offers without JDBC round trips and JSON parsing. Jobs with larger
+ * priority come first, and with aging a job gains one priority for each interval it has
+ * waited, so that jobs with small priority are still served. As all queued jobs age at the
+ * same pace, the order doesn't change over time and is decided once when a job is indexed;
+ * see {@link #rank(Job)}. The job store, database or journal,
+ * is only used as write-through persistence: every state transition is committed to it first
+ * and then reflected to the index. The index is rebuilt from the store by {@link #rebuild()}
+ * at startup and after any bulk recovery that updates the store directly. Running jobs are
+ * kept in {@link RunningJobs} in the same way.
+ *
+ * An array job is kept queued as a template out of the queue, and only as many tasks as
+ * offered resources can run are made plain jobs in the queue at a time; see {@link #expandArrays}.
+ *
  * TODO: make all these data tolerant against node or network failure
  * TODO: FIXME: re-design all exception handling, which to supress / which to return to client
  */
 public class JobQueue {
     private static final Logger LOG = LoggerFactory.getLogger(JobQueue.class);
-    private static final AtomicInteger COUNTER;
+    private static int idBlockSize = Integer.parseInt(ServerConfiguration.DEFAULT_JOB_ID_BLOCK_SIZE);
+    // Job ids in [nextId, idLimit) are reserved for this server; see JobStore.allocateJobIds
+    private static int nextId = 0;
+    private static int idLimit = 0;
+    // In milliseconds; 0 disables aging
+    private static long agingInterval = Long.parseLong(ServerConfiguration.DEFAULT_PRIORITY_AGING);
+    // Jobs in QUEUED state in the order of the queue, and their keys by id. Guarded by QUEUED for updates
+    private static final ConcurrentSkipListMap<Key, Job> QUEUED = new ConcurrentSkipListMap<>();
+    private static final Map<Integer, Key> KEYS = new ConcurrentHashMap<>();
+    // The same jobs by application, for choosing jobs without scanning whole queue. Guarded by QUEUED for updates
+    private static final Map<String, ConcurrentSkipListMap<Key, Job>> APPS = new ConcurrentHashMap<>();
+    // Array jobs in QUEUED state, by id. Guarded by QUEUED for updates
+    private static final ConcurrentSkipListMap<Integer, Job> ARRAYS = new ConcurrentSkipListMap<>();
+    // Jobs in STARTING or STARTED state
+    private static final RunningJobs RUNNING = new RunningJobs();
 
-    static {
-        int latest = Database.getInstance().getLatestJobId();
-        COUNTER = new AtomicInteger(latest + 1);
+    private JobQueue() {
     }
 
-    private JobQueue() {
+    // Load all QUEUED and running jobs from database; call this after database initialization
+    public static void rebuild() {
+        try {
+            List<Job> jobs = Database.getJobStore().queued(Integer.MAX_VALUE);
+            List<Job> running = Database.getJobStore().running();
+            synchronized (QUEUED) {
+                clearQueued();
+                for (Job job : jobs) {
+                    if (job.arraySize() > 0) {
+                        ARRAYS.put(job.id(), job);
+                        continue;
+                    }
+                    putQueued(job);
+                }
+                RUNNING.clear();
+                for (Job job : running) {
+                    RUNNING.update(job);
+                }
+            }
+            LOG.info("Job queue index rebuilt: {} jobs queued, {} jobs running", jobs.size(), running.size());
+        } catch (IOException | SQLException e) {
+            LOG.error("Failed to rebuild job queue index: {}", e.toString());
+            throw new RuntimeException("Database is not available currently");
+        }
+    }
+
+    // Reflect a job state, which has already been committed to database, to the index
+    // and to watchers waiting for its change
+    private static void index(Job job) {
+        synchronized (QUEUED) {
+            removeQueued(job.id());
+            if (job.arraySize() > 0) {
+                if (job.state() == Job.JobState.QUEUED) {
+                    ARRAYS.put(job.id(), job);
+                } else {
+                    ARRAYS.remove(job.id());
+                }
+            } else if (job.state() == Job.JobState.QUEUED) {
+                putQueued(job);
+            }
+        }
+        RUNNING.update(job);
+        JobWatch.notify(job);
+    }
+
+    // Call these holding QUEUED
+    private static void putQueued(Job job) {
+        Key key = new Key(rank(job), job.id());
+        QUEUED.put(key, job);
+        KEYS.put(job.id(), key);
+        APPS.computeIfAbsent(job.appid(), appid -> new ConcurrentSkipListMap<>()).put(key, job);
     }
 
-    public static List<Job> getAll(String id) {
+    private static void removeQueued(int id) {
+        Key old = KEYS.remove(id);
+        if (old == null) {
+            return;
+        }
+        Job job = QUEUED.remove(old);
+        if (job != null) {
+            ConcurrentSkipListMap<Key, Job> app = APPS.get(job.appid());
+            if (app != null) {
+                app.remove(old);
+                if (app.isEmpty()) {
+                    APPS.remove(job.appid());
+                }
+            }
+        }
+    }
+
+    private static void clearQueued() {
+        QUEUED.clear();
+        KEYS.clear();
+        APPS.clear();
+        ARRAYS.clear();
+    }
+
+    public static List<Job> list(String owner, ListJobRequest req, int limit) {
         try {
-            return Database.getInstance().getAllJobs(id);
+            return Database.getJobStore().listJobs(owner, req, limit);
         } catch (IOException e) {
             LOG.error(e.toString());
             throw new RuntimeException("Database is not available currently");
         }
     }
 
-    // As this is issued by server without any transaction, this id may have
-    // skip, but monotonically increasing afaik
+    public static void setIdBlockSize(int size) {
+        idBlockSize = size;
+    }
+
+    // Call rebuild after this to reorder jobs already queued
+    public static void setAgingInterval(long ms) {
+        agingInterval = ms;
+    }
+
+    // Jobs are served in ascending order of rank, and then of id. A job waiting for the
+    // aging interval is worth one more priority, so the rank is the time it was scheduled,
+    // moved earlier by its priority times the interval
+    static long rank(Job job) {
+        if (agingInterval == 0) {
+            return -job.priority();
+        }
+        return Math.max(job.scheduledAt(), 0) - job.priority() * agingInterval;
+    }
+
+    // Ids are unique among servers sharing database and monotonically increasing on this
+    // server, but may have skip e.g. ids left in a block at restart
     public static int issueJobId() {
-        return COUNTER.getAndIncrement(); // Just have to be unique
+        return issueJobIds(1);
+    }
+
+    // Issue n consecutive ids at once, returning the first one. Usually just an increment on memory;
+    // a new block of ids is reserved in database only when ids left are not enough
+    public static synchronized int issueJobIds(int n) {
+        if (nextId + n > idLimit) {
+            int size = Math.max(n, idBlockSize);
+            try {
+                nextId = Database.getJobStore().allocateJobIds(size);
+            } catch (IOException | SQLException e) {
+                LOG.error("Failed to reserve job ids: {}", e.toString());
+                throw new RuntimeException("Database is not available currently");
+            }
+            idLimit = nextId + size;
+        }
+        int first = nextId;
+        nextId += n;
+        return first;
     }
 
     public static void push(Job job) throws InterruptedException {
         // TODO: set a cap of queue
-        Database.getInstance().safeAddJob(job);
+        if (Database.getJobStore().safeAddJob(job)) {
+            index(job);
+        }
+    }
+
+    // Returns false when none of jobs has been committed
+    public static boolean pushAll(List<Job> jobs) {
+        if (Database.getJobStore().safeAddJobs(jobs)) {
+            for (Job job : jobs) {
+                index(job);
+            }
+            return true;
+        }
+        return false;
     }
 
     public static void cancelAll(List<Job> jobs) {
         for (Job job : jobs) {
             if (job.state() != Job.JobState.KILLED) {
                 LOG.warn("Job state isn't yet KILLED: changing here from {}", job);
-                job.killed(TimestampHelper.now(), Optional.empty(), "Changed via JobQueue.cancelAll check");
+                job.killed(System.currentTimeMillis(), Optional.empty(), "Changed via JobQueue.cancelAll check");
             }
         }
-        Database.getInstance().updateJobs(jobs);
+        Database.getJobStore().updateJobs(jobs);
+        for (Job job : jobs) {
+            index(job);
+        }
     }
 
-    public static Optional<String> cancel(int id, String reason) throws SQLException, IOException, JobNotFoundException {
-        Database.getInstance().updateJob(id, (job -> {
-            job.killed(TimestampHelper.now(), Optional.empty(), reason);
-            LOG.info("Job id={} has been canceled.", id);
+    // Returns the job with new priority, or empty if the job isn't queued
+    public static Optional<Job> setPriority(int id, int priority) throws SQLException, IOException, JobNotFoundException {
+        Optional<Job> maybeJob = Database.getJobStore().updateJob(id, job -> {
+            if (job.state() != Job.JobState.QUEUED) {
+                return Optional.empty();
+            }
+            job.setPriority(priority);
             return Optional.of(job);
-        }));
-        Optional<Job> maybeJob = getJob(id);
-        if (maybeJob.isPresent()) {
-            return Optional.ofNullable(maybeJob.get().taskId());
-        } else {
-            return Optional.empty();
+        });
+        synchronized (QUEUED) {
+            // Not to bring it back to the index if it has just been launched or cancelled
+            if (maybeJob.isPresent() && (KEYS.containsKey(id) || ARRAYS.containsKey(id))) {
+                index(maybeJob.get());
+            }
+        }
+        return maybeJob;
+    }
+
+    // Cancelling an array job also cancels its tasks still queued, but not running ones.
+    // Serialized with expandArrays not to queue tasks of the array in between
+    public static Optional<String> cancel(int id, String reason) throws SQLException, IOException, JobNotFoundException {
+        synchronized (ARRAYS) {
+            Optional<Job> maybeJob = Database.getJobStore().updateJob(id, (job -> {
+                job.killed(System.currentTimeMillis(), Optional.empty(), reason);
+                LOG.info("Job id={} has been canceled.", id);
+                return Optional.of(job);
+            }));
+            if (maybeJob.isPresent()) {
+                index(maybeJob.get());
+                if (maybeJob.get().arraySize() > 0) {
+                    for (Job task : queuedTasks(id)) {
+                        cancel(task.id(), reason);
+                    }
+                }
+                return Optional.ofNullable(maybeJob.get().taskId());
+            } else {
+                return Optional.empty();
+            }
+        }
+    }
+
+    // Make tasks of array jobs plain jobs in the queue, in the order of arrays, as many as fit
+    // in the resources and slots together with tasks of the array already queued. Returns
+    // number of tasks queued. Called only from the scheduling loop, before choosing jobs
+    public static int expandArrays(int cpu, int memMB, int slots) {
+        if (ARRAYS.isEmpty()) {
+            return 0;
+        }
+        Map<Integer, Integer> queued = new HashMap<>();
+        for (Job job : QUEUED.values()) {
+            if (job.arrayId() >= 0) {
+                queued.merge(job.arrayId(), 1, Integer::sum);
+            }
+        }
+        int total = 0;
+        for (Job array : ARRAYS.values()) {
+            int fit = Math.min(slots, Math.min(cpu / Math.max(array.cpu(), 1), memMB / Math.max(array.memMB(), 1)));
+            if (fit <= 0) {
+                continue;
+            }
+            // Tasks already queued take their share first
+            int waiting = queued.getOrDefault(array.id(), 0);
+            int n = Math.max(0, Math.min(array.arraySize() - array.arrayExpanded(), fit - waiting));
+            int taken = Math.min(fit, waiting + n);
+            cpu -= taken * array.cpu();
+            memMB -= taken * array.memMB();
+            slots -= taken;
+            if (n == 0) {
+                continue;
+            }
+
+            // Tasks take the place of the array in the queue. Ids are issued only for an array
+            // still queued, and ids issued are never reused even if expansion fails
+            synchronized (ARRAYS) {
+                if (!ARRAYS.containsKey(array.id())) {
+                    continue;
+                }
+                List<Job> tasks = new ArrayList<>(n);
+                int id = issueJobIds(n);
+                for (int i = 0; i < n; ++i) {
+                    Job task = array.arrayTask(array.arrayExpanded() + i);
+                    task.schedule(id + i, array.scheduledAt());
+                    tasks.add(task);
+                }
+                try {
+                    Optional<Job> expanded = Database.getJobStore().expandArray(array.id(), tasks);
+                    if (expanded.isPresent()) {
+                        for (Job task : tasks) {
+                            index(task);
+                        }
+                        index(expanded.get());
+                        total += n;
+                        LOG.info("{} tasks (id={}..{}) of array job id={} queued: {}/{}", n, id, id + n - 1,
+                                array.id(), expanded.get().arrayExpanded(), expanded.get().arraySize());
+                    } else {
+                        LOG.warn("Array job id={} is no longer queued: job ids {}..{} are unused",
+                                array.id(), id, id + n - 1);
+                    }
+                } catch (IOException | SQLException e) {
+                    LOG.error("Failed to expand array job id={}: {}; job ids {}..{} are unused",
+                            array.id(), e.toString(), id, id + n - 1);
+                }
+            }
+        }
+        return total;
+    }
+
+    // Tasks of the array job in QUEUED state
+    static List<Job> queuedTasks(int arrayId) {
+        List<Job> ret = new LinkedList<>();
+        for (Job job : QUEUED.values()) {
+            if (job.arrayId() == arrayId && job.state() == Job.JobState.QUEUED) {
+                ret.add(job);
+            }
         }
+        return ret;
+    }
+
+    // Number of tasks of the array job in each state, except archived ones
+    public static Map<Job.JobState, Integer> countArray(int id) throws IOException, SQLException {
+        return Database.getJobStore().countArray(id);
     }
 
     // @doc take as much jobs as in the max cpu/memMB
     public static List<Job> findFit(int cpu, int memMB) {
-        try {
-            return Database.getInstance().findFit(cpu, memMB);
-        } catch (IOException e) {
-            LOG.error(e.toString());
-            return new LinkedList<>();
+        return findFit(cpu, memMB, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    // @doc take as much jobs from the head of the queue as in the max cpu/memMB/gpu/ports,
+    // without touching database
+    public static List<Job> findFit(int cpu, int memMB, int gpu, int ports) {
+        List<Job> ret = new LinkedList<>();
+        int totalCpu = 0;
+        int totalMem = 0;
+        int totalGpu = 0;
+        int totalPorts = 0;
+        for (Job job : QUEUED.values()) {
+            if (job.state() != Job.JobState.QUEUED) {
+                // Being launched or cancelled, and to be removed from index soon
+                continue;
+            }
+            if (totalCpu + job.cpu() <= cpu && totalMem + job.memMB() <= memMB
+                    && totalGpu + job.gpu() <= gpu && totalPorts + job.ports() <= ports) {
+                ret.add(job);
+                totalCpu += job.cpu();
+                totalMem += job.memMB();
+                totalGpu += job.gpu();
+                totalPorts += job.ports();
+            } else {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    public static List<Job> queued(int limit) {
+        List<Job> ret = new LinkedList<>();
+        for (Job job : QUEUED.values()) {
+            if (ret.size() >= limit) {
+                break;
+            } else if (job.state() == Job.JobState.QUEUED) {
+                ret.add(job);
+            }
+        }
+        return ret;
+    }
+
+    public static int countQueued() {
+        return QUEUED.size();
+    }
+
+    // Jobs waiting for resource, including tasks of arrays not expanded yet
+    public static int countPending() {
+        int pending = QUEUED.size();
+        for (Job array : ARRAYS.values()) {
+            pending += array.arraySize() - array.arrayExpanded();
         }
+        return pending;
     }
 
-    public static List<Job> queued(int limit) throws SQLException, IOException {
-        return Database.getInstance().queued(limit);
+
+    // Queued jobs of each application in the order of the queue, keyed by their positions
+    static Map<String, ConcurrentSkipListMap<Key, Job>> queuedByApp() {
+        return Collections.unmodifiableMap(APPS);
     }
 
     public synchronized static Optional<Job> getJob(int id) {
         try {
-            return Database.getInstance().getJob(id);
+            return Database.getJobStore().getJob(id);
         } catch (IOException e) {
             LOG.error(e.toString());
         }
@@ -117,38 +435,67 @@ public class JobQueue {
     }
 
     public synchronized static void clear() {
-        Database.getInstance().deleteAllJob(Integer.MAX_VALUE);
+        Database.getJobStore().deleteAllJob(Integer.MAX_VALUE);
+        synchronized (QUEUED) {
+            clearQueued();
+        }
+        RUNNING.clear();
+        JobWatch.clear();
     }
 
     public static int size() {
-        return Database.getInstance().countJobs();
+        return Database.getJobStore().countJobs();
     }
 
-    public static void starting(Job job, Optional<String> url, String taskId) {
+    // The job is one chosen from the index, already made STARTING on memory by the planner.
+    // It is written in single UPDATE without reading database, only if it is still QUEUED there.
+    // Returns false if not written; then the job is indexed as in database and must not be launched
+    public static boolean starting(Job job, Optional<String> url, String taskId) {
+        job.starting(taskId, url, System.currentTimeMillis());
         try {
-            Database.getInstance().setJobStarting(job.id(), url, taskId);
-        } catch (IOException e) {
-
-        } catch (SQLException e) {
+            if (Database.getJobStore().updateJobIfState(job, Job.JobState.QUEUED)) {
+                index(job);
+                return true;
+            }
+            LOG.warn("Job id={} is no longer queued in database: not updated to STARTING", job.id());
+        } catch (IOException | SQLException e) {
+            LOG.error("Failed to update job id={} to STARTING: {}", job.id(), e.toString());
+        }
+        restore(job.id());
+        return false;
+    }
 
-        } catch (JobNotFoundException e) {
+    // Put jobs back as stored after a failed scheduling pass, as planners make them STARTING on memory
+    static void restoreAll(List<Job> jobs) {
+        for (Job job : jobs) {
+            restore(job.id());
+        }
+    }
 
+    // Replace the job in the index, made STARTING on memory, with the one in database
+    private static void restore(int id) {
+        try {
+            Optional<Job> stored = Database.getJobStore().getJob(id);
+            if (stored.isPresent()) {
+                index(stored.get());
+                return;
+            }
+        } catch (IOException e) {
+            LOG.error(e.toString());
+        }
+        // Unknown; out of the index until rebuilt, rather than left as STARTING there
+        synchronized (QUEUED) {
+            removeQueued(id);
         }
     }
 
     static void started(String taskId, Optional<String> maybeUrl) throws IOException, SQLException, JobNotFoundException {
-        Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
-        if (maybeJob.isPresent()) {
-            Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                job.started(taskId, maybeUrl, TimestampHelper.now());
-                return Optional.of(job);
-            });
-        }
+        Database.getJobStore().updateJobByTaskId(taskId, toStarted(taskId, maybeUrl)).ifPresent(JobQueue::index);
     }
 
     public static Optional<Job> getFromTaskId(String taskId) {
         try {
-            return Database.getInstance().getJobFromTaskId(taskId);
+            return Database.getJobStore().getJobFromTaskId(taskId);
         } catch (IOException e) {
             LOG.error(e.toString());
             return Optional.empty();
@@ -157,39 +504,16 @@ public class JobQueue {
 
     public static void retry(String taskId, String reason) throws SQLException, JobNotFoundException {
         try {
-            Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
-            if (maybeJob.isPresent()) {
-                int threshold = 5;
-                Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                    if (job.retry() > threshold) {
-                        String msg = String.format("Giving up Job retry: %d / id=%d, last reason='%s'", threshold, job.id(), reason);
-                        LOG.warn(msg);
-                        job.killed(TimestampHelper.now(), Optional.empty(), msg);
-
-                    } else {
-                        job.doRetry();
-                        LOG.info("Scheduled retry {}/{} of Job(taskId={}), reason='{}'",
-                                job.retry(), threshold, job.taskId(), reason);
-                    }
-                    return Optional.of(job);
-                });
-            }
+            Database.getJobStore().updateJobByTaskId(taskId, toRetry(reason)).ifPresent(JobQueue::index);
         } catch (IOException e) {
             LOG.warn("Retry failed: {}", e.toString());
         }
     }
 
     // Whether it's success, fail, or killed
-    static void finished(String taskId, Optional<String> maybeUrl, int ret, String finished) throws SQLException, JobNotFoundException {
+    static void finished(String taskId, Optional<String> maybeUrl, int ret, long finished) throws SQLException, JobNotFoundException {
         try {
-            Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
-            if (maybeJob.isPresent()) {
-                Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                    job.finished(finished, maybeUrl, ret);
-                    return Optional.of(job);
-                });
-                LOG.info("Job id={} has finished at {} with return value={}", maybeJob.get().id(), finished, ret);
-            }
+            Database.getJobStore().updateJobByTaskId(taskId, toFinished(maybeUrl, ret, finished)).ifPresent(JobQueue::index);
         } catch (IOException e) {
             LOG.error(e.toString());
         }
@@ -197,26 +521,100 @@ public class JobQueue {
 
     public static void failed(String taskId, Optional<String> maybeUrl, String msg) throws SQLException, JobNotFoundException {
         try {
-            Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
-            if (maybeJob.isPresent()) {
-                Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                    job.killed(TimestampHelper.now(), maybeUrl, msg);
-                    return Optional.of(job);
-                });
-                LOG.info("Job id={} has failed: {}", maybeJob.get().id(), msg);
-            }
+            Database.getJobStore().updateJobByTaskId(taskId, toKilled(maybeUrl, msg)).ifPresent(JobQueue::index);
         } catch (IOException e) {
             LOG.error(e.toString());
         }
     }
 
+    // Apply state transitions of many tasks at once, in single database transaction
+    public static List<Job> updateAll(Map<String, Function<Job, Optional<Job>>> transitions) throws IOException, SQLException {
+        List<Job> updated = Database.getJobStore().updateJobsByTaskId(transitions);
+        for (Job job : updated) {
+            index(job);
+        }
+        return updated;
+    }
+
+    // State transitions to be applied to a job read from database; shared by single and batched updates
+    static Function<Job, Optional<Job>> toStarting(String taskId, Optional<String> maybeUrl) {
+        return job -> {
+            job.starting(taskId, maybeUrl, System.currentTimeMillis());
+            return Optional.of(job);
+        };
+    }
+
+    static Function<Job, Optional<Job>> toStarted(String taskId, Optional<String> maybeUrl) {
+        return job -> {
+            job.started(taskId, maybeUrl, System.currentTimeMillis());
+            return Optional.of(job);
+        };
+    }
+
+    static Function<Job, Optional<Job>> toRetry(String reason) {
+        int threshold = 5;
+        return job -> {
+            if (job.retry() > threshold) {
+                String msg = String.format("Giving up Job retry: %d / id=%d, last reason='%s'", threshold, job.id(), reason);
+                LOG.warn(msg);
+                job.killed(System.currentTimeMillis(), Optional.empty(), msg);
+
+            } else {
+                job.doRetry();
+                LOG.info("Scheduled retry {}/{} of Job(taskId={}), reason='{}'",
+                        job.retry(), threshold, job.taskId(), reason);
+            }
+            return Optional.of(job);
+        };
+    }
+
+    static Function<Job, Optional<Job>> toFinished(Optional<String> maybeUrl, int ret, long finished) {
+        return job -> {
+            job.finished(finished, maybeUrl, ret);
+            LOG.info("Job id={} has finished at {} with return value={}", job.id(), job.finished(), ret);
+            return Optional.of(job);
+        };
+    }
+
+    static Function<Job, Optional<Job>> toKilled(Optional<String> maybeUrl, String msg) {
+        return job -> {
+            job.killed(System.currentTimeMillis(), maybeUrl, msg);
+            LOG.info("Job id={} has failed: {}", job.id(), msg);
+            return Optional.of(job);
+        };
+    }
+
+    // STARTING or STARTED jobs, counted on memory
     public static int countRunning() {
-        return Database.getInstance().countRunning();
+        return RUNNING.count();
+    }
+
+    // Totals of running jobs per application id
+    static Map<String, RunningJobs.Total> runningByApp() {
+        return RUNNING.byApp();
+    }
+
+    // Archive up to limit finished or killed jobs, finished before the time in milliseconds;
+    // they are never in the index. Returns number of jobs archived. See JobCompactor
+    public static int compact(long finishedBefore, int limit) throws IOException, SQLException {
+        return Database.getJobStore().archiveJobs(finishedBefore, limit);
     }
 
-    //TODO: make this happen.... with admin APIs
-    public static void compact() {
-        throw new AssertionError("Not yet implemented");
+    // Position of a job in the queue
+    static class Key implements Comparable<Key> {
+        private final long rank;
+        private final int id;
+
+        Key(long rank, int id) {
+            this.rank = rank;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int c = Long.compare(rank, other.rank);
+            return c != 0 ? c : Integer.compare(id, other.id);
+        }
     }
 
     // Methods for test
@@ -245,7 +643,7 @@ public class JobQueue {
                 break;
             case Protos.TaskState.TASK_RUNNING_VALUE:
                 if (job.state() == Job.JobState.STARTING) {
-                    job.started(job.taskId(), Optional.empty(), TimestampHelper.now());
+                    job.started(job.taskId(), Optional.empty(), System.currentTimeMillis());
                 }
                 break;
             case Protos.TaskState.TASK_LOST_VALUE:
@@ -253,14 +651,14 @@ public class JobQueue {
                 break;
             case Protos.TaskState.TASK_FINISHED_VALUE:
                 //TODO: recover all information right here
-                job.finished(TimestampHelper.now(), Optional.empty(), 0);
+                job.finished(System.currentTimeMillis(), Optional.empty(), 0);
                 break;
             case Protos.TaskState.TASK_KILLED_VALUE:
             case Protos.TaskState.TASK_KILLING_VALUE:
-                job.killed(TimestampHelper.now(), Optional.empty(), "KILLED");
+                job.killed(System.currentTimeMillis(), Optional.empty(), "KILLED");
                 break;
             case Protos.TaskState.TASK_ERROR_VALUE:
-                job.killed(TimestampHelper.now(), Optional.empty(), "ERROR");
+                job.killed(System.currentTimeMillis(), Optional.empty(), "ERROR");
                 break;
             default:
                 LOG.error("Unknown state: {}", stateInMesos);
@@ -0,0 +1,69 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Notifies long-polling clients of job state changes. A watcher takes the future
+// BEFORE reading the job from database, so that a change committed in between is
+// never missed, and releases it by done() when it stops waiting.
+public class JobWatch {
+    private static final ConcurrentMap<Integer, Watch> WATCHES = new ConcurrentHashMap<>();
+
+    // Updated only inside compute of WATCHES
+    private static class Watch {
+        final CompletableFuture<Job> future = new CompletableFuture<>();
+        int waiters = 0;
+    }
+
+    private JobWatch() {
+    }
+
+    // Completed with the job at its next change
+    public static CompletableFuture<Job> next(int id) {
+        return WATCHES.compute(id, (k, w) -> {
+            Watch watch = w == null ? new Watch() : w;
+            watch.waiters++;
+            return watch;
+        }).future;
+    }
+
+    // Removes the watch when no one else is waiting, so that jobs absent or never changed leave nothing
+    public static void done(int id, CompletableFuture<Job> future) {
+        WATCHES.computeIfPresent(id, (k, w) -> w.future != future || --w.waiters > 0 ? w : null);
+    }
+
+    // Called after a change of the job is committed to database
+    static void notify(Job job) {
+        Watch watch = WATCHES.remove(job.id());
+        if (watch != null) {
+            watch.future.complete(job);
+        }
+    }
+
+    public static int size() {
+        return WATCHES.size();
+    }
+
+    static void clear() {
+        WATCHES.clear();
+    }
+}
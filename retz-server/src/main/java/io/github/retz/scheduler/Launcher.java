@@ -80,12 +80,16 @@ public final class Launcher {
             return -1;
         }
 
+        JobCompactor compactor = new JobCompactor(conf.getServerConfig());
+        OfferBook offerBook = new OfferBook();
+        AgentCache agentCache = new AgentCache();
+
         int jmxPort = 9999;
         JmxServer jmxServer = new JmxServer(jmxPort);
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             ObjectName name = new ObjectName("io.github.retz.scheduler:type=AdminConsole");
-            AdminConsole mbean = new AdminConsole();
+            AdminConsole mbean = new AdminConsole(Optional.of(compactor), Optional.of(offerBook), Optional.of(agentCache));
             mbs.registerMBean(mbean, name);
             jmxServer.start();
             LOG.info("JMX enabled listening to {}", jmxPort);
@@ -109,9 +113,14 @@ public final class Launcher {
         // By hitting HTTP endpoints and comparing with database job states,
         // Retz can decide whether to re-run it or just finish it.
         // BTW after connecting to Mesos it looks like re-sending unacked messages.
-        maybeRequeueRunningJobs(conf.getMesosMaster(), fw.getId().getValue(), Database.getInstance().getRunning());
-
-        RetzScheduler scheduler = new RetzScheduler(conf, fw);
+        maybeRequeueRunningJobs(conf.getMesosMaster(), fw.getId().getValue(), Database.getJobStore().getRunning());
+        // Load all queued jobs, including requeued ones above, into on-memory index
+        JobQueue.setAgingInterval(conf.getServerConfig().getPriorityAging());
+        JobQueue.rebuild();
+        JobQueue.setIdBlockSize(conf.getServerConfig().getJobIdBlockSize());
+        compactor.start();
+
+        RetzScheduler scheduler = new RetzScheduler(conf, fw, offerBook, agentCache);
         SchedulerDriver driver = SchedulerDriverFactory.create(scheduler, conf, fw);
 
         Protos.Status status = driver.start();
@@ -140,6 +149,8 @@ public final class Launcher {
         LOG.info("{} has been stopped: {}", RetzScheduler.FRAMEWORK_NAME, status.name());
 
         webConsole.stop(); // Stop web server
+        scheduler.stop(); // Flush status updates
+        compactor.stop();
         Database.getInstance().stop();
         jmxServer.stop();
 
@@ -176,7 +187,7 @@ public final class Launcher {
                 throw new RuntimeException(e.toString());
             }
         }
-        Database.getInstance().updateJobs(recoveredJobs);
+        Database.getJobStore().updateJobs(recoveredJobs);
         LOG.info("{} jobs rescheduled, {} jobs didn't need change.", recoveredJobs.size(), runningMap.size());
     }
 
@@ -16,14 +16,15 @@
  */
 package io.github.retz.scheduler;
 
-import io.github.retz.cli.TimestampHelper;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
 import org.apache.mesos.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -32,6 +33,29 @@ import java.util.stream.Collectors;
 public class NaivePlanner implements Planner {
     private static final Logger LOG = LoggerFactory.getLogger(NaivePlanner.class);
 
+    // Agents known to have artifacts of applications, to be preferred; see AgentCache
+    protected final Optional<AgentCache> locality;
+
+    public NaivePlanner() {
+        this(Optional.empty());
+    }
+
+    public NaivePlanner(Optional<AgentCache> locality) {
+        this.locality = locality;
+    }
+
+    // Offers of agents warm for more of the jobs come first, otherwise in the order given
+    List<Protos.Offer> warmFirst(List<Protos.Offer> offers, List<AppJobPair> jobs) {
+        if (!locality.isPresent()) {
+            return offers;
+        }
+        List<Protos.Offer> sorted = new ArrayList<>(offers);
+        sorted.sort(Comparator.comparingLong((Protos.Offer offer) -> jobs.stream()
+                .filter(appJob -> appJob.hasApplication() && locality.get().isWarm(offer.getSlaveId().getValue(), appJob.application()))
+                .count()).reversed());
+        return sorted;
+    }
+
     // TODO: very naive packing, from left to right, no searching
     static void pack(List<Protos.Offer> offers, List<AppJobPair> appJobs, // Inputs
                      List<Protos.Offer.Operation> ops, List<Job> launch, // Outputs below
@@ -56,34 +80,13 @@ public class NaivePlanner implements Planner {
                         assigned.gpu() + job.gpu() <= resource.gpu() &&
                         assigned.portAmount() + job.ports() <= resource.portAmount()) {
 
-                    String id = Integer.toString(job.id());
-                    // Not using simple CommandExecutor to keep the executor lifecycle with its assets
-                    // (esp ASAKUSA_HOME env)
                     Resource assign = resource.cut(job.cpu(), job.memMB(), job.gpu(), job.ports(), lastPort);
-                    lastPort = assign.lastPort();
-                    TaskBuilder tb = new TaskBuilder()
-                            .setResource(assign, offer.getSlaveId())
-                            .setName("retz-" + appJob.application().getAppid() + "-name-" + job.name())
-                            .setTaskId("retz-" + appJob.application().getAppid() + "-id-" + id)
-                            .setCommand(job, appJob.application());
+                    if (job.ports() > 0) {
+                        lastPort = assign.lastPort();
+                    }
                     assigned.merge(assign);
-
-                    Protos.TaskInfo task = tb.build();
-
-                    Protos.Offer.Operation.Launch l = Protos.Offer.Operation.Launch.newBuilder()
-                            .addTaskInfos(Protos.TaskInfo.newBuilder(task))
-                            .build();
-
-                    Protos.TaskID taskId = task.getTaskId();
-
-                    ops.add(Protos.Offer.Operation.newBuilder()
-                            .setType(Protos.Offer.Operation.Type.LAUNCH)
-                            .setLaunch(l).build());
-                    job.starting(taskId.getValue(), Optional.empty(), TimestampHelper.now());
+                    ops.add(launch(appJob, offer, assign));
                     launch.add(job);
-
-                    LOG.info("Job {}(task {}) is to be ran as '{}' at Slave {} with resource {}",
-                            job.id(), taskId.getValue(), job.cmd(), offer.getSlaveId().getValue(), assign);
                     appJobs.remove(0);
                 } else {
                     break;
@@ -99,6 +102,51 @@ public class NaivePlanner implements Planner {
         }
     }
 
+    // Build LAUNCH operation of a job with resource assigned from the offer, marking the job as STARTING
+    static Protos.Offer.Operation launch(AppJobPair appJob, Protos.Offer offer, Resource assign) {
+        Job job = appJob.job();
+        String id = Integer.toString(job.id());
+        // Not using simple CommandExecutor to keep the executor lifecycle with its assets
+        // (esp ASAKUSA_HOME env)
+        TaskBuilder tb = new TaskBuilder()
+                .setResource(assign, offer.getSlaveId())
+                .setName("retz-" + appJob.application().getAppid() + "-name-" + job.name())
+                .setTaskId("retz-" + appJob.application().getAppid() + "-id-" + id)
+                .setCommand(job, appJob.application());
+
+        Protos.TaskInfo task = tb.build();
+
+        Protos.Offer.Operation.Launch l = Protos.Offer.Operation.Launch.newBuilder()
+                .addTaskInfos(Protos.TaskInfo.newBuilder(task))
+                .build();
+
+        Protos.TaskID taskId = task.getTaskId();
+        job.starting(taskId.getValue(), Optional.empty(), System.currentTimeMillis());
+
+        LOG.info("Job {}(task {}) is to be ran as '{}' at Slave {} with resource {}",
+                job.id(), taskId.getValue(), job.cmd(), offer.getSlaveId().getValue(), assign);
+        return Protos.Offer.Operation.newBuilder()
+                .setType(Protos.Offer.Operation.Type.LAUNCH)
+                .setLaunch(l).build();
+    }
+
+    // Keep up to maxStock offers, decline all the rest
+    static Plan stockOrDecline(List<Protos.Offer.Operation> ops, List<Job> launch, List<Job> cancel,
+                               List<Protos.Offer> accept, List<Protos.Offer> remain, int maxStock) {
+        List<Protos.Offer> toStock;
+        List<Protos.OfferID> toDecline;
+        if (remain.size() < maxStock) {
+            toStock = remain;
+            toDecline = Arrays.asList();
+        } else {
+            toStock = remain.subList(0, maxStock);
+            toDecline = remain.subList(maxStock, remain.size()).stream().map(offer -> offer.getId()).collect(Collectors.toList());
+        }
+        return new Plan(ops, launch, cancel,
+                accept.stream().map(offer -> offer.getId()).collect(Collectors.toList()),
+                toDecline, toStock);
+    }
+
     private static boolean resourceSufficient(Resource resource, List<AppJobPair> jobs) {
         Optional<Resource> needs = jobs.stream().map(appjob -> new Resource(appjob.job().cpu(), appjob.job().memMB(), 0, appjob.job().gpu(), Arrays.asList())).reduce((lhs, rhs) -> {
             lhs.merge(rhs);
@@ -122,7 +170,7 @@ public class NaivePlanner implements Planner {
                 .map(job -> {
                     String reason = String.format("Job (%d@%s) requires %d GPUs while this Retz Scheduler is not capable of using GPU resources. Try setting retz.gpu=true at retz.properties.",
                             job.id(), job.appid(), job.gpu());
-                    job.killed(TimestampHelper.now(), Optional.empty(), reason); // Database to be updated later, after plan accepted
+                    job.killed(System.currentTimeMillis(), Optional.empty(), reason); // Database to be updated later, after plan accepted
                     return job;
                 }).collect(Collectors.toList()));
 
@@ -136,7 +184,7 @@ public class NaivePlanner implements Planner {
                 .map(appJobPair -> {
                     Job job = appJobPair.job();
                     String reason = String.format("Applicaion '%s' of Job (%d@%s) does not exist in DB", job.appid(), job.id());
-                    job.killed(TimestampHelper.now(), Optional.empty(), reason); // Database to be updated later, after plan accepted
+                    job.killed(System.currentTimeMillis(), Optional.empty(), reason); // Database to be updated later, after plan accepted
                     return job;
                 }).collect(Collectors.toList()));
 
@@ -150,24 +198,14 @@ public class NaivePlanner implements Planner {
     public Plan plan(List<Protos.Offer> offers, List<AppJobPair> jobs, int maxStock) {
         Resource total = new Resource(0, 0, 0, 0, new LinkedList<>());
         for (Protos.Offer offer : offers) {
-            total.merge(ResourceConstructor.decode(offer.getResourcesList()));
+            total.add(ResourceConstructor.decode(offer.getResourcesList()));
         }
         if (!resourceSufficient(total, jobs)) {
-
-            List<Protos.Offer> toStock;
-            List<Protos.OfferID> toDecline;
-            if (offers.size() < maxStock) {
-                toStock = offers;
-                toDecline = Arrays.asList();
-            } else {
-                toStock = offers.subList(0, maxStock);
-                toDecline = offers.subList(maxStock, offers.size()).stream().map(offer -> offer.getId()).collect(Collectors.toList());
-            }
-            return new Plan(Arrays.asList(), // Operations
+            return stockOrDecline(Arrays.asList(), // Operations
                     Arrays.asList(), // To be launched
                     Arrays.asList(), // To be cancelled
                     Arrays.asList(), // Resources to be accepted
-                    toDecline, toStock);
+                    offers, maxStock);
         }
 
 
@@ -179,20 +217,9 @@ public class NaivePlanner implements Planner {
         List<Job> spill = new LinkedList<>();
         List<Protos.Offer> accept = new LinkedList<>();
         List<Protos.Offer> remain = new LinkedList<>();
-        pack(offers, jobs, ops, launch, spill, accept, remain);
+        pack(warmFirst(offers, jobs), jobs, ops, launch, spill, accept, remain);
 
-        List<Protos.Offer> toStock;
-        List<Protos.OfferID> toDecline;
-        if (remain.size() < maxStock) {
-            toStock = remain;
-            toDecline = Arrays.asList();
-        } else {
-            toStock = remain.subList(0, maxStock);
-            toDecline = remain.subList(maxStock, remain.size()).stream().map(offer -> offer.getId()).collect(Collectors.toList());
-        }
         spill.addAll(cancel);
-        return new Plan(ops, launch, cancel,
-                accept.stream().map(offer -> offer.getId()).collect(Collectors.toList()),
-                toDecline, toStock);
+        return stockOrDecline(ops, launch, cancel, accept, remain, maxStock);
     }
 }
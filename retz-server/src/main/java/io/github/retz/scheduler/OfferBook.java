@@ -0,0 +1,254 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Range;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Offers from Mesos kept by agent. An agent may have several offers at once, e.g. an offer
+ * in stock and another one made of resource freed later. They are merged into one offer for
+ * planning, so that jobs are packed into all free resource of the agent, and then accepted
+ * together by one acceptOffers call, as Mesos allows for offers from the same agent.
+ *
+ * Also counts offers and resources through the book, to see how much of offered resource
+ * is actually used.
+ *
+ * While no job is waiting, offers are suppressed so that Mesos master stops offering the
+ * whole cluster again and again, and offers are revived as soon as jobs come. Reviving
+ * also clears filters of offers declined so far, so offers may be declined for longer
+ * while fewer jobs are waiting without delaying new jobs.
+ */
+public class OfferBook {
+    private static final Logger LOG = LoggerFactory.getLogger(OfferBook.class);
+
+    // Agent id => offer id => offer
+    private final Map<String, Map<String, Protos.Offer>> agents = new LinkedHashMap<>();
+
+    private long received = 0;
+    private long rescinded = 0;
+    private long merged = 0; // Offers planned as a part of another offer from the same agent
+    private long acceptCalls = 0;
+    private long accepted = 0;
+    private long declined = 0;
+    private double cpuOffered = 0;
+    private long memMBOffered = 0;
+    private double cpuLaunched = 0;
+    private long memMBLaunched = 0;
+    // No job was waiting at the last check; offers are suppressed if enabled
+    private boolean idle = false;
+    private boolean suppressed = false;
+    private long suppressions = 0;
+    private long revivals = 0;
+
+    // Offers taken out of the book for a planning, one merged offer per agent
+    public static class Taken {
+        private final List<Protos.Offer> offers = new ArrayList<>();
+        // Id of merged offer => original offers
+        private final Map<String, List<Protos.Offer>> members = new HashMap<>();
+        // Put back or settled; offers must not go to Mesos or the book twice
+        private boolean done = false;
+
+        private void add(List<Protos.Offer> originals) {
+            Protos.Offer offer = merge(originals);
+            offers.add(offer);
+            members.put(offer.getId().getValue(), originals);
+        }
+
+        public List<Protos.Offer> offers() {
+            return offers;
+        }
+
+        private List<Protos.Offer> members(Protos.OfferID id) {
+            return members.getOrDefault(id.getValue(), Collections.emptyList());
+        }
+    }
+
+    // Fresh offers from Mesos
+    public synchronized void add(List<Protos.Offer> offers) {
+        for (Protos.Offer offer : offers) {
+            Resource resource = ResourceConstructor.decode(offer.getResourcesList());
+            received++;
+            cpuOffered += resource.cpu();
+            memMBOffered += resource.memMB();
+            put(offer);
+        }
+    }
+
+    private void put(Protos.Offer offer) {
+        agents.computeIfAbsent(offer.getSlaveId().getValue(), agent -> new LinkedHashMap<>())
+                .put(offer.getId().getValue(), offer);
+    }
+
+    public synchronized boolean rescind(Protos.OfferID id) {
+        Iterator<Map<String, Protos.Offer>> it = agents.values().iterator();
+        while (it.hasNext()) {
+            Map<String, Protos.Offer> offers = it.next();
+            if (offers.remove(id.getValue()) != null) {
+                if (offers.isEmpty()) {
+                    it.remove();
+                }
+                rescinded++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Take all offers out of the book
+    public synchronized Taken take() {
+        Taken taken = new Taken();
+        for (Map<String, Protos.Offer> offers : agents.values()) {
+            taken.add(new ArrayList<>(offers.values()));
+            merged += offers.size() - 1;
+        }
+        agents.clear();
+        return taken;
+    }
+
+    // Put offers back as they were taken, without planning
+    public synchronized void putBack(Taken taken) {
+        if (taken.done) {
+            return;
+        }
+        taken.done = true;
+        for (List<Protos.Offer> offers : taken.members.values()) {
+            offers.forEach(this::put);
+        }
+    }
+
+    // Accept offers with operations by one call per agent, decline offers and keep offers in
+    // stock, all as planned against the merged offers
+    public synchronized void settle(SchedulerDriver driver, Taken taken, Plan plan, Protos.Filters filters) {
+        if (taken.done) {
+            LOG.warn("Offers already settled or put back");
+            return;
+        }
+        taken.done = true;
+        // Planners only make LAUNCH operations
+        Map<String, List<Protos.Offer.Operation>> operations = plan.getOperations().stream()
+                .collect(Collectors.groupingBy(op -> op.getLaunch().getTaskInfos(0).getSlaveId().getValue()));
+        for (Protos.OfferID id : plan.getToBeAccepted()) {
+            List<Protos.Offer> offers = taken.members(id);
+            if (offers.isEmpty()) {
+                LOG.warn("Offer {} to accept is not in the book", id.getValue());
+                continue;
+            }
+            List<Protos.OfferID> ids = offers.stream().map(Protos.Offer::getId).collect(Collectors.toList());
+            driver.acceptOffers(ids, operations.getOrDefault(offers.get(0).getSlaveId().getValue(), Collections.emptyList()), filters);
+            acceptCalls++;
+            accepted += ids.size();
+        }
+        for (Job job : plan.getToBeLaunched()) {
+            cpuLaunched += job.cpu();
+            memMBLaunched += job.memMB();
+        }
+        for (Protos.OfferID id : plan.getToDecline()) {
+            for (Protos.Offer offer : taken.members(id)) {
+                driver.declineOffer(offer.getId(), filters);
+                declined++;
+            }
+        }
+        for (Protos.Offer stock : plan.getToStock().values()) {
+            taken.members(stock.getId()).forEach(this::put);
+        }
+    }
+
+    // Filter to decline offers with, for longer while fewer jobs are waiting, between min and max seconds
+    static Protos.Filters filters(int pending, int minSeconds, int maxSeconds) {
+        double seconds = Math.max(minSeconds, (double) maxSeconds / (1 + pending));
+        return Protos.Filters.newBuilder().setRefuseSeconds(seconds).build();
+    }
+
+    // No job is waiting; offers in stock are kept
+    public synchronized void idle(SchedulerDriver driver, boolean suppress) {
+        if (idle) {
+            return;
+        }
+        idle = true;
+        if (suppress) {
+            driver.suppressOffers();
+            suppressed = true;
+            suppressions++;
+            LOG.info("Suppressed offers as no job is waiting");
+        }
+    }
+
+    // Jobs are waiting, or may be after reconnection to Mesos master
+    public synchronized void revive(SchedulerDriver driver) {
+        if (!idle) {
+            return;
+        }
+        idle = false;
+        suppressed = false;
+        driver.reviveOffers();
+        revivals++;
+        LOG.info("Revived offers");
+    }
+
+    public synchronized List<Protos.Offer> offers() {
+        return agents.values().stream().flatMap(offers -> offers.values().stream()).collect(Collectors.toList());
+    }
+
+    public synchronized int size() {
+        return agents.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("offers", size());
+        status.put("agents", agents.size());
+        status.put("received", received);
+        status.put("rescinded", rescinded);
+        status.put("merged", merged);
+        status.put("acceptCalls", acceptCalls);
+        status.put("accepted", accepted);
+        status.put("declined", declined);
+        status.put("suppressed", suppressed);
+        status.put("suppressions", suppressions);
+        status.put("revivals", revivals);
+        status.put("cpuOffered", cpuOffered);
+        status.put("memMBOffered", memMBOffered);
+        status.put("cpuLaunched", cpuLaunched);
+        status.put("memMBLaunched", memMBLaunched);
+        // Resource offered more than once, after kept in stock, is counted once
+        status.put("cpuUtilization", cpuOffered > 0 ? cpuLaunched / cpuOffered : 0.0);
+        status.put("memUtilization", memMBOffered > 0 ? (double) memMBLaunched / memMBOffered : 0.0);
+        return status;
+    }
+
+    // One offer with all resources of the offers, all from the same agent, and the id of the first
+    static Protos.Offer merge(List<Protos.Offer> offers) {
+        if (offers.size() == 1) {
+            return offers.get(0);
+        }
+        Resource total = new Resource(0, 0, 0);
+        for (Protos.Offer offer : offers) {
+            total.add(ResourceConstructor.decode(offer.getResourcesList()));
+        }
+        // Resource.cut assigns ports from lower ranges
+        total.ports().sort(Comparator.comparingInt(Range::getMin));
+        return offers.get(0).toBuilder().clearResources().addAllResources(total.construct()).build();
+    }
+}
@@ -19,10 +19,12 @@ package io.github.retz.scheduler;
 import io.github.retz.protocol.data.Job;
 import org.apache.mesos.Protos;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 public class Plan {
     private List<Protos.Offer.Operation> operations;
@@ -61,6 +63,23 @@ public class Plan {
     public List<Protos.OfferID> getToDecline() {
         return toDecline;
     }
+    // Not to launch the job after all, e.g. when it is no longer queued in database
+    void drop(Job job) {
+        toBeLaunched = toBeLaunched.stream().filter(j -> j != job).collect(Collectors.toList());
+        List<Protos.Offer.Operation> kept = new ArrayList<>();
+        for (Protos.Offer.Operation op : operations) {
+            List<Protos.TaskInfo> tasks = op.getLaunch().getTaskInfosList().stream()
+                    .filter(task -> !task.getTaskId().getValue().equals(job.taskId()))
+                    .collect(Collectors.toList());
+            if (tasks.size() == op.getLaunch().getTaskInfosCount()) {
+                kept.add(op);
+            } else if (!tasks.isEmpty()) {
+                kept.add(op.toBuilder().setLaunch(Protos.Offer.Operation.Launch.newBuilder().addAllTaskInfos(tasks)).build());
+            }
+        }
+        operations = kept;
+    }
+
     public Map<String, Protos.Offer> getToStock() {
         Map<String, Protos.Offer> map = new HashMap<>();
         for (Protos.Offer o : toStock) {
@@ -0,0 +1,45 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+public class PlannerFactory {
+    public static final String NAIVE = "naive";
+    public static final String BESTFIT = "bestfit";
+    public static final List<String> NAMES = Arrays.asList(NAIVE, BESTFIT);
+
+    public static Planner create(ServerConfiguration config, AgentCache cache) {
+        return create(config.getPlannerName(), config.useBackfill(),
+                config.useLocality() ? Optional.of(cache) : Optional.empty());
+    }
+
+    public static Planner create(String name, boolean backfill) {
+        return create(name, backfill, Optional.empty());
+    }
+
+    public static Planner create(String name, boolean backfill, Optional<AgentCache> locality) {
+        if (NAIVE.equals(name)) {
+            return new NaivePlanner(locality);
+        } else if (BESTFIT.equals(name)) {
+            return new BestFitPlanner(backfill, locality);
+        }
+        throw new IllegalArgumentException("Unknown planner: " + name);
+    }
+}
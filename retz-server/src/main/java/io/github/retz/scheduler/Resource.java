@@ -59,6 +59,15 @@ public class Resource {
         this.gpu += rhs.gpu();
     }
 
+    // Sum up resources across agents, where port ranges may overlap and only their amount matters
+    public void add(Resource rhs) {
+        this.cpu += rhs.cpu();
+        this.memMB += rhs.memMB();
+        this.diskMB += rhs.diskMB();
+        this.ports.addAll(rhs.ports());
+        this.gpu += rhs.gpu();
+    }
+
     public double cpu() {
         return cpu;
     }
@@ -20,7 +20,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
-import io.github.retz.db.JobNotFoundException;
 import io.github.retz.protocol.StatusResponse;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.JobResult;
@@ -31,9 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class RetzScheduler implements Scheduler {
@@ -53,22 +52,41 @@ public class RetzScheduler implements Scheduler {
     }
 
     private final ObjectMapper MAPPER = new ObjectMapper();
-    private final Map<String, Protos.Offer> OFFER_STOCK = new ConcurrentHashMap<>();
-    private final Planner PLANNER = (Planner) new NaivePlanner();
-    private final Protos.Filters filters = Protos.Filters.newBuilder().setRefuseSeconds(1).build();
+    private final OfferBook offerBook;
+    private final AgentCache agentCache;
+    private final Planner PLANNER;
     private Launcher.Configuration conf;
     private Protos.FrameworkInfo frameworkInfo;
     private Map<String, List<Protos.SlaveID>> slaves;
+    private final StatusUpdatePipeline statusUpdates;
+    private final SchedulingLoop loop;
+    private final FairShare fairShare;
 
     public RetzScheduler(Launcher.Configuration conf, Protos.FrameworkInfo frameworkInfo) {
+        this(conf, frameworkInfo, new OfferBook());
+    }
+
+    public RetzScheduler(Launcher.Configuration conf, Protos.FrameworkInfo frameworkInfo, OfferBook offerBook) {
+        this(conf, frameworkInfo, offerBook, new AgentCache());
+    }
+
+    public RetzScheduler(Launcher.Configuration conf, Protos.FrameworkInfo frameworkInfo, OfferBook offerBook,
+                         AgentCache agentCache) {
         MAPPER.registerModule(new Jdk8Module());
         this.conf = Objects.requireNonNull(conf);
         this.frameworkInfo = frameworkInfo;
         this.slaves = new ConcurrentHashMap<>();
-
-        for (Map.Entry<String, Protos.Offer> e : OFFER_STOCK.entrySet()) {
-            OFFER_STOCK.remove(e.getKey());
-        }
+        ServerConfiguration config = conf.getServerConfig();
+        this.agentCache = Objects.requireNonNull(agentCache);
+        this.PLANNER = PlannerFactory.create(config, agentCache);
+        this.fairShare = new FairShare(config);
+        this.offerBook = Objects.requireNonNull(offerBook);
+        this.loop = new SchedulingLoop(offerBook, this::schedule, this::regulate, config.getScheduleWindow());
+        this.loop.start();
+        // Finished jobs may let queued jobs run with offers in stock
+        this.statusUpdates = new StatusUpdatePipeline(this::transition, loop::trigger,
+                config.getStatusQueueSize(), config.getStatusBatchSize(), config.getStatusFlushInterval());
+        this.statusUpdates.start();
     }
 
     public void stopAllExecutors(SchedulerDriver driver, String appName) {
@@ -102,7 +120,7 @@ public class RetzScheduler implements Scheduler {
     @Override
     public void offerRescinded(SchedulerDriver driver, Protos.OfferID offerId) {
         LOG.info("Offer rescinded: {}", offerId.getValue());
-        OFFER_STOCK.remove(offerId.getValue());
+        offerBook.rescind(offerId);
     }
 
     @Override
@@ -132,89 +150,75 @@ public class RetzScheduler implements Scheduler {
     @Override
     public void reregistered(SchedulerDriver driver, Protos.MasterInfo masterInfo) {
         LOG.info("Reconnected to master {}", masterInfo.getHostname());
+        // A new master may not know offers were suppressed; revived and suppressed again if idle
+        offerBook.revive(driver);
         maybeRecoverRunning(driver);
     }
 
     @Override
     public void resourceOffers(SchedulerDriver driver, List<Protos.Offer> offers) {
         LOG.debug("Resource offer: {}", offers.size());
+        loop.offers(driver, offers);
+    }
 
-        // Merge fresh offers from Mesos and offers in stock here, declining duplicate offers
-        List<Protos.Offer> available = new LinkedList<>();
-        synchronized (OFFER_STOCK) {
-            // TODO: cleanup this code, optimize for max.stock = 0 case
-            Map<String, List<Protos.Offer>> allOffers = new HashMap<>();
-            for (Protos.Offer offer : OFFER_STOCK.values()) {
-                String key = offer.getSlaveId().getValue();
-                List<Protos.Offer> list = allOffers.getOrDefault(key, new LinkedList<>());
-                list.add(offer);
-                allOffers.put(offer.getSlaveId().getValue(), list);
-            }
-            for (Protos.Offer offer : offers) {
-                String key = offer.getSlaveId().getValue();
-                List<Protos.Offer> list = allOffers.getOrDefault(key, new LinkedList<>());
-                list.add(offer);
-                allOffers.put(offer.getSlaveId().getValue(), list);
-            }
+    // Jobs have been submitted; planned later in the scheduling loop, with offers in stock
+    public void trigger() {
+        loop.trigger();
+    }
 
-            int declined = 0;
-            for (Map.Entry<String, List<Protos.Offer>> e : allOffers.entrySet()) {
-                if (e.getValue().size() == 1) {
-                    available.add(e.getValue().get(0));
-                } else {
-                    for (Protos.Offer dup : e.getValue()) {
-                        driver.declineOffer(dup.getId(), filters);
-                        declined += 1;
-                    }
-                }
-            }
-            if (conf.fileConfig.getMaxStockSize() > 0) {
-                LOG.info("Offer stock renewal: {} offers available ({} declined from stock)", available.size(), declined);
-            }
-            OFFER_STOCK.clear();
+    // Wait until all offers and triggers so far are planned; returns false on timeout
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        return loop.awaitIdle(timeoutMs);
+    }
+
+    // One planning pass in the scheduling loop, against offers in stock merged with fresh ones
+    void schedule(SchedulerDriver driver) {
+        // One offer per agent
+        OfferBook.Taken available = offerBook.take();
+        if (conf.fileConfig.getMaxStockSize() > 0) {
+            LOG.info("Offer stock renewal: {} agents available", available.offers().size());
         }
 
         Resource resource = new Resource(0, 0, 0);
-        for (Protos.Offer offer : available) {
+        for (Protos.Offer offer : available.offers()) {
             LOG.debug("offer: {}", offer);
-            resource.merge(ResourceConstructor.decode(offer.getResourcesList()));
+            resource.add(ResourceConstructor.decode(offer.getResourcesList()));
         }
 
-        List<Job> jobs = JobQueue.findFit((int) resource.cpu(), resource.memMB());
-        handleAll(available, jobs, driver);
-    }
-
-    public void maybeInvokeNow(SchedulerDriver driver, Job job) {
+        List<Job> jobs = new ArrayList<>();
         try {
-            List<Job> queued = JobQueue.queued(1);
-            if (queued.size() == 1 && queued.get(0).id() == job.id()) {
-                // OK
-            } else {
-                return;
-            }
-        }catch (Exception e) {
-            LOG.error("maybeInvokeNow failed: {}", e.toString());
-            return;
+            // GPU jobs must reach Planner.filter even if GPU is disabled, to be cancelled there
+            int gpu = conf.getServerConfig().useGPU() ? resource.gpu() : Integer.MAX_VALUE;
+            int slots = conf.fileConfig.getMaxSimultaneousJobs() - JobQueue.countRunning();
+            JobQueue.expandArrays((int) resource.cpu(), resource.memMB(), slots);
+            jobs.addAll(fairShare.choose((int) resource.cpu(), resource.memMB(), gpu, resource.portAmount(), slots));
+            handleAll(available, jobs, driver);
+        } catch (RuntimeException e) {
+            // Offers not settled yet are kept for next pass, instead of held from Mesos forever,
+            // and jobs planned are put back to the queue as stored, not left STARTING on memory
+            offerBook.putBack(available);
+            JobQueue.restoreAll(jobs);
+            throw e;
         }
+    }
 
-        List<Protos.Offer> available = new LinkedList<>();
-        synchronized (OFFER_STOCK) {
-            available.addAll(OFFER_STOCK.values());
-            OFFER_STOCK.clear();
+    // After each batch in the scheduling loop; offers are not needed while no job is waiting
+    void regulate(SchedulerDriver driver) {
+        if (JobQueue.countPending() == 0) {
+            offerBook.idle(driver, conf.getServerConfig().suppressOffers());
+        } else {
+            offerBook.revive(driver);
         }
-        // Only if the queue is empty, and with offer stock, try job invocation
-        List<Job> jobs = Arrays.asList(job);
-        handleAll(available, jobs, driver);
     }
 
-    public void handleAll(List<Protos.Offer> offers, List<Job> jobs, SchedulerDriver driver) {
+    public void handleAll(OfferBook.Taken offers, List<Job> jobs, SchedulerDriver driver) {
 
-        // TODO: this is fleaky limitation, build this into Planner.plan as a constraint
-        // Check if simultaneous jobs exceeded its limit
+        // Check if simultaneous jobs exceeded its limit; counted on memory
         int running = JobQueue.countRunning();
         if (running >= conf.fileConfig.getMaxSimultaneousJobs()) {
             LOG.warn("Number of concurrently running jobs has reached its limit: {} >= {} ({})",
                     running, conf.fileConfig.getMaxSimultaneousJobs(), ServerConfiguration.MAX_SIMULTANEOUS_JOBS);
+            offerBook.putBack(offers);
             return;
         }
 
@@ -224,26 +228,27 @@ public class RetzScheduler implements Scheduler {
         // update database to change all jobs state to KILLED
         JobQueue.cancelAll(cancel);
 
-        Plan bestPlan = PLANNER.plan(offers, appJobPairs, conf.getServerConfig().getMaxStockSize());
+        // Planners may consume the list
+        List<AppJobPair> planned = new ArrayList<>(appJobPairs);
+        Plan bestPlan = PLANNER.plan(offers.offers(), appJobPairs, conf.getServerConfig().getMaxStockSize());
 
-        // Update local database, to running
-        for (Job j : bestPlan.getToBeLaunched()) {
-            JobQueue.starting(j, Optional.empty(), j.taskId());
-        }
-        // Accept offers to mesos
-        if (!(bestPlan.getToBeAccepted().isEmpty() && bestPlan.getOperations().isEmpty())) {
-            driver.acceptOffers(bestPlan.getToBeAccepted(), bestPlan.getOperations(), filters);
+        // Update local database, to running; jobs cancelled meanwhile or failed to update are not launched
+        for (Job j : new ArrayList<>(bestPlan.getToBeLaunched())) {
+            if (!JobQueue.starting(j, Optional.empty(), j.taskId())) {
+                bestPlan.drop(j);
+            }
         }
+        agentCache.launched(bestPlan, planned);
+        // Accept offers to mesos, stock unused offers and decline the rest
+        ServerConfiguration config = conf.getServerConfig();
+        Protos.Filters filters = OfferBook.filters(JobQueue.countPending(),
+                config.getOfferRefuseMin(), config.getOfferRefuseMax());
+        offerBook.settle(driver, offers, bestPlan, filters);
 
         // update database to change all jobs state to KILLED
         JobQueue.cancelAll(bestPlan.getToCancel());
 
-        // Stock unused offers, return duplicate offers
-        OFFER_STOCK.putAll(bestPlan.getToStock());
-        for (Protos.OfferID id : bestPlan.getToDecline()) {
-            driver.declineOffer(id, filters);
-        }
-        LOG.info("{} accepted, {} declined ({} offers back in stock)",
+        LOG.info("{} agents accepted, {} declined ({} agents back in stock)",
                 bestPlan.getToBeAccepted().size(), bestPlan.getToDecline().size(), bestPlan.getToStock().size());
     }
 
@@ -264,6 +269,7 @@ public class RetzScheduler implements Scheduler {
     @Override
     public void slaveLost(SchedulerDriver driver, Protos.SlaveID slaveId) {
         LOG.warn("Slave lost: {}", slaveId.getValue());
+        agentCache.lost(slaveId.getValue());
         for (Map.Entry<String, List<Protos.SlaveID>> entry : slaves.entrySet()) {
             List<Protos.SlaveID> list = entry.getValue();
             for (Protos.SlaveID s : list) {
@@ -284,45 +290,50 @@ public class RetzScheduler implements Scheduler {
     @Override
     public void statusUpdate(SchedulerDriver driver, Protos.TaskStatus status) {
         LOG.info("Status update of task {}: {} / {}", status.getTaskId().getValue(), status.getState().name(), status.getMessage());
+        agentCache.update(status);
 
         switch (status.getState().getNumber()) {
-            case Protos.TaskState.TASK_FINISHED_VALUE: {
-                finished(status);
-                break;
-            }
+            case Protos.TaskState.TASK_FINISHED_VALUE:
             case Protos.TaskState.TASK_ERROR_VALUE:
             case Protos.TaskState.TASK_FAILED_VALUE:
-            case Protos.TaskState.TASK_KILLED_VALUE: {
-                failed(status);
-                break;
-            }
-            case Protos.TaskState.TASK_LOST_VALUE: {
-                retry(status);
-                break;
-            }
-            case Protos.TaskState.TASK_KILLING_VALUE:
-                break;
+            case Protos.TaskState.TASK_KILLED_VALUE:
+            case Protos.TaskState.TASK_LOST_VALUE:
             case Protos.TaskState.TASK_RUNNING_VALUE:
-                started(status);
+            case Protos.TaskState.TASK_STARTING_VALUE:
+                // Acknowledged after written to database
+                statusUpdates.offer(driver, status);
                 break;
+            case Protos.TaskState.TASK_KILLING_VALUE:
             case Protos.TaskState.TASK_STAGING_VALUE:
+            default:
+                StatusUpdatePipeline.acknowledge(driver, status);
                 break;
+        }
+    }
+
+    // Called by status update pipeline, not in driver callback thread
+    Optional<Function<Job, Optional<Job>>> transition(Protos.TaskStatus status) {
+        switch (status.getState().getNumber()) {
+            case Protos.TaskState.TASK_FINISHED_VALUE:
+                return Optional.of(finished(status));
+            case Protos.TaskState.TASK_ERROR_VALUE:
+            case Protos.TaskState.TASK_FAILED_VALUE:
+            case Protos.TaskState.TASK_KILLED_VALUE:
+                return Optional.of(failed(status));
+            case Protos.TaskState.TASK_LOST_VALUE:
+                return Optional.of(retry(status));
+            case Protos.TaskState.TASK_RUNNING_VALUE:
+                return Optional.of(started(status));
             case Protos.TaskState.TASK_STARTING_VALUE:
                 LOG.debug("Task {} starting", status.getTaskId().getValue());
-                Optional<Job> job = JobQueue.getFromTaskId(status.getTaskId().getValue());
-                if (job.isPresent()) {
-                    JobQueue.starting(job.get(), MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
-                            status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
-                            status.getExecutorId().getValue()), status.getTaskId().getValue());
-                }
-                break;
+                return Optional.of(JobQueue.toStarting(status.getTaskId().getValue(), sandboxUri(status)));
             default:
-                break;
+                return Optional.empty();
         }
     }
 
     // Maybe Retry
-    void retry(Protos.TaskStatus status) {
+    Function<Job, Optional<Job>> retry(Protos.TaskStatus status) {
         String reason = "";
         if (status.hasData()) {
             try {
@@ -331,92 +342,71 @@ public class RetzScheduler implements Scheduler {
             } catch (IOException e) {
             }
         }
-        try {
-            JobQueue.retry(status.getTaskId().getValue(), reason);
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
-        }
+        return JobQueue.toRetry(reason);
     }
 
-    void finished(Protos.TaskStatus status) {
-        Optional<String> maybeUrl = MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
-                status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
-                status.getExecutorId().getValue());
+    Function<Job, Optional<Job>> finished(Protos.TaskStatus status) {
+        Optional<String> maybeUrl = sandboxUri(status);
 
         int ret = status.getState().getNumber() - Protos.TaskState.TASK_FINISHED_VALUE;
-        String finished = TimestampHelper.now();
+        long finished = System.currentTimeMillis();
         if (status.hasData()) {
             try {
                 JobResult jobResult = MAPPER.readValue(status.getData().toByteArray(), JobResult.class);
                 ret = jobResult.result();
-                finished = jobResult.finished();
+                // Parsed once here, as sent by the executor
+                long reported = TimestampHelper.toMillisOrNone(jobResult.finished());
+                if (reported >= 0) {
+                    finished = reported;
+                }
             } catch (IOException e) {
                 LOG.error("Exception: {}", e.toString());
             }
         }
-        try {
-            JobQueue.finished(status.getTaskId().getValue(), maybeUrl, ret, finished);
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
-        }
+        return JobQueue.toFinished(maybeUrl, ret, finished);
+    }
 
+    Function<Job, Optional<Job>> failed(Protos.TaskStatus status) {
+        return JobQueue.toKilled(sandboxUri(status), status.getMessage());
     }
 
-    void failed(Protos.TaskStatus status) {
-        Optional<String> maybeUrl = MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
-                status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
-                status.getExecutorId().getValue());
-        try {
-            JobQueue.failed(status.getTaskId().getValue(), maybeUrl, status.getMessage());
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
-        }
+    Function<Job, Optional<Job>> started(Protos.TaskStatus status) {
+        return JobQueue.toStarted(status.getTaskId().getValue(), sandboxUri(status));
     }
 
-    void started(Protos.TaskStatus status) {
-        Optional<String> maybeUrl = MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
+    private Optional<String> sandboxUri(Protos.TaskStatus status) {
+        return MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
                 status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
                 status.getExecutorId().getValue());
-        try {
-            JobQueue.started(status.getTaskId().getValue(), maybeUrl);
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
-        } catch (IOException e) {
-            LOG.error(e.toString(), e);
-        }
+    }
+
+    public void stop() {
+        loop.stop();
+        statusUpdates.stop();
     }
 
     public void setOfferStats(StatusResponse statusResponse) {
         int totalCpu = 0;
         int totalMem = 0;
         int totalGpu = 0;
-        for (Map.Entry<String, Protos.Offer> e : OFFER_STOCK.entrySet()) {
-            Resource r = ResourceConstructor.decode(e.getValue().getResourcesList());
+        List<Protos.Offer> offers = offerBook.offers();
+        for (Protos.Offer offer : offers) {
+            Resource r = ResourceConstructor.decode(offer.getResourcesList());
             totalCpu += r.cpu();
             totalMem += r.memMB();
             totalGpu += r.gpu();
         }
-        statusResponse.setOfferStats(OFFER_STOCK.size(), totalCpu, totalMem, totalGpu);
+        statusResponse.setOfferStats(offers.size(), totalCpu, totalMem, totalGpu);
     }
 
     // Get all running jobs and sync its latest state in Mesos
     // If it's not lost, just update state. Otherwise, set its state as QUEUED back.
     // TODO: offload this from scheduler callback thread
     private void maybeRecoverRunning(SchedulerDriver driver) {
-        List<Job> jobs = Database.getInstance().getRunning();
-        Database.getInstance().retryJobs(jobs.stream().map(job -> job.id()).collect(Collectors.toList()));
+        List<Job> jobs = Database.getJobStore().getRunning();
+        Database.getJobStore().retryJobs(jobs.stream().map(job -> job.id()).collect(Collectors.toList()));
+        // Retried jobs went back to QUEUED directly in database
+        JobQueue.rebuild();
     }
 
 
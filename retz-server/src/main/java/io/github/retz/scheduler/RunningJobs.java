@@ -0,0 +1,114 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * STARTING or STARTED jobs and their resource totals per application, kept on memory.
+ *
+ * {@link JobQueue} reflects every job state committed to the job store here, so that
+ * the scheduler can check limits and shares in each planning pass without counting
+ * jobs in database. Totals per user are summed up from applications by {@link FairShare}.
+ */
+public class RunningJobs {
+    private final Map<Integer, Job> jobs = new HashMap<>();
+    private final Map<String, Total> apps = new HashMap<>();
+
+    // Add or remove the job according to its state
+    synchronized void update(Job job) {
+        boolean running = job.state() == Job.JobState.STARTING || job.state() == Job.JobState.STARTED;
+        if (running) {
+            if (jobs.put(job.id(), job) == null) {
+                apps.computeIfAbsent(job.appid(), app -> new Total()).add(job, 1);
+            }
+        } else {
+            Job old = jobs.remove(job.id());
+            if (old != null) {
+                Total total = apps.get(old.appid());
+                total.add(old, -1);
+                if (total.jobs() == 0) {
+                    apps.remove(old.appid());
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        jobs.clear();
+        apps.clear();
+    }
+
+    synchronized int count() {
+        return jobs.size();
+    }
+
+    // Copy of totals per application id
+    synchronized Map<String, Total> byApp() {
+        Map<String, Total> ret = new HashMap<>();
+        for (Map.Entry<String, Total> e : apps.entrySet()) {
+            ret.put(e.getKey(), e.getValue().copy());
+        }
+        return ret;
+    }
+
+    public static class Total {
+        private int jobs = 0;
+        private int cpu = 0;
+        private int memMB = 0;
+        private int gpu = 0;
+
+        void add(Job job, int sign) {
+            jobs += sign;
+            cpu += sign * job.cpu();
+            memMB += sign * job.memMB();
+            gpu += sign * job.gpu();
+        }
+
+        void add(Total other) {
+            jobs += other.jobs;
+            cpu += other.cpu;
+            memMB += other.memMB;
+            gpu += other.gpu;
+        }
+
+        Total copy() {
+            Total t = new Total();
+            t.add(this);
+            return t;
+        }
+
+        public int jobs() {
+            return jobs;
+        }
+
+        public int cpu() {
+            return cpu;
+        }
+
+        public int memMB() {
+            return memMB;
+        }
+
+        public int gpu() {
+            return gpu;
+        }
+    }
+}
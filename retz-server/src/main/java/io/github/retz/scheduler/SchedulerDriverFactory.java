@@ -64,9 +64,11 @@ public class SchedulerDriverFactory {
         }
 
         LOG.info("{} starting", MesosSchedulerDriver.class.getName());
+        // Status updates are acknowledged explicitly after written to database; see StatusUpdatePipeline
+        boolean implicitAcknowledgements = false;
         if (credential != null) {
-            return new MesosSchedulerDriver(scheduler, fw, conf.getMesosMaster(), credential);
+            return new MesosSchedulerDriver(scheduler, fw, conf.getMesosMaster(), implicitAcknowledgements, credential);
         }
-        return new MesosSchedulerDriver(scheduler, fw, conf.getMesosMaster());
+        return new MesosSchedulerDriver(scheduler, fw, conf.getMesosMaster(), implicitAcknowledgements);
     }
 }
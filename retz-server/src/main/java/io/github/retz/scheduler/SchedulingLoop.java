@@ -0,0 +1,181 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs all planning in one thread, off the Mesos driver callback thread and HTTP threads.
+ *
+ * Resource offers, job submissions and status updates which may free resource come in as
+ * events through a queue. The loop takes an event, waits up to the window for more events,
+ * adds all offers among them to the offer book and then plans just once for the whole batch.
+ * Thus a burst of submissions causes a few planning passes instead of one per request, and
+ * a submission returns as soon as its jobs are persisted. After each batch, even without
+ * offers to plan with, offers from Mesos are regulated by whether any job is waiting.
+ */
+public class SchedulingLoop {
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulingLoop.class);
+    private static final long POLL_MS = 100;
+
+    private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+    private final OfferBook offerBook;
+    // One planning pass against all offers in the book
+    private final Consumer<SchedulerDriver> pass;
+    // Suppressing or reviving offers after the pass
+    private final Consumer<SchedulerDriver> regulate;
+    private final long windowMs;
+    private final Thread thread;
+    private volatile boolean running;
+    // Driver of the latest offers; no planning before any offer comes
+    private volatile SchedulerDriver driver;
+
+    // Guarded by this
+    private long events = 0;
+    private long handled = 0;
+
+    public SchedulingLoop(OfferBook offerBook, Consumer<SchedulerDriver> pass, long windowMs) {
+        this(offerBook, pass, driver -> {
+        }, windowMs);
+    }
+
+    public SchedulingLoop(OfferBook offerBook, Consumer<SchedulerDriver> pass, Consumer<SchedulerDriver> regulate,
+                          long windowMs) {
+        this.offerBook = offerBook;
+        this.pass = pass;
+        this.regulate = regulate;
+        this.windowMs = windowMs;
+        this.thread = new Thread(this::loop, "retz-scheduling-loop");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while stopping scheduling loop: {} events left", queue.size());
+        }
+    }
+
+    // Called by the driver thread; never blocks
+    public void offers(SchedulerDriver driver, List<Protos.Offer> offers) {
+        put(new Event(driver, offers));
+    }
+
+    // Jobs submitted, or resource may have been freed; never blocks
+    public void trigger() {
+        put(new Event(null, null));
+    }
+
+    private void put(Event event) {
+        synchronized (this) {
+            events++;
+        }
+        queue.offer(event);
+    }
+
+    // Wait until all events so far are handled; returns false on timeout
+    public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (handled < events) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return true;
+    }
+
+    private void loop() {
+        List<Event> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Event first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + windowMs;
+                for (long wait = windowMs; wait > 0; wait = deadline - System.currentTimeMillis()) {
+                    Event event = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                }
+                queue.drainTo(batch);
+                handle(batch);
+            } catch (InterruptedException e) {
+                LOG.warn("Scheduling loop interrupted: {}", e.toString());
+            } catch (Exception e) {
+                // Keep this thread alive; the pass puts offers back to the book unless settled
+                LOG.error("Scheduling pass failed: {}", e.toString(), e);
+            } finally {
+                synchronized (this) {
+                    handled += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        }
+        LOG.info("Scheduling loop stopped");
+    }
+
+    private void handle(List<Event> batch) {
+        for (Event event : batch) {
+            if (event.offers != null) {
+                offerBook.add(event.offers);
+                driver = event.driver;
+            }
+        }
+        if (driver == null) {
+            return;
+        }
+        if (offerBook.size() > 0) {
+            LOG.debug("Planning for {} events", batch.size());
+            pass.accept(driver);
+        }
+        regulate.accept(driver);
+    }
+
+    private static class Event {
+        private final SchedulerDriver driver;
+        private final List<Protos.Offer> offers;
+
+        Event(SchedulerDriver driver, List<Protos.Offer> offers) {
+            this.driver = driver;
+            this.offers = offers;
+        }
+    }
+}
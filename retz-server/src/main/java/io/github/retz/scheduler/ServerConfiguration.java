@@ -17,6 +17,8 @@
 package io.github.retz.scheduler;
 
 import io.github.retz.cli.FileConfiguration;
+import io.github.retz.db.JobStore;
+import io.github.retz.db.RecordCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +39,75 @@ public class ServerConfiguration extends FileConfiguration {
     public static final String DEFAULT_MAX_SIMULTANEOUS_JOBS = "128";
     public static final String MAX_STOCK_SIZE = "retz.max.stock";
     public static final String DEFAULT_MAX_STOCK_SIZE = "16";
+    public static final String MAX_LIST_SIZE = "retz.max.list";
+    public static final String DEFAULT_MAX_LIST_SIZE = "1024";
+    // Number of job ids reserved in database at once; see JobQueue.issueJobIds
+    public static final String JOB_ID_BLOCK_SIZE = "retz.job.id.block";
+    public static final String DEFAULT_JOB_ID_BLOCK_SIZE = "128";
+
+    // Status update pipeline; see StatusUpdatePipeline
+    public static final String STATUS_QUEUE_SIZE = "retz.status.queue";
+    public static final String DEFAULT_STATUS_QUEUE_SIZE = "65536";
+    public static final String STATUS_BATCH_SIZE = "retz.status.batch";
+    public static final String DEFAULT_STATUS_BATCH_SIZE = "256";
+    public static final String STATUS_FLUSH_INTERVAL = "retz.status.flush.ms";
+    public static final String DEFAULT_STATUS_FLUSH_INTERVAL = "64";
+
+    // Scheduling loop; see SchedulingLoop
+    public static final String SCHEDULE_WINDOW = "retz.schedule.window.ms";
+    public static final String DEFAULT_SCHEDULE_WINDOW = "10";
+
+    // Offers while no job is waiting, and seconds to decline offers for; see OfferBook
+    public static final String OFFER_SUPPRESS = "retz.offer.suppress";
+    public static final String DEFAULT_OFFER_SUPPRESS = "true";
+    public static final String OFFER_REFUSE_MIN = "retz.offer.refuse.min";
+    public static final String DEFAULT_OFFER_REFUSE_MIN = "1";
+    public static final String OFFER_REFUSE_MAX = "retz.offer.refuse.max";
+    public static final String DEFAULT_OFFER_REFUSE_MAX = "30";
+
+    // Fair share among users and applications; see FairShare
+    public static final String SHARE = "retz.share";
+    public static final String DEFAULT_SHARE = FairShare.DRF;
+    // Followed by ".user.<name>" or ".app.<name>"; 1 by default
+    public static final String SHARE_WEIGHT = "retz.share.weight";
+    // Followed by ".user" or ".app", ".running", ".cpu" or ".mem", and optionally ".<name>"
+    // to override the default for all users or applications; 0 means unlimited
+    public static final String QUOTA = "retz.quota";
+
+    // Jobs gain one priority for each interval in milliseconds while queued; see JobQueue.rank
+    public static final String PRIORITY_AGING = "retz.priority.aging.ms";
+    public static final String DEFAULT_PRIORITY_AGING = "60000";
+    // Priority of jobs given by users is clamped to [-max, max]
+    public static final String PRIORITY_MAX = "retz.priority.max";
+    public static final String DEFAULT_PRIORITY_MAX = "100";
+
+    // Planner; see PlannerFactory
+    public static final String PLANNER = "retz.planner";
+    public static final String DEFAULT_PLANNER = PlannerFactory.NAIVE;
+    public static final String PLANNER_BACKFILL = "retz.planner.backfill";
+    public static final String DEFAULT_PLANNER_BACKFILL = "false";
+    public static final String PLANNER_LOCALITY = "retz.planner.locality";
+    public static final String DEFAULT_PLANNER_LOCALITY = "true";
+
+    // User cache for authentication; see UserCache
+    public static final String USER_CACHE_SIZE = "retz.user.cache.size";
+    public static final String DEFAULT_USER_CACHE_SIZE = "1024";
+    public static final String USER_CACHE_TTL = "retz.user.cache.ttl";
+    public static final String DEFAULT_USER_CACHE_TTL = "60";
+
+    // Long polling of job state and files; see JobRequestRouter
+    public static final String WATCH_MAX = "retz.watch.max";
+    public static final String DEFAULT_WATCH_MAX = "128";
+    public static final String WATCH_TIMEOUT = "retz.watch.timeout";
+    public static final String DEFAULT_WATCH_TIMEOUT = "60";
+
+    // Archival of finished jobs; see JobCompactor
+    public static final String COMPACT_RETENTION = "retz.compact.retention";
+    public static final String DEFAULT_COMPACT_RETENTION = "604800";
+    public static final String COMPACT_INTERVAL = "retz.compact.interval";
+    public static final String DEFAULT_COMPACT_INTERVAL = "3600";
+    public static final String COMPACT_BATCH_SIZE = "retz.compact.batch";
+    public static final String DEFAULT_COMPACT_BATCH_SIZE = "256";
 
     // Mesos connections and so on
     static final String MESOS_LOC_KEY = "retz.mesos";
@@ -54,10 +125,21 @@ public class ServerConfiguration extends FileConfiguration {
     // Persistence
     static final String DATABASE_URL = "retz.database.url";
     static final String DEFAULT_DATABASE_URL = "jdbc:h2:mem:retz-server;DB_CLOSE_DELAY=-1";
+    // Encoding of job and application records in database; see RecordCodec
+    public static final String DATABASE_CODEC = "retz.database.codec";
+    public static final String DEFAULT_DATABASE_CODEC = RecordCodec.JSON;
     static final String DATABASE_DRIVER_CLASS = "retz.database.driver";
     static final String DEFAULT_DATABASE_DRIVER_CLASS = "org.h2.Driver";
     static final String DATABASE_USERNAME = "retz.database.user";
     static final String DATABASE_PASSWORD = "retz.database.pass";
+    // Where jobs are stored; see JobStore
+    public static final String JOB_STORE = "retz.jobstore";
+    public static final String DEFAULT_JOB_STORE = JobStore.DATABASE;
+    public static final String JOB_STORE_DIR = "retz.jobstore.dir";
+    public static final String DEFAULT_JOB_STORE_DIR = "/var/lib/retz/journal";
+    // In megabytes
+    public static final String JOB_STORE_SEGMENT = "retz.jobstore.segment";
+    public static final String DEFAULT_JOB_STORE_SEGMENT = "64";
     // https://github.com/apache/mesos/blob/master/include/mesos/mesos.proto#L208-L210
     static final String USER_NAME = "retz.user";
     static final String[] INVALID_BIND_ADDRESS = {"0.0.0.0", "localhost", "127.0.0.1"};
@@ -67,6 +149,9 @@ public class ServerConfiguration extends FileConfiguration {
     private final String databaseURL;
     private final String databaseDriver;
     private final boolean useGPU;
+    private final boolean backfill;
+    private final boolean locality;
+    private final boolean suppress;
 
     public ServerConfiguration(InputStream in) throws IOException, URISyntaxException {
         super(in);
@@ -107,13 +192,112 @@ public class ServerConfiguration extends FileConfiguration {
             throw new IllegalArgumentException(MAX_SIMULTANEOUS_JOBS + " must be positive");
         }
 
+        if (!RecordCodec.NAMES.contains(getDatabaseCodec())) {
+            throw new IllegalArgumentException(DATABASE_CODEC + " must be one of " + RecordCodec.NAMES);
+        }
+
+        if (!JobStore.NAMES.contains(getJobStore())) {
+            throw new IllegalArgumentException(JOB_STORE + " must be one of " + JobStore.NAMES);
+        }
+        int segment = Integer.parseInt(properties.getProperty(JOB_STORE_SEGMENT, DEFAULT_JOB_STORE_SEGMENT));
+        if (segment < 1 || 1024 < segment) {
+            throw new IllegalArgumentException(JOB_STORE_SEGMENT + " must be in [1, 1024]");
+        }
+
+        if (getMaxListSize() < 1) {
+            throw new IllegalArgumentException(MAX_LIST_SIZE + " must be positive");
+        }
+
+        if (getJobIdBlockSize() < 1) {
+            throw new IllegalArgumentException(JOB_ID_BLOCK_SIZE + " must be positive");
+        }
+
+        if (getStatusQueueSize() < 1 || getStatusBatchSize() < 1 || getStatusFlushInterval() < 1) {
+            throw new IllegalArgumentException(STATUS_QUEUE_SIZE + ", " + STATUS_BATCH_SIZE + " and "
+                    + STATUS_FLUSH_INTERVAL + " must be positive");
+        }
+
+        if (getScheduleWindow() < 0) {
+            throw new IllegalArgumentException(SCHEDULE_WINDOW + " must not be negative");
+        }
+        String suppress = properties.getProperty(OFFER_SUPPRESS, DEFAULT_OFFER_SUPPRESS);
+        if (suppress.equals("true")) {
+            this.suppress = true;
+        } else if (suppress.equals("false")) {
+            this.suppress = false;
+        } else {
+            throw new IllegalArgumentException(OFFER_SUPPRESS + " must be boolean");
+        }
+        if (getOfferRefuseMin() <= 0 || getOfferRefuseMax() < getOfferRefuseMin()) {
+            throw new IllegalArgumentException(OFFER_REFUSE_MIN + " must be positive and "
+                    + OFFER_REFUSE_MAX + " must not be less than it");
+        }
+
+        if (!FairShare.NAMES.contains(getShare())) {
+            throw new IllegalArgumentException(SHARE + " must be one of " + String.join(", ", FairShare.NAMES));
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(SHARE_WEIGHT + ".")) {
+                if (Double.parseDouble(properties.getProperty(key)) <= 0) {
+                    throw new IllegalArgumentException(key + " must be positive");
+                }
+            } else if (key.startsWith(QUOTA + ".")) {
+                if (Integer.parseInt(properties.getProperty(key)) < 0) {
+                    throw new IllegalArgumentException(key + " must not be negative");
+                }
+            }
+        }
+
+        if (getPriorityAging() < 0) {
+            throw new IllegalArgumentException(PRIORITY_AGING + " must not be negative");
+        }
+        if (getPriorityMax() < 0) {
+            throw new IllegalArgumentException(PRIORITY_MAX + " must not be negative");
+        }
+
+        if (!PlannerFactory.NAMES.contains(getPlannerName())) {
+            throw new IllegalArgumentException(PLANNER + " must be one of " + String.join(", ", PlannerFactory.NAMES));
+        }
+        String backfill = properties.getProperty(PLANNER_BACKFILL, DEFAULT_PLANNER_BACKFILL);
+        if (backfill.equals("true")) {
+            this.backfill = true;
+        } else if (backfill.equals("false")) {
+            this.backfill = false;
+        } else {
+            throw new IllegalArgumentException(PLANNER_BACKFILL + " must be boolean");
+        }
+        String locality = properties.getProperty(PLANNER_LOCALITY, DEFAULT_PLANNER_LOCALITY);
+        if (locality.equals("true")) {
+            this.locality = true;
+        } else if (locality.equals("false")) {
+            this.locality = false;
+        } else {
+            throw new IllegalArgumentException(PLANNER_LOCALITY + " must be boolean");
+        }
+
+        if (getUserCacheSize() < 0 || getUserCacheTTL() < 0) {
+            throw new IllegalArgumentException(USER_CACHE_SIZE + " and " + USER_CACHE_TTL + " must not be negative");
+        }
+
+        if (getWatchMax() < 0 || getWatchTimeout() < 0) {
+            throw new IllegalArgumentException(WATCH_MAX + " and " + WATCH_TIMEOUT + " must not be negative");
+        }
+
+        if (getCompactRetention() < 0 || getCompactInterval() < 0) {
+            throw new IllegalArgumentException(COMPACT_RETENTION + " and " + COMPACT_INTERVAL + " must not be negative");
+        }
+        if (getCompactBatchSize() < 1) {
+            throw new IllegalArgumentException(COMPACT_BATCH_SIZE + " must be positive");
+        }
+
         databaseURL = properties.getProperty(DATABASE_URL, DEFAULT_DATABASE_URL);
         databaseDriver = properties.getProperty(DATABASE_DRIVER_CLASS, DEFAULT_DATABASE_DRIVER_CLASS);
 
-        LOG.info("Mesos master={}, principal={}, role={}, {}={}, {}={}, {}={}",
+        LOG.info("Mesos master={}, principal={}, role={}, {}={}, {}={}, {}={}, {}={}",
                 getMesosMaster(), getPrincipal(), getRole(), MAX_SIMULTANEOUS_JOBS, maxSimultaneousJobs,
                 DATABASE_URL, databaseURL,
-                MAX_STOCK_SIZE, getMaxStockSize());
+                MAX_STOCK_SIZE, getMaxStockSize(),
+                PLANNER, getPlannerName());
     }
 
     public ServerConfiguration(String file) throws IOException, URISyntaxException {
@@ -170,6 +354,127 @@ public class ServerConfiguration extends FileConfiguration {
         return Integer.parseInt(properties.getProperty(MAX_STOCK_SIZE, DEFAULT_MAX_STOCK_SIZE));
     }
 
+    public int getMaxListSize() {
+        return Integer.parseInt(properties.getProperty(MAX_LIST_SIZE, DEFAULT_MAX_LIST_SIZE));
+    }
+
+    public int getJobIdBlockSize() {
+        return Integer.parseInt(properties.getProperty(JOB_ID_BLOCK_SIZE, DEFAULT_JOB_ID_BLOCK_SIZE));
+    }
+
+    public int getStatusQueueSize() {
+        return Integer.parseInt(properties.getProperty(STATUS_QUEUE_SIZE, DEFAULT_STATUS_QUEUE_SIZE));
+    }
+
+    public int getStatusBatchSize() {
+        return Integer.parseInt(properties.getProperty(STATUS_BATCH_SIZE, DEFAULT_STATUS_BATCH_SIZE));
+    }
+
+    public long getStatusFlushInterval() {
+        return Long.parseLong(properties.getProperty(STATUS_FLUSH_INTERVAL, DEFAULT_STATUS_FLUSH_INTERVAL));
+    }
+
+    public long getScheduleWindow() {
+        return Long.parseLong(properties.getProperty(SCHEDULE_WINDOW, DEFAULT_SCHEDULE_WINDOW));
+    }
+
+    public boolean suppressOffers() {
+        return suppress;
+    }
+
+    public int getOfferRefuseMin() {
+        return Integer.parseInt(properties.getProperty(OFFER_REFUSE_MIN, DEFAULT_OFFER_REFUSE_MIN));
+    }
+
+    public int getOfferRefuseMax() {
+        return Integer.parseInt(properties.getProperty(OFFER_REFUSE_MAX, DEFAULT_OFFER_REFUSE_MAX));
+    }
+
+    public String getShare() {
+        return properties.getProperty(SHARE, DEFAULT_SHARE);
+    }
+
+    // kind is "user" or "app"
+    public double getShareWeight(String kind, String name) {
+        return Double.parseDouble(properties.getProperty(String.join(".", SHARE_WEIGHT, kind, name), "1"));
+    }
+
+    // kind is "user" or "app", and resource is "running", "cpu" or "mem"; 0 means unlimited
+    public int getQuota(String kind, String resource, String name) {
+        String key = String.join(".", QUOTA, kind, resource);
+        return Integer.parseInt(properties.getProperty(key + "." + name, properties.getProperty(key, "0")));
+    }
+
+    // In milliseconds; 0 disables aging
+    public long getPriorityAging() {
+        return Long.parseLong(properties.getProperty(PRIORITY_AGING, DEFAULT_PRIORITY_AGING));
+    }
+
+    public int getPriorityMax() {
+        return Integer.parseInt(properties.getProperty(PRIORITY_MAX, DEFAULT_PRIORITY_MAX));
+    }
+
+    public String getPlannerName() {
+        return properties.getProperty(PLANNER, DEFAULT_PLANNER);
+    }
+
+    public boolean useBackfill() {
+        return backfill;
+    }
+
+    public boolean useLocality() {
+        return locality;
+    }
+
+    public int getUserCacheSize() {
+        return Integer.parseInt(properties.getProperty(USER_CACHE_SIZE, DEFAULT_USER_CACHE_SIZE));
+    }
+
+    // In seconds
+    public long getUserCacheTTL() {
+        return Long.parseLong(properties.getProperty(USER_CACHE_TTL, DEFAULT_USER_CACHE_TTL));
+    }
+
+    public int getWatchMax() {
+        return Integer.parseInt(properties.getProperty(WATCH_MAX, DEFAULT_WATCH_MAX));
+    }
+
+    // In seconds
+    public int getWatchTimeout() {
+        return Integer.parseInt(properties.getProperty(WATCH_TIMEOUT, DEFAULT_WATCH_TIMEOUT));
+    }
+
+    // In seconds
+    public long getCompactRetention() {
+        return Long.parseLong(properties.getProperty(COMPACT_RETENTION, DEFAULT_COMPACT_RETENTION));
+    }
+
+    // In seconds; 0 disables periodic compaction
+    public long getCompactInterval() {
+        return Long.parseLong(properties.getProperty(COMPACT_INTERVAL, DEFAULT_COMPACT_INTERVAL));
+    }
+
+    public int getCompactBatchSize() {
+        return Integer.parseInt(properties.getProperty(COMPACT_BATCH_SIZE, DEFAULT_COMPACT_BATCH_SIZE));
+    }
+
+    public String getDatabaseCodec() {
+        return properties.getProperty(DATABASE_CODEC, DEFAULT_DATABASE_CODEC);
+    }
+
+    public String getJobStore() {
+        return properties.getProperty(JOB_STORE, DEFAULT_JOB_STORE);
+    }
+
+    public String getJobStoreDir() {
+        return properties.getProperty(JOB_STORE_DIR, DEFAULT_JOB_STORE_DIR);
+    }
+
+    // In bytes
+    public int getJobStoreSegmentSize() {
+        return Integer.parseInt(properties.getProperty(JOB_STORE_SEGMENT, DEFAULT_JOB_STORE_SEGMENT)) * 1024 * 1024;
+    }
+
     public String getDatabaseURL() {
         return databaseURL;
     }
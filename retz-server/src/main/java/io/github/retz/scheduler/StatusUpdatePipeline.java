@@ -0,0 +1,193 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Moves job state transitions by Mesos status updates off the driver callback thread.
+ *
+ * Status updates are put into a bounded queue and written by a single thread, in one
+ * database transaction per flush, which happens when batch size is reached or flush
+ * interval has passed. Updates of same task in a batch are coalesced into one write.
+ * Each status update is acknowledged to Mesos only after its transition is committed;
+ * when the queue is full or database write fails, it is left unacknowledged and Mesos
+ * will redeliver it later. Thus the driver thread never blocks on database.
+ */
+public class StatusUpdatePipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(StatusUpdatePipeline.class);
+
+    private final BlockingQueue<Update> queue;
+    // Builds a state transition from a status update, which may require HTTP access to Mesos
+    private final Function<Protos.TaskStatus, Optional<Function<Job, Optional<Job>>>> transition;
+    // Called after each batch is written
+    private final Runnable written;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Thread thread;
+    private volatile boolean running;
+
+    public StatusUpdatePipeline(Function<Protos.TaskStatus, Optional<Function<Job, Optional<Job>>>> transition,
+                                int capacity, int batchSize, long flushIntervalMs) {
+        this(transition, () -> { }, capacity, batchSize, flushIntervalMs);
+    }
+
+    public StatusUpdatePipeline(Function<Protos.TaskStatus, Optional<Function<Job, Optional<Job>>>> transition,
+                                Runnable written, int capacity, int batchSize, long flushIntervalMs) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.transition = transition;
+        this.written = written;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.thread = new Thread(this::loop, "retz-status-update");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    // Stop after all updates in the queue are written
+    public void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while stopping status update pipeline: {} updates left", queue.size());
+        }
+    }
+
+    // Never blocks; returns false if the update is to be redelivered by Mesos
+    public boolean offer(SchedulerDriver driver, Protos.TaskStatus status) {
+        if (queue.offer(new Update(driver, status))) {
+            return true;
+        }
+        LOG.warn("Status update queue is full ({} updates): leaving {} of task {} unacknowledged",
+                queue.size(), status.getState(), status.getTaskId().getValue());
+        return false;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    private void loop() {
+        List<Update> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Update first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    Update update = (wait > 0) ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (update == null) {
+                        break;
+                    }
+                    batch.add(update);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                LOG.warn("Status update pipeline interrupted: {}", e.toString());
+            } catch (Exception e) {
+                // Keep this thread alive, anyway updates will be redelivered
+                LOG.error("Status update pipeline failed: {}", e.toString(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+        LOG.info("Status update pipeline stopped");
+    }
+
+    void flush(List<Update> batch) {
+        Map<String, Function<Job, Optional<Job>>> transitions = new LinkedHashMap<>();
+        int coalesced = 0;
+        for (Update update : batch) {
+            Optional<Function<Job, Optional<Job>>> t = transition.apply(update.status);
+            if (!t.isPresent()) {
+                continue;
+            }
+            String taskId = update.status.getTaskId().getValue();
+            Function<Job, Optional<Job>> prev = transitions.get(taskId);
+            if (prev == null) {
+                transitions.put(taskId, t.get());
+            } else {
+                transitions.put(taskId, andThen(prev, t.get()));
+                coalesced++;
+            }
+        }
+
+        try {
+            List<Job> updated = JobQueue.updateAll(transitions);
+            LOG.info("{} status updates written as {} jobs ({} coalesced)", batch.size(), updated.size(), coalesced);
+        } catch (IOException | SQLException e) {
+            LOG.error("Failed to write {} status updates, to be redelivered: {}", batch.size(), e.toString());
+            return;
+        }
+
+        for (Update update : batch) {
+            acknowledge(update.driver, update.status);
+        }
+        written.run();
+    }
+
+    static void acknowledge(SchedulerDriver driver, Protos.TaskStatus status) {
+        // Updates generated by reconciliation have no UUID and must not be acknowledged
+        if (status.hasUuid()) {
+            driver.acknowledgeStatusUpdate(status);
+        }
+    }
+
+    private static Function<Job, Optional<Job>> andThen(Function<Job, Optional<Job>> first,
+                                                        Function<Job, Optional<Job>> second) {
+        return job -> {
+            Optional<Job> r1 = first.apply(job);
+            Optional<Job> r2 = second.apply(r1.orElse(job));
+            return r2.isPresent() ? r2 : r1;
+        };
+    }
+
+    private static class Update {
+        private final SchedulerDriver driver;
+        private final Protos.TaskStatus status;
+
+        Update(SchedulerDriver driver, Protos.TaskStatus status) {
+            this.driver = driver;
+            this.status = status;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import io.github.retz.protocol.data.DirEntry;
 import io.github.retz.protocol.data.FileContent;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.scheduler.JobQueue;
+import io.github.retz.scheduler.JobWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +40,11 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -46,18 +52,51 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class JobRequestRouter {
     private static final Logger LOG = LoggerFactory.getLogger(JobRequestRouter.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Interval to check a file in sandbox while a client is waiting for its data
+    private static final long FILE_POLL_INTERVAL_MS = 500;
+
+    // Long polling requests occupy HTTP server threads; limit the number and the time
+    private static final AtomicInteger WAITING = new AtomicInteger(0);
+    private static volatile int maxWaiting = 128;
+    private static volatile int maxWaitSeconds = 60;
 
     static {
         MAPPER.registerModule(new Jdk8Module());
     }
 
+    static void configure(int maxWaiting, int maxWaitSeconds) {
+        JobRequestRouter.maxWaiting = maxWaiting;
+        JobRequestRouter.maxWaitSeconds = maxWaitSeconds;
+    }
+
     public static String getJob(spark.Request req, spark.Response res) throws JsonProcessingException, IOException {
         int id = Integer.parseInt(req.params(":id"));
-
-        LOG.debug("get job id={}, path={}, file={}", id);
         res.type("application/json");
 
-        Optional<Job> job = JobQueue.getJob(id);
+        int wait;
+        try {
+            wait = waitSeconds(req);
+        } catch (NumberFormatException e) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("Invalid wait: " + req.queryParams("wait")));
+        }
+
+        Optional<Job.JobState> state;
+        try {
+            state = Optional.ofNullable(req.queryParams("state")).map(Job.JobState::valueOf);
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("Invalid state: " + req.queryParams("state")));
+        }
+
+        LOG.debug("get job id={}, state={}, wait={}", id, state, wait);
+
+        Optional<Job> job;
+        if (wait > 0 && state.isPresent()) {
+            job = awaitChange(id, state.get(), wait);
+        } else {
+            job = JobQueue.getJob(id);
+        }
 
         Response response;
         // Search job from JobQueue with matching id
@@ -77,26 +116,120 @@ public class JobRequestRouter {
         String file = req.queryParams("path");
         int offset = Integer.parseInt(req.queryParams("offset"));
         int length = Integer.parseInt(req.queryParams("length"));
+        res.type("application/json");
+
+        int wait;
+        try {
+            wait = waitSeconds(req);
+        } catch (NumberFormatException e) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("Invalid wait: " + req.queryParams("wait")));
+        }
         Optional<Job> job = JobQueue.getJob(id);
 
-        LOG.debug("get-file: id={}, path={}, offset={}, length={}", id, file, offset, length);
-        res.type("application/json");
+        LOG.debug("get-file: id={}, path={}, offset={}, length={}, wait={}", id, file, offset, length, wait);
+
+        Optional<FileContent> fileContent = fetchFile(job, file, offset, length);
+        if (wait > 0 && !hasData(fileContent) && job.isPresent() && !isFinished(job.get()) && enterWait()) {
+            try {
+                long deadline = System.currentTimeMillis() + wait * 1000L;
+                while (!hasData(fileContent) && job.isPresent() && !isFinished(job.get())) {
+                    long remain = deadline - System.currentTimeMillis();
+                    if (remain <= 0) {
+                        break;
+                    }
+                    // Wake up on state change of the job, or check the file again a while later
+                    CompletableFuture<Job> next = JobWatch.next(id);
+                    try {
+                        await(next, Math.min(remain, FILE_POLL_INTERVAL_MS));
+                    } finally {
+                        JobWatch.done(id, next);
+                    }
+                    job = JobQueue.getJob(id);
+                    fileContent = fetchFile(job, file, offset, length);
+                }
+            } finally {
+                WAITING.decrementAndGet();
+            }
+        }
+        GetFileResponse getFileResponse = new GetFileResponse(job, fileContent);
+        getFileResponse.ok();
+        res.status(200);
 
-        Optional<FileContent> fileContent;
+        return MAPPER.writeValueAsString(getFileResponse);
+    }
+
+    private static Optional<FileContent> fetchFile(Optional<Job> job, String file, int offset, int length) throws IOException {
         if (job.isPresent() && job.get().url() != null // If url() is null, the job hasn't yet been started at Mesos
                 && statHTTPFile(job.get().url(), file)) {
             String payload = fetchHTTPFile(job.get().url(), file, offset, length);
             LOG.debug("Payload length={}, offset={}", payload.length(), offset);
             // TODO: what the heck happens when a file is not UTF-8 encodable???? How Mesos works?
-            fileContent = Optional.ofNullable(MAPPER.readValue(payload, FileContent.class));
-        } else {
-            fileContent = Optional.empty();
+            return Optional.ofNullable(MAPPER.readValue(payload, FileContent.class));
         }
-        GetFileResponse getFileResponse = new GetFileResponse(job, fileContent);
-        getFileResponse.ok();
-        res.status(200);
+        return Optional.empty();
+    }
 
-        return MAPPER.writeValueAsString(getFileResponse);
+    // Wait until the job leaves the state, up to 'wait' seconds
+    static Optional<Job> awaitChange(int id, Job.JobState state, int wait) {
+        if (!enterWait()) {
+            return JobQueue.getJob(id);
+        }
+        try {
+            long deadline = System.currentTimeMillis() + wait * 1000L;
+            while (true) {
+                // Take the future before reading the job, not to miss a change in between
+                CompletableFuture<Job> next = JobWatch.next(id);
+                try {
+                    Optional<Job> job = JobQueue.getJob(id);
+                    long remain = deadline - System.currentTimeMillis();
+                    if (!job.isPresent() || job.get().state() != state || remain <= 0) {
+                        return job;
+                    }
+                    await(next, remain);
+                } finally {
+                    JobWatch.done(id, next);
+                }
+            }
+        } finally {
+            WAITING.decrementAndGet();
+        }
+    }
+
+    private static void await(CompletableFuture<Job> next, long millis) {
+        try {
+            next.get(millis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns false, without waiting, if too many requests are already waiting
+    private static boolean enterWait() {
+        if (WAITING.incrementAndGet() > maxWaiting) {
+            WAITING.decrementAndGet();
+            LOG.debug("Too many requests waiting (max {}); returning immediately", maxWaiting);
+            return false;
+        }
+        return true;
+    }
+
+    // Throws NumberFormatException if not a number
+    private static int waitSeconds(spark.Request req) {
+        String wait = req.queryParams("wait");
+        if (wait == null) {
+            return 0;
+        }
+        return Math.min(Integer.parseInt(wait), maxWaitSeconds);
+    }
+
+    private static boolean hasData(Optional<FileContent> fileContent) {
+        return fileContent.isPresent() && !fileContent.get().data().isEmpty();
+    }
+
+    private static boolean isFinished(Job job) {
+        return job.state() == Job.JobState.FINISHED || job.state() == Job.JobState.KILLED;
     }
 
     public static String getDir(spark.Request req, spark.Response res) throws IOException {
@@ -0,0 +1,123 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.web;
+
+import io.github.retz.auth.Authenticator;
+import io.github.retz.db.Database;
+import io.github.retz.protocol.data.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Users and their authenticators, so that authentication of repeat callers does not
+// access database. Entries expire after TTL, and must be invalidated when a user is
+// created or changed.
+public class UserCache {
+    private static final Logger LOG = LoggerFactory.getLogger(UserCache.class);
+
+    private static final ConcurrentMap<String, Entry> CACHE = new ConcurrentHashMap<>();
+    // Incremented at every invalidation, not to cache a user loaded before it
+    private static final AtomicLong GENERATION = new AtomicLong(0);
+    private static volatile int maxSize = 1024;
+    private static volatile long ttlMillis = 60000;
+
+    public static void configure(int size, long ttl) {
+        LOG.info("User cache size={}, ttl={}ms", size, ttl);
+        maxSize = size;
+        ttlMillis = ttl;
+        clear();
+    }
+
+    // Authenticator of the user, or empty if the user does not exist or is disabled
+    public static Optional<Authenticator> get(String keyId) {
+        long now = System.currentTimeMillis();
+        Entry entry = CACHE.get(keyId);
+        if (entry != null && now < entry.expires) {
+            return entry.authenticator;
+        }
+
+        long generation = GENERATION.get();
+        Optional<User> user = Database.getInstance().getUser(keyId);
+        if (!user.isPresent()) {
+            CACHE.remove(keyId);
+            return Optional.empty();
+        }
+        Entry loaded = new Entry(user.get(), entry, now + ttlMillis);
+        if (maxSize > 0 && generation == GENERATION.get()) {
+            maybeEvict(now);
+            CACHE.put(keyId, loaded);
+            if (generation != GENERATION.get()) {
+                // Invalidated while putting
+                CACHE.remove(keyId);
+            }
+        }
+        return loaded.authenticator;
+    }
+
+    public static void invalidate(String keyId) {
+        GENERATION.incrementAndGet();
+        CACHE.remove(keyId);
+    }
+
+    public static void clear() {
+        GENERATION.incrementAndGet();
+        CACHE.clear();
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    // Drop expired entries, then ones expiring earliest until there is a room
+    private static void maybeEvict(long now) {
+        if (CACHE.size() < maxSize) {
+            return;
+        }
+        CACHE.entrySet().removeIf(e -> e.getValue().expires <= now);
+        while (CACHE.size() >= maxSize) {
+            Optional<Map.Entry<String, Entry>> oldest = CACHE.entrySet().stream()
+                    .min((lhs, rhs) -> Long.compare(lhs.getValue().expires, rhs.getValue().expires));
+            if (!oldest.isPresent()) {
+                break;
+            }
+            CACHE.remove(oldest.get().getKey());
+        }
+    }
+
+    private static class Entry {
+        private final Optional<Authenticator> authenticator;
+        private final long expires;
+
+        // Reuse the authenticator of previous entry if the secret is same, keeping its MACs
+        Entry(User user, Entry previous, long expires) {
+            if (!user.enabled()) {
+                authenticator = Optional.empty();
+            } else if (previous != null && previous.authenticator.isPresent()
+                    && previous.authenticator.get().matches(user.keyId(), user.secret())) {
+                authenticator = previous.authenticator;
+            } else {
+                authenticator = Optional.of(new Authenticator(user.keyId(), user.secret()));
+            }
+            this.expires = expires;
+        }
+    }
+}
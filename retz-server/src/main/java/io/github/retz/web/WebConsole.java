@@ -21,14 +21,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.auth.Authenticator;
 import io.github.retz.cli.FileConfiguration;
-import io.github.retz.cli.TimestampHelper;
 import io.github.retz.protocol.*;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.DockerContainer;
 import io.github.retz.protocol.data.Job;
-import io.github.retz.protocol.data.User;
 import io.github.retz.scheduler.Applications;
-import io.github.retz.db.Database;
 import io.github.retz.scheduler.JobQueue;
 import io.github.retz.scheduler.RetzScheduler;
 import io.github.retz.scheduler.ServerConfiguration;
@@ -43,9 +40,11 @@ import spark.Spark;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static spark.Spark.*;
@@ -56,6 +55,8 @@ public final class WebConsole {
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private static Optional<RetzScheduler> scheduler = Optional.empty();
     private static Optional<SchedulerDriver> driver = Optional.empty();
+    private static int maxListSize = Integer.parseInt(ServerConfiguration.DEFAULT_MAX_LIST_SIZE);
+    private static int maxPriority = Integer.parseInt(ServerConfiguration.DEFAULT_PRIORITY_MAX);
 
     private static final List<String> NO_AUTH_PAGES;
 
@@ -79,6 +80,10 @@ public final class WebConsole {
         }
         port(config.getUri().getPort());
         staticFileLocation("/public");
+        UserCache.configure(config.getUserCacheSize(), config.getUserCacheTTL() * 1000);
+        JobRequestRouter.configure(config.getWatchMax(), config.getWatchTimeout());
+        maxListSize = config.getMaxListSize();
+        maxPriority = config.getPriorityMax();
 
         before((req, res) -> {
             res.header("Server", RetzScheduler.HTTP_SERVER_NAME);
@@ -124,11 +129,11 @@ public final class WebConsole {
                 authenticator = adminAuthenticator.get();
             } else {
                 // Not admin
-                Optional<User> u = Database.getInstance().getUser(authHeaderValue.get().key());
-                if (!u.isPresent()) {
-                    halt(403, "No such user");
+                Optional<Authenticator> userAuthenticator = UserCache.get(authHeaderValue.get().key());
+                if (!userAuthenticator.isPresent()) {
+                    halt(403, "No such user or user disabled");
                 }
-                authenticator = new Authenticator(u.get().keyId(), u.get().secret());
+                authenticator = userAuthenticator.get();
             }
 
             if (!authenticator.authenticate(verb, md5, date, resource,
@@ -158,11 +163,17 @@ public final class WebConsole {
         get(ListJobRequest.resourcePattern(), (req, res) -> {
             Optional<Authenticator.AuthHeaderValue> authHeaderValue = getAuthInfo(req);
             LOG.debug("list jobs owned by {}", authHeaderValue.get().key());
+            res.type("application/json");
 
-            ListJobResponse listJobResponse = WebConsole.list(authHeaderValue.get().key(), -1);
+            ListJobResponse listJobResponse;
+            try {
+                listJobResponse = WebConsole.list(authHeaderValue.get().key(), parseListJobRequest(req));
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return MAPPER.writeValueAsString(new ErrorResponse("Invalid parameter: " + e.toString()));
+            }
             listJobResponse.ok();
             res.status(200);
-            res.type("application/json");
             return MAPPER.writeValueAsString(listJobResponse);
         });
         // /job  PUT -> schedule, GET -> get-job, DELETE -> kill
@@ -173,6 +184,8 @@ public final class WebConsole {
         get(ListFilesRequest.resourcePattern(), JobRequestRouter::getDir);
 
         put(ScheduleRequest.resourcePattern(), WebConsole::schedule);
+        // /jobs PUT -> schedule-batch
+        put(ScheduleBatchRequest.resourcePattern(), WebConsole::scheduleBatch);
 
         delete(KillRequest.resourcePattern(), (req, res) -> {
             LOG.info("kill", req.params(":id"));
@@ -183,6 +196,8 @@ public final class WebConsole {
             response.ok();
             return MAPPER.writeValueAsString(response);
         });
+        put(SetPriorityRequest.resourcePattern(), WebConsole::setPriority);
+        get(GetArrayRequest.resourcePattern(), WebConsole::getArray);
 
         // /apps GET -> list-app
         get(ListAppRequest.resourcePattern(), (req, res) -> {
@@ -304,6 +319,11 @@ public final class WebConsole {
         return Authenticator.parseHeaderValue(givenSignature);
     }
 
+    // Not to let any user jump ahead of the whole queue
+    static int clampPriority(int priority) {
+        return Math.max(-maxPriority, Math.min(priority, maxPriority));
+    }
+
     static void validateOwner(Request req, Application app) {
         Optional<Authenticator.AuthHeaderValue> authHeaderValue = getAuthInfo(req);
         if (!app.getOwner().equals(authHeaderValue.get().key())) {
@@ -312,12 +332,31 @@ public final class WebConsole {
         }
     }
 
-    public static ListJobResponse list(String id, int limit) {
-        List<Job> queue = new LinkedList<>(); //JobQueue.getAll();
+    // Throws IllegalArgumentException for malformed parameters
+    static ListJobRequest parseListJobRequest(Request req) {
+        return new ListJobRequest(intParam(req, "limit"), intParam(req, "before"), intParam(req, "since"),
+                Optional.ofNullable(req.queryParams("state")).map(Job.JobState::valueOf),
+                Optional.ofNullable(req.queryParams("appid")),
+                Optional.ofNullable(req.queryParams("from")),
+                Optional.ofNullable(req.queryParams("to")));
+    }
+
+    private static int intParam(Request req, String name) {
+        String value = req.queryParams(name);
+        return (value == null) ? 0 : Integer.parseInt(value);
+    }
+
+    public static ListJobResponse list(String id, ListJobRequest req) {
+        List<Job> queue = new LinkedList<>();
         List<Job> running = new LinkedList<>();
         List<Job> finished = new LinkedList<>();
 
-        for (Job job : JobQueue.getAll(id)) {
+        // Unlimited or too large limit is capped by server
+        int limit = maxListSize;
+        if (0 < req.limit() && req.limit() < maxListSize) {
+            limit = req.limit();
+        }
+        for (Job job : JobQueue.list(id, req, limit)) {
             switch (job.state()) {
                 case QUEUED:
                     queue.add(job);
@@ -328,6 +367,7 @@ public final class WebConsole {
                     break;
                 case FINISHED:
                 case KILLED:
+                case EXPANDED:
                     finished.add(job);
                     break;
                 default:
@@ -385,12 +425,17 @@ public final class WebConsole {
             validateOwner(req, maybeApp.get());
 
             Job job = scheduleRequest.job();
-            job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+            Optional<String> invalid = checkArray(job);
+            if (invalid.isPresent()) {
+                res.status(400);
+                return MAPPER.writeValueAsString(new ErrorResponse(invalid.get()));
+            }
+            job.setPriority(clampPriority(job.priority()));
+            job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
 
             JobQueue.push(job);
-            if (scheduler.isPresent() && driver.isPresent()) {
-                LOG.info("Trying invocation from offer stock: {}", job);
-                scheduler.get().maybeInvokeNow(driver.get(), job);
+            if (scheduler.isPresent()) {
+                scheduler.get().trigger();
             }
 
             ScheduleResponse scheduleResponse = new ScheduleResponse(job);
@@ -407,5 +452,132 @@ public final class WebConsole {
             return MAPPER.writeValueAsString(response);
         }
     }
-}
 
+    public static String setPriority(Request req, Response res) throws Exception {
+        int id = Integer.parseInt(req.params(":id"));
+        SetPriorityRequest setPriorityRequest = MAPPER.readValue(req.bodyAsBytes(), SetPriorityRequest.class);
+        res.type("application/json");
+
+        Optional<Job> maybeJob = JobQueue.getJob(id);
+        if (!maybeJob.isPresent()) {
+            res.status(404);
+            return MAPPER.writeValueAsString(new ErrorResponse("No such job: " + id));
+        }
+        // Owner can't be checked without the application
+        Optional<Application> maybeApp = Applications.get(maybeJob.get().appid());
+        if (!maybeApp.isPresent()) {
+            res.status(404);
+            return MAPPER.writeValueAsString(new ErrorResponse("No such application: " + maybeJob.get().appid()));
+        }
+        validateOwner(req, maybeApp.get());
+
+        int priority = clampPriority(setPriorityRequest.priority());
+        Optional<Job> updated = JobQueue.setPriority(id, priority);
+        if (!updated.isPresent()) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("Job id=" + id + " is not queued"));
+        }
+        LOG.info("Job id={} priority changed to {}", id, priority);
+        // The job may now come first in the queue
+        if (scheduler.isPresent()) {
+            scheduler.get().trigger();
+        }
+
+        SetPriorityResponse response = new SetPriorityResponse(updated.get());
+        response.ok();
+        res.status(200);
+        return MAPPER.writeValueAsString(response);
+    }
+
+    // Array fields other than the size are set only by the server
+    private static Optional<String> checkArray(Job job) {
+        if (job.arraySize() < 0 || job.arraySize() > ScheduleRequest.MAX_ARRAY_SIZE) {
+            return Optional.of("Array size must be from 1 to " + ScheduleRequest.MAX_ARRAY_SIZE);
+        }
+        if (job.arrayExpanded() != 0 || job.arrayId() >= 0 || job.arrayIndex() >= 0) {
+            return Optional.of("Tasks of array jobs can't be scheduled directly");
+        }
+        return Optional.empty();
+    }
+
+    public static String getArray(Request req, Response res) throws Exception {
+        int id = Integer.parseInt(req.params(":id"));
+        res.type("application/json");
+
+        Optional<Job> maybeJob = JobQueue.getJob(id);
+        if (!maybeJob.isPresent()) {
+            res.status(404);
+            return MAPPER.writeValueAsString(new ErrorResponse("No such job: " + id));
+        }
+        Optional<Application> maybeApp = Applications.get(maybeJob.get().appid());
+        if (maybeApp.isPresent()) {
+            validateOwner(req, maybeApp.get());
+        }
+        if (maybeJob.get().arraySize() == 0) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("Job id=" + id + " is not an array job"));
+        }
+
+        GetArrayResponse response = new GetArrayResponse(maybeJob.get(), JobQueue.countArray(id));
+        response.ok();
+        res.status(200);
+        return MAPPER.writeValueAsString(response);
+    }
+
+    public static String scheduleBatch(Request req, Response res) throws IOException {
+        ScheduleBatchRequest batchRequest = MAPPER.readValue(req.bodyAsBytes(), ScheduleBatchRequest.class);
+        res.type("application/json");
+        List<Job> jobs = batchRequest.jobs();
+        if (jobs.isEmpty() || jobs.size() > ScheduleBatchRequest.MAX_JOBS) {
+            res.status(400);
+            ErrorResponse response = new ErrorResponse("Number of jobs must be from 1 to " + ScheduleBatchRequest.MAX_JOBS);
+            return MAPPER.writeValueAsString(response);
+        }
+
+        // Check each application only once; jobs are scheduled all or nothing
+        Set<String> checked = new HashSet<>();
+        for (Job job : jobs) {
+            Optional<String> invalid = checkArray(job);
+            if (invalid.isPresent()) {
+                res.status(400);
+                return MAPPER.writeValueAsString(new ErrorResponse(invalid.get()));
+            }
+            job.setPriority(clampPriority(job.priority()));
+            if (!checked.add(job.appid())) {
+                continue;
+            }
+            Optional<Application> maybeApp = Applications.get(job.appid());
+            if (!maybeApp.isPresent()) {
+                LOG.warn("No such application loaded: {}", job.appid());
+                res.status(404);
+                return MAPPER.writeValueAsString(new ErrorResponse("No such application: " + job.appid()));
+            }
+            validateOwner(req, maybeApp.get());
+            if (!maybeApp.get().enabled()) {
+                res.status(401);
+                return MAPPER.writeValueAsString(new ErrorResponse("Application " + job.appid() + " is disabled"));
+            }
+        }
+
+        int id = JobQueue.issueJobIds(jobs.size());
+        long now = System.currentTimeMillis();
+        for (Job job : jobs) {
+            job.schedule(id++, now);
+        }
+
+        if (!JobQueue.pushAll(jobs)) {
+            res.status(500);
+            return MAPPER.writeValueAsString(new ErrorResponse("Failed to schedule jobs"));
+        }
+        if (scheduler.isPresent()) {
+            scheduler.get().trigger();
+        }
+
+        ScheduleBatchResponse response = new ScheduleBatchResponse(jobs);
+        response.ok();
+        LOG.info("{} jobs (id={}..{}) have been scheduled at {}.", jobs.size(), jobs.get(0).id(), id - 1, jobs.get(0).scheduled());
+
+        res.status(201);
+        return MAPPER.writeValueAsString(response);
+    }
+}
@@ -0,0 +1,34 @@
+--
+--    Retz
+--    Copyright (C) 2016 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Finished and killed jobs moved from jobs table by JobCompactor; see Database.archiveJobs
+-- Columns are those of jobs needed for listing and usage queries.
+-- This is also created at startup in databases created before this table existed.
+CREATE TABLE archived_jobs(
+    id INTEGER NOT NULL UNIQUE,
+    appid VARCHAR(32) NOT NULL,
+    owner VARCHAR(32),
+    state VARCHAR(16) NOT NULL,
+    finished_at BIGINT,
+
+    json TEXT,
+    data BYTEA,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX archived_jobs_owner_id ON archived_jobs(owner, id);
+CREATE INDEX archived_jobs_owner_finished ON archived_jobs(owner, finished_at);
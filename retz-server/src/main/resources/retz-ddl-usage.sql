@@ -0,0 +1,30 @@
+--
+--    Retz
+--    Copyright (C) 2016 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Hourly usage of each application of each user, added up in the same transaction where a job
+-- becomes finished or killed; see Database.addUsage and io.github.retz.protocol.data.Usage.
+-- This is also created and filled from existing jobs at startup in databases created before.
+CREATE TABLE usage_hourly(
+    owner VARCHAR(32) NOT NULL,
+    appid VARCHAR(32) NOT NULL,
+    bucket BIGINT NOT NULL, -- beginning of the hour in milliseconds since the epoch
+    jobs INTEGER NOT NULL,
+    cpu_ms BIGINT NOT NULL,
+    mem_mb_ms BIGINT NOT NULL,
+    gpu_ms BIGINT NOT NULL,
+    PRIMARY KEY (owner, bucket, appid)
+);
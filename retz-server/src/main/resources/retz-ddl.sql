@@ -33,30 +33,51 @@ CREATE TABLE applications (
     -- user VARCHAR(32),
     owner VARCHAR(32) NOT NULL,
     -- container VARCHAR(512) NOT NULL,
-    json TEXT NOT NULL,
+    -- Either of json or data is set, depending on retz.database.codec; see RecordCodec
+    json TEXT,
+    data BYTEA,
     PRIMARY KEY (appid)
     -- FOREIGN KEY (owner) REFERENCES users(key_id)
 );
 
+CREATE INDEX owner ON applications(owner);
+
 -- see io.github.retz.protocol.data.Job
+-- Columns other than json are copies of fields in json, for queries; see Database.migrateJobs
 CREATE TABLE jobs(
     name VARCHAR(32),
     id INTEGER NOT NULL UNIQUE,
     appid varchar(32) not null,
+    owner VARCHAR(32), -- owner of the application; NULL if the application had been deleted
     cmd varchar(1024) not null,
 
-    started VARCHAR(32),
-    finished VARCHAR(32),
+    cpu INTEGER NOT NULL DEFAULT 0,
+    mem_mb INTEGER NOT NULL DEFAULT 0,
+    gpu INTEGER NOT NULL DEFAULT 0,
+    ports INTEGER NOT NULL DEFAULT 0,
+    priority INTEGER NOT NULL DEFAULT 0,
+
+    -- Milliseconds since the epoch
+    scheduled_at BIGINT,
+    started_at BIGINT,
+    finished_at BIGINT,
     taskid VARCHAR(128), -- this introduces NULL'd index {shrug}
     state VARCHAR(16) NOT NULL,
+    version INTEGER NOT NULL DEFAULT 0, -- incremented by every update; see Jobs
+    array_id INTEGER, -- id of the array job if the job is its task; see JobQueue.expandArrays
 
-    json TEXT NOT NULL,
+    -- Either of json or data is set, depending on retz.database.codec; see RecordCodec
+    json TEXT,
+    data BYTEA,
     PRIMARY KEY (id)
 );
 
 CREATE INDEX taskid ON jobs(taskid);
-CREATE INDEX started ON jobs(started);
-CREATE INDEX finished ON jobs(finished);
+CREATE INDEX appid ON jobs(appid);
+CREATE INDEX jobs_state_priority_id ON jobs(state, priority, id);
+CREATE INDEX jobs_owner_id ON jobs(owner, id);
+CREATE INDEX jobs_owner_finished ON jobs(owner, finished_at);
+CREATE INDEX jobs_array_id ON jobs(array_id);
 
 -- System wide properties such ad FrameworkID; see io.github.retz.dao.Property
 CREATE TABLE properties(
@@ -16,18 +16,26 @@
  */
 package io.github.retz.db;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.ListJobRequest;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.Usage;
 import io.github.retz.protocol.data.User;
-import io.github.retz.scheduler.JobQueue;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.*;
+import java.util.function.Function;
 
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
@@ -117,7 +125,7 @@ public class DatabaseTest {
         int id = -1;
         {
             Job job = new Job(a.getAppid(), "uname -a", new Properties(), 1, 32);
-            job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+            job.schedule(db.allocateJobIds(1), System.currentTimeMillis());
             db.safeAddJob(job);
 
             assertThat(db.getLatestJobId(), Matchers.greaterThanOrEqualTo(1));
@@ -147,6 +155,320 @@ public class DatabaseTest {
         }
     }
 
+    @Test
+    public void optimisticUpdate() throws Exception {
+        User u = db.createUser();
+        Application a = new Application("optapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        db.addApplication(a);
+        Job job = new Job(a.getAppid(), "echo", new Properties(), 1, 32);
+        job.schedule(db.allocateJobIds(1), System.currentTimeMillis());
+        db.safeAddJob(job);
+
+        // Written without reading, only if still in the expected state
+        job.starting("opt-task", Optional.empty(), System.currentTimeMillis());
+        assertTrue(db.updateJobIfState(job, Job.JobState.QUEUED));
+        assertFalse(db.updateJobIfState(job, Job.JobState.QUEUED));
+        assertEquals(Job.JobState.STARTING, db.getJob(job.id()).get().state());
+
+        // Another update in between makes the first attempt conflict, and it's applied again
+        List<Integer> attempts = new ArrayList<>();
+        Optional<Job> updated = db.updateJobByTaskId("opt-task", j -> {
+            attempts.add(j.retry());
+            if (attempts.size() == 1) {
+                try {
+                    db.updateJob(j.id(), other -> {
+                        other.doRetry();
+                        return Optional.of(other);
+                    });
+                } catch (Exception e) {
+                    throw new AssertionError(e.toString());
+                }
+            }
+            j.killed(System.currentTimeMillis(), Optional.empty(), "optimistic");
+            return Optional.of(j);
+        });
+        assertEquals(Arrays.asList(0, 1), attempts);
+        assertTrue(updated.isPresent());
+        Job killed = db.getJob(job.id()).get();
+        assertEquals(Job.JobState.KILLED, killed.state());
+        assertEquals(1, killed.retry());
+
+        assertFalse(db.updateJobByTaskId("no-such-task", j -> Optional.of(j)).isPresent());
+    }
+
+    @Test
+    public void listJobs() throws Exception {
+        User u = db.createUser();
+        Application a = new Application("listapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        Application b = new Application("listapp2", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        db.addApplication(a);
+        db.addApplication(b);
+
+        List<Job> jobs = new LinkedList<>();
+        for (int i = 0; i < 10; i++) {
+            Job job = new Job((i % 2 == 0) ? a.getAppid() : b.getAppid(), "echo " + i, new Properties(), 1, 32);
+            job.schedule(db.allocateJobIds(1), System.currentTimeMillis());
+            jobs.add(job);
+        }
+        assertTrue(db.safeAddJobs(jobs));
+        db.setJobStarting(jobs.get(9).id(), Optional.empty(), "list-task-9");
+
+        {
+            // From the newest, up to the limit
+            List<Job> page = db.listJobs(u.keyId(), new ListJobRequest(4), 4);
+            assertEquals(4, page.size());
+            assertEquals(jobs.get(9).id(), page.get(0).id());
+            assertEquals(jobs.get(6).id(), page.get(3).id());
+
+            // Next page by the cursor
+            ListJobRequest next = new ListJobRequest(4, page.get(3).id(), 0,
+                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+            page = db.listJobs(u.keyId(), next, 4);
+            assertEquals(4, page.size());
+            assertEquals(jobs.get(5).id(), page.get(0).id());
+        }
+        {
+            ListJobRequest since = new ListJobRequest(100, 0, jobs.get(7).id(),
+                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+            assertEquals(2, db.listJobs(u.keyId(), since, 100).size());
+
+            // Paging forward lists the oldest jobs after the cursor, from the newest
+            ListJobRequest forward = new ListJobRequest(3, 0, jobs.get(3).id(),
+                    Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+            List<Job> page = db.listJobs(u.keyId(), forward, 3);
+            assertEquals(3, page.size());
+            assertEquals(jobs.get(6).id(), page.get(0).id());
+            assertEquals(jobs.get(4).id(), page.get(2).id());
+        }
+        {
+            ListJobRequest req = new ListJobRequest(100, 0, 0,
+                    Optional.of(Job.JobState.QUEUED), Optional.of(b.getAppid()), Optional.empty(), Optional.empty());
+            List<Job> page = db.listJobs(u.keyId(), req, 100);
+            assertEquals(4, page.size());
+            for (Job j : page) {
+                assertEquals(b.getAppid(), j.appid());
+                assertEquals(Job.JobState.QUEUED, j.state());
+            }
+        }
+        // Other users' jobs are never listed
+        assertTrue(db.listJobs("no-such-user", new ListJobRequest(100), 100).isEmpty());
+    }
+
+    @Test
+    public void finishedJobs() throws Exception {
+        User u = db.createUser();
+        Application a = new Application("usageapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        db.addApplication(a);
+
+        long start = System.currentTimeMillis();
+        Job job = new Job(a.getAppid(), "echo", new Properties(), 1, 32);
+        job.schedule(db.allocateJobIds(1), System.currentTimeMillis());
+        job.starting("usage-task", Optional.empty(), System.currentTimeMillis());
+        job.finished(System.currentTimeMillis(), Optional.empty(), 0);
+        assertTrue(db.safeAddJob(job));
+        long end = System.currentTimeMillis() + 1;
+
+        assertEquals(1, db.finishedJobs(u.keyId(), start, end).size());
+        assertEquals(job.id(), db.finishedJobs(u.keyId(), start, end).get(0).id());
+        assertTrue(db.finishedJobs(u.keyId(), end, end + 1000).isEmpty());
+        assertTrue(db.finishedJobs("other-user", start, end).isEmpty());
+    }
+
+    @Test
+    public void usage() throws Exception {
+        User u = db.createUser();
+        Application a = new Application("usageapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        db.addApplication(a);
+
+        List<Job> jobs = new LinkedList<>();
+        int id = db.allocateJobIds(3);
+        for (int i = 0; i < 3; ++i) {
+            Job job = new Job(a.getAppid(), "echo", new Properties(), 1, 32);
+            job.schedule(id + i, System.currentTimeMillis());
+            jobs.add(job);
+        }
+        db.safeAddJobs(jobs);
+
+        Map<String, Function<Job, Optional<Job>>> funs = new HashMap<>();
+        for (int i = 0; i < 2; ++i) {
+            db.setJobStarting(id + i, Optional.empty(), "usage-task-" + i);
+            long finished = TimestampHelper.toMillis(String.format("2016-01-01T00:00:%02d.000+00:00", 10 * (i + 1)));
+            long started = TimestampHelper.toMillis("2016-01-01T00:00:00.000+00:00");
+            funs.put("usage-task-" + i, job -> {
+                job.started(job.taskId(), Optional.empty(), started);
+                job.finished(finished, Optional.empty(), 0);
+                return Optional.of(job);
+            });
+        }
+        assertEquals(2, db.updateJobsByTaskId(funs).size());
+
+        // Updating a finished job again must not be counted twice
+        db.updateJobByTaskId("usage-task-0", job -> {
+            job.finished(System.currentTimeMillis(), Optional.empty(), 1);
+            return Optional.of(job);
+        });
+        db.updateJob(id + 2, job -> {
+            job.killed(System.currentTimeMillis(), Optional.empty(), "test");
+            return Optional.of(job);
+        });
+
+        long hour = TimestampHelper.toMillis("2016-01-01T00:00:00.000+00:00");
+        List<Usage> usages = db.getUsage(u.keyId(), hour, hour + Usage.HOUR_MS);
+        assertEquals(1, usages.size());
+        assertEquals(a.getAppid(), usages.get(0).appid());
+        assertEquals(hour, usages.get(0).hour());
+        assertEquals(2, usages.get(0).jobs());
+        assertEquals(30000, usages.get(0).cpuMs());
+        assertEquals(32 * 30000, usages.get(0).memMBMs());
+
+        int total = db.getUsage(u.keyId(), 0, Long.MAX_VALUE).stream().mapToInt(Usage::jobs).sum();
+        assertEquals(3, total);
+        assertTrue(db.getUsage("other-user", 0, Long.MAX_VALUE).isEmpty());
+
+        // Paged export by job id
+        List<Job> page = db.finishedJobs(u.keyId(), 0, Long.MAX_VALUE, 0, 2);
+        assertEquals(2, page.size());
+        List<Job> next = db.finishedJobs(u.keyId(), 0, Long.MAX_VALUE, page.get(1).id(), 2);
+        assertEquals(1, next.size());
+        assertEquals(id + 2, next.get(0).id());
+    }
+
+    @Test
+    public void migrateJobs() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+        Application app = new Application("oldapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "olduser", new MesosContainer(), true);
+        Job job = new Job(app.getAppid(), "echo", new Properties(), 2, 64);
+        job.schedule(12345, System.currentTimeMillis());
+        job.starting("old-task", Optional.empty(), System.currentTimeMillis());
+        job.finished(System.currentTimeMillis(), Optional.empty(), 0);
+
+        // Tables as created by 0.0.30
+        String url = "jdbc:h2:mem:migration;DB_CLOSE_DELAY=-1";
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE users (key_id VARCHAR(32) NOT NULL UNIQUE, secret VARCHAR(64) NOT NULL, enabled BOOLEAN NOT NULL, PRIMARY KEY (key_id));"
+                    + "CREATE TABLE applications (appid VARCHAR(32) NOT NULL UNIQUE, owner VARCHAR(32) NOT NULL, json TEXT NOT NULL, PRIMARY KEY (appid));"
+                    + "CREATE TABLE jobs(name VARCHAR(32), id INTEGER NOT NULL UNIQUE, appid varchar(32) not null, cmd varchar(1024) not null, "
+                    + "started VARCHAR(32), finished VARCHAR(32), taskid VARCHAR(128), state VARCHAR(16) NOT NULL, json TEXT NOT NULL, PRIMARY KEY (id));"
+                    + "CREATE INDEX taskid ON jobs(taskid); CREATE INDEX started ON jobs(started); CREATE INDEX finished ON jobs(finished);"
+                    + "CREATE TABLE properties(key VARCHAR(128) NOT NULL UNIQUE, value VARCHAR(256) NOT NULL, epoch INTEGER NOT NULL);"
+                    + "CREATE INDEX key ON properties(key);");
+            try (PreparedStatement p = conn.prepareStatement("INSERT INTO applications(appid, owner, json) values(?, ?, ?)")) {
+                p.setString(1, app.getAppid());
+                p.setString(2, app.getOwner());
+                p.setString(3, mapper.writeValueAsString(app));
+                p.execute();
+            }
+            try (PreparedStatement p = conn.prepareStatement("INSERT INTO jobs(id, appid, cmd, started, finished, taskid, state, json) values(?, ?, ?, ?, ?, ?, ?, ?)")) {
+                p.setInt(1, job.id());
+                p.setString(2, job.appid());
+                p.setString(3, job.cmd());
+                p.setString(4, job.started());
+                p.setString(5, job.finished());
+                p.setString(6, job.taskId());
+                p.setString(7, job.state().toString());
+                p.setString(8, mapper.writeValueAsString(job));
+                p.execute();
+            }
+        }
+
+        Database migrated = Database.newMemInstance("migration");
+        try (Connection conn = DriverManager.getConnection(url)) {
+            Set<String> columns = migrated.columns(conn, "jobs");
+            assertTrue(columns.contains("owner"));
+            assertTrue(columns.contains("data"));
+            assertTrue(columns.contains("finished_at"));
+            assertFalse(columns.contains("finished"));
+        }
+        List<Job> jobs = migrated.getAllJobs("olduser");
+        assertEquals(1, jobs.size());
+        assertEquals(job.id(), jobs.get(0).id());
+        long finished = TimestampHelper.toMillis(job.finished());
+        assertEquals(1, migrated.finishedJobs("olduser", finished, finished + 1).size());
+        assertTrue(migrated.queued(10).isEmpty()); // Finished, not queued
+
+        // Second init does not migrate again
+        migrated.stop();
+        migrated = Database.newMemInstance("migration");
+        assertEquals(1, migrated.getAllJobs("olduser").size());
+        migrated.clear();
+        migrated.stop();
+    }
+
+    @Test
+    public void codec() throws Exception {
+        Database codecDb = Database.newMemInstance("codec");
+        User u = codecDb.createUser();
+        Application a = new Application("codecapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        codecDb.addApplication(a);
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            Job job = new Job(a.getAppid(), "echo " + i, new Properties(), 1, 32);
+            job.schedule(codecDb.allocateJobIds(1), System.currentTimeMillis());
+            jobs.add(job);
+        }
+        codecDb.safeAddJobs(jobs.subList(0, 5));
+
+        // Rows written by both codecs are readable
+        RecordCodec smile = new RecordCodec(RecordCodec.SMILE);
+        codecDb.setCodec(smile);
+        codecDb.safeAddJobs(jobs.subList(5, 10));
+        assertEquals(10, codecDb.getAllJobs(u.keyId()).size());
+        assertEquals(a.toString(), codecDb.getApplication(a.getAppid()).get().toString());
+        assertEquals(jobs.get(0).toString(),
+                smile.decode(new RecordCodec(RecordCodec.JSON).encode(jobs.get(0)), Job.class).toString());
+
+        // Only rows written by json are re-encoded
+        assertEquals(1, codecDb.reencodeApplications());
+        int last = codecDb.reencodeJobs(0, 3);
+        assertEquals(jobs.get(2).id(), last);
+        assertEquals(jobs.get(4).id(), codecDb.reencodeJobs(last, 1024));
+        assertEquals(-1, codecDb.reencodeJobs(0, 1024));
+        assertEquals(0, codecDb.reencodeApplications());
+
+        for (Job job : jobs) {
+            assertEquals(job.toString(), codecDb.getJob(job.id()).get().toString());
+        }
+        assertEquals(a.toString(), codecDb.getApplication(a.getAppid()).get().toString());
+        codecDb.clear();
+        codecDb.stop();
+    }
+
+    @Test
+    public void jobIdSequence() throws Exception {
+        // Two servers sharing a database
+        Database server1 = Database.newMemInstance("sequence");
+        Database server2 = Database.newMemInstance("sequence");
+        User u = server1.createUser();
+        Application a = new Application("seqapp", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), u.keyId(), new MesosContainer(), true);
+        server1.addApplication(a);
+        Job job = new Job(a.getAppid(), "echo", new Properties(), 1, 32);
+        job.schedule(41, System.currentTimeMillis());
+        server1.safeAddJob(job);
+
+        // Starts after existing jobs, and blocks never overlap
+        assertEquals(42, server1.allocateJobIds(10));
+        assertEquals(52, server2.allocateJobIds(10));
+        assertEquals(62, server1.allocateJobIds(5));
+
+        // Persisted across restart
+        server1.stop();
+        server2.stop();
+        Database restarted = Database.newMemInstance("sequence");
+        assertEquals(67, restarted.allocateJobIds(1));
+        restarted.clear();
+        restarted.stop();
+    }
+
     @Test
     public void multiUsers() throws Exception {
         List<User> users = new LinkedList<>();
@@ -171,7 +493,7 @@ public class DatabaseTest {
                     null,
                     new Properties(),
                     -1,
-                    JobQueue.issueJobId(),
+                    db.allocateJobIds(1),
                     "my-url",
                     null,
                     5,
@@ -0,0 +1,259 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.ListJobRequest;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.Usage;
+import io.github.retz.protocol.data.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class JournalJobStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Database db;
+    private User user;
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        db = Database.newMemInstance("journal");
+        user = db.createUser();
+        Application app = new Application("journal-app", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), user.keyId(), new MesosContainer(), true);
+        db.addApplication(app);
+        dir = folder.getRoot().toPath();
+    }
+
+    @After
+    public void after() throws Exception {
+        db.clear();
+        db.stop();
+    }
+
+    private JournalJobStore open(int segmentSize) throws Exception {
+        JournalJobStore store = new JournalJobStore(db, dir, segmentSize, new RecordCodec(RecordCodec.SMILE));
+        store.open();
+        return store;
+    }
+
+    private List<Job> schedule(JournalJobStore store, int n) throws Exception {
+        int first = store.allocateJobIds(n);
+        List<Job> jobs = new LinkedList<>();
+        for (int i = 0; i < n; ++i) {
+            Job job = new Job("journal-app", "echo " + i, new Properties(), 1, 32);
+            job.schedule(first + i, System.currentTimeMillis());
+            jobs.add(job);
+        }
+        assertTrue(store.safeAddJobs(jobs));
+        return jobs;
+    }
+
+    private int usedJobs(JournalJobStore store) {
+        return store.getUsage(user.keyId(), 0, Long.MAX_VALUE).stream().mapToInt(Usage::jobs).sum();
+    }
+
+    @Test
+    public void recover() throws Exception {
+        JournalJobStore store = open(1024 * 1024);
+        List<Job> jobs = schedule(store, 10);
+        assertFalse(store.safeAddJob(jobs.get(0)));
+
+        store.setJobStarting(jobs.get(0).id(), Optional.empty(), "journal-task-0");
+        store.updateJobByTaskId("journal-task-0", job -> {
+            job.finished(System.currentTimeMillis(), Optional.empty(), 0);
+            return Optional.of(job);
+        });
+        store.setJobStarting(jobs.get(1).id(), Optional.empty(), "journal-task-1");
+        store.updateJobByTaskId("journal-task-1", job -> {
+            job.started("journal-task-1", Optional.empty(), System.currentTimeMillis());
+            return Optional.of(job);
+        });
+        assertEquals(1, store.archiveJobs(System.currentTimeMillis() + 1000, 10));
+        int latest = store.getLatestJobId();
+        store.close();
+
+        JournalJobStore recovered = open(1024 * 1024);
+        assertEquals(9, recovered.countJobs());
+        assertEquals(1, recovered.countArchivedJobs());
+        assertEquals(1, recovered.countRunning());
+        assertEquals(8, recovered.queued(100).size());
+        assertEquals(Job.JobState.FINISHED, recovered.getJob(jobs.get(0).id()).get().state());
+        assertEquals(Job.JobState.STARTED, recovered.getJobFromTaskId("journal-task-1").get().state());
+        assertEquals(10, recovered.listJobs(user.keyId(), new ListJobRequest(100), 100).size());
+        // Usage of archived jobs remains
+        assertEquals(1, usedJobs(recovered));
+        // Ids are never reused
+        assertTrue(recovered.allocateJobIds(1) > latest);
+        recovered.close();
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        JournalJobStore store = open(4096);
+        List<Job> jobs = new LinkedList<>();
+        for (int i = 0; i < 100; ++i) {
+            jobs.addAll(schedule(store, 1));
+        }
+        for (Job job : jobs.subList(0, 50)) {
+            store.updateJob(job.id(), j -> {
+                j.killed(System.currentTimeMillis(), Optional.empty(), "snapshot test");
+                return Optional.of(j);
+            });
+        }
+        store.close();
+
+        // Segments before the latest snapshot have been deleted
+        File[] segments = dir.toFile().listFiles((d, name) -> name.startsWith("segment-"));
+        assertEquals(1, segments.length);
+
+        JournalJobStore recovered = open(4096);
+        assertEquals(100, recovered.countJobs());
+        assertEquals(50, recovered.queued(100).size());
+        assertEquals(Job.JobState.KILLED, recovered.getJob(jobs.get(49).id()).get().state());
+        // Usage is recovered from both the snapshot and the segment after it
+        assertEquals(50, usedJobs(recovered));
+        recovered.close();
+    }
+
+    @Test
+    public void archive() throws Exception {
+        JournalJobStore store = open(4096);
+        List<Job> jobs = schedule(store, 20);
+        for (Job job : jobs.subList(0, 10)) {
+            store.updateJob(job.id(), j -> {
+                j.killed(System.currentTimeMillis(), Optional.empty(), "archive test");
+                return Optional.of(j);
+            });
+        }
+        assertEquals(10, store.archiveJobs(System.currentTimeMillis() + 1000, 100));
+        assertEquals(10, store.countJobs());
+        assertEquals(Job.JobState.KILLED, store.getJob(jobs.get(0).id()).get().state());
+        // Rolling segments with snapshots which have no archived jobs
+        for (int i = 0; i < 20; ++i) {
+            schedule(store, 1);
+        }
+        store.close();
+
+        File[] archives = dir.resolve("archive").toFile().listFiles((d, name) -> name.startsWith("archive-"));
+        assertTrue(archives.length > 0);
+
+        JournalJobStore recovered = open(4096);
+        assertEquals(30, recovered.countJobs());
+        assertEquals(10, recovered.countArchivedJobs());
+        assertEquals(jobs.get(9).cmd(), recovered.getJob(jobs.get(9).id()).get().cmd());
+        assertEquals(10, recovered.finishedJobs(user.keyId(), 0, Long.MAX_VALUE, 0, 100).size());
+        assertEquals(40, recovered.listJobs(user.keyId(), new ListJobRequest(100), 100).size());
+        // Paging forward across archived and active jobs, from the newest
+        ListJobRequest forward = new ListJobRequest(4, 0, jobs.get(7).id(),
+                Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+        List<Job> page = recovered.listJobs(user.keyId(), forward, 4);
+        assertEquals(4, page.size());
+        assertEquals(jobs.get(11).id(), page.get(0).id());
+        assertEquals(jobs.get(8).id(), page.get(3).id());
+        assertEquals(10, usedJobs(recovered));
+
+        // Archived jobs below the id are deleted from archive files too
+        recovered.deleteAllJob(jobs.get(5).id());
+        assertEquals(5, recovered.countArchivedJobs());
+        assertFalse(recovered.getJob(jobs.get(4).id()).isPresent());
+        recovered.close();
+
+        JournalJobStore deleted = open(4096);
+        assertEquals(5, deleted.countArchivedJobs());
+        assertEquals(Job.JobState.KILLED, deleted.getJob(jobs.get(5).id()).get().state());
+        deleted.close();
+    }
+
+    @Test
+    public void array() throws Exception {
+        JournalJobStore store = open(1024 * 1024);
+        Job array = new Job("journal-app", "echo $RETZ_ARRAY_INDEX", new Properties(), 1, 32);
+        array.setArraySize(3);
+        array.schedule(store.allocateJobIds(1), System.currentTimeMillis());
+        assertTrue(store.safeAddJob(array));
+
+        int first = store.allocateJobIds(3);
+        List<Job> tasks = new LinkedList<>();
+        for (int i = 0; i < 3; ++i) {
+            Job task = array.arrayTask(i);
+            task.schedule(first + i, array.scheduledAt());
+            tasks.add(task);
+        }
+        // Tasks don't share environment with the template
+        assertNotSame(array.props(), tasks.get(0).props());
+        assertEquals(array.props(), tasks.get(0).props());
+        assertEquals(2, store.expandArray(array.id(), tasks.subList(0, 2)).get().arrayExpanded());
+        store.updateJob(tasks.get(0).id(), j -> {
+            j.killed(System.currentTimeMillis(), Optional.empty(), "array test");
+            return Optional.of(j);
+        });
+        assertEquals(Job.JobState.EXPANDED, store.expandArray(array.id(), tasks.subList(2, 3)).get().state());
+        // Never expanded twice
+        assertFalse(store.expandArray(array.id(), tasks.subList(2, 3)).isPresent());
+        store.close();
+
+        JournalJobStore recovered = open(1024 * 1024);
+        Map<Job.JobState, Integer> counts = recovered.countArray(array.id());
+        assertEquals(2, (int) counts.get(Job.JobState.QUEUED));
+        assertEquals(1, (int) counts.get(Job.JobState.KILLED));
+        assertEquals(2, recovered.getJob(first + 2).get().arrayIndex());
+        recovered.close();
+    }
+
+    @Test
+    public void tornRecord() throws Exception {
+        JournalJobStore store = open(1024 * 1024);
+        List<Job> jobs = schedule(store, 3);
+        store.close();
+
+        // A record whose body has not been written when crashed
+        File[] segments = dir.toFile().listFiles((d, name) -> name.startsWith("segment-"));
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            long end = 0;
+            int length;
+            while ((length = file.readInt()) != 0) {
+                end += 8 + length;
+                file.seek(end);
+            }
+            file.seek(end);
+            file.writeInt(128);
+            file.writeInt(42);
+        }
+
+        JournalJobStore recovered = open(1024 * 1024);
+        assertEquals(3, recovered.countJobs());
+        assertEquals(jobs.get(2).cmd(), recovered.getJob(jobs.get(2).id()).get().cmd());
+        schedule(recovered, 1);
+        assertEquals(4, recovered.countJobs());
+        recovered.close();
+    }
+}
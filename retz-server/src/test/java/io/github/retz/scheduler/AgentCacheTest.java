@@ -0,0 +1,130 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AgentCacheTest {
+    private Protos.FrameworkID fid;
+    private Application app;
+    private int nextId = 0;
+
+    @Before
+    public void before() {
+        fid = Protos.FrameworkID.newBuilder().setValue("dummy-frameworkid-qwerty").build();
+        app = new Application("fooapp", Arrays.asList(), Arrays.asList("http://example.com/foo.tar.gz"),
+                Arrays.asList(), Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+    }
+
+    private Protos.Offer offer(String agentId, int cpus) {
+        return RetzSchedulerTest.buildOffer(fid, agentId + "-offer", cpus, 512).toBuilder()
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(agentId).build())
+                .build();
+    }
+
+    private List<AppJobPair> jobs(int n) {
+        List<AppJobPair> jobs = new LinkedList<>();
+        for (int i = 0; i < n; ++i) {
+            Job job = new Job(app.getAppid(), "cmd", new Properties(), 4, 128);
+            job.schedule(nextId++, System.currentTimeMillis());
+            jobs.add(new AppJobPair(Optional.of(app), job));
+        }
+        return jobs;
+    }
+
+    private static Protos.TaskStatus status(Job job, Protos.TaskState state) {
+        return Protos.TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue(job.taskId()).build())
+                .setState(state)
+                .build();
+    }
+
+    @Test
+    public void key() {
+        Application noFiles = new Application("bar", Arrays.asList(), Arrays.asList(), Arrays.asList("http://example.com/x"),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        assertFalse(AgentCache.key(noFiles).isPresent());
+
+        Application reloaded = new Application("fooapp", Arrays.asList(), Arrays.asList("http://example.com/foo2.tar.gz"),
+                Arrays.asList(), Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        assertTrue(AgentCache.key(app).isPresent());
+        assertNotEquals(AgentCache.key(app), AgentCache.key(reloaded));
+    }
+
+    @Test
+    public void warm() {
+        AgentCache cache = new AgentCache();
+        Planner planner = new BestFitPlanner(false, Optional.of(cache));
+
+        // Cold: the tightest offer is taken
+        List<AppJobPair> first = jobs(1);
+        Plan p = planner.plan(Arrays.asList(offer("large", 16), offer("small", 4)), new LinkedList<>(first), 0);
+        cache.launched(p, first);
+        assertEquals("small-offer", p.getToBeAccepted().get(0).getValue());
+        assertFalse(cache.isWarm("small", app));
+        cache.update(status(first.get(0).job(), Protos.TaskState.TASK_RUNNING));
+        assertTrue(cache.isWarm("small", app));
+        assertFalse(cache.isWarm("large", app));
+
+        // Warm agent wins over the tighter one
+        List<AppJobPair> second = jobs(1);
+        p = planner.plan(Arrays.asList(offer("tiny", 4), offer("small", 8)), new LinkedList<>(second), 0);
+        cache.launched(p, second);
+        assertEquals("small-offer", p.getToBeAccepted().get(0).getValue());
+        cache.update(status(second.get(0).job(), Protos.TaskState.TASK_RUNNING));
+
+        Map<String, Object> status = cache.status();
+        assertEquals(1, status.get("agents"));
+        assertEquals(1, status.get("artifacts"));
+        assertEquals(1L, status.get("hits"));
+        assertEquals(1L, status.get("misses"));
+
+        // Failed tasks teach nothing, and lost agents are forgotten
+        List<AppJobPair> third = jobs(1);
+        p = planner.plan(Arrays.asList(offer("other", 4)), new LinkedList<>(third), 0);
+        cache.launched(p, third);
+        cache.update(status(third.get(0).job(), Protos.TaskState.TASK_FAILED));
+        assertFalse(cache.isWarm("other", app));
+        cache.lost("small");
+        assertFalse(cache.isWarm("small", app));
+    }
+
+    @Test
+    public void naive() {
+        AgentCache cache = new AgentCache();
+        List<AppJobPair> first = jobs(1);
+        // Planners consume the list of jobs
+        Plan p = new NaivePlanner(Optional.of(cache)).plan(Arrays.asList(offer("a", 4)), new LinkedList<>(first), 0);
+        cache.launched(p, first);
+        cache.update(status(first.get(0).job(), Protos.TaskState.TASK_FINISHED));
+
+        // Naive planner packs from left, but warm agents come first
+        p = new NaivePlanner(Optional.of(cache)).plan(Arrays.asList(offer("b", 4), offer("a", 4)), jobs(1), 0);
+        assertEquals("a-offer", p.getToBeAccepted().get(0).getValue());
+        p = new NaivePlanner().plan(Arrays.asList(offer("b", 4), offer("a", 4)), jobs(1), 0);
+        assertEquals("b-offer", p.getToBeAccepted().get(0).getValue());
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Runs all cases in PlannerTest with BestFitPlanner, plus its own
+public class BestFitPlannerTest extends PlannerTest {
+
+    @Override
+    Planner newPlanner() {
+        return new BestFitPlanner(false);
+    }
+
+    private List<AppJobPair> jobs(int... cpus) {
+        Optional<Application> app = Applications.get(ANON_APPID);
+        List<AppJobPair> jobs = new LinkedList<>();
+        for (int i = 0; i < cpus.length; ++i) {
+            Job job = new Job(ANON_APPID, "cmd", new Properties(), cpus[i], 128);
+            job.schedule(i, System.currentTimeMillis());
+            jobs.add(new AppJobPair(app, job));
+        }
+        return jobs;
+    }
+
+    @Test
+    public void tightest() {
+        List<Protos.Offer> offers = new LinkedList<>();
+        offers.add(RetzSchedulerTest.buildOffer(fid, "large", 16, 512));
+        offers.add(RetzSchedulerTest.buildOffer(fid, "small", 4, 512));
+
+        Plan p = new BestFitPlanner(false).plan(offers, jobs(4), 1);
+
+        // NaivePlanner takes the first offer; best fit leaves the large offer intact
+        assertEquals(1, p.getToBeLaunched().size());
+        assertEquals(1, p.getToBeAccepted().size());
+        assertEquals("small", p.getToBeAccepted().get(0).getValue());
+        assertEquals(1, p.getToStock().size());
+        assertTrue(p.getToStock().containsKey("large"));
+    }
+
+    @Test
+    public void fifo() {
+        List<Protos.Offer> offers = new LinkedList<>();
+        offers.add(RetzSchedulerTest.buildOffer(fid, "offer", 8, 512));
+
+        Plan p = new BestFitPlanner(false).plan(offers, jobs(6, 4, 2), 0);
+
+        // Stops at job 1, which fits nowhere
+        assertEquals(1, p.getToBeLaunched().size());
+        assertEquals(0, p.getToBeLaunched().get(0).id());
+        assertEquals(1, p.getToBeAccepted().size());
+    }
+
+    @Test
+    public void backfill() {
+        {
+            List<Protos.Offer> offers = new LinkedList<>();
+            offers.add(RetzSchedulerTest.buildOffer(fid, "offer", 8, 512));
+
+            Plan p = new BestFitPlanner(true).plan(offers, jobs(6, 4, 2), 0);
+
+            assertEquals(2, p.getToBeLaunched().size());
+            assertEquals(0, p.getToBeLaunched().get(0).id());
+            assertEquals(2, p.getToBeLaunched().get(1).id());
+            assertEquals(Job.JobState.STARTING, p.getToBeLaunched().get(1).state());
+        }
+        {
+            List<Protos.Offer> offers = new LinkedList<>();
+            offers.add(RetzSchedulerTest.buildOffer(fid, "offer", 8, 512));
+
+            // Largest first: job 3 (6cpu) and one of 2cpu jobs fill the offer
+            Plan p = new BestFitPlanner(true).plan(offers, jobs(2, 2, 2, 6), 0);
+
+            assertEquals(2, p.getToBeLaunched().size());
+            assertEquals(3, p.getToBeLaunched().get(0).id());
+            assertEquals(0, p.getToBeLaunched().get(1).id());
+        }
+    }
+
+    @Test
+    public void factory() {
+        assertTrue(PlannerFactory.create(PlannerFactory.NAIVE, false) instanceof NaivePlanner);
+        assertTrue(PlannerFactory.create(PlannerFactory.BESTFIT, true) instanceof BestFitPlanner);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPlanner() {
+        PlannerFactory.create("random", false);
+    }
+}
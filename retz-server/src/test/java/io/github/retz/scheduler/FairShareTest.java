@@ -0,0 +1,112 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FairShareTest {
+    private static final String BASE = "retz.mesos = mesos.example.com:5050\nretz.bind = http://example.com:9090\n"
+            + "retz.access.key = foobar\nretz.access.secret = bazbax\n";
+
+    private ServerConfiguration setUp(String extra) throws Exception {
+        ServerConfiguration config = new ServerConfiguration(new ByteArrayInputStream((BASE + extra).getBytes(UTF_8)));
+        Database.getInstance().init(config);
+        JobQueue.rebuild();
+        for (String user : Arrays.asList("alice", "bob")) {
+            Database.getInstance().addUser(new User(user, "secret", true));
+            Applications.load(new Application(user + "-app", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                    Optional.empty(), Optional.empty(), user, new MesosContainer(), true));
+        }
+        // Alice floods the queue first
+        for (String user : Arrays.asList("alice", "bob")) {
+            for (int i = 0; i < 4; ++i) {
+                Job job = new Job(user + "-app", "sleep " + i, null, 1, 32);
+                job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+                JobQueue.push(job);
+            }
+        }
+        return config;
+    }
+
+    @After
+    public void after() throws Exception {
+        JobQueue.clear();
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    private static long count(List<Job> jobs, String app) {
+        return jobs.stream().filter(job -> job.appid().equals(app)).count();
+    }
+
+    @Test
+    public void drf() throws Exception {
+        FairShare share = new FairShare(setUp(""));
+        List<Job> jobs = share.choose(4, 1024, 0, 0, 100);
+        assertThat(jobs.size(), is(4));
+        assertThat(count(jobs, "alice-app"), is(2L));
+        assertThat(count(jobs, "bob-app"), is(2L));
+        // In the order of the queue within an application
+        assertThat(jobs.get(0).id() < jobs.get(2).id(), is(true));
+
+        // Running jobs count in shares
+        JobQueue.starting(jobs.get(0), Optional.empty(), "task-0");
+        assertThat(jobs.get(0).appid(), is("alice-app"));
+        jobs = share.choose(1, 1024, 0, 0, 100);
+        assertThat(jobs.size(), is(1));
+        assertThat(jobs.get(0).appid(), is("bob-app"));
+    }
+
+    @Test
+    public void fifo() throws Exception {
+        FairShare share = new FairShare(setUp("retz.share = fifo\n"));
+        List<Job> jobs = share.choose(4, 1024, 0, 0, 100);
+        assertThat(count(jobs, "alice-app"), is(4L));
+        assertThat(share.choose(4, 1024, 0, 0, 3).size(), is(3));
+    }
+
+    @Test
+    public void weight() throws Exception {
+        FairShare share = new FairShare(setUp("retz.share.weight.user.alice = 3\n"));
+        List<Job> jobs = share.choose(4, 1024, 0, 0, 100);
+        assertThat(count(jobs, "alice-app"), is(3L));
+        assertThat(count(jobs, "bob-app"), is(1L));
+    }
+
+    @Test
+    public void quota() throws Exception {
+        FairShare share = new FairShare(setUp("retz.quota.user.running = 3\nretz.quota.app.running.alice-app = 1\n"));
+        List<Job> jobs = share.choose(8, 1024, 0, 0, 100);
+        assertThat(count(jobs, "alice-app"), is(1L));
+        assertThat(count(jobs, "bob-app"), is(3L));
+    }
+}
@@ -17,8 +17,8 @@
 package io.github.retz.scheduler;
 
 import io.github.retz.cli.FileConfiguration;
-import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
+import io.github.retz.protocol.ListJobRequest;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.MesosContainer;
@@ -29,8 +29,12 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -45,6 +49,7 @@ public class JobQueueTest {
 
         ServerConfiguration config = new ServerConfiguration(in);
         Database.getInstance().getInstance().init(config);
+        JobQueue.rebuild();
     }
     @After
     public void after() throws Exception {
@@ -59,7 +64,7 @@ public class JobQueueTest {
                 Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
         Applications.load(app);
         Job job = new Job("a", "b", null, 1000, 100000000);
-        job.schedule(0, TimestampHelper.now());
+        job.schedule(0, System.currentTimeMillis());
         JobQueue.push(job);
         {
             List<Job> job2 = JobQueue.findFit(1001, 100000001);
@@ -87,4 +92,241 @@ public class JobQueueTest {
         assertEquals(1, JobQueue.size());
         assertEquals(1, JobQueue.countRunning());
     }
+
+    @Test
+    public void index() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        for (int i = 0; i < 4; ++i) {
+            Job job = new Job("a", "b" + i, null, 1, 32, 0, 2);
+            job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+            JobQueue.push(job);
+        }
+        assertEquals(4, JobQueue.countQueued());
+        assertEquals(2, JobQueue.findFit(2, 1000).size());
+        assertEquals(1, JobQueue.findFit(100, 1000, 0, 3).size());
+
+        // Index must survive reload from database
+        JobQueue.rebuild();
+        assertEquals(4, JobQueue.countQueued());
+        List<Job> queued = JobQueue.queued(2);
+        assertEquals(2, queued.size());
+        assertTrue(queued.get(0).id() < queued.get(1).id());
+
+        JobQueue.starting(queued.get(0), Optional.empty(), "foobar-taskid-index");
+        assertEquals(3, JobQueue.countQueued());
+        // Also indexed by application
+        assertEquals(1, JobQueue.queuedByApp().size());
+        assertEquals(3, JobQueue.queuedByApp().get("a").size());
+        assertThat(JobQueue.queuedByApp().get("a").firstEntry().getValue().id(), is(queued.get(1).id()));
+        assertThat(JobQueue.queued(1).get(0).id(), is(queued.get(1).id()));
+    }
+
+    @Test
+    public void startingCancelled() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        Job job = new Job("a", "b", null, 1, 32);
+        job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+        JobQueue.push(job);
+        Job queued = JobQueue.queued(1).get(0);
+
+        // Cancelled in database after chosen, before written as STARTING
+        Database.getJobStore().updateJob(job.id(), j -> {
+            j.killed(System.currentTimeMillis(), Optional.empty(), "test");
+            return Optional.of(j);
+        });
+        assertFalse(JobQueue.starting(queued, Optional.empty(), "foobar-taskid-cancelled"));
+        assertEquals(0, JobQueue.countQueued());
+        assertFalse(Database.getJobStore().getJobFromTaskId("foobar-taskid-cancelled").isPresent());
+        assertEquals(0, JobQueue.countRunning());
+    }
+
+    @Test
+    public void priority() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        long now = System.currentTimeMillis();
+        // Scheduled 3 minutes ago with priority 0, and just now with priority 2 and 5
+        int[] priorities = {0, 2, 5};
+        long[] ages = {180000, 0, 0};
+        for (int i = 0; i < 3; ++i) {
+            Job job = new Job("a", "p" + i, null, 1, 32);
+            job.schedule(JobQueue.issueJobId(), now - ages[i]);
+            job.setPriority(priorities[i]);
+            JobQueue.push(job);
+        }
+        try {
+            // One priority for each minute waited
+            JobQueue.setAgingInterval(60000);
+            JobQueue.rebuild();
+            List<String> cmds = JobQueue.queued(3).stream().map(Job::cmd).collect(Collectors.toList());
+            assertEquals(Arrays.asList("p2", "p0", "p1"), cmds);
+
+            // Without aging, strictly by priority
+            JobQueue.setAgingInterval(0);
+            JobQueue.rebuild();
+            cmds = JobQueue.queued(3).stream().map(Job::cmd).collect(Collectors.toList());
+            assertEquals(Arrays.asList("p2", "p1", "p0"), cmds);
+
+            // Changed in place
+            int id = JobQueue.queued(3).get(2).id();
+            assertTrue(JobQueue.setPriority(id, 9).isPresent());
+            assertThat(JobQueue.queued(1).get(0).id(), is(id));
+            assertEquals(3, JobQueue.countQueued());
+        } finally {
+            JobQueue.setAgingInterval(Long.parseLong(ServerConfiguration.DEFAULT_PRIORITY_AGING));
+        }
+    }
+
+    @Test
+    public void array() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        Job array = new Job("a", "echo $RETZ_ARRAY_INDEX", null, 1, 32);
+        array.setArraySize(5);
+        array.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+        JobQueue.push(array);
+        // Only as a template out of the queue
+        assertEquals(0, JobQueue.countQueued());
+
+        assertEquals(2, JobQueue.expandArrays(2, 1000, 100));
+        List<Job> tasks = JobQueue.queued(10);
+        assertEquals(Arrays.asList(0, 1), tasks.stream().map(Job::arrayIndex).collect(Collectors.toList()));
+        // Tasks queued already fill the resources
+        assertEquals(0, JobQueue.expandArrays(2, 1000, 100));
+
+        JobQueue.starting(tasks.get(0), Optional.empty(), "array-task-0");
+        assertEquals(1, JobQueue.expandArrays(2, 1000, 100));
+        assertEquals(2, JobQueue.queued(10).get(1).arrayIndex());
+        // Slots limit as well
+        assertEquals(0, JobQueue.expandArrays(10, 1000, 2));
+        assertEquals(2, JobQueue.expandArrays(10, 1000, 100));
+        assertEquals(Job.JobState.EXPANDED, JobQueue.getJob(array.id()).get().state());
+        assertEquals(0, JobQueue.expandArrays(10, 1000, 100));
+
+        // Cancelling the array cancels tasks still queued
+        JobQueue.cancel(array.id(), "array test");
+        assertEquals(0, JobQueue.countQueued());
+        Map<Job.JobState, Integer> counts = JobQueue.countArray(array.id());
+        assertEquals(4, (int) counts.get(Job.JobState.KILLED));
+        assertEquals(1, (int) counts.get(Job.JobState.STARTING));
+    }
+
+    @Test
+    public void running() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        for (int i = 0; i < 2; ++i) {
+            Job job = new Job("a", "r" + i, null, 2, 64);
+            job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+            JobQueue.push(job);
+        }
+        List<Job> queued = JobQueue.queued(2);
+        JobQueue.starting(queued.get(0), Optional.empty(), "running-0");
+        JobQueue.starting(queued.get(1), Optional.empty(), "running-1");
+        assertEquals(2, JobQueue.countRunning());
+        assertEquals(4, JobQueue.runningByApp().get("a").cpu());
+
+        // Counters must survive reload from database
+        JobQueue.rebuild();
+        assertEquals(2, JobQueue.countRunning());
+
+        JobQueue.finished("running-0", Optional.empty(), 0, System.currentTimeMillis());
+        assertEquals(1, JobQueue.countRunning());
+        assertEquals(64, JobQueue.runningByApp().get("a").memMB());
+        JobQueue.failed("running-1", Optional.empty(), "failed");
+        assertEquals(0, JobQueue.countRunning());
+        assertFalse(JobQueue.runningByApp().containsKey("a"));
+    }
+
+    @Test
+    public void restoreAll() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        Job job = new Job("a", "b", null, 1, 32);
+        job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+        JobQueue.push(job);
+
+        // Made STARTING on memory by a planner, and then the pass failed
+        Job planned = JobQueue.queued(1).get(0);
+        planned.starting("foobar-taskid-planned", Optional.empty(), System.currentTimeMillis());
+        assertTrue(JobQueue.queued(1).isEmpty());
+        JobQueue.restoreAll(Arrays.asList(planned));
+        assertEquals(job.id(), JobQueue.queued(1).get(0).id());
+        assertEquals(Job.JobState.QUEUED, JobQueue.queued(1).get(0).state());
+    }
+
+    @Test
+    public void watch() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        Job job = new Job("a", "b", null, 1, 32);
+        job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+        JobQueue.push(job);
+
+        // Watches of jobs absent or never changed are removed when waiters are done
+        CompletableFuture<Job> absent = JobWatch.next(-1);
+        JobWatch.done(-1, absent);
+        assertEquals(0, JobWatch.size());
+
+        CompletableFuture<Job> first = JobWatch.next(job.id());
+        CompletableFuture<Job> second = JobWatch.next(job.id());
+        assertTrue(first == second);
+        JobWatch.done(job.id(), first);
+        assertEquals(1, JobWatch.size());
+
+        JobQueue.cancel(job.id(), "watch test");
+        assertEquals(Job.JobState.KILLED, second.get().state());
+        assertEquals(0, JobWatch.size());
+        // Done after the change leaves nothing either
+        JobWatch.done(job.id(), second);
+        assertEquals(0, JobWatch.size());
+    }
+
+    @Test
+    public void compact() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+        List<Integer> ids = new LinkedList<>();
+        for (int i = 0; i < 5; ++i) {
+            Job job = new Job("a", "c" + i, null, 1, 32);
+            job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+            JobQueue.push(job);
+            ids.add(job.id());
+        }
+        for (int i = 0; i < 3; ++i) {
+            JobQueue.cancel(ids.get(i), "compact test");
+        }
+        Thread.sleep(10); // Make them older than retention 0
+
+        JobCompactor compactor = new JobCompactor(0, 0, 2);
+        assertEquals(3, compactor.compact());
+        assertEquals(0, compactor.compact());
+        assertEquals(3L, compactor.status().get("totalArchived"));
+        assertEquals(2, JobQueue.size());
+        assertEquals(2, JobQueue.countQueued());
+        assertEquals(3, Database.getInstance().countArchivedJobs());
+
+        // Archived jobs are still found
+        assertEquals(Job.JobState.KILLED, JobQueue.getJob(ids.get(0)).get().state());
+        List<Job> list = JobQueue.list("deadbeef", new ListJobRequest(64), 64);
+        assertEquals(5, list.size());
+        assertEquals(ids.get(4).intValue(), list.get(0).id());
+        ListJobRequest killed = new ListJobRequest(2, 0, 0, Optional.of(Job.JobState.KILLED),
+                Optional.empty(), Optional.empty(), Optional.empty());
+        assertEquals(Arrays.asList(ids.get(2), ids.get(1)),
+                JobQueue.list("deadbeef", killed, 2).stream().map(Job::id).collect(Collectors.toList()));
+
+        // Ids of archived jobs are never reused
+        assertTrue(Database.getInstance().getLatestJobId() >= ids.get(4));
+    }
 }
@@ -40,7 +40,12 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
     List<Protos.OfferID> declined;
 
     List<Protos.OfferID> accepted;
+    int acceptCalls;
+    int suppressCalls;
+    int reviveCalls;
+    Protos.Filters declineFilters;
     List<Protos.TaskInfo> tasks;
+    List<Protos.TaskStatus> acknowledged;
 
 //    List<Protos.Resource> reserved;
 //    List<Protos.Resource> volumes;
@@ -75,6 +80,7 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         declined = new LinkedList<>();
         accepted = new LinkedList<>();
         tasks = new LinkedList<>();
+        acknowledged = new LinkedList<>();
     }
 
     public Protos.Status start() {
@@ -150,50 +156,20 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
     public Protos.Status acceptOffers(Collection<Protos.OfferID> offerIds,
                                       Collection<Protos.Offer.Operation> operations,
                                       Protos.Filters filters) {
-        // Shouldn't be used
-        throw new UnknownError();
-//        this.accepted.addAll(offerIds);
-//        for (Protos.OfferID id : offerIds) {
-//            Protos.Offer.Builder ob = offers.get(id).toBuilder();
-//
-//
-//            for (Protos.Offer.Operation op : operations) {
-//                switch (op.getType().getNumber()) {
-//                    case Protos.Offer.Operation.Type.LAUNCH_VALUE: {
-//                        tasks.addAll(op.getLaunch().getTaskInfosList());
-//                        break;
-//                    }
-//                    case Protos.Offer.Operation.Type.RESERVE_VALUE: {
-//                        // TODO: aggregate against same principal/roles
-//                        reserved.addAll(op.getReserve().getResourcesList());
-//                        break;
-//                    }
-//                    case Protos.Offer.Operation.Type.CREATE_VALUE: {
-//                        volumes.addAll(op.getCreate().getVolumesList());
-//                        break;
-//                    }
-//                    case Protos.Offer.Operation.Type.DESTROY_VALUE: {
-//                        for (Protos.Resource r : op.getDestroy().getVolumesList()) {
-//                            volumes.remove(r);
-//                        }
-//                        break;
-//                    }
-//                    case Protos.Offer.Operation.Type.UNRESERVE_VALUE: {
-//                        for (Protos.Resource r : op.getUnreserve().getResourcesList()) {
-//                            reserved.remove(r);
-//                        }
-//                        break;
-//                    }
-//                    default:
-//                        fail();
-//                }
-//            }
-//        }
-//        return Protos.Status.DRIVER_RUNNING;
+        // Record offers accepted and tasks launched
+        acceptCalls++;
+        accepted.addAll(offerIds);
+        for (Protos.Offer.Operation op : operations) {
+            if (op.getType() == Protos.Offer.Operation.Type.LAUNCH) {
+                tasks.addAll(op.getLaunch().getTaskInfosList());
+            }
+        }
+        return Protos.Status.DRIVER_RUNNING;
     }
 
     public Protos.Status declineOffer(Protos.OfferID offerID, Protos.Filters filters) {
         declined.add(offerID);
+        declineFilters = filters;
         return Protos.Status.DRIVER_RUNNING;
     }
 
@@ -203,14 +179,17 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
     }
 
     public Protos.Status reviveOffers() {
+        reviveCalls++;
         return Protos.Status.DRIVER_RUNNING;
     }
 
     public Protos.Status suppressOffers() {
+        suppressCalls++;
         return Protos.Status.DRIVER_RUNNING;
     }
 
     public Protos.Status acknowledgeStatusUpdate(Protos.TaskStatus status) {
+        acknowledged.add(status);
         return Protos.Status.DRIVER_RUNNING;
     }
 
@@ -240,14 +219,39 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         return accepted;
     }
 
+    public int getAcceptCalls() {
+        return acceptCalls;
+    }
+
+    public int getSuppressCalls() {
+        return suppressCalls;
+    }
+
+    public int getReviveCalls() {
+        return reviveCalls;
+    }
+
+    public Protos.Filters getDeclineFilters() {
+        return declineFilters;
+    }
+
     public List<Protos.TaskInfo> getTasks() {
         return tasks;
     }
 
+    public List<Protos.TaskStatus> getAcknowledged() {
+        return acknowledged;
+    }
+
     public void clear() {
         declined.clear();
         accepted.clear();
+        acceptCalls = 0;
+        suppressCalls = 0;
+        reviveCalls = 0;
+        declineFilters = null;
         tasks.clear();
+        acknowledged.clear();
     }
 
     public void dummyTaskStarted() {
@@ -0,0 +1,106 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Range;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfferBookTest {
+    private Protos.FrameworkID fid;
+    private OfferBook book;
+
+    @Before
+    public void before() {
+        fid = Protos.FrameworkID.newBuilder().setValue("dummy-frameworkid-offerbook").build();
+        book = new OfferBook();
+    }
+
+    private Protos.Offer offer(String agent, String id, int cpus, int mem, int portMin, int portMax) {
+        Resource resource = new Resource(cpus, mem, 0, 0, Arrays.asList(new Range(portMin, portMax)));
+        return RetzSchedulerTest.buildOffer(fid, id, cpus, mem).toBuilder()
+                .clearResources().addAllResources(resource.construct())
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(agent).build())
+                .build();
+    }
+
+    @Test
+    public void merge() {
+        book.add(Arrays.asList(offer("agent-1", "a", 2, 128, 32000, 32009),
+                offer("agent-2", "b", 4, 512, 31000, 31009),
+                offer("agent-1", "c", 2, 256, 31000, 31009)));
+        assertEquals(3, book.size());
+
+        OfferBook.Taken taken = book.take();
+        assertEquals(0, book.size());
+        assertEquals(2, taken.offers().size());
+
+        Protos.Offer merged = taken.offers().get(0);
+        assertEquals("a", merged.getId().getValue());
+        Resource resource = ResourceConstructor.decode(merged.getResourcesList());
+        assertEquals(4, resource.cpu(), 0.0);
+        assertEquals(384, resource.memMB());
+        assertEquals(20, resource.portAmount());
+        // Lower ports first
+        assertEquals(31000, resource.ports().get(0).getMin());
+
+        // Offer of a single agent is planned as is
+        assertEquals(taken.offers().get(1), offer("agent-2", "b", 4, 512, 31000, 31009));
+
+        book.putBack(taken);
+        assertEquals(3, book.size());
+        // Taken offers go back only once, not after taken again for another pass
+        OfferBook.Taken again = book.take();
+        book.putBack(taken);
+        assertEquals(0, book.size());
+        book.putBack(again);
+        assertEquals(3, book.size());
+
+        Map<String, Object> status = book.status();
+        assertEquals(3L, status.get("received"));
+        assertEquals(1L, status.get("merged"));
+        assertEquals(8.0, status.get("cpuOffered"));
+    }
+
+    @Test
+    public void filters() {
+        assertEquals(30.0, OfferBook.filters(0, 1, 30).getRefuseSeconds(), 0.001);
+        assertEquals(10.0, OfferBook.filters(2, 1, 30).getRefuseSeconds(), 0.001);
+        assertEquals(1.0, OfferBook.filters(100, 1, 30).getRefuseSeconds(), 0.001);
+        assertEquals(5.0, OfferBook.filters(0, 5, 5).getRefuseSeconds(), 0.001);
+    }
+
+    @Test
+    public void rescind() {
+        book.add(Arrays.asList(offer("agent-1", "a", 2, 128, 32000, 32009),
+                offer("agent-1", "b", 2, 128, 31000, 31009)));
+        assertTrue(book.rescind(Protos.OfferID.newBuilder().setValue("a").build()));
+        assertFalse(book.rescind(Protos.OfferID.newBuilder().setValue("a").build()));
+        assertEquals(1, book.size());
+        assertTrue(book.rescind(Protos.OfferID.newBuilder().setValue("b").build()));
+        assertEquals(0, book.offers().size());
+        assertEquals(0, book.status().get("agents"));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import ch.qos.logback.classic.Level;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+// Compares planners with synthetic offers and jobs, reporting resource utilisation
+// and planning time. Run by './gradlew :retz-server:benchPlanner [-Pargs=<iterations>]'
+public class PlannerBenchmark {
+    private static final Application APP = new Application("bench", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+            Optional.empty(), Optional.empty(), "bench", new MesosContainer(), true);
+    private static final Protos.FrameworkID FID = Protos.FrameworkID.newBuilder().setValue("bench").build();
+
+    // cpus, memMB and ports of each job kind, and its weight in the mix
+    private static final int[][] UNIFORM = {{2, 2048, 0, 1}};
+    private static final int[][] MIXED = {{1, 512, 0, 6}, {4, 4096, 1, 3}, {8, 16384, 0, 1}};
+    private static final int[][] MEMORY_HEAVY = {{1, 8192, 0, 2}, {4, 1024, 2, 1}, {16, 32768, 0, 1}};
+
+    public static void main(String... argv) {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        int iterations = argv.length > 0 ? Integer.parseInt(argv[0]) : 100;
+
+        Map<String, int[][]> mixes = new LinkedHashMap<>();
+        mixes.put("uniform", UNIFORM);
+        mixes.put("mixed", MIXED);
+        mixes.put("memory-heavy", MEMORY_HEAVY);
+
+        Map<String, Planner> planners = new LinkedHashMap<>();
+        planners.put("naive", PlannerFactory.create(PlannerFactory.NAIVE, false));
+        planners.put("bestfit", PlannerFactory.create(PlannerFactory.BESTFIT, false));
+        planners.put("bestfit+backfill", PlannerFactory.create(PlannerFactory.BESTFIT, true));
+
+        System.out.println("mix,agents,queue,planner,launched,cpu_util,mem_util,median_us,p99_us");
+        for (Map.Entry<String, int[][]> mix : mixes.entrySet()) {
+            for (int agents : new int[]{16, 64, 256}) {
+                int queue = agents * 8;
+                for (Map.Entry<String, Planner> planner : planners.entrySet()) {
+                    run(mix.getKey(), mix.getValue(), agents, queue, planner.getKey(), planner.getValue(), iterations);
+                }
+            }
+        }
+    }
+
+    private static void run(String mixName, int[][] mix, int agents, int queue,
+                            String name, Planner planner, int iterations) {
+        long[] elapsed = new long[iterations];
+        Plan plan = null;
+        List<Protos.Offer> offers = offers(agents, new Random(agents));
+        for (int i = 0; i < iterations; ++i) {
+            // Jobs are marked STARTING by planning, so build them every time
+            List<AppJobPair> jobs = fit(offers, jobs(mix, queue, new Random(queue)));
+            long start = System.nanoTime();
+            plan = planner.plan(offers, jobs, 0);
+            elapsed[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(elapsed);
+
+        double cpus = 0, memMB = 0;
+        for (Protos.Offer offer : offers) {
+            Resource r = ResourceConstructor.decode(offer.getResourcesList());
+            cpus += r.cpu();
+            memMB += r.memMB();
+        }
+        double usedCpus = plan.getToBeLaunched().stream().mapToInt(Job::cpu).sum();
+        double usedMemMB = plan.getToBeLaunched().stream().mapToInt(Job::memMB).sum();
+        System.out.println(String.format("%s,%d,%d,%s,%d,%.3f,%.3f,%d,%d",
+                mixName, agents, queue, name, plan.getToBeLaunched().size(),
+                usedCpus / cpus, usedMemMB / memMB,
+                elapsed[iterations / 2] / 1000, elapsed[iterations * 99 / 100] / 1000));
+    }
+
+    // Heterogeneous agents: cpu-rich and memory-rich ones, with a port range each
+    private static List<Protos.Offer> offers(int agents, Random random) {
+        List<Protos.Offer> offers = new ArrayList<>(agents);
+        for (int i = 0; i < agents; ++i) {
+            int cpus = 8 << random.nextInt(3);
+            int memMB = cpus * (random.nextBoolean() ? 2048 : 8192);
+            List<Protos.Resource> resources = ResourceConstructor.construct(cpus, memMB);
+            resources.add(Protos.Resource.newBuilder()
+                    .setName("ports")
+                    .setRanges(Protos.Value.Ranges.newBuilder().addRange(
+                            Protos.Value.Range.newBuilder().setBegin(31000).setEnd(31000 + cpus - 1)))
+                    .setType(Protos.Value.Type.RANGES)
+                    .build());
+            offers.add(Protos.Offer.newBuilder()
+                    .addAllResources(resources)
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + i))
+                    .setFrameworkId(FID)
+                    .setHostname("agent-" + i)
+                    .setId(Protos.OfferID.newBuilder().setValue("offer-" + i))
+                    .build());
+        }
+        return offers;
+    }
+
+    private static List<AppJobPair> jobs(int[][] mix, int queue, Random random) {
+        int weights = Arrays.stream(mix).mapToInt(kind -> kind[3]).sum();
+        List<AppJobPair> jobs = new ArrayList<>(queue);
+        for (int i = 0; i < queue; ++i) {
+            int w = random.nextInt(weights);
+            int[] kind = mix[0];
+            for (int[] k : mix) {
+                kind = k;
+                w -= k[3];
+                if (w < 0) {
+                    break;
+                }
+            }
+            Job job = new Job(APP.getAppid(), "cmd", new Properties(), kind[0], kind[1], 0, kind[2]);
+            job.schedule(i, System.currentTimeMillis());
+            jobs.add(new AppJobPair(Optional.of(APP), job));
+        }
+        return jobs;
+    }
+
+    // Same as JobQueue.findFit: head of the queue whose total fits the total offers
+    private static List<AppJobPair> fit(List<Protos.Offer> offers, List<AppJobPair> jobs) {
+        Resource total = new Resource(0, 0, 0);
+        for (Protos.Offer offer : offers) {
+            total.add(ResourceConstructor.decode(offer.getResourcesList()));
+        }
+        List<AppJobPair> ret = new LinkedList<>();
+        int cpu = 0, memMB = 0, ports = 0;
+        for (AppJobPair appJob : jobs) {
+            Job job = appJob.job();
+            if (cpu + job.cpu() > total.cpu() || memMB + job.memMB() > total.memMB()
+                    || ports + job.ports() > total.portAmount()) {
+                break;
+            }
+            cpu += job.cpu();
+            memMB += job.memMB();
+            ports += job.ports();
+            ret.add(appJob);
+        }
+        return ret;
+    }
+}
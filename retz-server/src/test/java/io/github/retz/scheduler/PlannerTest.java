@@ -17,7 +17,6 @@
 package io.github.retz.scheduler;
 
 import io.github.retz.cli.FileConfiguration;
-import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
@@ -31,17 +30,22 @@ import java.io.InputStream;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class PlannerTest {
     private Planner planner;
-    private Protos.FrameworkID fid;
+    Protos.FrameworkID fid;
 
-    private static final String ANON_APPID = "anon";
+    static final String ANON_APPID = "anon";
+
+    Planner newPlanner() {
+        return new NaivePlanner();
+    }
 
 
     @Before
     public void before() throws Exception {
-        planner = (Planner)new NaivePlanner();
+        planner = newPlanner();
         fid = Protos.FrameworkID.newBuilder().setValue("dummy-frameworkid-qwerty").build();
         InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
         Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(in));
@@ -104,7 +108,7 @@ public class PlannerTest {
             String uuid = UUID.randomUUID().toString();
             offers.add(RetzSchedulerTest.buildOffer(fid, uuid, 16, 512));
             Job job =  new Job(ANON_APPID, "cmd", new Properties(), 16, 512);
-            job.schedule(i, TimestampHelper.now());
+            job.schedule(i, System.currentTimeMillis());
             jobs.add(new AppJobPair(app,job));
         }
         Plan p = planner.plan(offers, jobs, 0);
@@ -124,6 +128,30 @@ public class PlannerTest {
         assertEquals(0, p.getToStock().size());
     }
 
+    @Test
+    public void drop() {
+        Optional<Application> app = Applications.get(ANON_APPID);
+        List<Protos.Offer> offers = new LinkedList<>();
+        offers.add(RetzSchedulerTest.buildOffer(fid, "offer", 16, 512));
+        List<AppJobPair> jobs = new LinkedList<>();
+        for (int i = 0; i < 2; ++i) {
+            Job job = new Job(ANON_APPID, "cmd", new Properties(), 4, 128);
+            job.schedule(i, System.currentTimeMillis());
+            jobs.add(new AppJobPair(app, job));
+        }
+        Plan p = planner.plan(offers, jobs, 0);
+        assertEquals(2, p.getToBeLaunched().size());
+
+        Job dropped = p.getToBeLaunched().get(0);
+        p.drop(dropped);
+        assertEquals(1, p.getToBeLaunched().size());
+        assertEquals(1, p.getToBeLaunched().get(0).id());
+        long tasks = p.getOperations().stream().mapToInt(op -> op.getLaunch().getTaskInfosCount()).sum();
+        assertEquals(1, tasks);
+        assertFalse(p.getOperations().stream().flatMap(op -> op.getLaunch().getTaskInfosList().stream())
+                .anyMatch(task -> task.getTaskId().getValue().equals(dropped.taskId())));
+    }
+
     @Test
     public void eightJobs() {
         Optional<Application> app = Applications.get(ANON_APPID);
@@ -137,7 +165,7 @@ public class PlannerTest {
             }
             for (int i = 0; i < 8; ++i) {
                 Job job = new Job("boom", "cmd", new Properties(), 4, 128);
-                job.schedule(i, TimestampHelper.now());
+                job.schedule(i, System.currentTimeMillis());
                 jobs.add(new AppJobPair(app, job));
 
             }
@@ -166,7 +194,7 @@ public class PlannerTest {
             }
             for (int i = 0; i < 8; ++i) {
                 Job job = new Job("boom", "cmd", new Properties(), 4, 128);
-                job.schedule(i, TimestampHelper.now());
+                job.schedule(i, System.currentTimeMillis());
                 jobs.add(new AppJobPair(app, job));
 
             }
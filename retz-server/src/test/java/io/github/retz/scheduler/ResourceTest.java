@@ -20,6 +20,7 @@ import io.github.retz.protocol.data.Range;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -41,4 +42,17 @@ public class ResourceTest {
             assertEquals(1, cut.portAmount());
         }
     }
+
+    @Test
+    public void addTest() {
+        // Different agents offer the same port range
+        Resource total = new Resource(0, 0, 0, 0, new LinkedList<>());
+        for (int i = 0; i < 2; ++i) {
+            total.add(new Resource(2, 64, 0, 1, new LinkedList<>(Arrays.asList(new Range(31000, 31099)))));
+        }
+        assertEquals(4, total.cpu(), 0.0);
+        assertEquals(128, total.memMB());
+        assertEquals(2, total.gpu());
+        assertEquals(200, total.portAmount());
+    }
 }
@@ -0,0 +1,121 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import com.google.protobuf.ByteString;
+import io.github.retz.db.Database;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.apache.mesos.Protos;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class StatusUpdatePipelineTest {
+    MesosSchedulerDummyDriver driver;
+
+    @Before
+    public void before() throws Exception {
+        InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
+        Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(in));
+        Database.getInstance().init(conf.getServerConfig());
+        JobQueue.rebuild();
+
+        Protos.FrameworkInfo frameworkInfo = Protos.FrameworkInfo.newBuilder()
+                .setUser("")
+                .setName(RetzScheduler.FRAMEWORK_NAME)
+                .build();
+        driver = new MesosSchedulerDummyDriver(new RetzScheduler(conf, frameworkInfo), frameworkInfo, conf.getMesosMaster());
+    }
+
+    @After
+    public void after() {
+        Database.getInstance().deleteAllJob(Integer.MAX_VALUE);
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        Application app = new Application("a", Arrays.asList(), Arrays.asList(), Arrays.asList(),
+                Optional.empty(), Optional.empty(), "deadbeef", new MesosContainer(), true);
+        Applications.load(app);
+
+        int jobs = 16;
+        for (int i = 0; i < jobs; ++i) {
+            Job job = new Job("a", "b", null, 1, 32);
+            job.schedule(JobQueue.issueJobId(), System.currentTimeMillis());
+            JobQueue.push(job);
+            JobQueue.starting(job, Optional.empty(), "task-" + i);
+        }
+
+        // No HTTP access to Mesos in transitions
+        StatusUpdatePipeline pipeline = new StatusUpdatePipeline(status -> {
+            String taskId = status.getTaskId().getValue();
+            switch (status.getState()) {
+                case TASK_RUNNING:
+                    return Optional.of(JobQueue.toStarted(taskId, Optional.empty()));
+                case TASK_FINISHED:
+                    return Optional.of(JobQueue.toFinished(Optional.empty(), 0, System.currentTimeMillis()));
+                default:
+                    return Optional.empty();
+            }
+        }, 1024, 1024, 1000);
+
+        for (int i = 0; i < jobs; ++i) {
+            assertThat(pipeline.offer(driver, status("task-" + i, Protos.TaskState.TASK_RUNNING)), is(true));
+            assertThat(pipeline.offer(driver, status("task-" + i, Protos.TaskState.TASK_FINISHED)), is(true));
+        }
+        pipeline.start();
+        pipeline.stop();
+
+        assertThat(driver.getAcknowledged().size(), is(jobs * 2));
+        for (int i = 0; i < jobs; ++i) {
+            Job job = JobQueue.getFromTaskId("task-" + i).get();
+            assertThat(job.state(), is(Job.JobState.FINISHED));
+            assertThat(job.result(), is(0));
+        }
+        assertThat(JobQueue.countRunning(), is(0));
+    }
+
+    @Test
+    public void full() {
+        StatusUpdatePipeline pipeline = new StatusUpdatePipeline(status -> Optional.empty(), 1, 1, 1000);
+        assertThat(pipeline.offer(driver, status("task-0", Protos.TaskState.TASK_RUNNING)), is(true));
+        // Must not block, but left unacknowledged
+        assertThat(pipeline.offer(driver, status("task-1", Protos.TaskState.TASK_RUNNING)), is(false));
+        pipeline.start();
+        pipeline.stop();
+        assertThat(driver.getAcknowledged().size(), is(1));
+    }
+
+    private static Protos.TaskStatus status(String taskId, Protos.TaskState state) {
+        return Protos.TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue(taskId))
+                .setState(state)
+                .setUuid(ByteString.copyFromUtf8(taskId + state.name()))
+                .build();
+    }
+}
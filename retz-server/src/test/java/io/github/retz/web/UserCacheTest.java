@@ -0,0 +1,97 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.web;
+
+import io.github.retz.auth.Authenticator;
+import io.github.retz.db.Database;
+import io.github.retz.protocol.data.User;
+import io.github.retz.scheduler.AdminConsole;
+import io.github.retz.scheduler.Launcher;
+import io.github.retz.scheduler.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class UserCacheTest {
+
+    @Before
+    public void before() throws Exception {
+        InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
+        Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(in));
+        Database.getInstance().init(conf.getServerConfig());
+        UserCache.configure(1024, 60000);
+    }
+
+    @After
+    public void after() {
+        UserCache.clear();
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        User user = Database.getInstance().createUser();
+        Optional<Authenticator> a = UserCache.get(user.keyId());
+        assertTrue(a.isPresent());
+        assertTrue(a.get().matches(user.keyId(), user.secret()));
+        assertSame(a.get(), UserCache.get(user.keyId()).get());
+        assertEquals(1, UserCache.size());
+
+        // Changed behind the cache
+        assertTrue(Database.getInstance().enableUser(user.keyId(), false));
+        assertTrue(UserCache.get(user.keyId()).isPresent());
+
+        UserCache.invalidate(user.keyId());
+        assertFalse(UserCache.get(user.keyId()).isPresent());
+
+        AdminConsole console = new AdminConsole();
+        assertTrue(console.enableUser(user.keyId(), true));
+        assertTrue(UserCache.get(user.keyId()).isPresent());
+        assertTrue(console.enableUser(user.keyId(), false));
+        assertFalse(UserCache.get(user.keyId()).isPresent());
+
+        assertFalse(UserCache.get("no-such-user").isPresent());
+        assertFalse(console.enableUser("no-such-user", true));
+    }
+
+    @Test
+    public void expire() throws Exception {
+        UserCache.configure(1024, 0);
+        User user = Database.getInstance().createUser();
+        Optional<Authenticator> a = UserCache.get(user.keyId());
+        assertTrue(a.isPresent());
+
+        Database.getInstance().enableUser(user.keyId(), false);
+        assertFalse(UserCache.get(user.keyId()).isPresent());
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        UserCache.configure(2, 60000);
+        for (int i = 0; i < 8; ++i) {
+            User user = Database.getInstance().createUser();
+            assertTrue(UserCache.get(user.keyId()).isPresent());
+            assertTrue(UserCache.size() <= 2);
+        }
+    }
+}
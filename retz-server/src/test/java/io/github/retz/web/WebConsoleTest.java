@@ -38,6 +38,9 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -81,6 +84,7 @@ public class WebConsoleTest {
         awaitInitialization();
 
         Database.getInstance().init(config);
+        JobQueue.rebuild();
 
         cliConfig = new ClientCLIConfig("src/test/resources/retz-tls-client.properties");
         System.err.println(config.authenticationEnabled());
@@ -237,6 +241,190 @@ public class WebConsoleTest {
         }
     }
 
+    @Test
+    public void longPoll() throws Exception {
+        Application app = new Application("longpoll", new LinkedList<>(), new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), Optional.empty(), config.getUser().keyId(), new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+        ScheduleResponse sres = (ScheduleResponse) webClient.schedule(new Job("longpoll", "sleep 1", null, 1, 32));
+        int id = sres.job().id();
+
+        {
+            // Nothing happens; returns the job as is after the wait
+            long start = System.currentTimeMillis();
+            GetJobResponse res = (GetJobResponse) webClient.getJob(id, Job.JobState.QUEUED, 1);
+            assertThat(res.job().get().state(), is(Job.JobState.QUEUED));
+            assertThat(System.currentTimeMillis() - start, is(greaterThanOrEqualTo(1000L)));
+        }
+        {
+            // State already differs; returns immediately
+            long start = System.currentTimeMillis();
+            GetJobResponse res = (GetJobResponse) webClient.getJob(id, Job.JobState.STARTED, 10);
+            assertThat(res.job().get().state(), is(Job.JobState.QUEUED));
+            assertThat(System.currentTimeMillis() - start, is(lessThan(5000L)));
+        }
+        {
+            Thread t = new Thread(() -> {
+                ClientHelper.maybeSleep(500);
+                JobQueue.starting(sres.job(), Optional.empty(), "longpoll-task");
+            });
+            t.start();
+            long start = System.currentTimeMillis();
+            GetJobResponse res = (GetJobResponse) webClient.getJob(id, Job.JobState.QUEUED, 10);
+            t.join();
+            assertThat(res.job().get().state(), is(Job.JobState.STARTING));
+            assertThat(System.currentTimeMillis() - start, is(lessThan(5000L)));
+        }
+        {
+            // Not yet started at Mesos, so no file; waits until timeout
+            GetFileResponse res = (GetFileResponse) webClient.getFile(id, "stdout", 0, 1024, 1);
+            assertFalse(res.file().isPresent());
+            assertThat(res.job().get().state(), is(Job.JobState.STARTING));
+        }
+    }
+
+    @Test
+    public void async() throws Exception {
+        Application app = new Application("async", new LinkedList<>(), new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), Optional.empty(), config.getUser().keyId(), new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+
+        List<CompletableFuture<Response>> futures = new LinkedList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(webClient.scheduleAsync(new Job("async", "echo " + i, null, 1, 32)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get();
+
+        Set<Integer> ids = new TreeSet<>();
+        for (CompletableFuture<Response> f : futures) {
+            assertThat(f.get(), instanceOf(ScheduleResponse.class));
+            ids.add(((ScheduleResponse) f.get()).job().id());
+        }
+        assertThat(ids.size(), is(32));
+
+        for (int id : ids) {
+            GetJobResponse res = (GetJobResponse) webClient.getJobAsync(id).get();
+            assertThat(res.job().get().id(), is(id));
+        }
+        Response res = webClient.getFileAsync(ids.iterator().next(), "stdout", 0, 1024).get();
+        assertThat(res, instanceOf(GetFileResponse.class));
+    }
+
+    @Test
+    public void scheduleAll() throws Exception {
+        Application app = new Application("batch", new LinkedList<>(), new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), Optional.empty(), config.getUser().keyId(), new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+
+        List<Job> jobs = new LinkedList<>();
+        for (int i = 0; i < 100; i++) {
+            jobs.add(new Job("batch", "echo " + i, null, 1, 32));
+        }
+        Response res = webClient.scheduleAll(jobs);
+        assertThat(res, instanceOf(ScheduleBatchResponse.class));
+        List<Job> scheduled = ((ScheduleBatchResponse) res).jobs();
+        assertThat(scheduled.size(), is(100));
+        for (int i = 0; i < 100; i++) {
+            // Ids are consecutive in the order of the request
+            assertThat(scheduled.get(i).id(), is(scheduled.get(0).id() + i));
+            assertThat(scheduled.get(i).cmd(), is("echo " + i));
+            assertThat(scheduled.get(i).state(), is(Job.JobState.QUEUED));
+        }
+        assertThat(JobQueue.countQueued(), is(100));
+
+        {
+            // All or nothing
+            List<Job> bad = Arrays.asList(new Job("batch", "echo", null, 1, 32),
+                    new Job("no-such-app", "echo", null, 1, 32));
+            assertThat(webClient.scheduleAll(bad), instanceOf(ErrorResponse.class));
+            assertThat(JobQueue.countQueued(), is(100));
+        }
+        assertThat(webClient.scheduleAll(new LinkedList<>()), instanceOf(ErrorResponse.class));
+    }
+
+    @Test
+    public void listPages() throws Exception {
+        Application app = new Application("pages", new LinkedList<>(), new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), Optional.empty(), config.getUser().keyId(), new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+        List<Job> jobs = new LinkedList<>();
+        for (int i = 0; i < 10; i++) {
+            jobs.add(new Job("pages", "echo " + i, null, 1, 32));
+        }
+        assertThat(webClient.scheduleAll(jobs), instanceOf(ScheduleBatchResponse.class));
+
+        Set<Integer> ids = new TreeSet<>();
+        int before = 0;
+        for (int i = 0; i < 3; i++) {
+            ListJobRequest req = new ListJobRequest(4, before, 0, Optional.of(Job.JobState.QUEUED),
+                    Optional.of("pages"), Optional.empty(), Optional.empty());
+            ListJobResponse res = (ListJobResponse) webClient.list(req);
+            assertThat(res.queue().size(), is(i < 2 ? 4 : 2));
+            for (Job job : res.queue()) {
+                ids.add(job.id());
+                before = (before == 0) ? job.id() : Math.min(before, job.id());
+            }
+        }
+        assertThat(ids.size(), is(10));
+
+        Response res = webClient.list(new ListJobRequest(4, 0, 0, Optional.empty(), Optional.of("no-such-app"),
+                Optional.empty(), Optional.empty()));
+        assertThat(((ListJobResponse) res).queue().size(), is(0));
+    }
+
+    @Test
+    public void setPriority() throws Exception {
+        Application app = new Application("prio", new LinkedList<>(), new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), Optional.empty(), config.getUser().keyId(), new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+        ScheduleResponse first = (ScheduleResponse) webClient.schedule(new Job("prio", "sleep 1", null, 1, 32));
+        ScheduleResponse second = (ScheduleResponse) webClient.schedule(new Job("prio", "sleep 2", null, 1, 32));
+        assertThat(JobQueue.queued(1).get(0).id(), is(first.job().id()));
+
+        Response res = webClient.setPriority(second.job().id(), 10);
+        assertThat(res, instanceOf(SetPriorityResponse.class));
+        assertThat(((SetPriorityResponse) res).job().priority(), is(10));
+        assertThat(JobQueue.queued(1).get(0).id(), is(second.job().id()));
+        assertThat(JobQueue.getJob(second.job().id()).get().priority(), is(10));
+
+        // Clamped to retz.priority.max
+        res = webClient.setPriority(second.job().id(), Integer.MAX_VALUE);
+        assertThat(((SetPriorityResponse) res).job().priority(), is(100));
+        Job urgent = new Job("prio", "sleep 3", null, 1, 32);
+        urgent.setPriority(1000);
+        res = webClient.scheduleAll(Arrays.asList(urgent));
+        assertThat(((ScheduleBatchResponse) res).jobs().get(0).priority(), is(100));
+        assertThat(JobQueue.getJob(((ScheduleBatchResponse) res).jobs().get(0).id()).get().priority(), is(100));
+
+        JobQueue.cancel(first.job().id(), "test");
+        assertThat(webClient.setPriority(first.job().id(), 10), instanceOf(ErrorResponse.class));
+        assertThat(webClient.setPriority(Integer.MAX_VALUE, 10), instanceOf(ErrorResponse.class));
+    }
+
+    @Test
+    public void array() throws Exception {
+        Application app = new Application("array", new LinkedList<>(), new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), Optional.empty(), config.getUser().keyId(), new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+        Job job = new Job("array", "echo $RETZ_ARRAY_INDEX", null, 1, 32);
+        job.setArraySize(1000);
+        ScheduleResponse scheduled = (ScheduleResponse) webClient.schedule(job);
+        assertThat(scheduled.job().arraySize(), is(1000));
+        assertThat(JobQueue.countQueued(), is(0));
+
+        JobQueue.expandArrays(3, 1024, 100);
+        Response res = webClient.getArray(scheduled.job().id());
+        assertThat(res, instanceOf(GetArrayResponse.class));
+        GetArrayResponse getArrayResponse = (GetArrayResponse) res;
+        assertThat(getArrayResponse.pending(), is(997));
+        assertThat(getArrayResponse.tasks().get(Job.JobState.QUEUED), is(3));
+        assertThat(getArrayResponse.archived(), is(0));
+
+        // Not an array, and tasks can't be scheduled directly
+        assertThat(webClient.getArray(JobQueue.queued(1).get(0).id()), instanceOf(ErrorResponse.class));
+        assertThat(webClient.schedule(JobQueue.queued(1).get(0)), instanceOf(ErrorResponse.class));
+    }
+
     @Test
     public void kill() throws Exception {
         Response res = webClient.kill(0);